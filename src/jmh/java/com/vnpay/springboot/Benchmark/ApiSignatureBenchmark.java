@@ -0,0 +1,115 @@
+package com.vnpay.springboot.Benchmark;
+
+import com.vnpay.springboot.Config.VNPayConfig;
+import com.vnpay.springboot.Config.VNPayResilienceProperties;
+import com.vnpay.springboot.Model.QueryDrResponse;
+import com.vnpay.springboot.Model.RefundResponse;
+import com.vnpay.springboot.Model.VNPayMerchant;
+import com.vnpay.springboot.Service.VNPayApiGuard;
+import com.vnpay.springboot.Service.VNPayIdGenerator;
+import com.vnpay.springboot.Service.VNPayMerchantRegistry;
+import com.vnpay.springboot.Service.VNPayMetrics;
+import com.vnpay.springboot.Service.VNPayQuery;
+import com.vnpay.springboot.Service.VNPayRefund;
+import com.vnpay.springboot.Util.VNPayResponseReader;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeStrategies;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chuỗi ký nối '|' của QueryDR/Refund: dựng + ký request, đọc + kiểm tra chữ ký phản hồi
+ * (dựng chuỗi hash data rồi ký và ký thẳng qua HmacInput).
+ * WebClient dùng ExchangeFunction giả trả phản hồi đã ký sẵn, nên không tính mạng.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ApiSignatureBenchmark {
+
+    private VNPayConfig config;
+    private VNPayMerchant merchant;
+    private VNPayQuery query;
+    private VNPayRefund refund;
+    private byte[] queryResponse;
+
+    @Setup
+    public void setup() {
+        config = BenchmarkFixtures.config();
+        String[] queryValues = {"a1b2c3d4", "querydr", "00", "QueryDR Success", BenchmarkFixtures.TMN_CODE,
+                "12345678", "10000000", "NCB", "20240101121500", "14226112", "01", "00",
+                "Thanh toan don hang 12345678", "", ""};
+        String[] refundValues = {"a1b2c3d5", "refund", "00", "Refund Success", BenchmarkFixtures.TMN_CODE,
+                "12345678", "10000000", "NCB", "20240101130000", "14226113", "02", "05",
+                "Hoan tien giao dich 12345678"};
+        String queryJson = signedJson(QueryDrResponse.FIELDS, queryValues);
+        queryResponse = queryJson.getBytes(StandardCharsets.UTF_8);
+
+        VNPayApiGuard guard = new VNPayApiGuard(new VNPayResilienceProperties(), new SimpleMeterRegistry());
+        VNPayMetrics metrics = BenchmarkFixtures.metrics();
+        VNPayMerchantRegistry merchants = BenchmarkFixtures.merchants(config);
+        merchant = merchants.getDefault();
+        VNPayIdGenerator idGenerator = BenchmarkFixtures.idGenerator(1);
+        query = new VNPayQuery(merchants, stubClient(queryJson), guard, BenchmarkFixtures.clock(), idGenerator,
+                metrics);
+        refund = new VNPayRefund(merchants, stubClient(signedJson(RefundResponse.FIELDS, refundValues)), guard,
+                BenchmarkFixtures.clock(), idGenerator, metrics);
+    }
+
+    @Benchmark
+    public QueryDrResponse queryDr() {
+        return query.processQueryAsync(merchant, "12345678", "20240101120000", "127.0.0.1", null).block();
+    }
+
+    @Benchmark
+    public RefundResponse refund() {
+        return refund.sendRefundRequestAsync(merchant, "12345678", "14226112", 100000, "02", "admin",
+                "20240101120000", "127.0.0.1").block();
+    }
+
+    @Benchmark
+    public boolean queryDrResponseVerify() throws IOException {
+        String[] values = VNPayResponseReader.read(new ByteArrayInputStream(queryResponse), QueryDrResponse.FIELDS);
+        String hashData = VNPayResponseReader.hashData(values, QueryDrResponse.SIGNED_FIELD_COUNT);
+        return config.sign(hashData).equalsIgnoreCase(values[QueryDrResponse.SIGNED_FIELD_COUNT]);
+    }
+
+    @Benchmark
+    public boolean queryDrResponseVerifyStreaming() throws IOException {
+        String[] values = VNPayResponseReader.read(new ByteArrayInputStream(queryResponse), QueryDrResponse.FIELDS);
+        return merchant.signApiData(values, QueryDrResponse.SIGNED_FIELD_COUNT)
+                .equalsIgnoreCase(values[QueryDrResponse.SIGNED_FIELD_COUNT]);
+    }
+
+    private String signedJson(String[] fields, String[] values) {
+        StringBuilder json = new StringBuilder("{");
+        for (int i = 0; i < values.length; i++) {
+            json.append('"').append(fields[i]).append("\":\"").append(values[i]).append("\",");
+        }
+        String secureHash = config.sign(VNPayResponseReader.hashData(values, values.length));
+        return json.append("\"vnp_SecureHash\":\"").append(secureHash).append("\"}").toString();
+    }
+
+    private static WebClient stubClient(String json) {
+        // Dùng chung một ExchangeStrategies: ClientResponse.create(status) dựng lại bộ codec mỗi lần
+        ExchangeStrategies strategies = ExchangeStrategies.withDefaults();
+        return WebClient.builder()
+                .exchangeStrategies(strategies)
+                .exchangeFunction(request -> Mono.just(ClientResponse.create(HttpStatus.OK, strategies)
+                        .header("Content-Type", "application/json")
+                        .body(json)
+                        .build()))
+                .build();
+    }
+}
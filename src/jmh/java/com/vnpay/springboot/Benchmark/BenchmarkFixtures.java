@@ -0,0 +1,156 @@
+package com.vnpay.springboot.Benchmark;
+
+import com.vnpay.springboot.Config.IpnIdempotencyProperties;
+import com.vnpay.springboot.Config.VNPayConfig;
+import com.vnpay.springboot.Config.VNPayIdProperties;
+import com.vnpay.springboot.Config.VNPayMerchantProperties;
+import com.vnpay.springboot.Entity.PaymentOrder;
+import com.vnpay.springboot.Service.IpnBatchWriter;
+import com.vnpay.springboot.Service.IpnIdempotencyService;
+import com.vnpay.springboot.Service.OrderLedgerService;
+import com.vnpay.springboot.Service.VNPayClock;
+import com.vnpay.springboot.Service.VNPayIdGenerator;
+import com.vnpay.springboot.Service.VNPayMerchantRegistry;
+import com.vnpay.springboot.Service.VNPayMetrics;
+import com.vnpay.springboot.Util.CanonicalQueryBuilder;
+import com.vnpay.springboot.Util.HmacSHA512Signer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Dữ liệu dùng chung cho các benchmark: cấu hình VNPAY mẫu, tham số callback thực tế và ledger giả không chạm DB.
+ */
+final class BenchmarkFixtures {
+
+    static final String SECRET_KEY = "SECRETKEY0123456789ABCDEFGHIJKLM";
+    static final String TMN_CODE = "DEMOTMN1";
+
+    private BenchmarkFixtures() {
+    }
+
+    static VNPayConfig config() {
+        VNPayConfig config = new VNPayConfig();
+        config.setTmnCode(TMN_CODE);
+        config.setSecretKey(SECRET_KEY);
+        config.setPayUrl("https://sandbox.vnpayment.vn/paymentv2/vpcpay.html");
+        config.setReturnUrl("http://localhost:8080/vnpay/vnpay-return");
+        config.setApiUrl("https://sandbox.vnpayment.vn/merchant_webapi/api/transaction");
+        return config;
+    }
+
+    /**
+     * Tham số Return URL / IPN như VNPAY gửi về (HashMap như controller dựng), đã ký đúng.
+     */
+    static Map<String, String> callbackParams(VNPayConfig config) {
+        Map<String, String> params = new HashMap<>();
+        params.put("vnp_Amount", "10000000");
+        params.put("vnp_BankCode", "NCB");
+        params.put("vnp_BankTranNo", "VNP14226112");
+        params.put("vnp_CardType", "ATM");
+        params.put("vnp_OrderInfo", "Thanh toan don hang 12345678");
+        params.put("vnp_PayDate", "20240101121500");
+        params.put("vnp_ResponseCode", "00");
+        params.put("vnp_TmnCode", TMN_CODE);
+        params.put("vnp_TransactionNo", "14226112");
+        params.put("vnp_TransactionStatus", "00");
+        params.put("vnp_TxnRef", "12345678");
+        HmacSHA512Signer signer = config.getSigner();
+        params.put("vnp_SecureHash", signer.toHex(CanonicalQueryBuilder.begin().callbackFields(params).sign(signer)));
+        return params;
+    }
+
+    /**
+     * Query string gốc của callback như VNPAY gửi (giá trị đã encode chuẩn), đã ký đúng.
+     */
+    static String callbackQuery(VNPayConfig config) {
+        Map<String, String> params = callbackParams(config);
+        StringBuilder query = new StringBuilder(512);
+        for (Map.Entry<String, String> entry : params.entrySet()) {
+            if (query.length() > 0) query.append('&');
+            query.append(entry.getKey()).append('=').append(URLEncoder.encode(entry.getValue(), StandardCharsets.US_ASCII));
+        }
+        return query.toString();
+    }
+
+    /**
+     * Ledger luôn chốt đơn thành công, không cần repository.
+     */
+    static OrderLedgerService ledger() {
+        return new OrderLedgerService(null, null) {
+            @Override
+            public PaymentOrder createPendingOrder(String txnRef, String tmnCode, long amount, String orderInfo,
+                                                   String vnpCreateDate, Instant expireAt) {
+                return new PaymentOrder(txnRef, tmnCode, amount, orderInfo, vnpCreateDate, expireAt, Instant.now());
+            }
+
+            @Override
+            public Result completeOrder(String txnRef, long amount, String transactionNo, String responseCode) {
+                return Result.CONFIRMED;
+            }
+
+            @Override
+            public Result checkCompletable(String txnRef, long amount) {
+                return Result.CONFIRMED;
+            }
+
+            @Override
+            public Optional<PaymentOrder> findOrder(String txnRef) {
+                return Optional.empty();
+            }
+
+            @Override
+            public Optional<String> findTmnCode(String txnRef) {
+                return Optional.of(TMN_CODE);
+            }
+        };
+    }
+
+    /**
+     * Danh bạ chỉ có merchant mặc định của config (không có file merchant).
+     */
+    static VNPayMerchantRegistry merchants(VNPayConfig config) {
+        return new VNPayMerchantRegistry(config, new VNPayMerchantProperties(), ledger());
+    }
+
+    /**
+     * Không có IpnBatchWriter: IPN đi đường đồng bộ qua ledger.
+     */
+    static ObjectProvider<IpnBatchWriter> noBatchWriter() {
+        return new DefaultListableBeanFactory().getBeanProvider(IpnBatchWriter.class);
+    }
+
+    /**
+     * Tắt biên nhận IPN giữa các node: handler chạy trực tiếp, không cần DB.
+     */
+    static IpnIdempotencyService noIdempotency() {
+        IpnIdempotencyProperties properties = new IpnIdempotencyProperties();
+        properties.setEnabled(false);
+        return new IpnIdempotencyService(null, properties, clock());
+    }
+
+    /**
+     * Đồng hồ hệ thống giờ Việt Nam như khi chạy thật (chuỗi thời gian cache theo giây).
+     */
+    static VNPayClock clock() {
+        return new VNPayClock(Clock.system(VNPayClock.ZONE));
+    }
+
+    static VNPayIdGenerator idGenerator(int nodeId) {
+        VNPayIdProperties properties = new VNPayIdProperties();
+        properties.setNodeId(nodeId);
+        return new VNPayIdGenerator(properties, clock());
+    }
+
+    static VNPayMetrics metrics() {
+        return new VNPayMetrics(new SimpleMeterRegistry());
+    }
+}
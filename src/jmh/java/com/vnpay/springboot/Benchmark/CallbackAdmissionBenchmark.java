@@ -0,0 +1,62 @@
+package com.vnpay.springboot.Benchmark;
+
+import com.vnpay.springboot.Config.CallbackAdmissionProperties;
+import com.vnpay.springboot.Service.CallbackAdmissionControl;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chi phí lớp chặn Return URL / IPN trên mỗi request, 8 luồng cùng lúc:
+ * IP ngẫu nhiên (lũ request giả mạo, phần lớn bị từ chối), một IP cố định và IP trong allowlist VNPAY.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class CallbackAdmissionBenchmark {
+
+    private static final int IP_COUNT = 4096;
+
+    private CallbackAdmissionControl admissionControl;
+    private String[] ips;
+
+    @Setup
+    public void setup() {
+        CallbackAdmissionProperties properties = new CallbackAdmissionProperties();
+        properties.setIpnAllowlist(List.of("203.0.113.0/24"));
+        // Không cắt tải: đo riêng token bucket và allowlist
+        properties.setShedIpnAt(Integer.MAX_VALUE);
+        admissionControl = new CallbackAdmissionControl(properties, BenchmarkFixtures.metrics());
+        ips = new String[IP_COUNT];
+        for (int i = 0; i < IP_COUNT; i++) {
+            ips[i] = "198.51." + (i >> 8) + "." + (i & 0xff);
+        }
+    }
+
+    @Benchmark
+    public CallbackAdmissionControl.Decision ipnRandomIp() {
+        return admit(ips[ThreadLocalRandom.current().nextInt(IP_COUNT)]);
+    }
+
+    @Benchmark
+    public CallbackAdmissionControl.Decision ipnSingleIp() {
+        return admit("198.51.100.7");
+    }
+
+    @Benchmark
+    public CallbackAdmissionControl.Decision ipnAllowlisted() {
+        return admit("203.0.113.10");
+    }
+
+    private CallbackAdmissionControl.Decision admit(String ip) {
+        CallbackAdmissionControl.Decision decision = admissionControl.tryAdmit(CallbackAdmissionControl.Endpoint.IPN, ip);
+        if (decision == CallbackAdmissionControl.Decision.ADMIT) admissionControl.release();
+        return decision;
+    }
+}
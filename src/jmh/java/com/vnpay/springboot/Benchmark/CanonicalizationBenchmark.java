@@ -0,0 +1,75 @@
+package com.vnpay.springboot.Benchmark;
+
+import com.vnpay.springboot.Config.VNPayConfig;
+import com.vnpay.springboot.Util.CanonicalQueryBuilder;
+import com.vnpay.springboot.Util.HmacSHA512Signer;
+import com.vnpay.springboot.Util.PaymentUrlTemplate;
+import com.vnpay.springboot.Util.VNPayCallbackParams;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dựng dữ liệu ký từ tham số callback: hashAllFields (không encode), CanonicalQueryBuilder từ Map (encode như URLEncoder)
+ * và từ query string gốc (parse vào ô cố định rồi ký thẳng trên đoạn byte đã encode, đường Return URL / IPN hiện tại).
+ * URL thanh toán đã ký: encode đủ 14 trường mỗi lần và PaymentUrlTemplate (trường cố định encode sẵn).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CanonicalizationBenchmark {
+
+    private VNPayConfig config;
+    private HmacSHA512Signer signer;
+    private Map<String, String> params;
+    private String callbackQuery;
+    private PaymentUrlTemplate paymentUrlTemplate;
+
+    @Setup
+    public void setup() {
+        config = BenchmarkFixtures.config();
+        signer = config.getSigner();
+        params = BenchmarkFixtures.callbackParams(config);
+        callbackQuery = BenchmarkFixtures.callbackQuery(config);
+        paymentUrlTemplate = PaymentUrlTemplate.compile(config.getPayUrl(), config.getTmnCode(), config.getReturnUrl());
+    }
+
+    @Benchmark
+    public String hashAllFields() {
+        return config.hashAllFields(params);
+    }
+
+    @Benchmark
+    public String callbackSignature() {
+        return signer.toHex(CanonicalQueryBuilder.begin().callbackFields(params).sign(signer));
+    }
+
+    @Benchmark
+    public String callbackSignatureRawQuery() {
+        VNPayCallbackParams parsed = VNPayCallbackParams.parse(callbackQuery);
+        return signer.toHex(CanonicalQueryBuilder.begin().callbackFields(parsed).sign(signer));
+    }
+
+    @Benchmark
+    public String paymentUrlAllFields() {
+        String[] values = {"10000000", "NCB", "pay", "20240101120000", "VND", "20240101121500", "127.0.0.1", "vn",
+                "Thanh toan don hang 12345678", "other", config.getReturnUrl(), config.getTmnCode(), "12345678", "2.1.0"};
+        CanonicalQueryBuilder query = CanonicalQueryBuilder.begin()
+                .prefix(config.getPayUrl())
+                .prefix("?")
+                .fields(CanonicalQueryBuilder.PAY_FIELDS, values);
+        return query.appendHexField("vnp_SecureHash", query.sign(signer)).toString();
+    }
+
+    @Benchmark
+    public String paymentUrlTemplate() {
+        String[] values = {"10000000", "NCB", "20240101120000", "20240101121500", "127.0.0.1",
+                "Thanh toan don hang 12345678", "other", "12345678"};
+        CanonicalQueryBuilder query = paymentUrlTemplate.fill(values);
+        return query.appendHexField("vnp_SecureHash", query.sign(signer)).toString();
+    }
+}
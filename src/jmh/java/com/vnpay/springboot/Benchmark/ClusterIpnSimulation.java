@@ -0,0 +1,195 @@
+package com.vnpay.springboot.Benchmark;
+
+import com.vnpay.springboot.Service.OrderLedgerService;
+import com.vnpay.springboot.SpringbootApplication;
+import com.vnpay.springboot.Util.CanonicalQueryBuilder;
+import com.vnpay.springboot.Util.HmacSHA512Signer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Mô phỏng cụm nhiều node trong một JVM: N context Spring Boot (mỗi context một cổng Tomcat riêng)
+ * dùng chung một database H2 in-memory. Mỗi IPN đã ký được gửi đồng thời tới mọi node, mỗi node vài bản,
+ * rồi kiểm tra: VNPAY luôn nhận cùng một phản hồi 00 (không node nào thấy 02 do xử lý lần hai),
+ * mọi đơn PAID đúng một lần và mỗi IPN có đúng một biên nhận DONE.
+ * <pre>
+ * mvn -Pjmh test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.vnpay.springboot.Benchmark.ClusterIpnSimulation \
+ *     -Dexec.args="3 200 2 true"
+ * </pre>
+ * Tham số: số node, số đơn, số bản IPN gửi tới mỗi node, bật vnpay.ipn-idempotency (false để so sánh).
+ * Kết thúc với mã 1 nếu có vi phạm.
+ */
+public class ClusterIpnSimulation {
+
+    private static final String DB_URL = "jdbc:h2:mem:vnpay-cluster;DB_CLOSE_DELAY=-1;MODE=PostgreSQL";
+    private static final Pattern RSP_CODE = Pattern.compile("\"RspCode\"\\s*:\\s*\"(\\w+)\"");
+
+    public static void main(String[] args) throws Exception {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int orders = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int copiesPerNode = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        boolean idempotency = args.length <= 3 || Boolean.parseBoolean(args[3]);
+
+        // Khởi động tuần tự: node đầu tạo schema, các node sau chỉ kiểm tra
+        List<ConfigurableApplicationContext> contexts = new ArrayList<>();
+        List<String> baseUrls = new ArrayList<>();
+        for (int i = 0; i < nodes; i++) {
+            ConfigurableApplicationContext context = new SpringApplicationBuilder(SpringbootApplication.class)
+                    .run(nodeArgs(i, idempotency));
+            contexts.add(context);
+            baseUrls.add("http://localhost:" + context.getEnvironment().getProperty("local.server.port"));
+        }
+        System.out.printf("started %d nodes: %s%n", nodes, baseUrls);
+
+        try {
+            String runId = Long.toString(System.currentTimeMillis(), 36);
+            OrderLedgerService ledger = contexts.get(0).getBean(OrderLedgerService.class);
+            List<String> txnRefs = new ArrayList<>(orders);
+            for (int i = 0; i < orders; i++) {
+                String txnRef = "CL" + runId + "x" + i;
+                ledger.createPendingOrder(txnRef, BenchmarkFixtures.TMN_CODE, 10000000,
+                        "Thanh toan don hang " + txnRef, "20240101120000", Instant.now().plus(Duration.ofMinutes(9)));
+                txnRefs.add(txnRef);
+            }
+
+            Map<String, Integer> rspCodes = fireIpns(baseUrls, txnRefs, copiesPerNode);
+            System.out.printf("responses by RspCode: %s%n", rspCodes);
+            for (int i = 0; i < nodes; i++) {
+                MeterRegistry registry = contexts.get(i).getBean(MeterRegistry.class);
+                System.out.printf("node %d: processed=%d answeredFromLocalCache=%d%n",
+                        i, ipnCount(registry, "service"), ipnCount(registry, "cache"));
+            }
+
+            JdbcTemplate jdbc = contexts.get(0).getBean(JdbcTemplate.class);
+            String like = "CL" + runId + "x%";
+            Integer paid = jdbc.queryForObject(
+                    "SELECT COUNT(*) FROM vnpay_order WHERE vnp_txn_ref LIKE ? AND status = 'PAID' AND version = 1",
+                    Integer.class, like);
+            Integer receipts = jdbc.queryForObject(
+                    "SELECT COUNT(*) FROM vnpay_ipn_receipt WHERE vnp_txn_ref LIKE ? AND status = 'DONE'",
+                    Integer.class, like);
+            System.out.printf("orders paid exactly once=%d/%d, DONE receipts=%d%n", paid, orders, receipts);
+
+            int expected = orders * nodes * copiesPerNode;
+            boolean ok = rspCodes.getOrDefault("00", 0) == expected && paid == orders
+                    && (!idempotency || receipts == orders);
+            System.out.println(ok ? "OK" : "VIOLATION");
+            if (!ok) System.exit(1);
+        } finally {
+            for (ConfigurableApplicationContext context : contexts) {
+                context.close();
+            }
+        }
+    }
+
+    // Tham số dòng lệnh (ưu tiên hơn application.properties) cho mỗi node
+    private static String[] nodeArgs(int nodeId, boolean idempotency) {
+        Map<String, String> props = new HashMap<>();
+        props.put("server.port", "0");
+        props.put("spring.main.banner-mode", "off");
+        props.put("spring.datasource.url", DB_URL);
+        props.put("spring.datasource.driver-class-name", "org.h2.Driver");
+        props.put("spring.datasource.username", "sa");
+        // Stack servlet không dùng R2DBC, pool chỉ cần cấu hình hợp lệ (không mở kết nối)
+        props.put("spring.r2dbc.username", "sa");
+        props.put("spring.jpa.database-platform", "org.hibernate.dialect.H2Dialect");
+        props.put("spring.jpa.show-sql", "false");
+        props.put("vnpay.tmn-code", BenchmarkFixtures.TMN_CODE);
+        props.put("vnpay.secret-key", BenchmarkFixtures.SECRET_KEY);
+        props.put("vnpay.ipn-idempotency.enabled", Boolean.toString(idempotency));
+        props.put("vnpay.id.node-id", Integer.toString(nodeId));
+        props.put("logging.level.com.vnpay.springboot", "WARN");
+        return props.entrySet().stream().map(e -> "--" + e.getKey() + "=" + e.getValue()).toArray(String[]::new);
+    }
+
+    // Mỗi IPN: copiesPerNode bản tới mỗi node, tất cả được thả cùng lúc
+    private static Map<String, Integer> fireIpns(List<String> baseUrls, List<String> txnRefs, int copiesPerNode)
+            throws InterruptedException {
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        HmacSHA512Signer signer = new HmacSHA512Signer(BenchmarkFixtures.SECRET_KEY);
+        Map<String, Integer> rspCodes = new ConcurrentHashMap<>();
+        AtomicInteger errors = new AtomicInteger();
+        int parallelism = baseUrls.size() * copiesPerNode;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(256, parallelism * 16));
+        for (String txnRef : txnRefs) {
+            String query = signedIpnQuery(txnRef, signer);
+            List<String> targets = new ArrayList<>(parallelism);
+            for (String baseUrl : baseUrls) {
+                for (int c = 0; c < copiesPerNode; c++) targets.add(baseUrl);
+            }
+            Collections.shuffle(targets);
+            for (String baseUrl : targets) {
+                executor.execute(() -> {
+                    HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/vnpay/vnpay-ipn?" + query))
+                            .timeout(Duration.ofSeconds(30))
+                            .GET()
+                            .build();
+                    try {
+                        String body = client.send(request, HttpResponse.BodyHandlers.ofString()).body();
+                        Matcher matcher = RSP_CODE.matcher(body);
+                        rspCodes.merge(matcher.find() ? matcher.group(1) : "?", 1, Integer::sum);
+                    } catch (Exception e) {
+                        errors.incrementAndGet();
+                    }
+                });
+            }
+        }
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.MINUTES);
+        if (errors.get() > 0) rspCodes.put("error", errors.get());
+        return new TreeMap<>(rspCodes);
+    }
+
+    private static String signedIpnQuery(String txnRef, HmacSHA512Signer signer) {
+        Map<String, String> params = new HashMap<>();
+        params.put("vnp_Amount", "10000000");
+        params.put("vnp_BankCode", "NCB");
+        params.put("vnp_BankTranNo", "VNP" + txnRef);
+        params.put("vnp_CardType", "ATM");
+        params.put("vnp_OrderInfo", "Thanh toan don hang " + txnRef);
+        params.put("vnp_PayDate", "20240101121500");
+        params.put("vnp_ResponseCode", "00");
+        params.put("vnp_TmnCode", BenchmarkFixtures.TMN_CODE);
+        params.put("vnp_TransactionNo", txnRef);
+        params.put("vnp_TransactionStatus", "00");
+        params.put("vnp_TxnRef", txnRef);
+        CanonicalQueryBuilder query = CanonicalQueryBuilder.begin().callbackFields(params);
+        byte[] secureHash = query.sign(signer);
+        return query.appendHexField("vnp_SecureHash", secureHash).toString();
+    }
+
+    private static long ipnCount(MeterRegistry registry, String source) {
+        long count = 0;
+        for (Timer timer : registry.find("vnpay.ipn").tag("source", source).timers()) {
+            count += timer.count();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,134 @@
+package com.vnpay.springboot.Benchmark;
+
+import com.vnpay.springboot.Util.CanonicalQueryBuilder;
+import com.vnpay.springboot.Util.HmacSHA512Signer;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test vòng kín cho /vnpay/vnpay-ipn và /vnpay/process-query: N luồng gửi liên tục trong một khoảng thời gian,
+ * in throughput và độ trễ p50/p90/p99. Chạy hai lần để so sánh platform thread và virtual thread:
+ * <pre>
+ * # 1. stub VNPAY (xem VNPayStubServer), 2. ứng dụng với vnpay.api-url=http://localhost:9090/
+ * #    (thêm --vnpay.virtual-threads.enabled=true cho chế độ virtual thread, cần Java 21+)
+ * mvn -Pjmh test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.vnpay.springboot.Benchmark.EndpointLoadTest \
+ *     -Dexec.args="http://localhost:9999 ipn 400 30 SECRET TMNCODE"
+ * </pre>
+ * Tham số: base URL, endpoint (ipn | query), số luồng, thời gian chạy (giây), secret key, TMN code.
+ * IPN được ký đúng với txnRef không trùng nhau để mỗi request đều đi tới DB.
+ */
+public class EndpointLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:9999";
+        String endpoint = args.length > 1 ? args[1] : "ipn";
+        int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        int durationSeconds = args.length > 3 ? Integer.parseInt(args[3]) : 30;
+        String secretKey = args.length > 4 ? args[4] : BenchmarkFixtures.SECRET_KEY;
+        String tmnCode = args.length > 5 ? args[5] : BenchmarkFixtures.TMN_CODE;
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        HmacSHA512Signer signer = new HmacSHA512Signer(secretKey);
+        long deadline = System.nanoTime() + Duration.ofSeconds(durationSeconds).toNanos();
+        long[][] latencies = new long[concurrency][];
+        int[] counts = new int[concurrency];
+        AtomicLong errors = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(concurrency);
+
+        long start = System.nanoTime();
+        for (int w = 0; w < concurrency; w++) {
+            int worker = w;
+            Thread thread = new Thread(() -> {
+                long[] samples = new long[1024];
+                int n = 0;
+                try {
+                    for (long seq = 0; System.nanoTime() < deadline; seq++) {
+                        String txnRef = "LT" + worker + "x" + seq + "x" + start;
+                        HttpRequest request = "query".equals(endpoint)
+                                ? queryRequest(baseUrl, txnRef)
+                                : ipnRequest(baseUrl, txnRef, tmnCode, signer);
+                        long t0 = System.nanoTime();
+                        try {
+                            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                            if (response.statusCode() >= 400) errors.incrementAndGet();
+                        } catch (Exception e) {
+                            errors.incrementAndGet();
+                        }
+                        if (n == samples.length) samples = Arrays.copyOf(samples, n * 2);
+                        samples[n++] = System.nanoTime() - t0;
+                    }
+                } finally {
+                    latencies[worker] = samples;
+                    counts[worker] = n;
+                    done.countDown();
+                }
+            }, "load-" + w);
+            thread.start();
+        }
+        done.await();
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+        int total = Arrays.stream(counts).sum();
+        long[] all = new long[total];
+        int offset = 0;
+        for (int w = 0; w < concurrency; w++) {
+            System.arraycopy(latencies[w], 0, all, offset, counts[w]);
+            offset += counts[w];
+        }
+        Arrays.sort(all);
+        System.out.printf("endpoint=%s concurrency=%d requests=%d errors=%d throughput=%.1f req/s%n",
+                endpoint, concurrency, total, errors.get(), total / elapsedSeconds);
+        System.out.printf("latency p50=%.1f ms p90=%.1f ms p99=%.1f ms max=%.1f ms%n",
+                percentile(all, 0.50), percentile(all, 0.90), percentile(all, 0.99), percentile(all, 1.0));
+    }
+
+    private static HttpRequest ipnRequest(String baseUrl, String txnRef, String tmnCode, HmacSHA512Signer signer) {
+        Map<String, String> params = new HashMap<>();
+        params.put("vnp_Amount", "10000000");
+        params.put("vnp_BankCode", "NCB");
+        params.put("vnp_BankTranNo", "VNP" + txnRef);
+        params.put("vnp_CardType", "ATM");
+        params.put("vnp_OrderInfo", "Thanh toan don hang " + txnRef);
+        params.put("vnp_PayDate", "20240101121500");
+        params.put("vnp_ResponseCode", "00");
+        params.put("vnp_TmnCode", tmnCode);
+        params.put("vnp_TransactionNo", txnRef);
+        params.put("vnp_TransactionStatus", "00");
+        params.put("vnp_TxnRef", txnRef);
+        CanonicalQueryBuilder query = CanonicalQueryBuilder.begin().callbackFields(params);
+        byte[] secureHash = query.sign(signer);
+        String queryString = query.appendHexField("vnp_SecureHash", secureHash).toString();
+        return HttpRequest.newBuilder(URI.create(baseUrl + "/vnpay/vnpay-ipn?" + queryString))
+                .timeout(Duration.ofSeconds(30))
+                .GET()
+                .build();
+    }
+
+    private static HttpRequest queryRequest(String baseUrl, String txnRef) {
+        String form = "txnRef=" + txnRef + "&transDate=20240101120000&transactionNo=14226112";
+        return HttpRequest.newBuilder(URI.create(baseUrl + "/vnpay/process-query"))
+                .timeout(Duration.ofSeconds(30))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form))
+                .build();
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
@@ -0,0 +1,67 @@
+package com.vnpay.springboot.Benchmark;
+
+import com.vnpay.springboot.Config.VNPayConfig;
+import com.vnpay.springboot.Util.HmacSHA512Signer;
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * So sánh cách ký cũ (Mac.getInstance + String.format mỗi lần) với HmacSHA512Signer.
+ * legacyHmacSHA512 cũng là chi phí của Mac theo ThreadLocal khi mỗi request chạy trên một virtual thread mới;
+ * signerContended đo tranh chấp pool Mac khi 8 luồng cùng ký một signer.
+ * Chạy kèm -prof gc để xem gc.alloc.rate.norm (byte cấp phát / op).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HmacSHA512Benchmark {
+
+    private static final String SECRET_KEY = "SECRETKEY0123456789ABCDEFGHIJKLM";
+
+    private String hashData;
+    private HmacSHA512Signer signer;
+
+    @Setup
+    public void setup() {
+        hashData = "vnp_Amount=10000000&vnp_Command=pay&vnp_CreateDate=20240101120000&vnp_CurrCode=VND"
+                + "&vnp_ExpireDate=20240101120900&vnp_IpAddr=127.0.0.1&vnp_Locale=vn"
+                + "&vnp_OrderInfo=Thanh+toan+don+hang+12345678&vnp_OrderType=other"
+                + "&vnp_ReturnUrl=http%3A%2F%2Flocalhost%2Fvnpay%2Fvnpay-return&vnp_TmnCode=DEMOTMN1"
+                + "&vnp_TxnRef=12345678&vnp_Version=2.1.0";
+        signer = new HmacSHA512Signer(SECRET_KEY);
+    }
+
+    @Benchmark
+    public String legacyHmacSHA512() throws Exception {
+        final Mac hmac512 = Mac.getInstance("HmacSHA512");
+        final SecretKeySpec secretKey = new SecretKeySpec(SECRET_KEY.getBytes(), "HmacSHA512");
+        hmac512.init(secretKey);
+        byte[] result = hmac512.doFinal(hashData.getBytes(StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder(2 * result.length);
+        for (byte b : result) sb.append(String.format("%02x", b & 0xff));
+        return sb.toString();
+    }
+
+    @Benchmark
+    public String signer() {
+        return signer.sign(hashData);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String signerContended() {
+        return signer.sign(hashData);
+    }
+
+    @Benchmark
+    public String staticHmacSHA512() {
+        return VNPayConfig.hmacSHA512(SECRET_KEY, hashData);
+    }
+}
@@ -0,0 +1,64 @@
+package com.vnpay.springboot.Benchmark;
+
+import com.vnpay.springboot.Service.VNPayService;
+import com.vnpay.springboot.Util.VNPayCallbackParams;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Các đường nóng của VNPayService với ledger giả (không tính DB): tạo URL thanh toán
+ * và parse + kiểm tra chữ ký Return URL / IPN từ query string gốc (hợp lệ, sai chữ ký, chữ ký sai định dạng).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PaymentFlowBenchmark {
+
+    private VNPayService service;
+    private String query;
+    private String tamperedQuery;
+    private String malformedQuery;
+
+    @Setup
+    public void setup() {
+        var config = BenchmarkFixtures.config();
+        service = new VNPayService(config, BenchmarkFixtures.merchants(config), BenchmarkFixtures.ledger(),
+                BenchmarkFixtures.noBatchWriter(), BenchmarkFixtures.noIdempotency(), BenchmarkFixtures.clock(),
+                BenchmarkFixtures.metrics());
+        query = BenchmarkFixtures.callbackQuery(config);
+        tamperedQuery = query.replace("vnp_Amount=10000000", "vnp_Amount=20000000");
+        // Chữ ký rác (sai độ dài): bị loại trước khi băm
+        malformedQuery = query.replaceAll("vnp_SecureHash=[0-9a-f]+", "vnp_SecureHash=deadbeef");
+    }
+
+    @Benchmark
+    public String createOrder() {
+        return service.createOrder(100000, "Thanh toan don hang 12345678", "NCB", "other",
+                null, "12345678", "127.0.0.1", null);
+    }
+
+    @Benchmark
+    public int processVnPayReturn() {
+        return service.processVnPayReturn(VNPayCallbackParams.parse(query));
+    }
+
+    @Benchmark
+    public Map<String, String> processVnPayIpn() {
+        return service.processVnPayIpn(VNPayCallbackParams.parse(query));
+    }
+
+    @Benchmark
+    public Map<String, String> processVnPayIpnInvalidSignature() {
+        return service.processVnPayIpn(VNPayCallbackParams.parse(tamperedQuery));
+    }
+
+    @Benchmark
+    public Map<String, String> processVnPayIpnMalformedSignature() {
+        return service.processVnPayIpn(VNPayCallbackParams.parse(malformedQuery));
+    }
+}
@@ -0,0 +1,53 @@
+package com.vnpay.springboot.Benchmark;
+
+import com.vnpay.springboot.Service.VNPayClock;
+import org.openjdk.jmh.annotations.*;
+
+import java.text.SimpleDateFormat;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Calendar;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * So sánh cách tạo vnp_CreateDate cũ (Calendar + SimpleDateFormat mỗi request) với VNPayClock
+ * (DateTimeFormatter dùng chung, chuỗi cache theo giây). Chạy kèm -prof gc để xem byte cấp phát / op.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimestampBenchmark {
+
+    private VNPayClock systemClock;
+    private VNPayClock uncachedClock;
+    private long second;
+
+    @Setup
+    public void setup() {
+        systemClock = BenchmarkFixtures.clock();
+        uncachedClock = new VNPayClock(Clock.systemUTC());
+        second = Instant.parse("2024-01-01T05:00:00Z").getEpochSecond();
+    }
+
+    @Benchmark
+    public String legacyCalendar() {
+        Calendar cld = Calendar.getInstance(TimeZone.getTimeZone("Etc/GMT+7"));
+        SimpleDateFormat formatter = new SimpleDateFormat("yyyyMMddHHmmss");
+        return formatter.format(cld.getTime());
+    }
+
+    @Benchmark
+    public String clockFormatNow() {
+        return systemClock.formatNow();
+    }
+
+    // Mỗi lần một giây khác: luôn trượt cache, đo riêng chi phí DateTimeFormatter
+    @Benchmark
+    public String clockFormatCacheMiss() {
+        return uncachedClock.format(Instant.ofEpochSecond(second += 1));
+    }
+}
@@ -0,0 +1,100 @@
+package com.vnpay.springboot.Benchmark;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.vnpay.springboot.Model.QueryDrResponse;
+import com.vnpay.springboot.Model.RefundResponse;
+import com.vnpay.springboot.Util.HmacSHA512Signer;
+import com.vnpay.springboot.Util.VNPayResponseReader;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+/**
+ * Giả lập API QueryDR/Refund của VNPAY cho load test: trả phản hồi "00" đã ký đúng sau một độ trễ cố định.
+ * <pre>
+ * mvn -Pjmh test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.vnpay.springboot.Benchmark.VNPayStubServer -Dexec.args="9090 50 SECRET TMNCODE"
+ * </pre>
+ * Tham số: cổng, độ trễ (ms), secret key, TMN code. Ứng dụng trỏ vnpay.api-url=http://localhost:9090/.
+ */
+public class VNPayStubServer {
+
+    private final HmacSHA512Signer signer;
+    private final String tmnCode;
+    private final long delayMillis;
+
+    public VNPayStubServer(String secretKey, String tmnCode, long delayMillis) {
+        this.signer = new HmacSHA512Signer(secretKey);
+        this.tmnCode = tmnCode;
+        this.delayMillis = delayMillis;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 9090;
+        long delayMillis = args.length > 1 ? Long.parseLong(args[1]) : 50;
+        String secretKey = args.length > 2 ? args[2] : BenchmarkFixtures.SECRET_KEY;
+        String tmnCode = args.length > 3 ? args[3] : BenchmarkFixtures.TMN_CODE;
+
+        VNPayStubServer stub = new VNPayStubServer(secretKey, tmnCode, delayMillis);
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 1024);
+        server.createContext("/", stub::handle);
+        // Mỗi request một thread: độ trễ giả lập bằng sleep không giới hạn số request đồng thời
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        System.out.printf("VNPAY stub listening on :%d (delay %d ms)%n", port, delayMillis);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            JsonObject request;
+            try (InputStreamReader reader = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)) {
+                request = JsonParser.parseReader(reader).getAsJsonObject();
+            }
+            if (delayMillis > 0) {
+                Thread.sleep(delayMillis);
+            }
+            byte[] body = response(request).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            exchange.sendResponseHeaders(400, -1);
+        }
+    }
+
+    private String response(JsonObject request) {
+        String command = request.get("vnp_Command").getAsString();
+        String txnRef = request.get("vnp_TxnRef").getAsString();
+        String amount = request.has("vnp_Amount") ? request.get("vnp_Amount").getAsString() : "10000000";
+        String[] fields;
+        String[] values;
+        if ("refund".equals(command)) {
+            fields = RefundResponse.FIELDS;
+            values = new String[]{request.get("vnp_RequestId").getAsString(), command, "00", "Refund Success",
+                    tmnCode, txnRef, amount, "NCB", "20240101130000", "14226113",
+                    request.get("vnp_TransactionType").getAsString(), "05", "Hoan tien giao dich " + txnRef};
+        } else {
+            fields = QueryDrResponse.FIELDS;
+            values = new String[]{request.get("vnp_RequestId").getAsString(), command, "00", "QueryDR Success",
+                    tmnCode, txnRef, amount, "NCB", "20240101121500", "14226112", "01", "00",
+                    "Thanh toan don hang " + txnRef, "", ""};
+        }
+        JsonObject response = new JsonObject();
+        for (int i = 0; i < values.length; i++) {
+            response.addProperty(fields[i], values[i]);
+        }
+        response.addProperty("vnp_SecureHash", signer.sign(VNPayResponseReader.hashData(values, values.length)));
+        return response.toString();
+    }
+}
@@ -0,0 +1,109 @@
+package com.vnpay.springboot.Config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Configuration
+@ConfigurationProperties(prefix = "vnpay.callback-admission")
+public class CallbackAdmissionProperties {
+
+    private boolean enabled = true;
+    // Token bucket theo IP (CallbackAdmissionControl.clientAddress): số request mỗi giây và số request dồn tối đa
+    private int ipnRatePerSecond = 20;
+    private int ipnBurst = 100;
+    private int returnRatePerSecond = 5;
+    private int returnBurst = 20;
+    // Số ô của bảng bucket (làm tròn lên lũy thừa 2); nhiều IP trùng ô thì dùng chung bucket
+    private int buckets = 65536;
+    // Dải IP gửi IPN của VNPAY (CIDR hoặc IP lẻ, lấy từ VNPAY): không giới hạn tốc độ, không bị cắt tải
+    private List<String> ipnAllowlist = new ArrayList<>();
+    // Reverse proxy / load balancer phía trước (CIDR hoặc IP lẻ): chỉ khi kết nối đến từ các địa chỉ này
+    // mới đọc X-Forwarded-For; để trống thì luôn dùng địa chỉ socket
+    private List<String> trustedProxies = new ArrayList<>();
+    // Số callback đang xử lý trên node: vượt ngưỡng thì từ chối Return URL trước, rồi tới IPN ngoài allowlist
+    private int shedReturnAt = 64;
+    private int shedIpnAt = 256;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getIpnRatePerSecond() {
+        return ipnRatePerSecond;
+    }
+
+    public void setIpnRatePerSecond(int ipnRatePerSecond) {
+        this.ipnRatePerSecond = ipnRatePerSecond;
+    }
+
+    public int getIpnBurst() {
+        return ipnBurst;
+    }
+
+    public void setIpnBurst(int ipnBurst) {
+        this.ipnBurst = ipnBurst;
+    }
+
+    public int getReturnRatePerSecond() {
+        return returnRatePerSecond;
+    }
+
+    public void setReturnRatePerSecond(int returnRatePerSecond) {
+        this.returnRatePerSecond = returnRatePerSecond;
+    }
+
+    public int getReturnBurst() {
+        return returnBurst;
+    }
+
+    public void setReturnBurst(int returnBurst) {
+        this.returnBurst = returnBurst;
+    }
+
+    public int getBuckets() {
+        return buckets;
+    }
+
+    public void setBuckets(int buckets) {
+        this.buckets = buckets;
+    }
+
+    public List<String> getIpnAllowlist() {
+        return ipnAllowlist;
+    }
+
+    public void setIpnAllowlist(List<String> ipnAllowlist) {
+        this.ipnAllowlist = ipnAllowlist;
+    }
+
+    public List<String> getTrustedProxies() {
+        return trustedProxies;
+    }
+
+    public void setTrustedProxies(List<String> trustedProxies) {
+        this.trustedProxies = trustedProxies;
+    }
+
+    public int getShedReturnAt() {
+        return shedReturnAt;
+    }
+
+    public void setShedReturnAt(int shedReturnAt) {
+        this.shedReturnAt = shedReturnAt;
+    }
+
+    public int getShedIpnAt() {
+        return shedIpnAt;
+    }
+
+    public void setShedIpnAt(int shedIpnAt) {
+        this.shedIpnAt = shedIpnAt;
+    }
+}
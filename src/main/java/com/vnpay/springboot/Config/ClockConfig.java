@@ -0,0 +1,22 @@
+package com.vnpay.springboot.Config;
+
+import com.vnpay.springboot.Service.VNPayClock;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Clock;
+
+/**
+ * Đồng hồ hệ thống theo giờ Việt Nam. Khai báo bean Clock khác (ví dụ Clock.fixed / Clock.offset)
+ * để chạy logic hết hạn đơn một cách tất định khi load test.
+ */
+@Configuration
+public class ClockConfig {
+
+    @Bean
+    @ConditionalOnMissingBean(Clock.class)
+    public Clock clock() {
+        return Clock.system(VNPayClock.ZONE);
+    }
+}
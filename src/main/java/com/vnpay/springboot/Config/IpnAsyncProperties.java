@@ -0,0 +1,57 @@
+package com.vnpay.springboot.Config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+@ConfigurationProperties(prefix = "vnpay.ipn-async")
+public class IpnAsyncProperties {
+
+    private boolean enabled = false;
+    private String walDir = "./data/ipn-wal";
+    private int batchSize = 500;
+    private Duration linger = Duration.ofMillis(50);
+    private int queueCapacity = 100_000;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getWalDir() {
+        return walDir;
+    }
+
+    public void setWalDir(String walDir) {
+        this.walDir = walDir;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public Duration getLinger() {
+        return linger;
+    }
+
+    public void setLinger(Duration linger) {
+        this.linger = linger;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+}
@@ -0,0 +1,49 @@
+package com.vnpay.springboot.Config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+@ConfigurationProperties(prefix = "vnpay.ipn-cache")
+public class IpnCacheProperties {
+
+    private boolean enabled = true;
+    private int maxSize = 100_000;
+    private Duration ttl = Duration.ofHours(1);
+    // Số khóa sọc theo vnp_TxnRef cho IPN trùng đến cùng lúc trên một node (làm tròn lên lũy thừa của 2)
+    private int lockStripes = 256;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public Duration getTtl() {
+        return ttl;
+    }
+
+    public void setTtl(Duration ttl) {
+        this.ttl = ttl;
+    }
+
+    public int getLockStripes() {
+        return lockStripes;
+    }
+
+    public void setLockStripes(int lockStripes) {
+        this.lockStripes = lockStripes;
+    }
+}
@@ -0,0 +1,60 @@
+package com.vnpay.springboot.Config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+@ConfigurationProperties(prefix = "vnpay.ipn-idempotency")
+public class IpnIdempotencyProperties {
+
+    private boolean enabled = true;
+    // Node giữ quyền xử lý quá thời hạn này (chết giữa chừng) thì node khác được tiếp quản
+    private Duration lease = Duration.ofSeconds(30);
+    // Thời gian tối đa chờ node khác xử lý xong cùng IPN trước khi trả 99 để VNPAY gửi lại
+    private Duration inProgressWait = Duration.ofSeconds(2);
+    private Duration pollInterval = Duration.ofMillis(50);
+    // Biên nhận đã chốt cũ hơn thời hạn này bị xóa theo purge-cron
+    private Duration retention = Duration.ofDays(7);
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Duration getLease() {
+        return lease;
+    }
+
+    public void setLease(Duration lease) {
+        this.lease = lease;
+    }
+
+    public Duration getInProgressWait() {
+        return inProgressWait;
+    }
+
+    public void setInProgressWait(Duration inProgressWait) {
+        this.inProgressWait = inProgressWait;
+    }
+
+    public Duration getPollInterval() {
+        return pollInterval;
+    }
+
+    public void setPollInterval(Duration pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    public Duration getRetention() {
+        return retention;
+    }
+
+    public void setRetention(Duration retention) {
+        this.retention = retention;
+    }
+}
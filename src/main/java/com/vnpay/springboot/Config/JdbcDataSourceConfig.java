@@ -0,0 +1,24 @@
+package com.vnpay.springboot.Config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * DataSource JDBC khai báo tường minh: khi có R2DBC ConnectionFactory, Spring Boot bỏ qua DataSourceAutoConfiguration,
+ * làm JPA (OrderLedgerService, đối soát) và JdbcTemplate (IpnBatchWriter) mất DataSource.
+ * Vẫn đọc cấu hình spring.datasource.* và spring.datasource.hikari.* như mặc định.
+ */
+@Configuration
+@EnableConfigurationProperties(DataSourceProperties.class)
+public class JdbcDataSourceConfig {
+
+    @Bean
+    @ConfigurationProperties(prefix = "spring.datasource.hikari")
+    public HikariDataSource dataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+}
@@ -0,0 +1,100 @@
+package com.vnpay.springboot.Config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+@ConfigurationProperties(prefix = "vnpay.sweeper")
+public class PendingOrderSweeperProperties {
+
+    private boolean enabled = true;
+    // Chờ thêm sau vnp_ExpireDate để IPN đến muộn kịp chốt đơn trước khi hỏi VNPAY
+    private Duration grace = Duration.ofMinutes(5);
+    // Đơn quá hạn lâu hơn thời gian này thì không quét nữa (để cho job đối soát)
+    private Duration maxAge = Duration.ofDays(3);
+    // Thời gian node giữ quyền QueryDR một đơn; đơn chưa có kết quả cuối được hỏi lại sau khoảng này
+    private Duration lease = Duration.ofMinutes(5);
+    // QueryDR vẫn trả 91 (không tìm thấy giao dịch) khi đơn đã quá expire_at lâu hơn khoảng này thì chốt FAILED
+    private Duration notFoundTimeout = Duration.ofHours(1);
+    // Số đơn đọc và claim mỗi lượt
+    private int batchSize = 100;
+    // Số QueryDR mỗi giây và số QueryDR đồng thời tối đa của mỗi node
+    private int ratePerSecond = 10;
+    private int concurrency = 8;
+    // IP gửi kèm vnp_IpAddr khi gọi QueryDR từ sweeper
+    private String clientIp = "127.0.0.1";
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Duration getGrace() {
+        return grace;
+    }
+
+    public void setGrace(Duration grace) {
+        this.grace = grace;
+    }
+
+    public Duration getMaxAge() {
+        return maxAge;
+    }
+
+    public void setMaxAge(Duration maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    public Duration getLease() {
+        return lease;
+    }
+
+    public void setLease(Duration lease) {
+        this.lease = lease;
+    }
+
+    public Duration getNotFoundTimeout() {
+        return notFoundTimeout;
+    }
+
+    public void setNotFoundTimeout(Duration notFoundTimeout) {
+        this.notFoundTimeout = notFoundTimeout;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    public void setRatePerSecond(int ratePerSecond) {
+        this.ratePerSecond = ratePerSecond;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    public String getClientIp() {
+        return clientIp;
+    }
+
+    public void setClientIp(String clientIp) {
+        this.clientIp = clientIp;
+    }
+}
@@ -0,0 +1,69 @@
+package com.vnpay.springboot.Config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConfigurationProperties(prefix = "vnpay.reconciliation")
+public class ReconciliationProperties {
+
+    // Số QueryDR đồng thời tối đa
+    private int concurrency = 16;
+    // Số QueryDR tối đa mỗi giây
+    private int ratePerSecond = 50;
+    private String reportDir = "./data/reconciliation";
+    // Thư mục chứa file đầu vào (mỗi dòng: txnRef,transDate)
+    private String inputDir = "./data/reconciliation/input";
+    // Ghi checkpoint sau mỗi bao nhiêu giao dịch đã đối soát
+    private int checkpointInterval = 100;
+    // IP gửi kèm vnp_IpAddr khi gọi QueryDR từ job
+    private String clientIp = "127.0.0.1";
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    public int getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    public void setRatePerSecond(int ratePerSecond) {
+        this.ratePerSecond = ratePerSecond;
+    }
+
+    public String getReportDir() {
+        return reportDir;
+    }
+
+    public void setReportDir(String reportDir) {
+        this.reportDir = reportDir;
+    }
+
+    public String getInputDir() {
+        return inputDir;
+    }
+
+    public void setInputDir(String inputDir) {
+        this.inputDir = inputDir;
+    }
+
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    public void setCheckpointInterval(int checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    public String getClientIp() {
+        return clientIp;
+    }
+
+    public void setClientIp(String clientIp) {
+        this.clientIp = clientIp;
+    }
+}
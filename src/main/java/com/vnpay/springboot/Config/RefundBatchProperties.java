@@ -0,0 +1,52 @@
+package com.vnpay.springboot.Config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+@ConfigurationProperties(prefix = "vnpay.refund-batch")
+public class RefundBatchProperties {
+
+    // Số yêu cầu Refund gửi VNPAY đồng thời tối đa
+    private int concurrency = 4;
+    // Số dòng xử lý tối đa mỗi giây
+    private int ratePerSecond = 10;
+    // Số dòng tối đa mỗi batch, dòng vượt quá trả INVALID
+    private int maxItems = 10000;
+    // Thời gian tối đa giữ kết nối trả kết quả (chế độ servlet)
+    private Duration timeout = Duration.ofHours(1);
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    public int getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    public void setRatePerSecond(int ratePerSecond) {
+        this.ratePerSecond = ratePerSecond;
+    }
+
+    public int getMaxItems() {
+        return maxItems;
+    }
+
+    public void setMaxItems(int maxItems) {
+        this.maxItems = maxItems;
+    }
+
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(Duration timeout) {
+        this.timeout = timeout;
+    }
+}
@@ -0,0 +1,189 @@
+package com.vnpay.springboot.Config;
+
+import com.vnpay.springboot.Util.HmacInput;
+import com.vnpay.springboot.Util.HmacSHA512Signer;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import jakarta.servlet.http.HttpServletRequest;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Configuration
+@ConfigurationProperties(prefix = "vnpay")
+public class VNPayConfig {
+
+    private String tmnCode;
+    private String secretKey;
+    private String payUrl;
+    private String returnUrl;
+    private String apiUrl;
+
+    // Signer đã init sẵn theo secretKey hiện tại (tạo lại khi secretKey thay đổi)
+    private volatile HmacSHA512Signer signer;
+
+    // Signer của hmacSHA512 tĩnh theo key (nhiều merchant gọi xen kẽ không phải init lại Mac)
+    private static final int MAX_CACHED_SIGNERS = 64;
+    private static final ConcurrentHashMap<String, HmacSHA512Signer> SIGNERS = new ConcurrentHashMap<>();
+
+    // ✅ Getter & Setter
+    public String getTmnCode() {
+        return tmnCode;
+    }
+
+    public void setTmnCode(String tmnCode) {
+        this.tmnCode = tmnCode;
+    }
+
+    public String getSecretKey() {
+        return secretKey;
+    }
+
+    public void setSecretKey(String secretKey) {
+        this.secretKey = secretKey;
+        this.signer = null;
+    }
+
+    public HmacSHA512Signer getSigner() {
+        HmacSHA512Signer current = signer;
+        if (current == null) {
+            current = new HmacSHA512Signer(secretKey);
+            signer = current;
+        }
+        return current;
+    }
+
+    /**
+     * Ký dữ liệu bằng secretKey đã cấu hình (trả về "" nếu key/dữ liệu không hợp lệ, giống hmacSHA512).
+     */
+    public String sign(String data) {
+        try {
+            return getSigner().sign(data);
+        } catch (Exception ex) {
+            return "";
+        }
+    }
+
+    public String getPayUrl() {
+        return payUrl;
+    }
+
+    public void setPayUrl(String payUrl) {
+        this.payUrl = payUrl;
+    }
+
+    public String getReturnUrl() {
+        return returnUrl;
+    }
+
+    public void setReturnUrl(String returnUrl) {
+        this.returnUrl = returnUrl;
+    }
+
+    public String getApiUrl() {
+        return apiUrl;
+    }
+
+    public void setApiUrl(String apiUrl) {
+        this.apiUrl = apiUrl;
+    }
+
+    // ---------- Các hàm util bên dưới giữ nguyên ----------
+    public static String getIpAddress(HttpServletRequest request) {
+        try {
+            return resolveIpAddress(request.getHeader("X-FORWARDED-FOR"), request.getRemoteAddr());
+        } catch (Exception e) {
+            return "Invalid IP:" + e.getMessage();
+        }
+    }
+
+    /**
+     * Phiên bản cho WebFlux (ServerHttpRequest), cùng quy tắc với bản servlet.
+     */
+    public static String getIpAddress(ServerHttpRequest request) {
+        try {
+            String remoteAddr = request.getRemoteAddress() == null || request.getRemoteAddress().getAddress() == null
+                    ? null : request.getRemoteAddress().getAddress().getHostAddress();
+            return resolveIpAddress(request.getHeaders().getFirst("X-FORWARDED-FOR"), remoteAddr);
+        } catch (Exception e) {
+            return "Invalid IP:" + e.getMessage();
+        }
+    }
+
+    private static String resolveIpAddress(String forwardedFor, String remoteAddr) {
+        // 1. Ưu tiên lấy IP từ header X-FORWARDED-FOR
+        String ipAddress = forwardedFor;
+
+        // Xử lý trường hợp X-FORWARDED-FOR chứa nhiều IP (do qua nhiều proxy)
+        if (ipAddress != null && ipAddress.length() > 0 && !"unknown".equalsIgnoreCase(ipAddress)) {
+            // Lấy IP đầu tiên trong chuỗi (IP thực của client)
+            if (ipAddress.contains(",")) {
+                ipAddress = ipAddress.split(",")[0].trim();
+            }
+        }
+
+        // 2. Fallback về IP trực tiếp nếu X-FORWARDED-FOR không có
+        if (ipAddress == null || ipAddress.length() == 0 || "unknown".equalsIgnoreCase(ipAddress)) {
+            ipAddress = remoteAddr;
+        }
+
+        // 3. Xử lý IPv6 Localhost (Chuyển ::1 thành 127.0.0.1)
+        // Đây là lỗi thường gặp nhất khiến VNPAY từ chối IP khi chạy dev
+        if (ipAddress != null && ("0:0:0:0:0:0:0:1".equals(ipAddress) || "::1".equals(ipAddress))) {
+            ipAddress = "127.0.0.1";
+        }
+        return ipAddress;
+    }
+
+    public static String getRandomNumber(int len) {
+        Random rnd = new Random();
+        String chars = "0123456789";
+        StringBuilder sb = new StringBuilder(len);
+        for (int i = 0; i < len; i++) {
+            sb.append(chars.charAt(rnd.nextInt(chars.length())));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Ký data bằng key tùy ý; signer được cache theo key (tối đa MAX_CACHED_SIGNERS key, đầy thì xóa hết).
+     * Key được mã hóa UTF-8 như HmacSHA512Signer (bản cũ dùng charset mặc định của JVM).
+     */
+    public static String hmacSHA512(final String key, final String data) {
+        try {
+            if (key == null || data == null) throw new NullPointerException();
+            HmacSHA512Signer cached = SIGNERS.get(key);
+            if (cached == null) {
+                if (SIGNERS.size() >= MAX_CACHED_SIGNERS) SIGNERS.clear();
+                cached = SIGNERS.computeIfAbsent(key, HmacSHA512Signer::new);
+            }
+            return cached.sign(data);
+        } catch (Exception ex) {
+            return "";
+        }
+    }
+
+    /**
+     * Ký "name=value" (không encode) của mọi trường khác rỗng theo tên đã sắp xếp, nối bằng '&amp;'.
+     * Dữ liệu được đẩy thẳng vào Mac, không dựng chuỗi hash data (trả về "" nếu không ký được, giống sign).
+     */
+    public String hashAllFields(Map<String, String> fields) {
+        List<String> fieldNames = new ArrayList<>(fields.keySet());
+        Collections.sort(fieldNames);
+        try {
+            HmacInput input = HmacInput.begin(getSigner(), '&');
+            for (String fieldName : fieldNames) {
+                String fieldValue = fields.get(fieldName);
+                if (fieldValue != null && !fieldValue.isEmpty()
+                        && !fieldName.equals("vnp_SecureHashType")
+                        && !fieldName.equals("vnp_SecureHash")) {
+                    input.field(fieldName, fieldValue);
+                }
+            }
+            return input.hex();
+        } catch (Exception ex) {
+            return "";
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.vnpay.springboot.Config;
+
+import io.netty.channel.ChannelOption;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * Một HttpClient (Reactor Netty) dùng chung cho mọi lời gọi API VNPAY:
+ * pool giới hạn kích thước và hàng chờ, dọn kết nối rảnh, timeout kết nối/phản hồi, giới hạn kích thước phản hồi.
+ * Số liệu pool (active, idle, pending) được đăng ký vào Micrometer với tên reactor.netty.connection.provider.*.
+ */
+@Configuration
+public class VNPayHttpClientConfig {
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider vnpayConnectionProvider(VNPayHttpProperties properties) {
+        return ConnectionProvider.builder("vnpay")
+                .maxConnections(properties.getMaxConnections())
+                .pendingAcquireMaxCount(properties.getPendingAcquireMaxCount())
+                .pendingAcquireTimeout(properties.getPendingAcquireTimeout())
+                .maxIdleTime(properties.getMaxIdleTime())
+                .maxLifeTime(properties.getMaxLifeTime())
+                .evictInBackground(properties.getEvictionInterval())
+                .metrics(true)
+                .build();
+    }
+
+    @Bean
+    public HttpClient vnpayHttpClient(ConnectionProvider vnpayConnectionProvider, VNPayHttpProperties properties) {
+        HttpClient httpClient = HttpClient.create(vnpayConnectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) properties.getConnectTimeout().toMillis())
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .keepAlive(true)
+                .responseTimeout(properties.getResponseTimeout());
+        if (properties.isHttp2()) {
+            // HTTP/2 qua TLS (ALPN), tự hạ về HTTP/1.1 nếu máy chủ không hỗ trợ
+            httpClient = httpClient.protocol(HttpProtocol.H2, HttpProtocol.HTTP11).secure();
+        }
+        return httpClient;
+    }
+
+    @Bean
+    public WebClient vnpayWebClient(WebClient.Builder webClientBuilder, HttpClient vnpayHttpClient,
+                                    VNPayConfig vnPayConfig, VNPayHttpProperties properties) {
+        int maxResponseSize = (int) properties.getMaxResponseSize().toBytes();
+        return webClientBuilder
+                .baseUrl(vnPayConfig.getApiUrl())
+                .clientConnector(new ReactorClientHttpConnector(vnpayHttpClient))
+                .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(maxResponseSize))
+                .build();
+    }
+}
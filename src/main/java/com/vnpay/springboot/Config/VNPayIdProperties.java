@@ -0,0 +1,40 @@
+package com.vnpay.springboot.Config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConfigurationProperties(prefix = "vnpay.id")
+public class VNPayIdProperties {
+
+    // Mã node 0..1023, mỗi instance trong cụm một mã khác nhau; bắt buộc trừ khi single-node=true
+    private Integer nodeId;
+    // Chỉ chạy một instance: cho phép bỏ trống node-id (dùng mã 0)
+    private boolean singleNode = false;
+    // Tự sinh vnp_TxnRef khi submitOrder không gửi txnRef
+    private boolean generateTxnRef = true;
+
+    public Integer getNodeId() {
+        return nodeId;
+    }
+
+    public void setNodeId(Integer nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public boolean isSingleNode() {
+        return singleNode;
+    }
+
+    public void setSingleNode(boolean singleNode) {
+        this.singleNode = singleNode;
+    }
+
+    public boolean isGenerateTxnRef() {
+        return generateTxnRef;
+    }
+
+    public void setGenerateTxnRef(boolean generateTxnRef) {
+        this.generateTxnRef = generateTxnRef;
+    }
+}
@@ -0,0 +1,29 @@
+package com.vnpay.springboot.Config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Danh sách merchant bổ sung ngoài merchant mặc định (vnpay.tmn-code / vnpay.secret-key).
+ * File dạng properties, mỗi merchant một nhóm khóa theo vnp_TmnCode:
+ * <pre>
+ * SHOP0001.secret-key=...
+ * SHOP0001.return-url=https://shop1.example.com/vnpay/vnpay-return   (tùy chọn, mặc định vnpay.return-url)
+ * </pre>
+ * File được kiểm tra định kỳ và nạp lại khi thay đổi, hoặc nạp lại ngay qua POST /vnpay/merchants/reload.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "vnpay.merchants")
+public class VNPayMerchantProperties {
+
+    // Để trống = chỉ dùng merchant mặc định
+    private String file;
+
+    public String getFile() {
+        return file;
+    }
+
+    public void setFile(String file) {
+        this.file = file;
+    }
+}
@@ -0,0 +1,110 @@
+package com.vnpay.springboot.Config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * Circuit breaker, bulkhead và retry cho các lời gọi API VNPAY.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "vnpay.resilience")
+public class VNPayResilienceProperties {
+
+    // Circuit breaker: cửa sổ trượt theo số lời gọi
+    private int windowSize = 50;
+    private int minimumCalls = 20;
+    private int failureRateThreshold = 50;
+    private Duration openDuration = Duration.ofSeconds(30);
+    private int halfOpenPermits = 5;
+
+    // Bulkhead: số lời gọi đồng thời tối đa mỗi API
+    private int maxConcurrentCalls = 64;
+
+    // Retry (chỉ QueryDR): backoff lũy thừa có jitter
+    private int maxAttempts = 3;
+    private Duration initialBackoff = Duration.ofMillis(200);
+    private Duration maxBackoff = Duration.ofSeconds(2);
+    private double jitter = 0.5;
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    public int getMinimumCalls() {
+        return minimumCalls;
+    }
+
+    public void setMinimumCalls(int minimumCalls) {
+        this.minimumCalls = minimumCalls;
+    }
+
+    public int getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    public void setFailureRateThreshold(int failureRateThreshold) {
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    public Duration getOpenDuration() {
+        return openDuration;
+    }
+
+    public void setOpenDuration(Duration openDuration) {
+        this.openDuration = openDuration;
+    }
+
+    public int getHalfOpenPermits() {
+        return halfOpenPermits;
+    }
+
+    public void setHalfOpenPermits(int halfOpenPermits) {
+        this.halfOpenPermits = halfOpenPermits;
+    }
+
+    public int getMaxConcurrentCalls() {
+        return maxConcurrentCalls;
+    }
+
+    public void setMaxConcurrentCalls(int maxConcurrentCalls) {
+        this.maxConcurrentCalls = maxConcurrentCalls;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public Duration getInitialBackoff() {
+        return initialBackoff;
+    }
+
+    public void setInitialBackoff(Duration initialBackoff) {
+        this.initialBackoff = initialBackoff;
+    }
+
+    public Duration getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    public void setMaxBackoff(Duration maxBackoff) {
+        this.maxBackoff = maxBackoff;
+    }
+
+    public double getJitter() {
+        return jitter;
+    }
+
+    public void setJitter(double jitter) {
+        this.jitter = jitter;
+    }
+}
@@ -0,0 +1,54 @@
+package com.vnpay.springboot.Config;
+
+import com.vnpay.springboot.Util.VirtualThreads;
+import org.apache.coyote.ProtocolHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Chế độ virtual thread (vnpay.virtual-threads.enabled=true, cần Java 21+):
+ * Tomcat xử lý mỗi request trên một virtual thread thay cho pool platform thread (server.tomcat.threads.max),
+ * các đoạn chặn (JPA, .block() khi gọi VNPAY) chỉ park virtual thread thay vì giữ thread của pool.
+ * Task bất đồng bộ của Spring MVC (Flux/Callable) cũng chạy trên cùng executor.
+ * Số request đồng thời khi đó bị giới hạn bởi server.tomcat.max-connections và pool kết nối DB.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "vnpay.virtual-threads", name = "enabled", havingValue = "true")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class VirtualThreadConfig implements WebMvcConfigurer, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadConfig.class);
+
+    // Bật tường minh mà JVM không hỗ trợ -> dừng khởi động, không lặng lẽ quay về platform thread
+    private final ExecutorService executor = VirtualThreads.newVirtualThreadPerTaskExecutor();
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadProtocolHandlerCustomizer() {
+        return protocolHandler -> {
+            protocolHandler.setExecutor(executor);
+            log.info("Tomcat request handling runs on virtual threads");
+        };
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(new TaskExecutorAdapter(executor));
+    }
+
+    // Tomcat không tự dừng executor được gán từ ngoài
+    @Override
+    public void destroy() {
+        executor.shutdown();
+    }
+}
@@ -1,135 +0,0 @@
-package com.vnpay.springboot.Config;
-
-import org.springframework.boot.context.properties.ConfigurationProperties;
-import org.springframework.context.annotation.Configuration;
-import jakarta.servlet.http.HttpServletRequest;
-
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
-import java.nio.charset.StandardCharsets;
-import java.util.*;
-
-@Configuration
-@ConfigurationProperties(prefix = "vnpay")
-public class VNPayConfig {
-
-    private String tmnCode;
-    private String secretKey;
-    private String payUrl;
-    private String returnUrl;
-    private String apiUrl;
-
-    // ✅ Getter & Setter
-    public String getTmnCode() {
-        return tmnCode;
-    }
-
-    public void setTmnCode(String tmnCode) {
-        this.tmnCode = tmnCode;
-    }
-
-    public String getSecretKey() {
-        return secretKey;
-    }
-
-    public void setSecretKey(String secretKey) {
-        this.secretKey = secretKey;
-    }
-
-    public String getPayUrl() {
-        return payUrl;
-    }
-
-    public void setPayUrl(String payUrl) {
-        this.payUrl = payUrl;
-    }
-
-    public String getReturnUrl() {
-        return returnUrl;
-    }
-
-    public void setReturnUrl(String returnUrl) {
-        this.returnUrl = returnUrl;
-    }
-
-    public String getApiUrl() {
-        return apiUrl;
-    }
-
-    public void setApiUrl(String apiUrl) {
-        this.apiUrl = apiUrl;
-    }
-
-    // ---------- Các hàm util bên dưới giữ nguyên ----------
-    public static String getIpAddress(HttpServletRequest request) {
-        String ipAddress = null;
-        try {
-            // 1. Ưu tiên lấy IP từ header X-FORWARDED-FOR
-            ipAddress = request.getHeader("X-FORWARDED-FOR");
-
-            // Xử lý trường hợp X-FORWARDED-FOR chứa nhiều IP (do qua nhiều proxy)
-            if (ipAddress != null && ipAddress.length() > 0 && !"unknown".equalsIgnoreCase(ipAddress)) {
-                // Lấy IP đầu tiên trong chuỗi (IP thực của client)
-                if (ipAddress.contains(",")) {
-                    ipAddress = ipAddress.split(",")[0].trim();
-                }
-            }
-
-            // 2. Fallback về IP trực tiếp nếu X-FORWARDED-FOR không có
-            if (ipAddress == null || ipAddress.length() == 0 || "unknown".equalsIgnoreCase(ipAddress)) {
-                ipAddress = request.getRemoteAddr();
-            }
-
-            // 3. Xử lý IPv6 Localhost (Chuyển ::1 thành 127.0.0.1)
-            // Đây là lỗi thường gặp nhất khiến VNPAY từ chối IP khi chạy dev
-            if (ipAddress != null && ("0:0:0:0:0:0:0:1".equals(ipAddress) || "::1".equals(ipAddress))) {
-                ipAddress = "127.0.0.1";
-            }
-
-        } catch (Exception e) {
-            ipAddress = "Invalid IP:" + e.getMessage();
-        }
-        return ipAddress;
-    }
-
-    public static String getRandomNumber(int len) {
-        Random rnd = new Random();
-        String chars = "0123456789";
-        StringBuilder sb = new StringBuilder(len);
-        for (int i = 0; i < len; i++) {
-            sb.append(chars.charAt(rnd.nextInt(chars.length())));
-        }
-        return sb.toString();
-    }
-
-    public static String hmacSHA512(final String key, final String data) {
-        try {
-            if (key == null || data == null) throw new NullPointerException();
-            final Mac hmac512 = Mac.getInstance("HmacSHA512");
-            final SecretKeySpec secretKey = new SecretKeySpec(key.getBytes(), "HmacSHA512");
-            hmac512.init(secretKey);
-            byte[] result = hmac512.doFinal(data.getBytes(StandardCharsets.UTF_8));
-            StringBuilder sb = new StringBuilder(2 * result.length);
-            for (byte b : result) sb.append(String.format("%02x", b & 0xff));
-            return sb.toString();
-        } catch (Exception ex) {
-            return "";
-        }
-    }
-
-    public String hashAllFields(Map<String, String> fields) {
-        List<String> fieldNames = new ArrayList<>(fields.keySet());
-        Collections.sort(fieldNames);
-        StringBuilder sb = new StringBuilder();
-        for (String fieldName : fieldNames) {
-            String fieldValue = fields.get(fieldName);
-            if (fieldValue != null && !fieldValue.isEmpty()
-                    && !fieldName.equals("vnp_SecureHashType")
-                    && !fieldName.equals("vnp_SecureHash")) {
-                sb.append(fieldName).append("=").append(fieldValue).append('&');
-            }
-        }
-        if (sb.length() > 0) sb.setLength(sb.length() - 1);
-        return hmacSHA512(this.secretKey, sb.toString());
-    }
-}
@@ -0,0 +1,72 @@
+package com.vnpay.springboot.Controller;
+
+import com.vnpay.springboot.Service.CallbackAdmissionControl;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.Collections;
+
+/**
+ * Chặn Return URL / IPN trước VNPayController theo CallbackAdmissionControl.
+ * Bị từ chối: 429 (hết token theo IP) hoặc 503 (node quá tải), kèm Retry-After;
+ * IPN nhận thêm body {"RspCode":"99"} để VNPAY gửi lại sau.
+ * IP client: request.getRemoteAddr(), X-Forwarded-For chỉ tính khi đến từ proxy tin cậy.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class CallbackAdmissionFilter extends OncePerRequestFilter {
+
+    private final CallbackAdmissionControl admissionControl;
+
+    public CallbackAdmissionFilter(CallbackAdmissionControl admissionControl) {
+        this.admissionControl = admissionControl;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !admissionControl.isEnabled() || endpoint(request) == null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        CallbackAdmissionControl.Endpoint endpoint = endpoint(request);
+        CallbackAdmissionControl.Decision decision =
+                admissionControl.tryAdmit(endpoint, admissionControl.clientAddress(request.getRemoteAddr(),
+                        Collections.list(request.getHeaders("X-Forwarded-For"))));
+        if (decision != CallbackAdmissionControl.Decision.ADMIT) {
+            reject(response, endpoint, decision);
+            return;
+        }
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            admissionControl.release();
+        }
+    }
+
+    private static CallbackAdmissionControl.Endpoint endpoint(HttpServletRequest request) {
+        return CallbackAdmissionControl.Endpoint.forPath(
+                request.getRequestURI().substring(request.getContextPath().length()));
+    }
+
+    private static void reject(HttpServletResponse response, CallbackAdmissionControl.Endpoint endpoint,
+                               CallbackAdmissionControl.Decision decision) throws IOException {
+        response.setStatus(decision == CallbackAdmissionControl.Decision.RATE_LIMITED
+                ? HttpStatus.TOO_MANY_REQUESTS.value() : HttpStatus.SERVICE_UNAVAILABLE.value());
+        response.setHeader("Retry-After", "1");
+        if (endpoint == CallbackAdmissionControl.Endpoint.IPN) {
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            response.setContentLength(CallbackAdmissionControl.IPN_REJECTED_BODY.length);
+            response.getOutputStream().write(CallbackAdmissionControl.IPN_REJECTED_BODY);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.vnpay.springboot.Controller;
+
+import com.vnpay.springboot.Service.VNPayMerchantRegistry;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/vnpay/merchants")
+public class MerchantController {
+
+    private final VNPayMerchantRegistry merchantRegistry;
+
+    public MerchantController(VNPayMerchantRegistry merchantRegistry) {
+        this.merchantRegistry = merchantRegistry;
+    }
+
+    // Danh sách vnp_TmnCode đang dùng (không trả secret key)
+    @GetMapping
+    public Map<String, Object> merchants() {
+        return Map.of("merchants", merchantRegistry.getTmnCodes());
+    }
+
+    // Nạp lại vnpay.merchants.file ngay, không chờ lần kiểm tra định kỳ
+    @PostMapping("/reload")
+    public ResponseEntity<?> reload() {
+        try {
+            int count = merchantRegistry.reload();
+            return ResponseEntity.ok(Map.of("merchants", merchantRegistry.getTmnCodes(), "count", count));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("error", e.getMessage()));
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.vnpay.springboot.Controller;
+
+import com.vnpay.springboot.Service.CallbackAdmissionControl;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+/**
+ * Bản WebFlux của CallbackAdmissionFilter: chặn Return URL / IPN trước ReactiveVNPayController.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveCallbackAdmissionFilter implements WebFilter {
+
+    private final CallbackAdmissionControl admissionControl;
+
+    public ReactiveCallbackAdmissionFilter(CallbackAdmissionControl admissionControl) {
+        this.admissionControl = admissionControl;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        if (!admissionControl.isEnabled()) return chain.filter(exchange);
+        CallbackAdmissionControl.Endpoint endpoint = endpoint(exchange);
+        if (endpoint == null) return chain.filter(exchange);
+        CallbackAdmissionControl.Decision decision =
+                admissionControl.tryAdmit(endpoint, clientAddress(exchange.getRequest()));
+        if (decision != CallbackAdmissionControl.Decision.ADMIT) {
+            return reject(exchange.getResponse(), endpoint, decision);
+        }
+        return chain.filter(exchange).doFinally(signal -> admissionControl.release());
+    }
+
+    // Địa chỉ socket; X-Forwarded-For chỉ tính khi đến từ proxy tin cậy
+    private String clientAddress(ServerHttpRequest request) {
+        InetSocketAddress remote = request.getRemoteAddress();
+        String remoteAddr = remote == null || remote.getAddress() == null ? null : remote.getAddress().getHostAddress();
+        List<String> forwardedFor = request.getHeaders().get("X-Forwarded-For");
+        return admissionControl.clientAddress(remoteAddr, forwardedFor == null ? List.of() : forwardedFor);
+    }
+
+    private static CallbackAdmissionControl.Endpoint endpoint(ServerWebExchange exchange) {
+        return CallbackAdmissionControl.Endpoint.forPath(
+                exchange.getRequest().getPath().pathWithinApplication().value());
+    }
+
+    private static Mono<Void> reject(ServerHttpResponse response, CallbackAdmissionControl.Endpoint endpoint,
+                                     CallbackAdmissionControl.Decision decision) {
+        response.setStatusCode(decision == CallbackAdmissionControl.Decision.RATE_LIMITED
+                ? HttpStatus.TOO_MANY_REQUESTS : HttpStatus.SERVICE_UNAVAILABLE);
+        response.getHeaders().set("Retry-After", "1");
+        if (endpoint != CallbackAdmissionControl.Endpoint.IPN) return response.setComplete();
+        response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+        return response.writeWith(Mono.just(
+                response.bufferFactory().wrap(CallbackAdmissionControl.IPN_REJECTED_BODY)));
+    }
+}
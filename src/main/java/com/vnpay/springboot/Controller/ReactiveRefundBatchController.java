@@ -0,0 +1,47 @@
+package com.vnpay.springboot.Controller;
+
+import com.vnpay.springboot.Config.VNPayConfig;
+import com.vnpay.springboot.Model.RefundBatchResult;
+import com.vnpay.springboot.Model.RefundInstruction;
+import com.vnpay.springboot.Service.RefundBatchService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.ServerWebInputException;
+import reactor.core.publisher.Flux;
+
+/**
+ * Hoàn tiền hàng loạt cho chế độ WebFlux, cùng đường dẫn và định dạng với RefundBatchController.
+ * Body được StringDecoder tách theo dòng.
+ */
+@RestController
+@RequestMapping("/vnpay/api/refund")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveRefundBatchController {
+
+    private final RefundBatchService refundBatchService;
+
+    public ReactiveRefundBatchController(RefundBatchService refundBatchService) {
+        this.refundBatchService = refundBatchService;
+    }
+
+    @PostMapping(value = "/batch",
+            consumes = {"text/csv", MediaType.APPLICATION_NDJSON_VALUE, MediaType.APPLICATION_JSON_VALUE},
+            produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<RefundBatchResult> refundBatch(
+            @RequestBody Flux<String> lines,
+            @RequestParam(value = "createBy", defaultValue = "batch") String createBy,
+            ServerWebExchange exchange) {
+
+        RefundInstruction.Format format;
+        try {
+            format = RefundInstruction.Format.fromContentType(
+                    exchange.getRequest().getHeaders().getFirst(HttpHeaders.CONTENT_TYPE));
+        } catch (IllegalArgumentException e) {
+            throw new ServerWebInputException(e.getMessage());
+        }
+        return refundBatchService.submit(lines, format, createBy, VNPayConfig.getIpAddress(exchange.getRequest()));
+    }
+}
@@ -0,0 +1,182 @@
+package com.vnpay.springboot.Controller;
+
+import com.vnpay.springboot.Config.VNPayConfig;
+import com.vnpay.springboot.Model.QueryDrResponse;
+import com.vnpay.springboot.Model.RefundResponse;
+import com.vnpay.springboot.Model.VNPayMerchant;
+import com.vnpay.springboot.Service.IpnDedupCache;
+import com.vnpay.springboot.Service.ReactiveVNPayService;
+import com.vnpay.springboot.Service.VNPayMetrics;
+import com.vnpay.springboot.Service.VNPayQuery;
+import com.vnpay.springboot.Service.VNPayRefund;
+import com.vnpay.springboot.Util.VNPayCallbackParams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.ServerWebInputException;
+import reactor.core.publisher.Mono;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Controller WebFlux cho IPN, Return URL, QueryDR và Refund, bật khi khởi động với
+ * spring.main.web-application-type=reactive (chạy trên Netty thay cho Tomcat).
+ * Cùng đường dẫn và cùng phản hồi với VNPayController.
+ */
+@Controller
+@RequestMapping("/vnpay")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveVNPayController {
+
+    private static final Logger log = LoggerFactory.getLogger(ReactiveVNPayController.class);
+    private final ReactiveVNPayService vnPayService;
+    private final VNPayQuery vnPayQuery;
+    private final VNPayRefund vnPayRefund;
+    private final IpnDedupCache ipnDedupCache;
+    private final VNPayMetrics metrics;
+
+    public ReactiveVNPayController(ReactiveVNPayService vnPayService, VNPayQuery vnPayQuery, VNPayRefund vnPayRefund,
+                                   IpnDedupCache ipnDedupCache, VNPayMetrics metrics) {
+        this.vnPayService = vnPayService;
+        this.vnPayQuery = vnPayQuery;
+        this.vnPayRefund = vnPayRefund;
+        this.ipnDedupCache = ipnDedupCache;
+        this.metrics = metrics;
+    }
+
+    // ------------------- 1. FORM -------------------
+    @GetMapping("/query")
+    public String querydr() {
+        return "vnpay_querydr";
+    }
+
+    @GetMapping("/refund")
+    public String refund() {
+        return "vnpay_refund";
+    }
+
+    // ------------------- 2. RETURN URL -------------------
+    @GetMapping("/vnpay-return")
+    public Mono<String> handleVnPayReturn(ServerWebExchange exchange, Model model) {
+        VNPayCallbackParams vnpParams = VNPayCallbackParams.parse(exchange.getRequest().getURI().getRawQuery());
+        return vnPayService.processVnPayReturn(vnpParams)
+                .map(paymentStatus -> {
+                    VNPayReturnView.populate(model, vnpParams, paymentStatus);
+                    return "vnpay_return";
+                });
+    }
+
+    // ------------------- 3. IPN -------------------
+    @GetMapping("/vnpay-ipn")
+    @ResponseBody
+    public Mono<Map<String, String>> handleVnPayIpn(ServerWebExchange exchange) {
+        long start = System.nanoTime();
+        VNPayCallbackParams vnpParams = VNPayCallbackParams.parse(exchange.getRequest().getURI().getRawQuery());
+
+        // IPN gửi lại -> trả lời ngay phản hồi đã chốt, không checksum lại và không chạm DB
+        String dedupKey = IpnDedupCache.key(vnpParams);
+        Map<String, String> cachedResponse = ipnDedupCache.get(dedupKey);
+        if (cachedResponse != null) {
+            log.debug("Duplicate VNPAY IPN answered from cache. TxnRef: {}", vnpParams.get("vnp_TxnRef"));
+            metrics.recordIpn(cachedResponse.get("RspCode"), "cache", System.nanoTime() - start);
+            return Mono.just(cachedResponse);
+        }
+
+        log.debug("Received VNPAY IPN Request: {}", vnpParams);
+        return vnPayService.processVnPayIpn(vnpParams)
+                .doOnNext(ipnResponse -> {
+                    ipnDedupCache.put(dedupKey, ipnResponse);
+                    metrics.recordIpn(ipnResponse.get("RspCode"), "service", System.nanoTime() - start);
+                });
+    }
+
+    // ------------------- 4. QUERY -------------------
+    @PostMapping("/process-query")
+    public Mono<String> processQuery(ServerWebExchange exchange, Model model) {
+        return queryDr(exchange, true)
+                .map(result -> {
+                    model.addAttribute("queryResult", result.toJson());
+                    return "vnpay_query_result";
+                });
+    }
+
+    @PostMapping("/api/querydr")
+    @ResponseBody
+    public Mono<QueryDrResponse> queryApi(ServerWebExchange exchange) {
+        return queryDr(exchange, false);
+    }
+
+    // ------------------- 5. REFUND -------------------
+    @PostMapping("/process-refund")
+    public Mono<String> processRefund(ServerWebExchange exchange, Model model) {
+        return refund(exchange)
+                .map(result -> {
+                    model.addAttribute("refundResult", result.toJson());
+                    return "vnpay_refund_result";
+                });
+    }
+
+    @PostMapping("/api/refund")
+    @ResponseBody
+    public Mono<RefundResponse> refundApi(ServerWebExchange exchange) {
+        return refund(exchange);
+    }
+
+    private Mono<QueryDrResponse> queryDr(ServerWebExchange exchange, boolean transactionNoRequired) {
+        String clientIp = VNPayConfig.getIpAddress(exchange.getRequest());
+        return requestParams(exchange).flatMap(params -> {
+            String txnRef = required(params, "txnRef");
+            String transDate = required(params, "transDate");
+            String transactionNo = transactionNoRequired ? required(params, "transactionNo") : params.get("transactionNo");
+            return merchantForOrder(txnRef).flatMap(merchant -> vnPayQuery.processQueryAsync(
+                    merchant.orElse(null), txnRef, transDate, clientIp, transactionNo));
+        });
+    }
+
+    private Mono<RefundResponse> refund(ServerWebExchange exchange) {
+        String clientIp = VNPayConfig.getIpAddress(exchange.getRequest());
+        return requestParams(exchange).flatMap(params -> {
+            long amount;
+            try {
+                amount = Long.parseLong(required(params, "amount"));
+            } catch (NumberFormatException e) {
+                return Mono.error(new ServerWebInputException("Invalid amount"));
+            }
+            String txnRef = required(params, "txnRef");
+            String transactionNo = required(params, "transactionNo");
+            String transType = required(params, "transType");
+            String createBy = required(params, "createBy");
+            String transDate = required(params, "transDate");
+            return merchantForOrder(txnRef).flatMap(merchant -> vnPayRefund.sendRefundRequestAsync(
+                    merchant.orElse(null), txnRef, transactionNo, amount, transType, createBy, transDate, clientIp));
+        });
+    }
+
+    // Optional rỗng khi không có merchant: VNPayQuery/VNPayRefund tự trả mã 99
+    private Mono<Optional<VNPayMerchant>> merchantForOrder(String txnRef) {
+        return vnPayService.merchantForOrder(txnRef).map(Optional::of).defaultIfEmpty(Optional.empty());
+    }
+
+    // Như @RequestParam bên servlet: gộp tham số query string và form (form ưu tiên)
+    private static Mono<Map<String, String>> requestParams(ServerWebExchange exchange) {
+        return exchange.getFormData().map(form -> {
+            Map<String, String> params = new HashMap<>(exchange.getRequest().getQueryParams().toSingleValueMap());
+            params.putAll(form.toSingleValueMap());
+            return params;
+        });
+    }
+
+    private static String required(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null) {
+            throw new ServerWebInputException("Required parameter '" + name + "' is not present");
+        }
+        return value;
+    }
+}
@@ -0,0 +1,50 @@
+package com.vnpay.springboot.Controller;
+
+import com.vnpay.springboot.Service.ReconciliationService;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDate;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/vnpay/reconciliation")
+public class ReconciliationController {
+
+    private final ReconciliationService reconciliationService;
+
+    public ReconciliationController(ReconciliationService reconciliationService) {
+        this.reconciliationService = reconciliationService;
+    }
+
+    // Đối soát theo file đầu vào (tên file trong vnpay.reconciliation.input-dir)
+    @PostMapping("/file")
+    public ResponseEntity<?> reconcileFile(@RequestParam("name") String fileName) {
+        try {
+            return ResponseEntity.accepted().body(reconciliationService.reconcileFile(fileName));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    // Đối soát toàn bộ đơn tạo trong một ngày (yyyy-MM-dd)
+    @PostMapping("/date")
+    public ResponseEntity<?> reconcileDate(
+            @RequestParam("date") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date) {
+        try {
+            return ResponseEntity.accepted().body(reconciliationService.reconcileDate(date));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @GetMapping("/status")
+    public ResponseEntity<ReconciliationService.Job> status() {
+        ReconciliationService.Job job = reconciliationService.getCurrentJob();
+        return job == null ? ResponseEntity.noContent().build() : ResponseEntity.ok(job);
+    }
+}
@@ -0,0 +1,81 @@
+package com.vnpay.springboot.Controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.vnpay.springboot.Config.VNPayConfig;
+import com.vnpay.springboot.Model.RefundBatchResult;
+import com.vnpay.springboot.Model.RefundInstruction;
+import com.vnpay.springboot.Service.RefundBatchService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Hoàn tiền hàng loạt (chế độ servlet): body CSV (text/csv) hoặc NDJSON (application/x-ndjson),
+ * kết quả từng dòng trả về dạng NDJSON ngay khi có. Body được đọc dần, không giữ cả batch trong bộ nhớ.
+ * <pre>
+ * curl -X POST -H 'Content-Type: text/csv' --data-binary @refunds.csv \
+ *      'http://localhost:8080/vnpay/api/refund/batch?createBy=ops'
+ * </pre>
+ */
+@RestController
+@RequestMapping("/vnpay/api/refund")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class RefundBatchController {
+
+    private final RefundBatchService refundBatchService;
+    private final ObjectMapper objectMapper;
+
+    public RefundBatchController(RefundBatchService refundBatchService, ObjectMapper objectMapper) {
+        this.refundBatchService = refundBatchService;
+        this.objectMapper = objectMapper;
+    }
+
+    @PostMapping(value = "/batch",
+            consumes = {"text/csv", MediaType.APPLICATION_NDJSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<ResponseBodyEmitter> refundBatch(
+            @RequestParam(value = "createBy", defaultValue = "batch") String createBy,
+            HttpServletRequest request) throws IOException {
+
+        RefundInstruction.Format format;
+        try {
+            format = RefundInstruction.Format.fromContentType(request.getContentType());
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        String clientIp = VNPayConfig.getIpAddress(request);
+        BufferedReader reader = request.getReader();
+        Flux<String> lines = Flux.fromStream(reader::lines).subscribeOn(Schedulers.boundedElastic());
+
+        // Timeout riêng (mặc định của request async chỉ vài chục giây, batch lớn chạy lâu hơn)
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(refundBatchService.getProperties().getTimeout().toMillis());
+        Disposable subscription = refundBatchService.submit(lines, format, createBy, clientIp)
+                .subscribe(result -> send(emitter, result), emitter::completeWithError, emitter::complete);
+        emitter.onTimeout(subscription::dispose);
+        emitter.onError(e -> subscription.dispose());
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(emitter);
+    }
+
+    // Mỗi kết quả một dòng JSON; gửi dạng String để StringHttpMessageConverter ghi UTF-8
+    private void send(ResponseBodyEmitter emitter, RefundBatchResult result) {
+        try {
+            emitter.send(objectMapper.writeValueAsString(result) + "\n", MediaType.APPLICATION_JSON);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
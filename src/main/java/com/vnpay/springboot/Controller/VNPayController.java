@@ -1,32 +1,53 @@
 package com.vnpay.springboot.Controller;
 
 import com.vnpay.springboot.Config.VNPayConfig;
+import com.vnpay.springboot.Config.VNPayIdProperties;
+import com.vnpay.springboot.Model.QueryDrResponse;
+import com.vnpay.springboot.Model.RefundResponse;
+import com.vnpay.springboot.Service.IpnDedupCache;
+import com.vnpay.springboot.Service.VNPayIdGenerator;
+import com.vnpay.springboot.Service.VNPayMetrics;
 import com.vnpay.springboot.Service.VNPayService;
 import com.vnpay.springboot.Service.VNPayQuery;
 import com.vnpay.springboot.Service.VNPayRefund;
+import com.vnpay.springboot.Util.VNPayCallbackParams;
 import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
 
-import java.io.UnsupportedEncodingException;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
 
+// Chế độ servlet (mặc định). Với spring.main.web-application-type=reactive dùng ReactiveVNPayController
 @Controller
 @RequestMapping("/vnpay")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class VNPayController {
 
     private static final Logger log = LoggerFactory.getLogger(VNPayController.class);
     private final VNPayService vnPayService;
     private final VNPayQuery vnPayQuery;
     private final VNPayRefund vnPayRefund;
-
-    public VNPayController(VNPayService vnPayService, VNPayQuery vnPayQuery, VNPayRefund vnPayRefund) {
+    private final IpnDedupCache ipnDedupCache;
+    private final VNPayIdGenerator idGenerator;
+    private final VNPayIdProperties idProperties;
+    private final VNPayMetrics metrics;
+
+    public VNPayController(VNPayService vnPayService, VNPayQuery vnPayQuery, VNPayRefund vnPayRefund,
+                           IpnDedupCache ipnDedupCache, VNPayIdGenerator idGenerator, VNPayIdProperties idProperties,
+                           VNPayMetrics metrics) {
         this.vnPayService = vnPayService;
         this.vnPayQuery = vnPayQuery;
         this.vnPayRefund = vnPayRefund;
+        this.ipnDedupCache = ipnDedupCache;
+        this.idGenerator = idGenerator;
+        this.idProperties = idProperties;
+        this.metrics = metrics;
     }
 
     // ------------------- 1. FORM -------------------
@@ -53,19 +74,28 @@ public class VNPayController {
             @RequestParam("bankcode") String bankcode,
             @RequestParam("ordertype") String ordertype,
             @RequestParam("promocode") String promocode,
-            @RequestParam("txnRef") String txnRef,
+            // Để trống thì server tự sinh (vnpay.id.generate-txn-ref)
+            @RequestParam(value = "txnRef", required = false) String txnRef,
+            // vnp_TmnCode của storefront, để trống = merchant mặc định
+            @RequestParam(value = "tmnCode", required = false) String tmnCode,
             HttpServletRequest request) {
 
         String clientIp = VNPayConfig.getIpAddress(request);
+        if (txnRef == null || txnRef.isBlank()) {
+            if (!idProperties.isGenerateTxnRef()) {
+                return "redirect:/vnpay/payment-error?message=MISSING_TXN_REF";
+            }
+            txnRef = idGenerator.nextTxnRef();
+        }
 
         try {
             String vnpayUrl = vnPayService.createOrder(
-                    orderTotal, orderInfo, bankcode, ordertype, promocode, txnRef, clientIp
+                    orderTotal, orderInfo, bankcode, ordertype, promocode, txnRef, clientIp, tmnCode
             );
-            log.info("Redirecting user to VNPAY URL: {}", vnpayUrl);
+            log.debug("Redirecting user to VNPAY URL: {}", vnpayUrl);
             return "redirect:" + vnpayUrl;
 
-        } catch (UnsupportedEncodingException e) {
+        } catch (RuntimeException e) {
             log.error("Error creating VNPAY URL", e);
             return "redirect:/vnpay/payment-error?message=URL_ENCODING_ERROR";
         }
@@ -75,98 +105,97 @@ public class VNPayController {
     @GetMapping("/vnpay-return")
     public String handleVnPayReturn(HttpServletRequest request, Model model) {
 
-        Map<String, String> vnpParams = new HashMap<>();
-        Enumeration<String> params = request.getParameterNames();
-        while (params.hasMoreElements()) {
-            String fieldName = params.nextElement();
-            String fieldValue = request.getParameter(fieldName);
-            vnpParams.put(fieldName, fieldValue);
-        }
+        VNPayCallbackParams vnpParams = callbackParams(request);
 
         // CHUYỂN LOGIC XỬ LÝ CHỮ KÝ VÀ TRẠNG THÁI VÀO SERVICE
         int paymentStatus = vnPayService.processVnPayReturn(vnpParams);
 
-        // --- KHẮC PHỤC LỖI THYMELEAF SPEL ---
-        // 1. Lấy chuỗi số tiền từ VNPAY (đã nhân 100)
-        String vnpAmountStr = vnpParams.get("vnp_Amount");
-
-        // 2. Chuyển đổi chuỗi số tiền này sang Long để Thymeleaf có thể chia/format
-        if (vnpAmountStr != null && !vnpAmountStr.isEmpty()) {
-            try {
-                long vnpAmountLong = Long.parseLong(vnpAmountStr);
-                // 3. Đưa giá trị kiểu Long vào Model.
-                model.addAttribute("vnp_Amount", vnpAmountLong);
-            } catch (NumberFormatException e) {
-                log.error("Error parsing vnp_Amount: {} to Long. Using default 0.", vnpAmountStr, e);
-                model.addAttribute("vnp_Amount", 0L);
-            }
-        } else {
-            model.addAttribute("vnp_Amount", 0L);
-        }
-        // ------------------------------------
-
-        // Lấy các tham số VNPAY còn lại (không cần chuyển đổi)
-        model.addAttribute("vnp_TxnRef", vnpParams.get("vnp_TxnRef"));
-        model.addAttribute("vnp_OrderInfo", vnpParams.get("vnp_OrderInfo"));
-        model.addAttribute("vnp_BankCode", vnpParams.get("vnp_BankCode"));
-        model.addAttribute("vnp_PayDate", vnpParams.get("vnp_PayDate"));
-        String responseCode = vnpParams.get("vnp_ResponseCode");
-        model.addAttribute("vnp_ResponseCode", responseCode);
-
-
-        if (paymentStatus == -1) {
-            model.addAttribute("status", "fail");
-            model.addAttribute("message", "Lỗi xác thực dữ liệu (Invalid Signature).");
-        } else if (paymentStatus == 1) {
-            model.addAttribute("status", "success");
-            model.addAttribute("message", "Thanh toán thành công!");
-        } else { // paymentStatus == 0 hoặc các mã lỗi khác
-            model.addAttribute("status", "fail");
-            model.addAttribute("message", "Giao dịch không thành công. Mã lỗi VNPAY: " + responseCode);
-        }
+        VNPayReturnView.populate(model, vnpParams, paymentStatus);
 
         return "vnpay_return";
     }
     @GetMapping("/vnpay-ipn")
     @ResponseBody
     public Map<String, String> handleVnPayIpn(HttpServletRequest request) {
+        long start = System.nanoTime();
 
-        // 1. Lấy tất cả tham số từ request
-        Map<String, String> vnpParams = new HashMap<>();
-        Enumeration<String> params = request.getParameterNames();
-        while (params.hasMoreElements()) {
-            String fieldName = params.nextElement();
-            String fieldValue = request.getParameter(fieldName);
-            vnpParams.put(fieldName, fieldValue);
+        // 1. Lấy tất cả tham số từ request (parse một lần từ query string gốc)
+        VNPayCallbackParams vnpParams = callbackParams(request);
+
+        // 2. IPN gửi lại -> trả lời ngay phản hồi đã chốt, không checksum lại và không mở transaction DB
+        String dedupKey = IpnDedupCache.key(vnpParams);
+        Map<String, String> cachedResponse = ipnDedupCache.get(dedupKey);
+        if (cachedResponse != null) {
+            return answerFromCache(vnpParams, cachedResponse, start);
         }
 
-        log.info("Received VNPAY IPN Request: {}", vnpParams);
+        // IPN trùng đến cùng lúc trên node này: chờ bản đầu tiên xử lý xong rồi đọc cache, không chạm DB.
+        // Khi chờ node khác trong cụm (bảng biên nhận), khóa được nhả để không chặn IPN khác cùng stripe
+        ReentrantLock lock = ipnDedupCache.lockFor(vnpParams.get("vnp_TxnRef"));
+        lock.lock();
+        Map<String, String> ipnResponse;
+        try {
+            cachedResponse = ipnDedupCache.get(dedupKey);
+            if (cachedResponse != null) {
+                return answerFromCache(vnpParams, cachedResponse, start);
+            }
 
-        // 2. Chuyển logic xử lý và cập nhật DB vào Service
-        Map<String, String> ipnResponse = vnPayService.processVnPayIpn(vnpParams);
+            log.debug("Received VNPAY IPN Request: {}", vnpParams);
 
-        // 3. Trả về JSON Response
+            // 3. Chuyển logic xử lý và cập nhật DB vào Service
+            ipnResponse = vnPayService.processVnPayIpn(vnpParams, lock);
+            ipnDedupCache.put(dedupKey, ipnResponse);
+        } finally {
+            lock.unlock();
+        }
+        metrics.recordIpn(ipnResponse.get("RspCode"), "service", System.nanoTime() - start);
+
+        // 4. Trả về JSON Response
         return ipnResponse;
     }
 
+    private Map<String, String> answerFromCache(VNPayCallbackParams vnpParams, Map<String, String> cachedResponse,
+                                                long start) {
+        log.debug("Duplicate VNPAY IPN answered from cache. TxnRef: {}", vnpParams.get("vnp_TxnRef"));
+        metrics.recordIpn(cachedResponse.get("RspCode"), "cache", System.nanoTime() - start);
+        return cachedResponse;
+    }
+
 
     // ------------------- 4. QUERY -------------------
+    // Trả về Mono: luồng servlet được giải phóng trong lúc chờ VNPAY (Spring MVC xử lý bất đồng bộ)
     @PostMapping("/process-query")
-    public String processQuery(
+    public Mono<String> processQuery(
             @RequestParam("txnRef") String txnRef,
             @RequestParam("transDate") String transDate,
             @RequestParam("transactionNo") String transactionNo,
             HttpServletRequest request, Model model) {
 
         String clientIp = VNPayConfig.getIpAddress(request);
-        String resultJson = vnPayQuery.processQuery(txnRef, transDate, clientIp, transactionNo);
-        model.addAttribute("queryResult", resultJson);
-        return "vnpay_query_result";
+        return vnPayQuery.processQueryAsync(vnPayService.merchantForOrder(txnRef),
+                        txnRef, transDate, clientIp, transactionNo)
+                .map(result -> {
+                    model.addAttribute("queryResult", result.toJson());
+                    return "vnpay_query_result";
+                });
+    }
+
+    @PostMapping("/api/querydr")
+    @ResponseBody
+    public Mono<QueryDrResponse> queryApi(
+            @RequestParam("txnRef") String txnRef,
+            @RequestParam("transDate") String transDate,
+            @RequestParam(value = "transactionNo", required = false) String transactionNo,
+            HttpServletRequest request) {
+
+        String clientIp = VNPayConfig.getIpAddress(request);
+        return vnPayQuery.processQueryAsync(vnPayService.merchantForOrder(txnRef),
+                txnRef, transDate, clientIp, transactionNo);
     }
 
     // ------------------- 5. REFUND -------------------
     @PostMapping("/process-refund")
-    public String processRefund(
+    public Mono<String> processRefund(
             @RequestParam("txnRef") String txnRef,
             @RequestParam("transactionNo") String transactionNo,
             @RequestParam("amount") long amount,
@@ -176,8 +205,42 @@ public class VNPayController {
             HttpServletRequest request, Model model) {
 
         String clientIp = VNPayConfig.getIpAddress(request);
-        String resultJson = vnPayRefund.sendRefundRequest(txnRef, transactionNo, amount, transType, createBy, transDate, clientIp);
-        model.addAttribute("refundResult", resultJson);
-        return "vnpay_refund_result";
+        return vnPayRefund.sendRefundRequestAsync(vnPayService.merchantForOrder(txnRef),
+                txnRef, transactionNo, amount, transType, createBy, transDate, clientIp)
+                .map(result -> {
+                    model.addAttribute("refundResult", result.toJson());
+                    return "vnpay_refund_result";
+                });
+    }
+
+    @PostMapping("/api/refund")
+    @ResponseBody
+    public Mono<RefundResponse> refundApi(
+            @RequestParam("txnRef") String txnRef,
+            @RequestParam("transactionNo") String transactionNo,
+            @RequestParam("amount") long amount,
+            @RequestParam("transType") String transType,
+            @RequestParam("createBy") String createBy,
+            @RequestParam("transDate") String transDate,
+            HttpServletRequest request) {
+
+        String clientIp = VNPayConfig.getIpAddress(request);
+        return vnPayRefund.sendRefundRequestAsync(vnPayService.merchantForOrder(txnRef),
+                txnRef, transactionNo, amount, transType, createBy, transDate, clientIp);
+    }
+
+    // Tham số VNPAY gửi về nằm trên query string; không có query string (form POST) thì lấy tham số container đã parse
+    private static VNPayCallbackParams callbackParams(HttpServletRequest request) {
+        String queryString = request.getQueryString();
+        if (queryString != null) {
+            return VNPayCallbackParams.parse(queryString);
+        }
+        Map<String, String> vnpParams = new HashMap<>();
+        Enumeration<String> params = request.getParameterNames();
+        while (params.hasMoreElements()) {
+            String fieldName = params.nextElement();
+            vnpParams.put(fieldName, request.getParameter(fieldName));
+        }
+        return VNPayCallbackParams.of(vnpParams);
     }
 }
@@ -0,0 +1,60 @@
+package com.vnpay.springboot.Controller;
+
+import com.vnpay.springboot.Util.VNPayCallbackParams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ui.Model;
+
+/**
+ * Đổ dữ liệu trang vnpay_return vào Model, dùng chung cho controller servlet và WebFlux.
+ */
+final class VNPayReturnView {
+
+    private static final Logger log = LoggerFactory.getLogger(VNPayReturnView.class);
+
+    private VNPayReturnView() {
+    }
+
+    /**
+     * @param paymentStatus kết quả processVnPayReturn: -1 sai chữ ký, 1 thành công, 0 thất bại
+     */
+    static void populate(Model model, VNPayCallbackParams vnpParams, int paymentStatus) {
+        // --- KHẮC PHỤC LỖI THYMELEAF SPEL ---
+        // 1. Lấy chuỗi số tiền từ VNPAY (đã nhân 100)
+        String vnpAmountStr = vnpParams.get("vnp_Amount");
+
+        // 2. Chuyển đổi chuỗi số tiền này sang Long để Thymeleaf có thể chia/format
+        if (vnpAmountStr != null && !vnpAmountStr.isEmpty()) {
+            try {
+                long vnpAmountLong = Long.parseLong(vnpAmountStr);
+                // 3. Đưa giá trị kiểu Long vào Model.
+                model.addAttribute("vnp_Amount", vnpAmountLong);
+            } catch (NumberFormatException e) {
+                log.error("Error parsing vnp_Amount: {} to Long. Using default 0.", vnpAmountStr, e);
+                model.addAttribute("vnp_Amount", 0L);
+            }
+        } else {
+            model.addAttribute("vnp_Amount", 0L);
+        }
+        // ------------------------------------
+
+        // Lấy các tham số VNPAY còn lại (không cần chuyển đổi)
+        model.addAttribute("vnp_TxnRef", vnpParams.get("vnp_TxnRef"));
+        model.addAttribute("vnp_OrderInfo", vnpParams.get("vnp_OrderInfo"));
+        model.addAttribute("vnp_BankCode", vnpParams.get("vnp_BankCode"));
+        model.addAttribute("vnp_PayDate", vnpParams.get("vnp_PayDate"));
+        String responseCode = vnpParams.get("vnp_ResponseCode");
+        model.addAttribute("vnp_ResponseCode", responseCode);
+
+        if (paymentStatus == -1) {
+            model.addAttribute("status", "fail");
+            model.addAttribute("message", "Lỗi xác thực dữ liệu (Invalid Signature).");
+        } else if (paymentStatus == 1) {
+            model.addAttribute("status", "success");
+            model.addAttribute("message", "Thanh toán thành công!");
+        } else { // paymentStatus == 0 hoặc các mã lỗi khác
+            model.addAttribute("status", "fail");
+            model.addAttribute("message", "Giao dịch không thành công. Mã lỗi VNPAY: " + responseCode);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.vnpay.springboot.Entity;
+
+import jakarta.persistence.*;
+
+import java.time.Instant;
+
+/**
+ * Biên nhận IPN dùng chung giữa các node: một dòng cho mỗi (vnp_TxnRef, vnp_TransactionNo).
+ * Node nào INSERT được dòng PROCESSING thì xử lý IPN, các node khác đọc lại phản hồi đã chốt.
+ * Bảng do JPA tạo (ddl-auto), đọc ghi bằng JdbcTemplate trong IpnIdempotencyService.
+ */
+@Entity
+@Table(name = "vnpay_ipn_receipt",
+        uniqueConstraints = @UniqueConstraint(name = "uk_vnpay_ipn_receipt",
+                columnNames = {"vnp_txn_ref", "vnp_transaction_no"}),
+        indexes = @Index(name = "idx_vnpay_ipn_receipt_updated_at", columnList = "updated_at"))
+public class IpnReceipt {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "vnp_txn_ref", nullable = false, length = 100)
+    private String txnRef;
+
+    // "" nếu IPN không có vnp_TransactionNo (cột nằm trong khóa duy nhất nên không để null)
+    @Column(name = "vnp_transaction_no", nullable = false, length = 32)
+    private String transactionNo;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false, length = 16)
+    private IpnReceiptStatus status;
+
+    // Phản hồi đã trả VNPAY, chỉ có khi DONE
+    @Column(name = "rsp_code", length = 8)
+    private String rspCode;
+
+    @Column(name = "message", length = 64)
+    private String message;
+
+    // Node đang giữ quyền xử lý
+    @Column(name = "owner_node", nullable = false, length = 64)
+    private String owner;
+
+    @Column(name = "claimed_at", nullable = false)
+    private Instant claimedAt;
+
+    @Column(name = "updated_at", nullable = false)
+    private Instant updatedAt;
+
+    protected IpnReceipt() {
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getTxnRef() {
+        return txnRef;
+    }
+
+    public String getTransactionNo() {
+        return transactionNo;
+    }
+
+    public IpnReceiptStatus getStatus() {
+        return status;
+    }
+
+    public String getRspCode() {
+        return rspCode;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public Instant getClaimedAt() {
+        return claimedAt;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+}
@@ -0,0 +1,9 @@
+package com.vnpay.springboot.Entity;
+
+/**
+ * Trạng thái biên nhận IPN giữa các node.
+ */
+public enum IpnReceiptStatus {
+    PROCESSING,
+    DONE
+}
@@ -0,0 +1,10 @@
+package com.vnpay.springboot.Entity;
+
+/**
+ * Trạng thái đơn hàng trong sổ cái thanh toán.
+ */
+public enum OrderStatus {
+    PENDING,
+    PAID,
+    FAILED
+}
@@ -0,0 +1,158 @@
+package com.vnpay.springboot.Entity;
+
+import jakarta.persistence.*;
+
+import java.time.Instant;
+
+/**
+ * Đơn hàng thanh toán VNPAY (một dòng cho mỗi vnp_TxnRef).
+ */
+@Entity
+@Table(name = "vnpay_order",
+        indexes = {
+                @Index(name = "uk_vnpay_order_txn_ref", columnList = "vnp_txn_ref", unique = true),
+                // PendingOrderSweeper duyệt đơn PENDING quá hạn theo (expire_at, id) chỉ trên index
+                @Index(name = "idx_vnpay_order_status_expire_at", columnList = "status, expire_at, id")
+        })
+public class PaymentOrder {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "vnp_txn_ref", nullable = false, length = 100)
+    private String txnRef;
+
+    // vnp_TmnCode của merchant tạo đơn; null với đơn tạo trước khi có nhiều merchant (dùng merchant mặc định)
+    @Column(name = "vnp_tmn_code", length = 16)
+    private String tmnCode;
+
+    // Số tiền theo định dạng VNPAY (VND x 100)
+    @Column(name = "amount", nullable = false)
+    private long amount;
+
+    @Column(name = "order_info")
+    private String orderInfo;
+
+    // vnp_CreateDate đã gửi sang VNPAY (yyyyMMddHHmmss), dùng làm vnp_TransactionDate khi QueryDR/Refund
+    @Column(name = "vnp_create_date", length = 14)
+    private String vnpCreateDate;
+
+    // Hết hạn thanh toán (vnp_ExpireDate); null với đơn tạo trước khi lưu cột này (không được quét)
+    @Column(name = "expire_at")
+    private Instant expireAt;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false, length = 16)
+    private OrderStatus status;
+
+    @Column(name = "vnp_transaction_no", length = 32)
+    private String transactionNo;
+
+    @Column(name = "vnp_response_code", length = 8)
+    private String responseCode;
+
+    // Tổng số tiền đã hoàn hoặc đang giữ cho yêu cầu hoàn chưa có kết quả (VND x 100), null = chưa hoàn lần nào.
+    // Chỉ cập nhật bằng UPDATE có điều kiện trong RefundLedgerService
+    @Column(name = "refunded_amount")
+    private Long refundedAmount;
+
+    // Node đang QueryDR đơn này giữ quyền tới thời điểm này (PendingOrderSweeper, UPDATE có điều kiện)
+    @Column(name = "sweep_lease_until")
+    private Instant sweepLeaseUntil;
+
+    @Version
+    @Column(name = "version", nullable = false)
+    private long version;
+
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+
+    @Column(name = "updated_at")
+    private Instant updatedAt;
+
+    protected PaymentOrder() {
+    }
+
+    /**
+     * @param createdAt thời điểm tạo đơn, lấy từ VNPayClock như mọi mốc thời gian khác của sổ cái
+     */
+    public PaymentOrder(String txnRef, String tmnCode, long amount, String orderInfo, String vnpCreateDate,
+                        Instant expireAt, Instant createdAt) {
+        this.txnRef = txnRef;
+        this.tmnCode = tmnCode;
+        this.amount = amount;
+        this.orderInfo = orderInfo;
+        this.vnpCreateDate = vnpCreateDate;
+        this.expireAt = expireAt;
+        this.status = OrderStatus.PENDING;
+        this.createdAt = createdAt;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getTxnRef() {
+        return txnRef;
+    }
+
+    public String getTmnCode() {
+        return tmnCode;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    public String getOrderInfo() {
+        return orderInfo;
+    }
+
+    public String getVnpCreateDate() {
+        return vnpCreateDate;
+    }
+
+    public Instant getExpireAt() {
+        return expireAt;
+    }
+
+    /**
+     * Khách tạo lại URL thanh toán cho đơn đang PENDING: lưu vnp_CreateDate của URL mới
+     * (QueryDR phải gửi đúng ngày tạo của giao dịch khách thanh toán) và lùi hạn theo URL mới.
+     */
+    public void renewPaymentUrl(String newVnpCreateDate, Instant newExpireAt) {
+        this.vnpCreateDate = newVnpCreateDate;
+        if (newExpireAt != null && (expireAt == null || newExpireAt.isAfter(expireAt))) {
+            this.expireAt = newExpireAt;
+        }
+    }
+
+    public OrderStatus getStatus() {
+        return status;
+    }
+
+    public String getTransactionNo() {
+        return transactionNo;
+    }
+
+    public String getResponseCode() {
+        return responseCode;
+    }
+
+    public long getRefundedAmount() {
+        return refundedAmount == null ? 0L : refundedAmount;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+}
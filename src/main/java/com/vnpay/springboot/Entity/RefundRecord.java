@@ -0,0 +1,109 @@
+package com.vnpay.springboot.Entity;
+
+import jakarta.persistence.*;
+
+import java.time.Instant;
+
+/**
+ * Yêu cầu hoàn tiền gửi qua API hàng loạt: một dòng cho mỗi idempotency key.
+ * Gửi lại cùng key (chạy lại batch) chỉ đọc lại kết quả, không hoàn tiền lần hai.
+ * Bảng do JPA tạo (ddl-auto), đọc ghi bằng JdbcTemplate trong RefundLedgerService.
+ */
+@Entity
+@Table(name = "vnpay_refund",
+        uniqueConstraints = @UniqueConstraint(name = "uk_vnpay_refund_idempotency_key", columnNames = "idempotency_key"),
+        indexes = @Index(name = "idx_vnpay_refund_txn_ref", columnList = "vnp_txn_ref"))
+public class RefundRecord {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "idempotency_key", nullable = false, length = 64)
+    private String idempotencyKey;
+
+    @Column(name = "vnp_txn_ref", nullable = false, length = 100)
+    private String txnRef;
+
+    // Số tiền hoàn theo định dạng VNPAY (VND x 100)
+    @Column(name = "amount", nullable = false)
+    private long amount;
+
+    // 02: hoàn toàn phần, 03: hoàn một phần
+    @Column(name = "transaction_type", nullable = false, length = 2)
+    private String transactionType;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false, length = 16)
+    private RefundStatus status;
+
+    @Column(name = "vnp_response_code", length = 8)
+    private String responseCode;
+
+    @Column(name = "message")
+    private String message;
+
+    // vnp_TransactionNo của giao dịch hoàn trên VNPAY
+    @Column(name = "vnp_transaction_no", length = 32)
+    private String transactionNo;
+
+    @Column(name = "create_by", length = 64)
+    private String createBy;
+
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+
+    @Column(name = "updated_at", nullable = false)
+    private Instant updatedAt;
+
+    protected RefundRecord() {
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public String getTxnRef() {
+        return txnRef;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    public String getTransactionType() {
+        return transactionType;
+    }
+
+    public RefundStatus getStatus() {
+        return status;
+    }
+
+    public String getResponseCode() {
+        return responseCode;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public String getTransactionNo() {
+        return transactionNo;
+    }
+
+    public String getCreateBy() {
+        return createBy;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+}
@@ -0,0 +1,15 @@
+package com.vnpay.springboot.Entity;
+
+/**
+ * Trạng thái một yêu cầu hoàn tiền trong bảng vnpay_refund.
+ */
+public enum RefundStatus {
+    // Đã giữ số tiền trên đơn, đang gửi VNPAY
+    PROCESSING,
+    // VNPAY trả 00
+    SUCCEEDED,
+    // VNPAY từ chối, số tiền đã giữ được trả lại đơn
+    FAILED,
+    // Không rõ VNPAY đã hoàn hay chưa (lỗi kết nối, sai chữ ký phản hồi): giữ nguyên số tiền, cần QueryDR kiểm tra
+    UNKNOWN
+}
@@ -0,0 +1,92 @@
+package com.vnpay.springboot.Model;
+
+import com.google.gson.JsonObject;
+import com.vnpay.springboot.Util.VNPayResponseReader;
+
+/**
+ * Phản hồi API QueryDR của VNPAY đã kiểm tra chữ ký.
+ * @param amount vnp_Amount (VND x 100), null nếu VNPAY không trả về
+ */
+public record QueryDrResponse(String responseId,
+                              String command,
+                              String responseCode,
+                              String message,
+                              String tmnCode,
+                              String txnRef,
+                              Long amount,
+                              String bankCode,
+                              String payDate,
+                              String transactionNo,
+                              String transactionType,
+                              String transactionStatus,
+                              String orderInfo,
+                              String promotionCode,
+                              String promotionAmount) {
+
+    /**
+     * Các trường đọc từ phản hồi. SIGNED_FIELD_COUNT trường đầu theo đúng thứ tự nối '|' của chữ ký,
+     * trường cuối là vnp_SecureHash.
+     */
+    public static final String[] FIELDS = {
+            "vnp_ResponseId", "vnp_Command", "vnp_ResponseCode", "vnp_Message", "vnp_TmnCode", "vnp_TxnRef",
+            "vnp_Amount", "vnp_BankCode", "vnp_PayDate", "vnp_TransactionNo", "vnp_TransactionType",
+            "vnp_TransactionStatus", "vnp_OrderInfo", "vnp_PromotionCode", "vnp_PromotionAmount",
+            "vnp_SecureHash"
+    };
+    public static final int SIGNED_FIELD_COUNT = FIELDS.length - 1;
+
+    /**
+     * Dựng từ mảng giá trị đọc theo FIELDS.
+     */
+    public static QueryDrResponse of(String[] values) {
+        return new QueryDrResponse(values[0], values[1], values[2], values[3], values[4], values[5],
+                VNPayResponseReader.parseLong(values[6]), values[7], values[8], values[9], values[10],
+                values[11], values[12], values[13], values[14]);
+    }
+
+    /**
+     * Mã 99: lỗi kết nối nội bộ khi gọi VNPAY.
+     */
+    public static QueryDrResponse connectionError() {
+        return error("99", "Lỗi kết nối API nội bộ");
+    }
+
+    /**
+     * Mã 97: chữ ký phản hồi từ VNPAY không hợp lệ, nội dung phản hồi bị loại bỏ.
+     */
+    public static QueryDrResponse invalidSignature() {
+        return error("97", "Chữ ký phản hồi từ VNPAY không hợp lệ");
+    }
+
+    private static QueryDrResponse error(String responseCode, String message) {
+        return new QueryDrResponse(null, null, responseCode, message, null, null, null, null, null, null,
+                null, null, null, null, null);
+    }
+
+    public boolean isSuccess() {
+        return "00".equals(responseCode);
+    }
+
+    /**
+     * JSON với tên trường gốc của VNPAY, dùng để hiển thị.
+     */
+    public String toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("vnp_ResponseId", responseId);
+        json.addProperty("vnp_Command", command);
+        json.addProperty("vnp_ResponseCode", responseCode);
+        json.addProperty("vnp_Message", message);
+        json.addProperty("vnp_TmnCode", tmnCode);
+        json.addProperty("vnp_TxnRef", txnRef);
+        json.addProperty("vnp_Amount", amount);
+        json.addProperty("vnp_BankCode", bankCode);
+        json.addProperty("vnp_PayDate", payDate);
+        json.addProperty("vnp_TransactionNo", transactionNo);
+        json.addProperty("vnp_TransactionType", transactionType);
+        json.addProperty("vnp_TransactionStatus", transactionStatus);
+        json.addProperty("vnp_OrderInfo", orderInfo);
+        json.addProperty("vnp_PromotionCode", promotionCode);
+        json.addProperty("vnp_PromotionAmount", promotionAmount);
+        return json.toString();
+    }
+}
@@ -0,0 +1,46 @@
+package com.vnpay.springboot.Model;
+
+/**
+ * Kết quả một dòng của batch hoàn tiền, trả về dạng NDJSON theo thứ tự hoàn thành (dùng line để đối chiếu).
+ * @param line số dòng trong dữ liệu gửi lên (bắt đầu từ 1)
+ * @param amount số tiền hoàn (VND)
+ * @param replayed true nếu idempotency key đã được gửi trước đó: kết quả đọc lại, không gửi VNPAY lần nữa
+ * @param responseCode vnp_ResponseCode của VNPAY (nếu đã gửi)
+ */
+public record RefundBatchResult(long line,
+                                String idempotencyKey,
+                                String txnRef,
+                                Long amount,
+                                String transactionType,
+                                Outcome outcome,
+                                boolean replayed,
+                                String responseCode,
+                                String message) {
+
+    public enum Outcome {
+        // VNPAY đã hoàn tiền (00)
+        REFUNDED,
+        // VNPAY từ chối, số tiền đã giữ được trả lại đơn
+        FAILED,
+        // Không rõ VNPAY đã hoàn hay chưa: số tiền vẫn được giữ, kiểm tra bằng QueryDR trước khi gửi key mới
+        UNKNOWN,
+        // Key đang được xử lý (batch khác hoặc node khác)
+        IN_PROGRESS,
+        // Không qua kiểm tra với sổ cái (đơn không tồn tại, chưa thanh toán, vượt số tiền còn hoàn được...)
+        REJECTED,
+        // Dòng sai định dạng
+        INVALID,
+        // Lỗi nội bộ trước khi gửi VNPAY, chưa giữ tiền: gửi lại batch để thử lại
+        ERROR
+    }
+
+    public static RefundBatchResult of(long line, RefundInstruction instruction, String transactionType,
+                                       Outcome outcome, boolean replayed, String responseCode, String message) {
+        return new RefundBatchResult(line, instruction.idempotencyKey(), instruction.txnRef(), instruction.amount(),
+                transactionType, outcome, replayed, responseCode, message);
+    }
+
+    public static RefundBatchResult invalid(long line, String message) {
+        return new RefundBatchResult(line, null, null, null, null, Outcome.INVALID, false, null, message);
+    }
+}
@@ -0,0 +1,108 @@
+package com.vnpay.springboot.Model;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+
+/**
+ * Một dòng yêu cầu hoàn tiền trong batch.
+ * CSV: {@code idempotencyKey,txnRef,amount[,transactionType[,createBy]]} (dòng tiêu đề bắt đầu bằng idempotencyKey được bỏ qua).
+ * NDJSON: mỗi dòng một object {@code {"idempotencyKey":..,"txnRef":..,"amount":..,"transactionType":..,"createBy":..}}.
+ * @param amount số tiền hoàn (VND, chưa nhân 100 như form hoàn tiền)
+ * @param transactionType 02 (toàn phần), 03 (một phần) hoặc null để suy ra từ số tiền của đơn
+ * @param createBy người tạo, null = giá trị chung của batch
+ */
+public record RefundInstruction(String idempotencyKey,
+                                String txnRef,
+                                long amount,
+                                String transactionType,
+                                String createBy) {
+
+    public static final int MAX_KEY_LENGTH = 64;
+    public static final String CSV_HEADER = "idempotencyKey";
+
+    public enum Format {
+        CSV,
+        NDJSON;
+
+        /**
+         * text/csv -> CSV, application/x-ndjson hoặc application/json -> NDJSON.
+         * @throws IllegalArgumentException với Content-Type khác
+         */
+        public static Format fromContentType(String contentType) {
+            String type = contentType == null ? "" : contentType.toLowerCase();
+            if (type.startsWith("text/csv")) return CSV;
+            if (type.startsWith("application/x-ndjson") || type.startsWith("application/json")) return NDJSON;
+            throw new IllegalArgumentException("Unsupported Content-Type: " + contentType);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException nếu dòng sai định dạng
+     */
+    public static RefundInstruction parse(String line, Format format) {
+        return format == Format.CSV ? parseCsv(line) : parseJson(line);
+    }
+
+    private static RefundInstruction parseCsv(String line) {
+        String[] fields = line.split(",", -1);
+        if (fields.length < 3 || fields.length > 5) {
+            throw new IllegalArgumentException("Expected idempotencyKey,txnRef,amount[,transactionType[,createBy]]");
+        }
+        return of(fields[0], fields[1], parseAmount(fields[2].trim()),
+                fields.length > 3 ? fields[3] : null, fields.length > 4 ? fields[4] : null);
+    }
+
+    private static RefundInstruction parseJson(String line) {
+        JsonObject json;
+        try {
+            json = JsonParser.parseString(line).getAsJsonObject();
+        } catch (JsonSyntaxException | IllegalStateException e) {
+            throw new IllegalArgumentException("Malformed JSON object");
+        }
+        JsonElement amount = json.get("amount");
+        if (amount == null || !amount.isJsonPrimitive()) throw new IllegalArgumentException("Missing amount");
+        return of(string(json, "idempotencyKey"), string(json, "txnRef"), parseAmount(amount.getAsString()),
+                string(json, "transactionType"), string(json, "createBy"));
+    }
+
+    private static RefundInstruction of(String idempotencyKey, String txnRef, long amount, String transactionType,
+                                        String createBy) {
+        idempotencyKey = trimToNull(idempotencyKey);
+        txnRef = trimToNull(txnRef);
+        transactionType = trimToNull(transactionType);
+        if (idempotencyKey == null) throw new IllegalArgumentException("Missing idempotencyKey");
+        if (idempotencyKey.length() > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("idempotencyKey longer than " + MAX_KEY_LENGTH + " characters");
+        }
+        if (txnRef == null) throw new IllegalArgumentException("Missing txnRef");
+        if (amount <= 0) throw new IllegalArgumentException("amount must be positive");
+        if (transactionType != null && !"02".equals(transactionType) && !"03".equals(transactionType)) {
+            throw new IllegalArgumentException("transactionType must be 02 or 03");
+        }
+        return new RefundInstruction(idempotencyKey, txnRef, amount, transactionType, trimToNull(createBy));
+    }
+
+    private static long parseAmount(String value) {
+        try {
+            long amount = Long.parseLong(value);
+            // Gửi VNPAY dạng VND x 100
+            Math.multiplyExact(amount, 100L);
+            return amount;
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw new IllegalArgumentException("Invalid amount: " + value);
+        }
+    }
+
+    private static String string(JsonObject json, String name) {
+        JsonElement value = json.get(name);
+        return value == null || value.isJsonNull() ? null : value.getAsString();
+    }
+
+    private static String trimToNull(String value) {
+        if (value == null) return null;
+        String trimmed = value.trim();
+        return trimmed.isEmpty() ? null : trimmed;
+    }
+}
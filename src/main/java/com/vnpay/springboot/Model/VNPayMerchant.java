@@ -0,0 +1,126 @@
+package com.vnpay.springboot.Model;
+
+import com.vnpay.springboot.Util.CanonicalQueryBuilder;
+import com.vnpay.springboot.Util.HmacInput;
+import com.vnpay.springboot.Util.HmacSHA512Signer;
+import com.vnpay.springboot.Util.PaymentUrlTemplate;
+import com.vnpay.springboot.Util.SignatureVerifier;
+import com.vnpay.springboot.Util.VNPayCallbackParams;
+
+import java.util.Objects;
+
+/**
+ * Một merchant (terminal) VNPAY: vnp_TmnCode, secret key và Return URL riêng.
+ * Bất biến; signer (pool Mac đã init theo key) được tạo một lần và dùng lại suốt vòng đời merchant.
+ * Template URL thanh toán được dựng lần đầu cần dùng và chỉ dựng lại khi vnpay.pay-url đổi
+ * (đổi key / Return URL thì registry tạo merchant mới).
+ */
+public final class VNPayMerchant {
+
+    private final String tmnCode;
+    private final String secretKey;
+    private final String returnUrl;
+    private final HmacSHA512Signer signer;
+    private volatile PaymentUrlTemplate paymentUrlTemplate;
+
+    public VNPayMerchant(String tmnCode, String secretKey, String returnUrl) {
+        if (tmnCode == null || tmnCode.isEmpty()) throw new IllegalArgumentException("tmnCode is required");
+        if (secretKey == null || secretKey.isEmpty()) {
+            throw new IllegalArgumentException("secretKey is required for merchant " + tmnCode);
+        }
+        this.tmnCode = tmnCode;
+        this.secretKey = secretKey;
+        this.returnUrl = returnUrl;
+        this.signer = new HmacSHA512Signer(secretKey);
+    }
+
+    public String getTmnCode() {
+        return tmnCode;
+    }
+
+    public String getReturnUrl() {
+        return returnUrl;
+    }
+
+    public HmacSHA512Signer getSigner() {
+        return signer;
+    }
+
+    /**
+     * Template URL thanh toán của merchant với payUrl hiện tại (dựng lại nếu payUrl đã đổi).
+     */
+    public PaymentUrlTemplate paymentUrlTemplate(String payUrl) {
+        PaymentUrlTemplate template = paymentUrlTemplate;
+        if (template == null || !template.matches(payUrl, tmnCode, returnUrl)) {
+            // Hai thread cùng dựng thì bản nào thắng cũng như nhau
+            template = PaymentUrlTemplate.compile(payUrl, tmnCode, returnUrl);
+            paymentUrlTemplate = template;
+        }
+        return template;
+    }
+
+    /**
+     * Ký dữ liệu (UTF-8), trả về "" nếu không ký được, giống VNPayConfig.sign.
+     */
+    public String sign(String data) {
+        try {
+            return signer.sign(data);
+        } catch (RuntimeException ex) {
+            return "";
+        }
+    }
+
+    /**
+     * Ký count giá trị đầu tiên nối bằng '|' (request / phản hồi QueryDR, Refund), null được coi là chuỗi rỗng.
+     * Không dựng chuỗi hash data; trả về "" nếu không ký được.
+     */
+    public String signApiData(String[] values, int count) {
+        try {
+            return HmacInput.begin(signer, '|').values(values, count).hex();
+        } catch (RuntimeException ex) {
+            return "";
+        }
+    }
+
+    /**
+     * Kiểm tra secureHash (hex) của dữ liệu nối '|' (phản hồi QueryDR, Refund).
+     * Chữ ký sai định dạng bị loại trước khi băm.
+     */
+    public boolean verifyApiData(String[] values, int count, String secureHash) {
+        byte[] received = SignatureVerifier.decode(secureHash);
+        if (received == null) return false;
+        try {
+            return SignatureVerifier.matches(received, HmacInput.begin(signer, '|').values(values, count).doFinal());
+        } catch (RuntimeException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Kiểm tra vnp_SecureHash của tham số Return URL / IPN, so khớp trên MAC thô.
+     * Chữ ký sai định dạng bị loại trước khi băm.
+     */
+    public boolean verifyCallbackFields(VNPayCallbackParams params) {
+        byte[] received = SignatureVerifier.decode(params.get("vnp_SecureHash"));
+        if (received == null) return false;
+        try {
+            return SignatureVerifier.matches(received,
+                    CanonicalQueryBuilder.begin().callbackFields(params).sign(signer));
+        } catch (RuntimeException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Cùng key và Return URL: khi nạp lại cấu hình thì giữ nguyên instance cũ (pool Mac đã init sẵn).
+     */
+    public boolean sameSettings(String secretKey, String returnUrl) {
+        return this.secretKey.equals(secretKey) && Objects.equals(this.returnUrl, returnUrl);
+    }
+
+    // Không in secret key ra log
+    @Override
+    public String toString() {
+        return "VNPayMerchant[" + tmnCode + "]";
+    }
+}
@@ -0,0 +1,50 @@
+package com.vnpay.springboot.Repository;
+
+import com.vnpay.springboot.Entity.OrderStatus;
+import com.vnpay.springboot.Entity.PaymentOrder;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+public interface PaymentOrderRepository extends JpaRepository<PaymentOrder, Long> {
+
+    Optional<PaymentOrder> findByTxnRef(String txnRef);
+
+    /**
+     * Chỉ đọc vnp_TmnCode của đơn (chọn merchant khi gọi API VNPAY), không nạp cả entity.
+     */
+    @Query("SELECT o.tmnCode FROM PaymentOrder o WHERE o.txnRef = :txnRef")
+    Optional<String> findTmnCodeByTxnRef(@Param("txnRef") String txnRef);
+
+    /**
+     * Duyệt đơn tạo trong khoảng [from, to) theo keyset (id > afterId) để không phải giữ cả ngày trong bộ nhớ.
+     */
+    @Query("SELECT o FROM PaymentOrder o WHERE o.createdAt >= :from AND o.createdAt < :to AND o.id > :afterId ORDER BY o.id")
+    List<PaymentOrder> findCreatedBetween(@Param("from") Instant from,
+                                          @Param("to") Instant to,
+                                          @Param("afterId") long afterId,
+                                          Pageable page);
+
+    /**
+     * Chốt trạng thái cuối của đơn trong một câu lệnh: chỉ cập nhật khi số tiền khớp và đơn còn PENDING.
+     * Tăng version để các phiên JPA đang giữ bản cũ của đơn bị từ chối (optimistic locking).
+     * @return số dòng được cập nhật (0 nếu không tìm thấy, sai số tiền hoặc đã xử lý trước đó)
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE PaymentOrder o SET o.status = :newStatus, o.transactionNo = :transactionNo, "
+            + "o.responseCode = :responseCode, o.updatedAt = :now, o.version = o.version + 1 "
+            + "WHERE o.txnRef = :txnRef AND o.amount = :amount AND o.status = :expectedStatus")
+    int completeOrder(@Param("txnRef") String txnRef,
+                      @Param("amount") long amount,
+                      @Param("expectedStatus") OrderStatus expectedStatus,
+                      @Param("newStatus") OrderStatus newStatus,
+                      @Param("transactionNo") String transactionNo,
+                      @Param("responseCode") String responseCode,
+                      @Param("now") Instant now);
+}
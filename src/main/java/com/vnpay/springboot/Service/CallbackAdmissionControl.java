@@ -0,0 +1,149 @@
+package com.vnpay.springboot.Service;
+
+import com.vnpay.springboot.Config.CallbackAdmissionProperties;
+import com.vnpay.springboot.Util.IpAllowlist;
+import com.vnpay.springboot.Util.TokenBucketTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lớp chặn nhẹ trước Return URL / IPN (public, không xác thực): loại request rác trước khi tốn công
+ * copy tham số và băm HMAC.
+ * <ul>
+ *   <li>IPN từ IP trong vnpay.callback-admission.ipn-allowlist (dải IP của VNPAY): luôn được nhận.</li>
+ *   <li>Còn lại: token bucket theo IP, hết token thì từ chối (rate_limited).</li>
+ *   <li>Cắt tải theo số callback đang xử lý: từ shed-return-at thì từ chối Return URL,
+ *       từ shed-ipn-at thì từ chối cả IPN ngoài allowlist (shed); IPN thật của VNPAY vẫn được xử lý.</li>
+ * </ul>
+ * IP dùng cho allowlist và bucket là {@link #clientAddress(String, List)}: địa chỉ socket, X-Forwarded-For chỉ được
+ * đọc khi kết nối đến từ vnpay.callback-admission.trusted-proxies (client tự gửi header không giả được IP VNPAY).
+ * Request bị từ chối được đếm ở vnpay.callback.dropped{endpoint, reason}.
+ */
+@Component
+public class CallbackAdmissionControl {
+
+    private static final Logger log = LoggerFactory.getLogger(CallbackAdmissionControl.class);
+
+    public enum Endpoint {
+        IPN("ipn", "/vnpay/vnpay-ipn"),
+        RETURN("return", "/vnpay/vnpay-return");
+
+        private final String tag;
+        private final String path;
+
+        Endpoint(String tag, String path) {
+            this.tag = tag;
+            this.path = path;
+        }
+
+        /**
+         * @param path đường dẫn trong ứng dụng (không gồm context path)
+         * @return null nếu không phải Return URL / IPN
+         */
+        public static Endpoint forPath(String path) {
+            if (IPN.path.equals(path)) return IPN;
+            if (RETURN.path.equals(path)) return RETURN;
+            return null;
+        }
+    }
+
+    /** Body trả cho IPN bị từ chối: 99 để VNPAY gửi lại sau. Không sửa mảng này. */
+    public static final byte[] IPN_REJECTED_BODY =
+            "{\"RspCode\":\"99\",\"Message\":\"Unknown error\"}".getBytes(StandardCharsets.US_ASCII);
+
+    public enum Decision {
+        ADMIT,
+        RATE_LIMITED,
+        SHED
+    }
+
+    private final CallbackAdmissionProperties properties;
+    private final VNPayMetrics metrics;
+    private final IpAllowlist ipnAllowlist;
+    private final IpAllowlist trustedProxies;
+    private final TokenBucketTable ipnBuckets;
+    private final TokenBucketTable returnBuckets;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public CallbackAdmissionControl(CallbackAdmissionProperties properties, VNPayMetrics metrics) {
+        this.properties = properties;
+        this.metrics = metrics;
+        this.ipnAllowlist = IpAllowlist.parse(properties.getIpnAllowlist());
+        this.trustedProxies = IpAllowlist.parse(properties.getTrustedProxies());
+        this.ipnBuckets = new TokenBucketTable(properties.getBuckets(), properties.getIpnRatePerSecond(),
+                properties.getIpnBurst());
+        this.returnBuckets = new TokenBucketTable(properties.getBuckets(), properties.getReturnRatePerSecond(),
+                properties.getReturnBurst());
+        if (properties.isEnabled() && ipnAllowlist.isEmpty()) {
+            log.warn("vnpay.callback-admission.ipn-allowlist is empty: VNPAY IPNs are rate limited and shed like any other client");
+        }
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * IP của client cho {@link #tryAdmit(Endpoint, String)}.
+     * Kết nối không đến từ trusted-proxies: chính remoteAddr, bỏ qua X-Forwarded-For.
+     * Đến từ proxy tin cậy: đi X-Forwarded-For từ phải sang trái, bỏ các hop là proxy tin cậy, lấy hop đầu tiên
+     * không tin cậy; hop không phải IP literal thì dừng và dùng hop tin cậy ngay sau nó.
+     * @param remoteAddr địa chỉ socket (request.getRemoteAddr())
+     * @param forwardedFor các giá trị header X-Forwarded-For theo thứ tự nhận, có thể rỗng
+     */
+    public String clientAddress(String remoteAddr, List<String> forwardedFor) {
+        String client = remoteAddr;
+        if (!trustedProxies.contains(client)) return client;
+        for (int h = forwardedFor.size() - 1; h >= 0; h--) {
+            String header = forwardedFor.get(h);
+            if (header == null) continue;
+            int end = header.length();
+            while (end >= 0) {
+                int comma = header.lastIndexOf(',', end - 1);
+                String hop = header.substring(comma + 1, end).trim();
+                end = comma;
+                if (hop.isEmpty()) continue;
+                if (!IpAllowlist.isLiteral(hop)) return client;
+                client = hop;
+                if (!trustedProxies.contains(client)) return client;
+            }
+        }
+        return client;
+    }
+
+    /**
+     * Quyết định nhận hay từ chối một callback. Chỉ khi ADMIT mới phải gọi {@link #release()} sau khi xử lý xong.
+     */
+    public Decision tryAdmit(Endpoint endpoint, String clientIp) {
+        if (endpoint == Endpoint.IPN && ipnAllowlist.contains(clientIp)) {
+            inFlight.incrementAndGet();
+            return Decision.ADMIT;
+        }
+        int shedAt = endpoint == Endpoint.IPN ? properties.getShedIpnAt() : properties.getShedReturnAt();
+        // Kiểm tra tải trước: request bị cắt không tiêu token của IP
+        if (inFlight.get() >= shedAt) {
+            metrics.recordCallbackDropped(endpoint.tag, "shed");
+            return Decision.SHED;
+        }
+        TokenBucketTable buckets = endpoint == Endpoint.IPN ? ipnBuckets : returnBuckets;
+        if (!buckets.tryAcquire(clientIp == null ? "" : clientIp)) {
+            metrics.recordCallbackDropped(endpoint.tag, "rate_limited");
+            return Decision.RATE_LIMITED;
+        }
+        inFlight.incrementAndGet();
+        return Decision.ADMIT;
+    }
+
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+}
@@ -0,0 +1,188 @@
+package com.vnpay.springboot.Service;
+
+import com.vnpay.springboot.Config.IpnAsyncProperties;
+import com.vnpay.springboot.Entity.OrderStatus;
+import com.vnpay.springboot.Service.IpnWriteAheadLog.IpnRecord;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chế độ IPN bất đồng bộ: IPN hợp lệ được ghi vào WAL (fsync) rồi mới phản hồi VNPAY,
+ * một luồng nền gom các bản ghi và ghi xuống Postgres theo lô JDBC, tách theo trạng thái.
+ * Đơn đã được kiểm tra (tồn tại, đúng số tiền, còn PENDING) trước khi ghi WAL; bản ghi vẫn không khớp lúc ghi DB
+ * (đơn bị chốt bởi Return URL / sweeper trong khoảng đó) được log từng dòng và đếm ở vnpay.ipn.async.unmatched.
+ * Bật bằng vnpay.ipn-async.enabled=true.
+ */
+@Service
+@ConditionalOnProperty(prefix = "vnpay.ipn-async", name = "enabled", havingValue = "true")
+public class IpnBatchWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(IpnBatchWriter.class);
+
+    private static final String COMPLETE_ORDER_SQL =
+            "UPDATE vnpay_order SET status = ?, vnp_transaction_no = ?, vnp_response_code = ?, updated_at = ?, "
+                    + "version = version + 1 WHERE vnp_txn_ref = ? AND amount = ? AND status = 'PENDING'";
+
+    private static final long RETRY_BACKOFF_MS = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final IpnAsyncProperties properties;
+    private final VNPayClock clock;
+    private final VNPayMetrics metrics;
+    // Không chặn cứng dung lượng: giới hạn được kiểm tra trước khi ghi WAL để không bản ghi nào bị rơi khỏi hàng đợi
+    private final BlockingQueue<IpnRecord> queue = new LinkedBlockingQueue<>();
+    private IpnWriteAheadLog wal;
+    private Thread writerThread;
+    private volatile boolean running;
+
+    public IpnBatchWriter(JdbcTemplate jdbcTemplate, IpnAsyncProperties properties, VNPayClock clock,
+                          VNPayMetrics metrics) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.properties = properties;
+        this.clock = clock;
+        this.metrics = metrics;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        wal = new IpnWriteAheadLog(Path.of(properties.getWalDir()));
+        running = true;
+        writerThread = new Thread(this::runLoop, "vnpay-ipn-batch-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+        int replayed = wal.replay(record -> {
+            try {
+                queue.put(record);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while replaying IPN WAL", e);
+            }
+        });
+        if (replayed > 0) {
+            log.info("Replayed {} IPN records from WAL", replayed);
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException, IOException {
+        running = false;
+        writerThread.join(TimeUnit.SECONDS.toMillis(30));
+        if (writerThread.isAlive()) {
+            // Luồng ghi còn kẹt ở DB: không đóng WAL khi nó còn dùng; bản ghi chưa commit được replay khi khởi động lại
+            log.error("IPN batch writer did not stop within 30s, leaving WAL open ({} records queued)", queue.size());
+            return;
+        }
+        wal.close();
+    }
+
+    /**
+     * Ghi IPN vào WAL; chỉ trả về khi bản ghi đã bền vững trên đĩa.
+     * @throws IOException nếu không ghi được hoặc hàng đợi đầy (VNPAY sẽ gửi lại)
+     */
+    public void submit(String txnRef, long amount, String transactionNo, String responseCode) throws IOException {
+        if (queue.size() >= properties.getQueueCapacity()) {
+            throw new IOException("IPN queue is full");
+        }
+        wal.append(txnRef, amount, transactionNo, responseCode, queue::add);
+    }
+
+    private void runLoop() {
+        int batchSize = Math.max(1, properties.getBatchSize());
+        long lingerNanos = properties.getLinger().toNanos();
+        List<IpnRecord> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                IpnRecord first = queue.poll(200, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                long deadline = System.nanoTime() + lingerNanos;
+                while (batch.size() < batchSize) {
+                    if (queue.drainTo(batch, batchSize - batch.size()) > 0) continue;
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) break;
+                    IpnRecord next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+                if (!flushWithRetry(batch)) return;
+                batch.clear();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return false nếu đang dừng mà DB vẫn lỗi: luồng ghi thoát, lô này và phần sau nằm lại trong WAL
+     *         (không commit offset của lô sau khi lô trước chưa vào DB)
+     */
+    private boolean flushWithRetry(List<IpnRecord> batch) throws InterruptedException {
+        while (true) {
+            try {
+                flush(batch);
+                wal.commit(batch.get(batch.size() - 1).endOffset());
+                return true;
+            } catch (Exception e) {
+                if (!running) {
+                    log.error("Failed to flush {} IPN records during shutdown, leaving them in WAL: {}",
+                            batch.size(), e.getMessage());
+                    return false;
+                }
+                log.error("Failed to flush {} IPN records, retrying: {}", batch.size(), e.getMessage());
+                Thread.sleep(RETRY_BACKOFF_MS);
+            }
+        }
+    }
+
+    private void flush(List<IpnRecord> batch) {
+        List<IpnRecord> paid = new ArrayList<>();
+        List<IpnRecord> failed = new ArrayList<>();
+        for (IpnRecord record : batch) {
+            ("00".equals(record.responseCode()) ? paid : failed).add(record);
+        }
+        Timestamp now = Timestamp.from(clock.now());
+        int skipped = batchUpdate(paid, OrderStatus.PAID, now) + batchUpdate(failed, OrderStatus.FAILED, now);
+        if (skipped > 0) {
+            log.warn("{} of {} async IPN records did not match a PENDING order", skipped, batch.size());
+        }
+        log.debug("Flushed {} IPN records ({} paid, {} failed)", batch.size(), paid.size(), failed.size());
+    }
+
+    // Trả về số dòng không được cập nhật; từng dòng được log đủ thông tin để đối soát tay
+    private int batchUpdate(List<IpnRecord> records, OrderStatus status, Timestamp now) {
+        if (records.isEmpty()) return 0;
+        List<Object[]> args = new ArrayList<>(records.size());
+        for (IpnRecord record : records) {
+            args.add(new Object[]{status.name(), record.transactionNo(), record.responseCode(), now,
+                    record.txnRef(), record.amount()});
+        }
+        int[] counts = jdbcTemplate.batchUpdate(COMPLETE_ORDER_SQL, args);
+        int skipped = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) continue;
+            // Không tìm thấy / sai số tiền / đã chốt sau lần kiểm tra trước khi ghi WAL
+            IpnRecord record = records.get(i);
+            log.warn("Async IPN matched no PENDING order. TxnRef: {}, Amount: {}, TransactionNo: {}, Code: {}",
+                    record.txnRef(), record.amount(), record.transactionNo(), record.responseCode());
+            metrics.recordIpnAsyncUnmatched();
+            skipped++;
+        }
+        return skipped;
+    }
+}
@@ -0,0 +1,146 @@
+package com.vnpay.springboot.Service;
+
+import com.vnpay.springboot.Config.IpnCacheProperties;
+import com.vnpay.springboot.Util.VNPayCallbackParams;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache trong bộ nhớ cho phản hồi IPN đã chốt, khóa theo (vnp_TxnRef, vnp_TransactionNo, vnp_SecureHash).
+ * VNPAY gửi lại IPN sẽ được trả lời ngay từ cache, không chạy lại checksum và không mở transaction DB.
+ * Có TTL và giới hạn kích thước để cơn bão retry không làm đầy heap.
+ * Kèm khóa sọc theo vnp_TxnRef: các bản IPN trùng đến cùng lúc chờ bản đầu tiên xử lý xong rồi đọc cache.
+ */
+@Component
+public class IpnDedupCache {
+
+    // Chỉ cache các mã kết quả cuối cùng (gửi lại bao nhiêu lần cũng cho cùng kết quả)
+    private static final Set<String> FINAL_RSP_CODES = Set.of("00", "02", "04");
+
+    private final boolean enabled;
+    private final int maxSize;
+    private final long ttlNanos;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicBoolean purging = new AtomicBoolean();
+    private final ReentrantLock[] locks;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public IpnDedupCache(IpnCacheProperties properties) {
+        this.enabled = properties.isEnabled();
+        this.maxSize = Math.max(1, properties.getMaxSize());
+        this.ttlNanos = properties.getTtl().toNanos();
+        int stripes = Integer.highestOneBit(Math.max(1, properties.getLockStripes()) * 2 - 1);
+        this.locks = new ReentrantLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    private record Entry(Map<String, String> response, long expiresAt) {
+    }
+
+    /**
+     * Khóa cache của một IPN, null nếu thiếu trường bắt buộc.
+     */
+    public static String key(VNPayCallbackParams vnpParams) {
+        String txnRef = vnpParams.get("vnp_TxnRef");
+        String secureHash = vnpParams.get("vnp_SecureHash");
+        if (txnRef == null || secureHash == null) return null;
+        String transactionNo = vnpParams.get("vnp_TransactionNo");
+        return txnRef + '|' + (transactionNo == null ? "" : transactionNo) + '|' + secureHash;
+    }
+
+    /**
+     * true nếu phản hồi là kết quả cuối cùng của IPN (được cache và lưu biên nhận).
+     */
+    static boolean isFinal(Map<String, String> response) {
+        return FINAL_RSP_CODES.contains(response.get("RspCode"));
+    }
+
+    /**
+     * Khóa sọc của một vnp_TxnRef (ReentrantLock: không ghim carrier khi chạy trên virtual thread).
+     */
+    public ReentrantLock lockFor(String txnRef) {
+        int h = txnRef == null ? 0 : txnRef.hashCode();
+        h ^= h >>> 16;
+        return locks[h & (locks.length - 1)];
+    }
+
+    /**
+     * Phản hồi đã trả trước đó cho IPN này, hoặc null nếu chưa có / đã hết hạn.
+     */
+    public Map<String, String> get(String key) {
+        if (!enabled || key == null) return null;
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        if (entry.expiresAt - System.nanoTime() <= 0) {
+            if (entries.remove(key, entry)) evictions.incrementAndGet();
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.response;
+    }
+
+    /**
+     * Ghi nhớ phản hồi nếu RspCode là kết quả cuối cùng.
+     */
+    public void put(String key, Map<String, String> response) {
+        if (!enabled || key == null || !isFinal(response)) return;
+        if (entries.size() >= maxSize) {
+            purge();
+        }
+        entries.put(key, new Entry(Map.copyOf(response), System.nanoTime() + ttlNanos));
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // Xóa mục hết hạn; nếu vẫn đầy thì bỏ bớt theo thứ tự duyệt tới còn 90% sức chứa
+    private void purge() {
+        if (!purging.compareAndSet(false, true)) return;
+        try {
+            long now = System.nanoTime();
+            entries.entrySet().removeIf(e -> {
+                boolean expired = e.getValue().expiresAt - now <= 0;
+                if (expired) evictions.incrementAndGet();
+                return expired;
+            });
+            int target = maxSize - maxSize / 10;
+            Iterator<String> it = entries.keySet().iterator();
+            while (entries.size() > target && it.hasNext()) {
+                it.next();
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        } finally {
+            purging.set(false);
+        }
+    }
+}
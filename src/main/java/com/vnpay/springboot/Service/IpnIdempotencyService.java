@@ -0,0 +1,283 @@
+package com.vnpay.springboot.Service;
+
+import com.vnpay.springboot.Config.IpnIdempotencyProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
+
+/**
+ * Chống xử lý IPN trùng giữa nhiều node dùng chung database, theo bảng biên nhận vnpay_ipn_receipt
+ * khóa duy nhất (vnp_TxnRef, vnp_TransactionNo):
+ * <ul>
+ *   <li>Node INSERT được dòng PROCESSING (insert-once, autocommit) là node duy nhất chạy xử lý IPN.</li>
+ *   <li>Phản hồi cuối cùng (00/02/04) được lưu lại, node khác nhận IPN gửi lại trả đúng phản hồi đó.</li>
+ *   <li>Phản hồi chưa chốt (01, 99) hoặc lỗi thì xóa dòng để lần gửi lại được xử lý từ đầu.</li>
+ *   <li>Node chết khi đang giữ dòng: quá vnpay.ipn-idempotency.lease thì node khác tiếp quản bằng UPDATE có điều kiện.</li>
+ * </ul>
+ * IPN trùng trên cùng node đã được chặn trước bằng IpnDedupCache và khóa theo txnRef, không tới DB.
+ * Chế độ WebFlux dùng {@link #executeAsync}: cùng trình tự claim / chốt / nhả, JDBC chạy trên boundedElastic
+ * và chờ node khác bằng Mono.delay thay vì ngủ trên thread.
+ */
+@Service
+public class IpnIdempotencyService {
+
+    private static final Logger log = LoggerFactory.getLogger(IpnIdempotencyService.class);
+
+    private static final String CLAIM_SQL =
+            "INSERT INTO vnpay_ipn_receipt (vnp_txn_ref, vnp_transaction_no, status, owner_node, claimed_at, updated_at) "
+                    + "VALUES (?, ?, 'PROCESSING', ?, ?, ?)";
+    private static final String FIND_SQL =
+            "SELECT status, rsp_code, message, claimed_at FROM vnpay_ipn_receipt "
+                    + "WHERE vnp_txn_ref = ? AND vnp_transaction_no = ?";
+    private static final String TAKE_OVER_SQL =
+            "UPDATE vnpay_ipn_receipt SET owner_node = ?, claimed_at = ?, updated_at = ? "
+                    + "WHERE vnp_txn_ref = ? AND vnp_transaction_no = ? AND status = 'PROCESSING' AND claimed_at < ?";
+    private static final String COMPLETE_SQL =
+            "UPDATE vnpay_ipn_receipt SET status = 'DONE', rsp_code = ?, message = ?, updated_at = ? "
+                    + "WHERE vnp_txn_ref = ? AND vnp_transaction_no = ? AND owner_node = ? AND status = 'PROCESSING'";
+    private static final String RELEASE_SQL =
+            "DELETE FROM vnpay_ipn_receipt "
+                    + "WHERE vnp_txn_ref = ? AND vnp_transaction_no = ? AND owner_node = ? AND status = 'PROCESSING'";
+    private static final String PURGE_SQL = "DELETE FROM vnpay_ipn_receipt WHERE updated_at < ?";
+
+    private record Receipt(boolean done, String rspCode, String message, Instant claimedAt) {
+    }
+
+    // Kết quả một lần thử claim: node này giữ dòng, phản hồi đã chốt của node khác, hoặc phải thử lại (có/không chờ)
+    private record Attempt(boolean claimed, Map<String, String> response, boolean waitBeforeRetry) {
+    }
+
+    private static final Attempt CLAIMED = new Attempt(true, null, false);
+    private static final Attempt RETRY_NOW = new Attempt(false, null, false);
+    private static final Attempt WAIT = new Attempt(false, null, true);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final IpnIdempotencyProperties properties;
+    private final VNPayClock clock;
+    // Mỗi instance ứng dụng một mã riêng (kể cả nhiều context trong cùng JVM)
+    private final String nodeId = UUID.randomUUID().toString();
+
+    public IpnIdempotencyService(JdbcTemplate jdbcTemplate, IpnIdempotencyProperties properties, VNPayClock clock) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.properties = properties;
+        this.clock = clock;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Chạy handler đúng một lần trên toàn cụm cho mỗi (txnRef, transactionNo).
+     * Node khác đang xử lý thì chờ tối đa vnpay.ipn-idempotency.in-progress-wait để lấy phản hồi của node đó,
+     * hết thời gian thì trả 99 (VNPAY gửi lại sau).
+     */
+    public Map<String, String> execute(String txnRef, String transactionNo, Supplier<Map<String, String>> handler) {
+        return execute(txnRef, transactionNo, null, handler);
+    }
+
+    /**
+     * Như {@link #execute(String, String, Supplier)}, nhưng nhả heldLock (khóa theo txnRef caller đang giữ,
+     * xem IpnDedupCache.lockFor) trong lúc chờ node khác: IPN khác cùng stripe không phải đợi theo.
+     * Khóa được lấy lại trước mỗi lần thử claim và trước khi trả về.
+     */
+    public Map<String, String> execute(String txnRef, String transactionNo, Lock heldLock,
+                                       Supplier<Map<String, String>> handler) {
+        if (!properties.isEnabled() || txnRef == null) return handler.get();
+        String txnNo = transactionNo == null ? "" : transactionNo;
+        long deadline = System.nanoTime() + properties.getInProgressWait().toNanos();
+        while (true) {
+            Attempt attempt = attempt(txnRef, txnNo);
+            if (attempt.claimed()) {
+                return runClaimed(txnRef, txnNo, handler);
+            }
+            if (attempt.response() != null) {
+                return attempt.response();
+            }
+            if (System.nanoTime() - deadline >= 0) {
+                return inProgressTimeout(txnRef);
+            }
+            if (attempt.waitBeforeRetry() && !sleep(heldLock)) {
+                return response("99", "Unknown error");
+            }
+        }
+    }
+
+    /**
+     * Bản non-blocking của {@link #execute(String, String, Supplier)} cho chế độ WebFlux.
+     * Handler bị hủy giữa chừng thì dòng PROCESSING được node khác tiếp quản khi hết lease, như khi node chết.
+     */
+    public Mono<Map<String, String>> executeAsync(String txnRef, String transactionNo,
+                                                  Supplier<Mono<Map<String, String>>> handler) {
+        if (!properties.isEnabled() || txnRef == null) return Mono.defer(handler);
+        String txnNo = transactionNo == null ? "" : transactionNo;
+        return Mono.defer(() -> attemptAsync(txnRef, txnNo, handler,
+                System.nanoTime() + properties.getInProgressWait().toNanos()));
+    }
+
+    /**
+     * Xóa biên nhận cũ hơn vnpay.ipn-idempotency.retention (VNPAY không gửi lại IPN lâu như vậy).
+     */
+    @Scheduled(cron = "${vnpay.ipn-idempotency.purge-cron:0 15 3 * * *}", zone = "Asia/Ho_Chi_Minh")
+    public void purgeExpired() {
+        if (!properties.isEnabled()) return;
+        Timestamp cutoff = Timestamp.from(clock.now().minus(properties.getRetention()));
+        int deleted = jdbcTemplate.update(PURGE_SQL, cutoff);
+        if (deleted > 0) {
+            log.info("Purged {} IPN receipts older than {}", deleted, properties.getRetention());
+        }
+    }
+
+    private Mono<Map<String, String>> attemptAsync(String txnRef, String txnNo,
+                                                   Supplier<Mono<Map<String, String>>> handler, long deadline) {
+        return Mono.fromCallable(() -> attempt(txnRef, txnNo))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(attempt -> {
+                    if (attempt.claimed()) {
+                        return runClaimedAsync(txnRef, txnNo, handler);
+                    }
+                    if (attempt.response() != null) {
+                        return Mono.just(attempt.response());
+                    }
+                    if (System.nanoTime() - deadline >= 0) {
+                        return Mono.just(inProgressTimeout(txnRef));
+                    }
+                    Mono<Map<String, String>> retry = Mono.defer(() -> attemptAsync(txnRef, txnNo, handler, deadline));
+                    return attempt.waitBeforeRetry() ? Mono.delay(properties.getPollInterval()).then(retry) : retry;
+                });
+    }
+
+    private Attempt attempt(String txnRef, String txnNo) {
+        if (tryClaim(txnRef, txnNo)) {
+            return CLAIMED;
+        }
+        Receipt receipt = find(txnRef, txnNo);
+        if (receipt == null) {
+            return RETRY_NOW; // dòng vừa được nhả, thử claim lại ngay
+        }
+        if (receipt.done()) {
+            log.debug("Duplicate VNPAY IPN answered from receipt table. TxnRef: {}", txnRef);
+            return new Attempt(false, response(receipt.rspCode(), receipt.message()), false);
+        }
+        if (takeOverIfStale(txnRef, txnNo, receipt)) {
+            log.warn("Took over stale IPN claim. TxnRef: {}, TransactionNo: {}", txnRef, txnNo);
+            return CLAIMED;
+        }
+        return WAIT;
+    }
+
+    private static Map<String, String> inProgressTimeout(String txnRef) {
+        log.warn("IPN still in progress on another node, asking VNPAY to retry. TxnRef: {}", txnRef);
+        return response("99", "Unknown error");
+    }
+
+    private boolean tryClaim(String txnRef, String txnNo) {
+        Timestamp now = Timestamp.from(clock.now());
+        try {
+            jdbcTemplate.update(CLAIM_SQL, txnRef, txnNo, nodeId, now, now);
+            return true;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+
+    private boolean takeOverIfStale(String txnRef, String txnNo, Receipt receipt) {
+        Instant now = clock.now();
+        Instant staleBefore = now.minus(properties.getLease());
+        if (!receipt.claimedAt().isBefore(staleBefore)) return false;
+        Timestamp nowTs = Timestamp.from(now);
+        // Điều kiện claimed_at < mốc hết hạn: hai node cùng tiếp quản thì chỉ một câu UPDATE khớp
+        return jdbcTemplate.update(TAKE_OVER_SQL, nodeId, nowTs, nowTs, txnRef, txnNo, Timestamp.from(staleBefore)) == 1;
+    }
+
+    private Map<String, String> runClaimed(String txnRef, String txnNo, Supplier<Map<String, String>> handler) {
+        Map<String, String> response;
+        try {
+            response = handler.get();
+        } catch (RuntimeException e) {
+            release(txnRef, txnNo);
+            throw e;
+        }
+        finish(txnRef, txnNo, response);
+        return response;
+    }
+
+    private Mono<Map<String, String>> runClaimedAsync(String txnRef, String txnNo,
+                                                      Supplier<Mono<Map<String, String>>> handler) {
+        return Mono.defer(handler)
+                .onErrorResume(e -> Mono.fromRunnable(() -> release(txnRef, txnNo))
+                        .subscribeOn(Schedulers.boundedElastic())
+                        .then(Mono.error(e)))
+                .flatMap(response -> Mono.fromCallable(() -> {
+                            finish(txnRef, txnNo, response);
+                            return response;
+                        })
+                        .subscribeOn(Schedulers.boundedElastic()));
+    }
+
+    // Phản hồi cuối thì lưu vào biên nhận, chưa chốt thì nhả dòng để lần gửi lại được xử lý từ đầu
+    private void finish(String txnRef, String txnNo, Map<String, String> response) {
+        if (IpnDedupCache.isFinal(response)) {
+            try {
+                jdbcTemplate.update(COMPLETE_SQL, response.get("RspCode"), response.get("Message"),
+                        Timestamp.from(clock.now()), txnRef, txnNo, nodeId);
+            } catch (DataAccessException e) {
+                // Kết quả đã ghi vào sổ cái; dòng PROCESSING sẽ được tiếp quản khi hết lease
+                log.error("Failed to record IPN receipt. TxnRef: {}: {}", txnRef, e.getMessage());
+            }
+        } else {
+            release(txnRef, txnNo);
+        }
+    }
+
+    private void release(String txnRef, String txnNo) {
+        try {
+            jdbcTemplate.update(RELEASE_SQL, txnRef, txnNo, nodeId);
+        } catch (DataAccessException e) {
+            log.error("Failed to release IPN claim. TxnRef: {}: {}", txnRef, e.getMessage());
+        }
+    }
+
+    private Receipt find(String txnRef, String txnNo) {
+        List<Receipt> rows = jdbcTemplate.query(FIND_SQL, (rs, i) -> new Receipt(
+                "DONE".equals(rs.getString("status")), rs.getString("rsp_code"), rs.getString("message"),
+                rs.getTimestamp("claimed_at").toInstant()), txnRef, txnNo);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    private boolean sleep(Lock heldLock) {
+        if (heldLock != null) heldLock.unlock();
+        try {
+            TimeUnit.NANOSECONDS.sleep(properties.getPollInterval().toNanos());
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            if (heldLock != null) heldLock.lock();
+        }
+    }
+
+    private static Map<String, String> response(String rspCode, String message) {
+        Map<String, String> response = new HashMap<>();
+        response.put("RspCode", rspCode);
+        response.put("Message", message);
+        return response;
+    }
+}
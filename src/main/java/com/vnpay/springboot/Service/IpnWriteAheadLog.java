@@ -0,0 +1,222 @@
+package com.vnpay.springboot.Service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Nhật ký ghi trước (append-only, fsync) cho IPN đã xác thực chữ ký.
+ * Mỗi bản ghi: [độ dài payload][payload UTF-8][CRC32]. File checkpoint lưu offset đã ghi xuống DB;
+ * khi khởi động lại, các bản ghi sau checkpoint được phát lại. Đuôi file hỏng (ghi dở lúc crash) bị cắt bỏ.
+ */
+public class IpnWriteAheadLog implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(IpnWriteAheadLog.class);
+    private static final char FIELD_SEPARATOR = '\u001f';
+    private static final int MAX_RECORD_LENGTH = 64 * 1024;
+
+    /**
+     * Một IPN đã xác thực; endOffset là vị trí kết thúc bản ghi trong WAL.
+     */
+    public record IpnRecord(String txnRef, long amount, String transactionNo, String responseCode, long endOffset) {
+    }
+
+    private final FileChannel channel;
+    private final FileChannel checkpointChannel;
+    // ReentrantLock thay vì synchronized: fsync trong khóa không ghim carrier thread khi chạy trên virtual thread
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ReentrantLock forceLock = new ReentrantLock();
+    private final ByteBuffer checkpointBuffer = ByteBuffer.allocate(Long.BYTES);
+
+    private long writePosition;
+    private volatile long forcedPosition;
+    private long committedPosition;
+
+    public IpnWriteAheadLog(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        this.channel = FileChannel.open(dir.resolve("ipn.wal"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.checkpointChannel = FileChannel.open(dir.resolve("ipn.wal.checkpoint"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long checkpoint = readCheckpoint();
+        this.committedPosition = Math.min(checkpoint, channel.size());
+        // Checkpoint vượt quá file (WAL cũ bị cắt mà checkpoint chưa kịp ghi): ghi lại ngay, nếu không bản ghi mới
+        // nối từ 0 sẽ bị coi là đã commit ở lần khởi động sau
+        if (checkpoint != committedPosition) {
+            log.warn("IPN WAL checkpoint {} is beyond the log size {}, resetting it", checkpoint, committedPosition);
+            writeCheckpoint(committedPosition);
+        }
+        this.writePosition = channel.size();
+        this.forcedPosition = writePosition;
+    }
+
+    /**
+     * Phát lại các bản ghi chưa được ghi xuống DB (sau checkpoint). Gọi một lần khi khởi động.
+     * @return số bản ghi đã phát lại
+     */
+    public int replay(Consumer<IpnRecord> consumer) throws IOException {
+        List<IpnRecord> records = new ArrayList<>();
+        long position = committedPosition;
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+        long size = channel.size();
+        while (position + Integer.BYTES <= size) {
+            header.clear();
+            channel.read(header, position);
+            int length = header.getInt(0);
+            if (length <= 0 || length > MAX_RECORD_LENGTH || position + Integer.BYTES + length + Integer.BYTES > size) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(length + Integer.BYTES);
+            channel.read(body, position + Integer.BYTES);
+            byte[] payload = new byte[length];
+            body.flip();
+            body.get(payload);
+            int crc = body.getInt();
+            if (crc != crc32(payload)) {
+                break;
+            }
+            position += Integer.BYTES + length + Integer.BYTES;
+            records.add(decode(payload, position));
+        }
+        if (position < size) {
+            log.warn("Truncating corrupt IPN WAL tail at offset {} (file size {})", position, size);
+            channel.truncate(position);
+            channel.force(true);
+        }
+        writeLock.lock();
+        try {
+            writePosition = position;
+            forcedPosition = position;
+        } finally {
+            writeLock.unlock();
+        }
+        records.forEach(consumer);
+        return records.size();
+    }
+
+    /**
+     * Ghi bản ghi vào WAL và chỉ trả về khi đã fsync. Các luồng ghi đồng thời dùng chung một lần fsync (group commit).
+     * @param beforeWrite chạy trong khóa ghi, theo đúng thứ tự bản ghi trong file (dùng để đưa vào hàng đợi)
+     */
+    public IpnRecord append(String txnRef, long amount, String transactionNo, String responseCode,
+                            Consumer<IpnRecord> beforeWrite) throws IOException {
+        byte[] payload = encode(txnRef, amount, transactionNo, responseCode);
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + payload.length + Integer.BYTES);
+        buffer.putInt(payload.length).put(payload).putInt(crc32(payload)).flip();
+
+        IpnRecord record;
+        writeLock.lock();
+        try {
+            long end = writePosition + buffer.remaining();
+            record = new IpnRecord(txnRef, amount, transactionNo, responseCode, end);
+            long position = writePosition;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            writePosition = end;
+            beforeWrite.accept(record);
+        } finally {
+            writeLock.unlock();
+        }
+        force(record.endOffset());
+        return record;
+    }
+
+    /**
+     * Đánh dấu mọi bản ghi tới offset đã nằm trong DB. Khi đã ghi hết thì cắt WAL về 0:
+     * checkpoint 0 được fsync trước khi cắt, crash giữa hai bước chỉ làm phát lại bản ghi đã ghi (ghi lại vô hại),
+     * không bao giờ để checkpoint trỏ quá cuối file.
+     */
+    public void commit(long offset) throws IOException {
+        writeLock.lock();
+        try {
+            if (offset <= committedPosition) return;
+            if (offset == writePosition) {
+                writeCheckpoint(0);
+                channel.truncate(0);
+                channel.force(true);
+                writePosition = 0;
+                forcedPosition = 0;
+                committedPosition = 0;
+                return;
+            }
+            committedPosition = offset;
+            writeCheckpoint(committedPosition);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        checkpointChannel.close();
+    }
+
+    private void force(long offset) throws IOException {
+        if (forcedPosition >= offset) return;
+        forceLock.lock();
+        try {
+            if (forcedPosition >= offset) return;
+            long target;
+            writeLock.lock();
+            try {
+                target = writePosition;
+            } finally {
+                writeLock.unlock();
+            }
+            channel.force(false);
+            forcedPosition = target;
+        } finally {
+            forceLock.unlock();
+        }
+    }
+
+    private long readCheckpoint() throws IOException {
+        if (checkpointChannel.size() < Long.BYTES) return 0;
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        checkpointChannel.read(buffer, 0);
+        return buffer.getLong(0);
+    }
+
+    private void writeCheckpoint(long offset) throws IOException {
+        checkpointBuffer.clear();
+        checkpointBuffer.putLong(offset).flip();
+        checkpointChannel.write(checkpointBuffer, 0);
+        checkpointChannel.force(false);
+    }
+
+    private static byte[] encode(String txnRef, long amount, String transactionNo, String responseCode) {
+        String payload = nullToEmpty(txnRef) + FIELD_SEPARATOR + amount + FIELD_SEPARATOR
+                + nullToEmpty(transactionNo) + FIELD_SEPARATOR + nullToEmpty(responseCode);
+        return payload.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static IpnRecord decode(byte[] payload, long endOffset) {
+        String[] fields = new String(payload, StandardCharsets.UTF_8).split(String.valueOf(FIELD_SEPARATOR), -1);
+        return new IpnRecord(fields[0], Long.parseLong(fields[1]), fields[2], fields[3], endOffset);
+    }
+
+    private static int crc32(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private static String nullToEmpty(String s) {
+        return s == null ? "" : s;
+    }
+}
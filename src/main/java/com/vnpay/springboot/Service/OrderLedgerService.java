@@ -0,0 +1,138 @@
+package com.vnpay.springboot.Service;
+
+import com.vnpay.springboot.Entity.OrderStatus;
+import com.vnpay.springboot.Entity.PaymentOrder;
+import com.vnpay.springboot.Repository.PaymentOrderRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Sổ cái đơn hàng: tạo đơn PENDING khi tạo URL thanh toán và chốt trạng thái khi nhận kết quả từ VNPAY.
+ */
+@Service
+public class OrderLedgerService {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderLedgerService.class);
+    private final PaymentOrderRepository orderRepository;
+    private final VNPayClock clock;
+
+    public OrderLedgerService(PaymentOrderRepository orderRepository, VNPayClock clock) {
+        this.orderRepository = orderRepository;
+        this.clock = clock;
+    }
+
+    /**
+     * Kết quả chốt đơn, mang sẵn RspCode/Message theo đặc tả IPN của VNPAY.
+     */
+    public enum Result {
+        CONFIRMED("00", "Confirm Success"),
+        ORDER_NOT_FOUND("01", "Order not Found"),
+        ALREADY_CONFIRMED("02", "Order already confirmed"),
+        INVALID_AMOUNT("04", "Invalid Amount");
+
+        private final String rspCode;
+        private final String message;
+
+        Result(String rspCode, String message) {
+            this.rspCode = rspCode;
+            this.message = message;
+        }
+
+        public String getRspCode() {
+            return rspCode;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    /**
+     * Ghi đơn PENDING trước khi chuyển khách sang VNPAY.
+     * Cho phép tạo lại URL cho đơn đang PENDING cùng số tiền (khách bấm thanh toán lại); đơn lưu vnp_CreateDate của URL mới nhất.
+     * @param tmnCode vnp_TmnCode của merchant tạo đơn
+     * @param amount Số tiền theo định dạng VNPAY (VND x 100)
+     * @param vnpCreateDate vnp_CreateDate gửi sang VNPAY (yyyyMMddHHmmss)
+     * @param expireAt thời điểm tương ứng vnp_ExpireDate; quá hạn mà chưa có kết quả thì PendingOrderSweeper hỏi VNPAY
+     */
+    @Transactional
+    public PaymentOrder createPendingOrder(String txnRef, String tmnCode, long amount, String orderInfo,
+                                           String vnpCreateDate, Instant expireAt) {
+        Optional<PaymentOrder> existing = orderRepository.findByTxnRef(txnRef);
+        if (existing.isPresent()) {
+            PaymentOrder order = existing.get();
+            if (order.getStatus() != OrderStatus.PENDING || order.getAmount() != amount
+                    || !Objects.equals(order.getTmnCode(), tmnCode)) {
+                throw new IllegalStateException("Order " + txnRef + " already exists with status " + order.getStatus());
+            }
+            order.renewPaymentUrl(vnpCreateDate, expireAt);
+            return order;
+        }
+        return orderRepository.save(new PaymentOrder(txnRef, tmnCode, amount, orderInfo, vnpCreateDate, expireAt,
+                clock.now()));
+    }
+
+    /**
+     * Chốt đơn theo kết quả VNPAY: "00" -> PAID, mã khác -> FAILED.
+     * Đường thành công chỉ tốn một câu UPDATE có điều kiện; chỉ khi không cập nhật được mới đọc lại đơn để phân loại lỗi.
+     * @param amount Số tiền VNPAY gửi về (vnp_Amount, VND x 100)
+     */
+    @Transactional
+    public Result completeOrder(String txnRef, long amount, String transactionNo, String responseCode) {
+        OrderStatus newStatus = "00".equals(responseCode) ? OrderStatus.PAID : OrderStatus.FAILED;
+        int updated = orderRepository.completeOrder(txnRef, amount, OrderStatus.PENDING, newStatus,
+                transactionNo, responseCode, clock.now());
+        if (updated == 1) {
+            return Result.CONFIRMED;
+        }
+
+        Optional<PaymentOrder> orderOpt = orderRepository.findByTxnRef(txnRef);
+        if (orderOpt.isEmpty()) {
+            return Result.ORDER_NOT_FOUND;
+        }
+        PaymentOrder order = orderOpt.get();
+        if (order.getAmount() != amount) {
+            log.warn("Amount mismatch for order {}: expected {}, got {}", txnRef, order.getAmount(), amount);
+            return Result.INVALID_AMOUNT;
+        }
+        return Result.ALREADY_CONFIRMED;
+    }
+
+    /**
+     * Kiểm tra IPN có chốt được đơn không, không ghi gì: chế độ IPN bất đồng bộ gọi trước khi ghi WAL và trả 00,
+     * để đơn không tồn tại / sai số tiền / đã chốt vẫn nhận đúng 01 / 04 / 02.
+     * @return CONFIRMED nếu đơn còn PENDING và đúng số tiền; còn lại như {@link #completeOrder}
+     */
+    @Transactional(readOnly = true)
+    public Result checkCompletable(String txnRef, long amount) {
+        Optional<PaymentOrder> orderOpt = orderRepository.findByTxnRef(txnRef);
+        if (orderOpt.isEmpty()) {
+            return Result.ORDER_NOT_FOUND;
+        }
+        PaymentOrder order = orderOpt.get();
+        if (order.getAmount() != amount) {
+            log.warn("Amount mismatch for order {}: expected {}, got {}", txnRef, order.getAmount(), amount);
+            return Result.INVALID_AMOUNT;
+        }
+        return order.getStatus() == OrderStatus.PENDING ? Result.CONFIRMED : Result.ALREADY_CONFIRMED;
+    }
+
+    @Transactional(readOnly = true)
+    public Optional<PaymentOrder> findOrder(String txnRef) {
+        return orderRepository.findByTxnRef(txnRef);
+    }
+
+    /**
+     * vnp_TmnCode của đơn, rỗng nếu không có đơn hoặc đơn tạo trước khi lưu merchant.
+     */
+    @Transactional(readOnly = true)
+    public Optional<String> findTmnCode(String txnRef) {
+        return orderRepository.findTmnCodeByTxnRef(txnRef);
+    }
+}
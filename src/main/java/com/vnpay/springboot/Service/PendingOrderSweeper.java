@@ -0,0 +1,226 @@
+package com.vnpay.springboot.Service;
+
+import com.vnpay.springboot.Config.PendingOrderSweeperProperties;
+import com.vnpay.springboot.Entity.PaymentOrder;
+import com.vnpay.springboot.Model.QueryDrResponse;
+import com.vnpay.springboot.Repository.PaymentOrderRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Quét đơn PENDING đã quá vnp_ExpireDate (cộng thời gian chờ IPN đến muộn) mà chưa có IPN,
+ * hỏi VNPAY qua QueryDR và chốt trạng thái cuối vào sổ cái.
+ * <ul>
+ *   <li>Đơn được duyệt theo keyset (expire_at, id) chỉ trên index (status, expire_at, id), mỗi lượt batch-size đơn.</li>
+ *   <li>Nhiều node cùng quét: mỗi đơn được claim bằng UPDATE có điều kiện trên sweep_lease_until,
+ *       chỉ node claim được mới gọi QueryDR. Đơn chưa có kết quả cuối được hỏi lại khi hết lease.</li>
+ *   <li>QueryDR giới hạn tốc độ và số lời gọi đồng thời như job đối soát.</li>
+ *   <li>QueryDR trả 91 (VNPAY không tìm thấy giao dịch): trong not-found-timeout sau expire_at đơn giữ PENDING và
+ *       được hỏi lại với khoảng cách tăng dần (nửa thời gian đã quá hạn, tối thiểu một lease); quá not-found-timeout
+ *       mà VNPAY vẫn trả 91 thì khách đã bỏ thanh toán, đơn được chốt FAILED (mã 91) qua sổ cái.</li>
+ * </ul>
+ */
+@Service
+public class PendingOrderSweeper {
+
+    private static final Logger log = LoggerFactory.getLogger(PendingOrderSweeper.class);
+
+    // Chỉ đọc cột có trong index: không chạm heap của bảng
+    private static final String PAGE_SQL =
+            "SELECT id, expire_at FROM vnpay_order WHERE status = 'PENDING' AND expire_at < ? "
+                    + "AND (expire_at, id) > (?, ?) ORDER BY expire_at, id LIMIT ?";
+    private static final String CLAIM_SQL =
+            "UPDATE vnpay_order SET sweep_lease_until = ? WHERE id = ? AND status = 'PENDING' "
+                    + "AND (sweep_lease_until IS NULL OR sweep_lease_until < ?)";
+    private static final String BACKOFF_SQL =
+            "UPDATE vnpay_order SET sweep_lease_until = ? WHERE id = ? AND status = 'PENDING'";
+
+    public enum Outcome {
+        PAID,
+        FAILED,
+        STILL_PENDING,
+        NOT_FOUND,
+        ALREADY_RESOLVED,
+        AMOUNT_MISMATCH,
+        ERROR,
+        EXPIRED
+    }
+
+    private record Cursor(Instant expireAt, long id) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PaymentOrderRepository orderRepository;
+    private final OrderLedgerService orderLedgerService;
+    private final VNPayMerchantRegistry merchantRegistry;
+    private final VNPayQuery vnPayQuery;
+    private final VNPayClock clock;
+    private final VNPayMetrics metrics;
+    private final PendingOrderSweeperProperties properties;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    public PendingOrderSweeper(JdbcTemplate jdbcTemplate, PaymentOrderRepository orderRepository,
+                               OrderLedgerService orderLedgerService, VNPayMerchantRegistry merchantRegistry,
+                               VNPayQuery vnPayQuery, VNPayClock clock, VNPayMetrics metrics,
+                               PendingOrderSweeperProperties properties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.orderRepository = orderRepository;
+        this.orderLedgerService = orderLedgerService;
+        this.merchantRegistry = merchantRegistry;
+        this.vnPayQuery = vnPayQuery;
+        this.clock = clock;
+        this.metrics = metrics;
+        this.properties = properties;
+    }
+
+    /**
+     * Chạy định kỳ (vnpay.sweeper.interval); lượt trước chưa xong thì bỏ qua lượt này.
+     * Không chặn luồng scheduler: QueryDR chạy bất đồng bộ.
+     */
+    @Scheduled(fixedDelayString = "${vnpay.sweeper.interval:PT1M}", initialDelayString = "${vnpay.sweeper.interval:PT1M}")
+    public void sweep() {
+        if (!properties.isEnabled()) return;
+        sweepOnce().subscribe(null, e -> log.error("Pending order sweep failed: {}", e.getMessage(), e));
+    }
+
+    /**
+     * Một lượt quét, trả về số đơn theo kết quả (rỗng nếu đang có lượt khác chạy hoặc không có đơn nào).
+     */
+    public Mono<Map<Outcome, Long>> sweepOnce() {
+        return Mono.defer(() -> {
+            if (!running.compareAndSet(false, true)) {
+                return Mono.just(Collections.<Outcome, Long>emptyMap());
+            }
+            Instant now = clock.now();
+            Instant cutoff = now.minus(properties.getGrace());
+            Instant oldest = now.minus(properties.getMaxAge());
+            Duration interval = Duration.ofNanos(1_000_000_000L / Math.max(1, properties.getRatePerSecond()));
+
+            return claimedOrders(cutoff, oldest)
+                    .delayElements(interval)
+                    .flatMap(this::resolve, Math.max(1, properties.getConcurrency()))
+                    .doOnNext(outcome -> metrics.recordSweep(outcome.name().toLowerCase(Locale.ROOT)))
+                    .collect(() -> new EnumMap<Outcome, Long>(Outcome.class),
+                            (counts, outcome) -> counts.merge(outcome, 1L, Long::sum))
+                    .map(counts -> {
+                        if (!counts.isEmpty()) log.info("Swept expired pending orders: {}", counts);
+                        return Collections.<Outcome, Long>unmodifiableMap(counts);
+                    })
+                    // Nhả cờ trước khi phát kết quả: doFinally chạy sau khi người gọi đã nhận kết quả,
+                    // lượt gọi ngay sau đó có thể bị bỏ qua nhầm
+                    .doOnTerminate(() -> running.set(false))
+                    .doOnCancel(() -> running.set(false));
+        });
+    }
+
+    // Đơn quá hạn trong [oldest, cutoff) mà node này claim được, đọc từng trang theo nhu cầu phía sau
+    private Flux<PaymentOrder> claimedOrders(Instant cutoff, Instant oldest) {
+        int batchSize = Math.max(1, properties.getBatchSize());
+        return Flux.<List<PaymentOrder>, Cursor>generate(() -> new Cursor(oldest, 0L), (cursor, sink) -> {
+                    List<Cursor> page = jdbcTemplate.query(PAGE_SQL,
+                            (rs, i) -> new Cursor(rs.getTimestamp("expire_at").toInstant(), rs.getLong("id")),
+                            Timestamp.from(cutoff), Timestamp.from(cursor.expireAt()), cursor.id(), batchSize);
+                    if (page.isEmpty()) {
+                        sink.complete();
+                        return cursor;
+                    }
+                    sink.next(claim(page));
+                    return page.get(page.size() - 1);
+                })
+                .flatMapIterable(orders -> orders)
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private List<PaymentOrder> claim(List<Cursor> page) {
+        Instant now = clock.now();
+        Timestamp leaseUntil = Timestamp.from(now.plus(properties.getLease()));
+        Timestamp nowTs = Timestamp.from(now);
+        List<Object[]> args = new ArrayList<>(page.size());
+        for (Cursor c : page) {
+            args.add(new Object[]{leaseUntil, c.id(), nowTs});
+        }
+        int[] updated = jdbcTemplate.batchUpdate(CLAIM_SQL, args);
+        List<Long> claimed = new ArrayList<>(page.size());
+        for (int i = 0; i < updated.length; i++) {
+            if (updated[i] == 1) claimed.add(page.get(i).id());
+        }
+        return claimed.isEmpty() ? List.of() : orderRepository.findAllById(claimed);
+    }
+
+    private Mono<Outcome> resolve(PaymentOrder order) {
+        return vnPayQuery.processQueryAsync(merchantRegistry.resolve(order.getTmnCode()), order.getTxnRef(),
+                        order.getVnpCreateDate(), properties.getClientIp(), null)
+                .publishOn(Schedulers.boundedElastic())
+                .map(result -> apply(order, result))
+                .onErrorResume(e -> {
+                    log.warn("Sweeping order {} failed: {}", order.getTxnRef(), e.getMessage());
+                    return Mono.just(Outcome.ERROR);
+                });
+    }
+
+    private Outcome apply(PaymentOrder order, QueryDrResponse result) {
+        if (!result.isSuccess()) {
+            if ("91".equals(result.responseCode())) return notFound(order);
+            log.warn("QueryDR for expired order {} returned {}", order.getTxnRef(), result.responseCode());
+            return Outcome.ERROR;
+        }
+        // vnp_TransactionStatus: 00 thành công, 01 chưa hoàn tất, mã khác là giao dịch lỗi
+        String status = result.transactionStatus();
+        if (status == null || status.isEmpty()) return Outcome.ERROR;
+        if ("01".equals(status)) return Outcome.STILL_PENDING;
+        long amount = result.amount() != null ? result.amount() : order.getAmount();
+        return "00".equals(status)
+                ? complete(order, amount, result.transactionNo(), "00", Outcome.PAID)
+                : complete(order, amount, result.transactionNo(), status, Outcome.FAILED);
+    }
+
+    // 91: VNPAY chưa thấy giao dịch. Ngay sau hạn có thể do VNPAY chưa đồng bộ kịp: giữ PENDING, lùi lần hỏi tiếp theo.
+    // Quá not-found-timeout sau expire_at (URL thanh toán đã hết hạn từ lâu) thì khách đã bỏ đơn: chốt FAILED
+    private Outcome notFound(PaymentOrder order) {
+        Instant now = clock.now();
+        Duration overdue = Duration.between(order.getExpireAt(), now);
+        if (overdue.compareTo(properties.getNotFoundTimeout()) >= 0) {
+            return complete(order, order.getAmount(), null, "91", Outcome.EXPIRED);
+        }
+        Duration backoff = overdue.dividedBy(2);
+        if (backoff.compareTo(properties.getLease()) < 0) backoff = properties.getLease();
+        jdbcTemplate.update(BACKOFF_SQL, Timestamp.from(now.plus(backoff)), order.getId());
+        log.warn("QueryDR found no transaction for expired order {}, retrying in {}", order.getTxnRef(), backoff);
+        return Outcome.NOT_FOUND;
+    }
+
+    private Outcome complete(PaymentOrder order, long amount, String transactionNo, String responseCode,
+                             Outcome onSuccess) {
+        OrderLedgerService.Result result = orderLedgerService.completeOrder(
+                order.getTxnRef(), amount, transactionNo, responseCode);
+        return switch (result) {
+            case CONFIRMED -> {
+                log.info("Expired order {} resolved as {} via QueryDR", order.getTxnRef(), onSuccess);
+                yield onSuccess;
+            }
+            case ALREADY_CONFIRMED -> Outcome.ALREADY_RESOLVED; // IPN đến trong lúc hỏi VNPAY
+            case INVALID_AMOUNT -> {
+                log.error("QueryDR amount {} does not match order {} ({})", amount, order.getTxnRef(), order.getAmount());
+                yield Outcome.AMOUNT_MISMATCH;
+            }
+            case ORDER_NOT_FOUND -> Outcome.ERROR;
+        };
+    }
+}
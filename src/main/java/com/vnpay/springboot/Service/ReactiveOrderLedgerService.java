@@ -0,0 +1,117 @@
+package com.vnpay.springboot.Service;
+
+import com.vnpay.springboot.Entity.OrderStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.util.Optional;
+
+/**
+ * Sổ đơn hàng cho chế độ WebFlux: cùng bảng vnpay_order và cùng quy tắc với OrderLedgerService,
+ * nhưng truy cập qua R2DBC nên không chiếm thread trong lúc chờ DB.
+ * Mỗi thao tác là một câu lệnh đơn nên không cần transaction.
+ */
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveOrderLedgerService {
+
+    private static final Logger log = LoggerFactory.getLogger(ReactiveOrderLedgerService.class);
+
+    // Giống PaymentOrderRepository.completeOrder: chỉ chốt đơn còn PENDING và đúng số tiền, tăng version
+    private static final String COMPLETE_ORDER_SQL = "UPDATE vnpay_order SET status = :newStatus, "
+            + "vnp_transaction_no = :transactionNo, vnp_response_code = :responseCode, updated_at = :now, "
+            + "version = version + 1 "
+            + "WHERE vnp_txn_ref = :txnRef AND amount = :amount AND status = :expectedStatus";
+
+    private final DatabaseClient databaseClient;
+    private final VNPayClock clock;
+
+    public ReactiveOrderLedgerService(DatabaseClient databaseClient, VNPayClock clock) {
+        this.databaseClient = databaseClient;
+        this.clock = clock;
+    }
+
+    /**
+     * Chốt đơn theo kết quả VNPAY: "00" -> PAID, mã khác -> FAILED.
+     * Chỉ khi không cập nhật được mới đọc lại đơn để phân loại lỗi.
+     * @param amount Số tiền VNPAY gửi về (vnp_Amount, VND x 100)
+     */
+    public Mono<OrderLedgerService.Result> completeOrder(String txnRef, long amount, String transactionNo,
+                                                         String responseCode) {
+        OrderStatus newStatus = "00".equals(responseCode) ? OrderStatus.PAID : OrderStatus.FAILED;
+        DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(COMPLETE_ORDER_SQL)
+                .bind("newStatus", newStatus.name())
+                .bind("now", clock.now())
+                .bind("txnRef", txnRef)
+                .bind("amount", amount)
+                .bind("expectedStatus", OrderStatus.PENDING.name());
+        spec = bindNullable(spec, "transactionNo", transactionNo);
+        spec = bindNullable(spec, "responseCode", responseCode);
+        return spec.fetch().rowsUpdated()
+                .flatMap(updated -> updated == 1
+                        ? Mono.just(OrderLedgerService.Result.CONFIRMED)
+                        : classifyRejected(txnRef, amount));
+    }
+
+    /**
+     * Như OrderLedgerService.checkCompletable: kiểm tra trước khi ghi WAL ở chế độ IPN bất đồng bộ, không ghi gì.
+     */
+    public Mono<OrderLedgerService.Result> checkCompletable(String txnRef, long amount) {
+        return databaseClient.sql("SELECT amount, status FROM vnpay_order WHERE vnp_txn_ref = :txnRef")
+                .bind("txnRef", txnRef)
+                .map(row -> {
+                    long orderAmount = row.get("amount", Long.class);
+                    if (orderAmount != amount) {
+                        log.warn("Amount mismatch for order {}: expected {}, got {}", txnRef, orderAmount, amount);
+                        return OrderLedgerService.Result.INVALID_AMOUNT;
+                    }
+                    return OrderStatus.PENDING.name().equals(row.get("status", String.class))
+                            ? OrderLedgerService.Result.CONFIRMED
+                            : OrderLedgerService.Result.ALREADY_CONFIRMED;
+                })
+                .one()
+                .defaultIfEmpty(OrderLedgerService.Result.ORDER_NOT_FOUND);
+    }
+
+    public Mono<OrderStatus> findStatus(String txnRef) {
+        return databaseClient.sql("SELECT status FROM vnpay_order WHERE vnp_txn_ref = :txnRef")
+                .bind("txnRef", txnRef)
+                .map(row -> OrderStatus.valueOf(row.get("status", String.class)))
+                .one();
+    }
+
+    /**
+     * vnp_TmnCode của đơn; rỗng nếu không có đơn hoặc đơn tạo trước khi lưu merchant.
+     */
+    public Mono<String> findTmnCode(String txnRef) {
+        return databaseClient.sql("SELECT vnp_tmn_code FROM vnpay_order WHERE vnp_txn_ref = :txnRef")
+                .bind("txnRef", txnRef)
+                .map(row -> Optional.ofNullable(row.get("vnp_tmn_code", String.class)))
+                .one()
+                .flatMap(Mono::justOrEmpty);
+    }
+
+    private Mono<OrderLedgerService.Result> classifyRejected(String txnRef, long amount) {
+        return databaseClient.sql("SELECT amount FROM vnpay_order WHERE vnp_txn_ref = :txnRef")
+                .bind("txnRef", txnRef)
+                .map(row -> row.get("amount", Long.class))
+                .one()
+                .map(orderAmount -> {
+                    if (orderAmount != amount) {
+                        log.warn("Amount mismatch for order {}: expected {}, got {}", txnRef, orderAmount, amount);
+                        return OrderLedgerService.Result.INVALID_AMOUNT;
+                    }
+                    return OrderLedgerService.Result.ALREADY_CONFIRMED;
+                })
+                .defaultIfEmpty(OrderLedgerService.Result.ORDER_NOT_FOUND);
+    }
+
+    private static DatabaseClient.GenericExecuteSpec bindNullable(DatabaseClient.GenericExecuteSpec spec,
+                                                                  String name, String value) {
+        return value == null ? spec.bindNull(name, String.class) : spec.bind(name, value);
+    }
+}
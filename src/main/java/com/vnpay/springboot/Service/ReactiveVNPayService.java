@@ -0,0 +1,173 @@
+package com.vnpay.springboot.Service;
+
+import com.vnpay.springboot.Entity.OrderStatus;
+import com.vnpay.springboot.Model.VNPayMerchant;
+import com.vnpay.springboot.Util.VNPayCallbackParams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Xử lý Return URL / IPN cho chế độ WebFlux, cùng kết quả với VNPayService.
+ * Kiểm tra chữ ký chạy ngay trên event loop (chỉ tính toán); ghi sổ qua R2DBC.
+ * Khi bật vnpay.ipn-async, lần ghi WAL (fsync) được đẩy sang boundedElastic để không chặn event loop.
+ */
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveVNPayService {
+
+    private static final Logger log = LoggerFactory.getLogger(ReactiveVNPayService.class);
+    private final VNPayMerchantRegistry merchantRegistry;
+    private final ReactiveOrderLedgerService orderLedgerService;
+    private final IpnBatchWriter ipnBatchWriter; // null nếu không bật vnpay.ipn-async.enabled
+    private final IpnIdempotencyService ipnIdempotencyService;
+    private final VNPayMetrics metrics;
+
+    public ReactiveVNPayService(VNPayMerchantRegistry merchantRegistry, ReactiveOrderLedgerService orderLedgerService,
+                                ObjectProvider<IpnBatchWriter> ipnBatchWriter, IpnIdempotencyService ipnIdempotencyService,
+                                VNPayMetrics metrics) {
+        this.merchantRegistry = merchantRegistry;
+        this.orderLedgerService = orderLedgerService;
+        this.ipnBatchWriter = ipnBatchWriter.getIfAvailable();
+        this.ipnIdempotencyService = ipnIdempotencyService;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return -1 sai chữ ký, 1 thanh toán thành công (đơn PAID), 0 giao dịch thất bại
+     */
+    public Mono<Integer> processVnPayReturn(VNPayCallbackParams vnpParams) {
+        String vnp_TxnRef = vnpParams.get("vnp_TxnRef");
+        String vnp_ResponseCode = vnpParams.get("vnp_ResponseCode");
+        boolean validSignature = verifySignature(vnpParams);
+        metrics.recordReturnSignature(validSignature);
+        if (!validSignature) {
+            log.warn("Invalid VNPAY Signature! TxnRef: {}", vnp_TxnRef);
+            return Mono.just(-1);
+        }
+
+        long amount = parseAmount(vnpParams.get("vnp_Amount"));
+        Mono<OrderLedgerService.Result> result = orderLedgerService.completeOrder(
+                vnp_TxnRef, amount, vnpParams.get("vnp_TransactionNo"), vnp_ResponseCode);
+        if (!"00".equals(vnp_ResponseCode)) {
+            log.warn("VNPAY Transaction Failed. TxnRef: {}, Code: {}", vnp_TxnRef, vnp_ResponseCode);
+            return result.thenReturn(0);
+        }
+        // Thành công nếu đơn vừa được chốt PAID hoặc đã được IPN chốt PAID trước đó
+        return result.flatMap(r -> {
+            if (r == OrderLedgerService.Result.CONFIRMED) return Mono.just(1);
+            if (r != OrderLedgerService.Result.ALREADY_CONFIRMED) return Mono.just(0);
+            return orderLedgerService.findStatus(vnp_TxnRef)
+                    .map(status -> status == OrderStatus.PAID ? 1 : 0)
+                    .defaultIfEmpty(0);
+        });
+    }
+
+    /**
+     * IPN hợp lệ chỉ được xử lý một lần trên toàn cụm (IpnIdempotencyService.executeAsync),
+     * node khác trả lại phản hồi đã chốt.
+     * @return Map JSON phản hồi theo định dạng VNPAY: RspCode và Message.
+     */
+    public Mono<Map<String, String>> processVnPayIpn(VNPayCallbackParams vnpParams) {
+        String vnp_TxnRef = vnpParams.get("vnp_TxnRef");
+        String vnp_ResponseCode = vnpParams.get("vnp_ResponseCode");
+        boolean validSignature = verifySignature(vnpParams);
+        metrics.recordIpnSignature(validSignature);
+        if (!validSignature) {
+            log.warn("IPN Failed: Invalid Checksum! TxnRef: {}", vnp_TxnRef);
+            return Mono.just(createIpnResponse("97", "Invalid Checksum"));
+        }
+        long vnp_Amount = parseAmount(vnpParams.get("vnp_Amount"));
+        String transactionNo = vnpParams.get("vnp_TransactionNo");
+
+        // Chỉ một node trong cụm xử lý mỗi (TxnRef, TransactionNo), như VNPayService
+        return ipnIdempotencyService.executeAsync(vnp_TxnRef, transactionNo,
+                () -> settleIpn(vnp_TxnRef, vnp_Amount, transactionNo, vnp_ResponseCode));
+    }
+
+    private Mono<Map<String, String>> settleIpn(String vnp_TxnRef, long vnp_Amount, String transactionNo,
+                                                String vnp_ResponseCode) {
+        // Chế độ bất đồng bộ: chỉ xác nhận 00 khi đơn tồn tại, đúng số tiền và còn PENDING, rồi mới ghi WAL
+        if (ipnBatchWriter != null) {
+            return orderLedgerService.checkCompletable(vnp_TxnRef, vnp_Amount)
+                    .flatMap(check -> {
+                        if (check != OrderLedgerService.Result.CONFIRMED) {
+                            log.warn("IPN Rejected: Order {} -> {}", vnp_TxnRef, check);
+                            return Mono.just(createIpnResponse(check.getRspCode(), check.getMessage()));
+                        }
+                        return Mono.fromCallable(() -> {
+                                    ipnBatchWriter.submit(vnp_TxnRef, vnp_Amount, transactionNo, vnp_ResponseCode);
+                                    return createIpnResponse("00", "Confirm Success");
+                                })
+                                .subscribeOn(Schedulers.boundedElastic())
+                                .onErrorResume(IOException.class, e -> {
+                                    log.error("IPN WAL append failed. TxnRef: {}", vnp_TxnRef, e);
+                                    return Mono.just(createIpnResponse("99", "Unknown error")); // VNPAY sẽ gửi lại
+                                });
+                    })
+                    .onErrorResume(e -> {
+                        log.error("IPN order check failed. TxnRef: {}", vnp_TxnRef, e);
+                        return Mono.just(createIpnResponse("99", "Unknown error"));
+                    });
+        }
+
+        return orderLedgerService.completeOrder(vnp_TxnRef, vnp_Amount, transactionNo, vnp_ResponseCode)
+                .map(result -> {
+                    if (result != OrderLedgerService.Result.CONFIRMED) {
+                        log.warn("IPN Rejected: Order {} -> {}", vnp_TxnRef, result);
+                        return createIpnResponse(result.getRspCode(), result.getMessage());
+                    }
+                    log.debug("IPN processed: Order {} -> {}", vnp_TxnRef, vnp_ResponseCode);
+                    return createIpnResponse("00", "Confirm Success");
+                })
+                .onErrorResume(e -> {
+                    log.error("IPN ledger update failed. TxnRef: {}", vnp_TxnRef, e);
+                    return Mono.just(createIpnResponse("99", "Unknown error"));
+                });
+    }
+
+    /**
+     * Merchant gọi API VNPAY (QueryDR/Refund) cho đơn: merchant đã tạo đơn, hoặc merchant mặc định.
+     * @return Mono rỗng nếu không có merchant tương ứng
+     */
+    public Mono<VNPayMerchant> merchantForOrder(String txnRef) {
+        return orderLedgerService.findTmnCode(txnRef)
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .flatMap(tmnCode -> Mono.justOrEmpty(merchantRegistry.resolve(tmnCode.orElse(null))));
+    }
+
+    // Kiểm tra bằng key của merchant theo vnp_TmnCode; merchant lạ thì coi như sai chữ ký
+    private boolean verifySignature(VNPayCallbackParams vnpParams) {
+        VNPayMerchant merchant = merchantRegistry.resolve(vnpParams.get("vnp_TmnCode"));
+        if (merchant == null) {
+            log.warn("Unknown VNPAY merchant in callback: vnp_TmnCode={}", vnpParams.get("vnp_TmnCode"));
+            return false;
+        }
+        return merchant.verifyCallbackFields(vnpParams);
+    }
+
+    private static long parseAmount(String amount) {
+        try {
+            return amount == null ? -1 : Long.parseLong(amount);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static Map<String, String> createIpnResponse(String rspCode, String message) {
+        Map<String, String> response = new HashMap<>();
+        response.put("RspCode", rspCode);
+        response.put("Message", message);
+        return response;
+    }
+}
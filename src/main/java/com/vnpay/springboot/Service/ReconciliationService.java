@@ -0,0 +1,457 @@
+package com.vnpay.springboot.Service;
+
+import com.vnpay.springboot.Config.ReconciliationProperties;
+import com.vnpay.springboot.Entity.OrderStatus;
+import com.vnpay.springboot.Entity.PaymentOrder;
+import com.vnpay.springboot.Model.QueryDrResponse;
+import com.vnpay.springboot.Repository.PaymentOrderRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Đối soát hàng loạt giao dịch với VNPAY qua QueryDR.
+ * Đầu vào là luồng (txnRef, transDate) từ file hoặc bảng đơn hàng, gọi QueryDR với giới hạn đồng thời và tốc độ,
+ * so với sổ cái và ghi báo cáo CSV theo luồng (không giữ cả ngày trong bộ nhớ).
+ * Kết quả về không theo thứ tự nhưng dòng báo cáo được ghi theo thứ tự đầu vào (dòng về sớm chờ trong bộ đệm,
+ * tối đa cỡ số QueryDR đồng thời). Checkpoint lưu vị trí đã đối soát liên tục cùng độ dài file báo cáo tại đó;
+ * chạy lại cùng job sẽ cắt báo cáo về độ dài này rồi tiếp tục từ checkpoint, không ghi trùng dòng.
+ */
+@Service
+public class ReconciliationService {
+
+    private static final Logger log = LoggerFactory.getLogger(ReconciliationService.class);
+    private static final int PAGE_SIZE = 500;
+    private static final String REPORT_HEADER =
+            "txnRef,transDate,outcome,ledgerStatus,ledgerAmount,vnpResponseCode,vnpTransactionStatus,vnpAmount";
+
+    private final VNPayQuery vnPayQuery;
+    private final VNPayMerchantRegistry merchantRegistry;
+    private final OrderLedgerService orderLedgerService;
+    private final PaymentOrderRepository orderRepository;
+    private final ReconciliationProperties properties;
+    private final VNPayClock clock;
+    private final VNPayMetrics metrics;
+    private volatile Job currentJob;
+
+    public ReconciliationService(VNPayQuery vnPayQuery, VNPayMerchantRegistry merchantRegistry,
+                                 OrderLedgerService orderLedgerService, PaymentOrderRepository orderRepository,
+                                 ReconciliationProperties properties, VNPayClock clock, VNPayMetrics metrics) {
+        this.vnPayQuery = vnPayQuery;
+        this.merchantRegistry = merchantRegistry;
+        this.orderLedgerService = orderLedgerService;
+        this.orderRepository = orderRepository;
+        this.properties = properties;
+        this.clock = clock;
+        this.metrics = metrics;
+    }
+
+    public enum Outcome {
+        MATCHED,
+        MISSING,
+        AMOUNT_MISMATCH,
+        STATUS_MISMATCH,
+        ERROR
+    }
+
+    public enum State {
+        RUNNING,
+        COMPLETED,
+        FAILED
+    }
+
+    private record Item(long seq, String txnRef, String transDate) {
+    }
+
+    // reportOffset < 0: checkpoint cũ chỉ có vị trí, báo cáo được ghi tiếp ở cuối file
+    private record Checkpoint(long seq, long reportOffset) {
+    }
+
+    private record Line(Item item, Outcome outcome, PaymentOrder order, QueryDrResponse result) {
+
+        String toCsv() {
+            return String.join(",",
+                    csv(item.txnRef()), csv(item.transDate()), outcome.name(),
+                    order == null ? "" : order.getStatus().name(),
+                    order == null ? "" : String.valueOf(order.getAmount()),
+                    result == null ? "" : csv(result.responseCode()),
+                    result == null ? "" : csv(result.transactionStatus()),
+                    result == null || result.amount() == null ? "" : String.valueOf(result.amount()));
+        }
+
+        private static String csv(String value) {
+            if (value == null) return "";
+            return value.indexOf(',') >= 0 || value.indexOf('"') >= 0
+                    ? '"' + value.replace("\"", "\"\"") + '"' : value;
+        }
+    }
+
+    /**
+     * Tiến độ của một lần đối soát (trả về cho API trạng thái).
+     */
+    public static final class Job {
+        private final String id;
+        private final Instant startedAt;
+        private final AtomicLong read = new AtomicLong();
+        private final AtomicLong completed = new AtomicLong();
+        private final Map<Outcome, AtomicLong> counts = new EnumMap<>(Outcome.class);
+        private volatile State state = State.RUNNING;
+        private volatile Instant finishedAt;
+        private volatile long resumedFrom;
+        private volatile long checkpoint = -1;
+
+        Job(String id, Instant startedAt) {
+            this.id = id;
+            this.startedAt = startedAt;
+            for (Outcome outcome : Outcome.values()) counts.put(outcome, new AtomicLong());
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public Instant getStartedAt() {
+            return startedAt;
+        }
+
+        public Instant getFinishedAt() {
+            return finishedAt;
+        }
+
+        public long getResumedFrom() {
+            return resumedFrom;
+        }
+
+        public long getRead() {
+            return read.get();
+        }
+
+        public long getCompleted() {
+            return completed.get();
+        }
+
+        public long getCheckpoint() {
+            return checkpoint;
+        }
+
+        public Map<Outcome, Long> getCounts() {
+            Map<Outcome, Long> snapshot = new EnumMap<>(Outcome.class);
+            counts.forEach((outcome, count) -> snapshot.put(outcome, count.get()));
+            return snapshot;
+        }
+    }
+
+    /**
+     * Đối soát theo file trong thư mục input (mỗi dòng: txnRef,transDate; bỏ qua dòng trống, dòng # và dòng tiêu đề).
+     */
+    public Job reconcileFile(String fileName) {
+        Path inputDir = Path.of(properties.getInputDir()).toAbsolutePath().normalize();
+        Path input = inputDir.resolve(fileName).normalize();
+        if (!input.startsWith(inputDir) || !Files.isRegularFile(input)) {
+            throw new IllegalArgumentException("Input file not found: " + fileName);
+        }
+        return start("file-" + input.getFileName(), fileItems(input));
+    }
+
+    /**
+     * Đối soát toàn bộ đơn tạo trong ngày (giờ Việt Nam) từ bảng đơn hàng.
+     */
+    public Job reconcileDate(LocalDate date) {
+        return start("date-" + date.format(DateTimeFormatter.BASIC_ISO_DATE), ledgerItems(date));
+    }
+
+    /**
+     * Đối soát ngày hôm trước theo lịch (vnpay.reconciliation.cron, mặc định tắt).
+     */
+    @Scheduled(cron = "${vnpay.reconciliation.cron:-}", zone = "Asia/Ho_Chi_Minh")
+    public void reconcilePreviousDay() {
+        reconcileDate(clock.today().minusDays(1));
+    }
+
+    public Job getCurrentJob() {
+        return currentJob;
+    }
+
+    private synchronized Job start(String jobId, Flux<Item> items) {
+        Job running = currentJob;
+        if (running != null && running.getState() == State.RUNNING) {
+            throw new IllegalStateException("Reconciliation job " + running.getId() + " is still running");
+        }
+
+        Job job = new Job(jobId, clock.now());
+        try {
+            Path dir = Files.createDirectories(Path.of(properties.getReportDir()));
+            Path reportPath = dir.resolve(jobId + ".csv");
+            Path checkpointPath = dir.resolve(jobId + ".checkpoint");
+            Checkpoint checkpoint = readCheckpoint(checkpointPath);
+            long resumeAfter = checkpoint == null ? -1 : checkpoint.seq();
+            FileChannel channel = FileChannel.open(reportPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            if (checkpoint == null) {
+                channel.truncate(0);
+            } else {
+                // Bỏ các dòng đã ghi sau checkpoint: chúng sẽ được đối soát và ghi lại
+                if (checkpoint.reportOffset() >= 0) channel.truncate(checkpoint.reportOffset());
+                channel.position(channel.size());
+            }
+            BufferedWriter report = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8));
+            if (checkpoint == null) {
+                report.write(REPORT_HEADER);
+                report.newLine();
+            } else {
+                log.info("Resuming reconciliation {} after item {} at report offset {}",
+                        jobId, resumeAfter, checkpoint.reportOffset());
+            }
+            job.resumedFrom = resumeAfter + 1;
+            job.checkpoint = resumeAfter;
+            currentJob = job;
+            metrics.recordReconciliationStarted(resumeAfter);
+            run(job, items, resumeAfter, new Report(report, channel, checkpointPath, resumeAfter));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot start reconciliation " + jobId, e);
+        }
+        return job;
+    }
+
+    private void run(Job job, Flux<Item> items, long resumeAfter, Report report) {
+        Duration interval = Duration.ofNanos(1_000_000_000L / Math.max(1, properties.getRatePerSecond()));
+        int checkpointInterval = Math.max(1, properties.getCheckpointInterval());
+
+        items.filter(item -> item.seq() > resumeAfter)
+                .doOnNext(item -> job.read.incrementAndGet())
+                .delayElements(interval)
+                .flatMap(this::reconcileItem, Math.max(1, properties.getConcurrency()))
+                .doOnNext(line -> {
+                    synchronized (job) {
+                        try {
+                            report.add(line);
+                            for (Line next = report.next(); next != null; next = report.next()) {
+                                report.write(next);
+                                job.counts.get(next.outcome()).incrementAndGet();
+                                metrics.recordReconciliation(next.outcome().name().toLowerCase(Locale.ROOT));
+                                if (job.completed.incrementAndGet() % checkpointInterval == 0) {
+                                    checkpoint(job, report);
+                                }
+                            }
+                        } catch (IOException e) {
+                            throw Exceptions.propagate(e);
+                        }
+                    }
+                })
+                .doFinally(signal -> finish(job, report, signal))
+                .subscribe(null, e -> log.error("Reconciliation {} failed: {}", job.getId(), e.getMessage(), e));
+    }
+
+    private Mono<Line> reconcileItem(Item item) {
+        if (item.transDate() == null || item.transDate().isEmpty()) {
+            return Mono.fromCallable(() -> new Line(item, Outcome.ERROR, findOrder(item.txnRef()), null))
+                    .subscribeOn(Schedulers.boundedElastic());
+        }
+        // QueryDR bằng merchant đã tạo đơn (tra DB nên chạy trên boundedElastic)
+        return Mono.fromCallable(() -> Optional.ofNullable(merchantRegistry.forOrder(item.txnRef())))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(merchant -> vnPayQuery.processQueryAsync(merchant.orElse(null),
+                        item.txnRef(), item.transDate(), properties.getClientIp(), null))
+                .publishOn(Schedulers.boundedElastic())
+                .map(result -> compare(item, result))
+                .onErrorResume(e -> {
+                    log.warn("Reconciliation of {} failed: {}", item.txnRef(), e.getMessage());
+                    return Mono.just(new Line(item, Outcome.ERROR, null, null));
+                });
+    }
+
+    private Line compare(Item item, QueryDrResponse result) {
+        PaymentOrder order = findOrder(item.txnRef());
+        if (!result.isSuccess()) {
+            // 91: VNPAY không tìm thấy giao dịch
+            Outcome outcome = "91".equals(result.responseCode()) ? Outcome.MISSING : Outcome.ERROR;
+            return new Line(item, outcome, order, result);
+        }
+        if (order == null) {
+            return new Line(item, Outcome.MISSING, null, result);
+        }
+        if (result.amount() != null && result.amount() != order.getAmount()) {
+            return new Line(item, Outcome.AMOUNT_MISMATCH, order, result);
+        }
+        if (order.getStatus() != expectedStatus(result.transactionStatus())) {
+            return new Line(item, Outcome.STATUS_MISMATCH, order, result);
+        }
+        return new Line(item, Outcome.MATCHED, order, result);
+    }
+
+    // vnp_TransactionStatus: 00 thành công, 01 chưa hoàn tất, mã khác là giao dịch lỗi
+    private static OrderStatus expectedStatus(String transactionStatus) {
+        if ("00".equals(transactionStatus)) return OrderStatus.PAID;
+        if ("01".equals(transactionStatus)) return OrderStatus.PENDING;
+        return OrderStatus.FAILED;
+    }
+
+    private PaymentOrder findOrder(String txnRef) {
+        return orderLedgerService.findOrder(txnRef).orElse(null);
+    }
+
+    private void checkpoint(Job job, Report report) throws IOException {
+        long seq = report.flush();
+        writeCheckpoint(report.checkpointPath, new Checkpoint(seq, report.channel.position()));
+        job.checkpoint = seq;
+        metrics.recordReconciliationCheckpoint(seq);
+    }
+
+    private void finish(Job job, Report report, SignalType signal) {
+        synchronized (job) {
+            try {
+                if (signal == SignalType.ON_COMPLETE) {
+                    report.writer.close();
+                    Files.deleteIfExists(report.checkpointPath);
+                    job.state = State.COMPLETED;
+                } else {
+                    // Dòng còn chờ trong bộ đệm thứ tự không được ghi: lần chạy lại sẽ đối soát lại
+                    checkpoint(job, report);
+                    report.writer.close();
+                    job.state = State.FAILED;
+                }
+            } catch (IOException e) {
+                log.error("Cannot finalize reconciliation {}: {}", job.getId(), e.getMessage());
+                try {
+                    report.writer.close();
+                } catch (IOException ignored) {
+                    // checkpoint cũ vẫn đúng: phần báo cáo sau nó sẽ bị cắt khi chạy lại
+                }
+                job.state = State.FAILED;
+            }
+        }
+        job.finishedAt = clock.now();
+        metrics.recordReconciliationFinished();
+        log.info("Reconciliation {} {}: {} items, {}", job.getId(), job.getState(), job.getCompleted(), job.getCounts());
+    }
+
+    private Flux<Item> fileItems(Path input) {
+        return Flux.using(
+                        () -> Files.newBufferedReader(input, StandardCharsets.UTF_8),
+                        (BufferedReader reader) -> Flux.fromStream(reader.lines()),
+                        reader -> {
+                            try {
+                                reader.close();
+                            } catch (IOException ignored) {
+                                // đã đọc xong
+                            }
+                        })
+                .map(String::trim)
+                .filter(line -> !line.isEmpty() && !line.startsWith("#") && !line.regionMatches(true, 0, "txnRef", 0, 6))
+                .index((seq, line) -> {
+                    String[] parts = line.split(",");
+                    return new Item(seq, parts[0].trim(), parts.length > 1 ? parts[1].trim() : null);
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private Flux<Item> ledgerItems(LocalDate date) {
+        Instant from = date.atStartOfDay(VNPayClock.ZONE).toInstant();
+        Instant to = date.plusDays(1).atStartOfDay(VNPayClock.ZONE).toInstant();
+        return Flux.<List<PaymentOrder>, Long>generate(() -> 0L, (afterId, sink) -> {
+                    List<PaymentOrder> page = orderRepository.findCreatedBetween(from, to, afterId, PageRequest.of(0, PAGE_SIZE));
+                    if (page.isEmpty()) {
+                        sink.complete();
+                        return afterId;
+                    }
+                    sink.next(page);
+                    return page.get(page.size() - 1).getId();
+                })
+                .flatMapIterable(page -> page)
+                .index((seq, order) -> new Item(seq, order.getTxnRef(), order.getVnpCreateDate()))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    // Định dạng "seq,reportOffset"; file chỉ có "seq" là của bản cũ
+    private static Checkpoint readCheckpoint(Path checkpointPath) throws IOException {
+        if (!Files.exists(checkpointPath)) return null;
+        String value = Files.readString(checkpointPath, StandardCharsets.US_ASCII).trim();
+        if (value.isEmpty()) return null;
+        int comma = value.indexOf(',');
+        if (comma < 0) return new Checkpoint(Long.parseLong(value), -1);
+        return new Checkpoint(Long.parseLong(value.substring(0, comma)), Long.parseLong(value.substring(comma + 1)));
+    }
+
+    private static void writeCheckpoint(Path checkpointPath, Checkpoint checkpoint) throws IOException {
+        Path tmp = checkpointPath.resolveSibling(checkpointPath.getFileName() + ".tmp");
+        Files.writeString(tmp, checkpoint.seq() + "," + checkpoint.reportOffset(), StandardCharsets.US_ASCII);
+        Files.move(tmp, checkpointPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * File báo cáo của một lần chạy, ghi dòng theo thứ tự đầu vào.
+     * Kết quả về không theo thứ tự: dòng có seq lớn hơn watermark + 1 chờ trong bộ đệm tới lượt.
+     * Chỉ dùng khi đang giữ khóa job.
+     */
+    private static final class Report {
+        private final BufferedWriter writer;
+        private final FileChannel channel;
+        private final Path checkpointPath;
+        private final TreeMap<Long, Line> pending = new TreeMap<>();
+        // Mọi dòng có seq <= watermark đã được ghi vào writer
+        private long watermark;
+
+        Report(BufferedWriter writer, FileChannel channel, Path checkpointPath, long watermark) {
+            this.writer = writer;
+            this.channel = channel;
+            this.checkpointPath = checkpointPath;
+            this.watermark = watermark;
+        }
+
+        void add(Line line) {
+            pending.put(line.item().seq(), line);
+        }
+
+        /**
+         * Dòng kế tiếp theo thứ tự nếu đã có kết quả, null nếu còn phải chờ.
+         */
+        Line next() {
+            Map.Entry<Long, Line> first = pending.firstEntry();
+            if (first == null || first.getKey() != watermark + 1) return null;
+            pending.pollFirstEntry();
+            watermark++;
+            return first.getValue();
+        }
+
+        void write(Line line) throws IOException {
+            writer.write(line.toCsv());
+            writer.newLine();
+        }
+
+        /**
+         * Đẩy báo cáo xuống file; sau lệnh này channel.position() là độ dài báo cáo ứng với watermark trả về.
+         */
+        long flush() throws IOException {
+            writer.flush();
+            return watermark;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.vnpay.springboot.Service;
+
+import com.vnpay.springboot.Config.RefundBatchProperties;
+import com.vnpay.springboot.Entity.OrderStatus;
+import com.vnpay.springboot.Entity.PaymentOrder;
+import com.vnpay.springboot.Entity.RefundStatus;
+import com.vnpay.springboot.Model.RefundBatchResult;
+import com.vnpay.springboot.Model.RefundBatchResult.Outcome;
+import com.vnpay.springboot.Model.RefundInstruction;
+import com.vnpay.springboot.Model.RefundResponse;
+import com.vnpay.springboot.Model.VNPayMerchant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * Hoàn tiền hàng loạt (hủy flash sale...): đọc luồng yêu cầu CSV/NDJSON, kiểm tra với sổ cái rồi gửi Refund
+ * với giới hạn tốc độ và số lời gọi đồng thời như job đối soát. Kết quả từng dòng được trả ngay khi có.
+ * <ul>
+ *   <li>02 (toàn phần): số tiền bằng số tiền đơn và đơn chưa hoàn lần nào; 03 (một phần): nhỏ hơn số tiền đơn.
+ *       Không ghi transactionType thì suy ra từ số tiền.</li>
+ *   <li>Tổng đã hoàn (kể cả yêu cầu chưa có kết quả) không vượt số tiền đơn, xem RefundLedgerService.</li>
+ *   <li>Mỗi dòng có idempotency key: chạy lại batch chỉ đọc lại kết quả đã ghi, không hoàn lần hai.</li>
+ * </ul>
+ */
+@Service
+public class RefundBatchService {
+
+    private static final Logger log = LoggerFactory.getLogger(RefundBatchService.class);
+
+    private record Line(long number, String text) {
+    }
+
+    // Dòng đã đọc: instruction, hoặc kết quả INVALID nếu sai định dạng
+    private record Item(long line, RefundInstruction instruction, RefundBatchResult invalid) {
+        static Item invalid(long line, String message) {
+            return new Item(line, null, RefundBatchResult.invalid(line, message));
+        }
+    }
+
+    // Đã giữ tiền và chờ gửi VNPAY (result == null), hoặc đã có kết quả cuối không cần gửi
+    private record Claim(PaymentOrder order, VNPayMerchant merchant, String transactionType, RefundBatchResult result) {
+    }
+
+    private final OrderLedgerService orderLedgerService;
+    private final RefundLedgerService refundLedgerService;
+    private final VNPayMerchantRegistry merchantRegistry;
+    private final VNPayRefund vnPayRefund;
+    private final VNPayMetrics metrics;
+    private final RefundBatchProperties properties;
+
+    public RefundBatchService(OrderLedgerService orderLedgerService, RefundLedgerService refundLedgerService,
+                              VNPayMerchantRegistry merchantRegistry, VNPayRefund vnPayRefund, VNPayMetrics metrics,
+                              RefundBatchProperties properties) {
+        this.orderLedgerService = orderLedgerService;
+        this.refundLedgerService = refundLedgerService;
+        this.merchantRegistry = merchantRegistry;
+        this.vnPayRefund = vnPayRefund;
+        this.metrics = metrics;
+        this.properties = properties;
+    }
+
+    public RefundBatchProperties getProperties() {
+        return properties;
+    }
+
+    /**
+     * @param lines các dòng dữ liệu gửi lên (dòng trống và dòng tiêu đề CSV được bỏ qua)
+     * @param createBy vnp_CreateBy cho dòng không ghi createBy
+     * @param clientIp vnp_IpAddr gửi VNPAY
+     * @return kết quả từng dòng theo thứ tự hoàn thành
+     */
+    public Flux<RefundBatchResult> submit(Flux<String> lines, RefundInstruction.Format format, String createBy,
+                                          String clientIp) {
+        int maxItems = Math.max(1, properties.getMaxItems());
+        Duration interval = Duration.ofNanos(1_000_000_000L / Math.max(1, properties.getRatePerSecond()));
+        return lines.index((i, text) -> new Line(i + 1, text))
+                .filter(line -> !line.text().isBlank()
+                        && !(format == RefundInstruction.Format.CSV && line.text().startsWith(RefundInstruction.CSV_HEADER)))
+                .index((i, line) -> i < maxItems
+                        ? parse(line, format) : Item.invalid(line.number(), "Batch exceeds " + maxItems + " items"))
+                // Chỉ dòng hợp lệ bị giới hạn tốc độ
+                .concatMap(item -> item.invalid() != null ? Mono.just(item) : Mono.just(item).delayElement(interval))
+                .flatMap(item -> process(item, createBy, clientIp), Math.max(1, properties.getConcurrency()))
+                .doOnNext(result -> metrics.recordRefundBatch(result.outcome().name().toLowerCase(Locale.ROOT)));
+    }
+
+    private static Item parse(Line line, RefundInstruction.Format format) {
+        try {
+            return new Item(line.number(), RefundInstruction.parse(line.text(), format), null);
+        } catch (IllegalArgumentException e) {
+            return Item.invalid(line.number(), e.getMessage());
+        }
+    }
+
+    private Mono<RefundBatchResult> process(Item item, String createBy, String clientIp) {
+        if (item.invalid() != null) return Mono.just(item.invalid());
+        RefundInstruction instruction = item.instruction();
+        String by = instruction.createBy() != null ? instruction.createBy() : createBy;
+        Mono<RefundBatchResult> processing = Mono.fromCallable(() -> claim(item.line(), instruction, by))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(claim -> claim.result() != null
+                        ? Mono.just(claim.result()) : send(item.line(), instruction, claim, by, clientIp))
+                .onErrorResume(e -> {
+                    log.error("Batch refund item failed before sending. Key: {}, TxnRef: {}: {}",
+                            instruction.idempotencyKey(), instruction.txnRef(), e.getMessage());
+                    return Mono.just(RefundBatchResult.of(item.line(), instruction, instruction.transactionType(),
+                            Outcome.ERROR, false, null, "Internal error, resubmit to retry"));
+                });
+        // Đã giữ tiền thì phải gửi VNPAY và chốt kết quả, kể cả khi client ngắt kết nối giữa chừng
+        return Mono.fromFuture(processing::toFuture, true);
+    }
+
+    private Claim claim(long line, RefundInstruction instruction, String createBy) {
+        String key = instruction.idempotencyKey();
+        Optional<RefundLedgerService.Entry> existing = refundLedgerService.find(key);
+        if (existing.isPresent()) return replay(line, instruction, existing.get());
+
+        PaymentOrder order = orderLedgerService.findOrder(instruction.txnRef()).orElse(null);
+        if (order == null) return reject(line, instruction, instruction.transactionType(), "Order not found");
+        if (order.getStatus() != OrderStatus.PAID) {
+            return reject(line, instruction, instruction.transactionType(), "Order is " + order.getStatus());
+        }
+        if (order.getTransactionNo() == null || order.getVnpCreateDate() == null) {
+            return reject(line, instruction, instruction.transactionType(), "Order has no VNPAY transaction");
+        }
+        VNPayMerchant merchant = merchantRegistry.resolve(order.getTmnCode());
+        if (merchant == null) {
+            return reject(line, instruction, instruction.transactionType(), "Unknown VNPAY merchant " + order.getTmnCode());
+        }
+
+        long amount = instruction.amount() * 100;
+        String transactionType = instruction.transactionType() != null
+                ? instruction.transactionType() : amount == order.getAmount() ? "02" : "03";
+        String error = validate(transactionType, amount, order);
+        if (error != null) {
+            // Số tiền đã hoàn có thể là của chính key này, vừa được batch khác / node khác giữ
+            if (order.getRefundedAmount() > 0) {
+                existing = refundLedgerService.find(key);
+                if (existing.isPresent()) return replay(line, instruction, existing.get());
+            }
+            return reject(line, instruction, transactionType, error);
+        }
+
+        try {
+            if (!refundLedgerService.reserve(key, instruction.txnRef(), amount, transactionType, createBy)) {
+                // Yêu cầu khác cùng đơn vừa giữ tiền trước
+                return reject(line, instruction, transactionType, "Refund exceeds remaining refundable amount");
+            }
+        } catch (DuplicateKeyException e) {
+            return refundLedgerService.find(key)
+                    .map(entry -> replay(line, instruction, entry))
+                    .orElseGet(() -> reject(line, instruction, transactionType, "Idempotency key is being processed"));
+        }
+        return new Claim(order, merchant, transactionType, null);
+    }
+
+    // amount và số tiền đơn đều theo VND x 100
+    private static String validate(String transactionType, long amount, PaymentOrder order) {
+        if ("02".equals(transactionType)) {
+            if (amount != order.getAmount()) return "Full refund (02) must equal the order amount";
+            if (order.getRefundedAmount() > 0) return "Order already partially refunded, use 03";
+        } else if (amount >= order.getAmount()) {
+            return "Partial refund (03) must be less than the order amount";
+        }
+        long remaining = order.getAmount() - order.getRefundedAmount();
+        if (amount > remaining) {
+            return "Refund exceeds remaining refundable amount (" + remaining / 100 + " VND)";
+        }
+        return null;
+    }
+
+    private static Claim replay(long line, RefundInstruction instruction, RefundLedgerService.Entry entry) {
+        if (!entry.txnRef().equals(instruction.txnRef()) || entry.amount() != instruction.amount() * 100) {
+            return reject(line, instruction, instruction.transactionType(),
+                    "Idempotency key already used for a different refund");
+        }
+        Outcome outcome = switch (entry.status()) {
+            case PROCESSING -> Outcome.IN_PROGRESS;
+            case SUCCEEDED -> Outcome.REFUNDED;
+            case FAILED -> Outcome.FAILED;
+            case UNKNOWN -> Outcome.UNKNOWN;
+        };
+        return new Claim(null, null, entry.transactionType(), RefundBatchResult.of(line, instruction,
+                entry.transactionType(), outcome, true, entry.responseCode(), entry.message()));
+    }
+
+    private static Claim reject(long line, RefundInstruction instruction, String transactionType, String message) {
+        return new Claim(null, null, transactionType, RefundBatchResult.of(line, instruction, transactionType,
+                Outcome.REJECTED, false, null, message));
+    }
+
+    private Mono<RefundBatchResult> send(long line, RefundInstruction instruction, Claim claim, String createBy,
+                                         String clientIp) {
+        PaymentOrder order = claim.order();
+        return vnPayRefund.sendRefundRequestAsync(claim.merchant(), instruction.txnRef(), order.getTransactionNo(),
+                        instruction.amount(), claim.transactionType(), createBy, order.getVnpCreateDate(), clientIp)
+                .publishOn(Schedulers.boundedElastic())
+                .map(response -> complete(line, instruction, claim.transactionType(), response));
+    }
+
+    private RefundBatchResult complete(long line, RefundInstruction instruction, String transactionType,
+                                       RefundResponse response) {
+        // 99 (lỗi kết nối) và 97 (sai chữ ký phản hồi): VNPAY có thể đã hoàn tiền
+        RefundStatus status = response.isSuccess() ? RefundStatus.SUCCEEDED
+                : "99".equals(response.responseCode()) || "97".equals(response.responseCode())
+                ? RefundStatus.UNKNOWN : RefundStatus.FAILED;
+        try {
+            refundLedgerService.complete(instruction.idempotencyKey(), instruction.txnRef(), instruction.amount() * 100,
+                    status, response.responseCode(), response.message(), response.transactionNo());
+        } catch (DataAccessException e) {
+            // Dòng vẫn PROCESSING và giữ nguyên số tiền: gửi lại batch trả IN_PROGRESS, không hoàn lần hai
+            log.error("Failed to record refund result. Key: {}, TxnRef: {}, ResponseCode: {}: {}",
+                    instruction.idempotencyKey(), instruction.txnRef(), response.responseCode(), e.getMessage());
+        }
+        if (status == RefundStatus.UNKNOWN) {
+            log.warn("Refund outcome unknown, verify with QueryDR. Key: {}, TxnRef: {}, ResponseCode: {}",
+                    instruction.idempotencyKey(), instruction.txnRef(), response.responseCode());
+        }
+        Outcome outcome = switch (status) {
+            case SUCCEEDED -> Outcome.REFUNDED;
+            case UNKNOWN -> Outcome.UNKNOWN;
+            default -> Outcome.FAILED;
+        };
+        return RefundBatchResult.of(line, instruction, transactionType, outcome, false, response.responseCode(),
+                response.message());
+    }
+}
@@ -0,0 +1,97 @@
+package com.vnpay.springboot.Service;
+
+import com.vnpay.springboot.Entity.RefundStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Sổ hoàn tiền: bảng vnpay_refund (một dòng cho mỗi idempotency key) và cột vnpay_order.refunded_amount.
+ * <ul>
+ *   <li>Giữ tiền: INSERT dòng PROCESSING và cộng refunded_amount bằng UPDATE có điều kiện
+ *       (đơn PAID, tổng đã hoàn + số mới không vượt số tiền đơn) trong cùng một transaction,
+ *       nên hai yêu cầu đồng thời (kể cả trên hai node) không thể cùng vượt số tiền đơn.</li>
+ *   <li>Trùng key: INSERT vi phạm khóa duy nhất, không giữ thêm tiền.</li>
+ *   <li>VNPAY từ chối: trả lại số tiền đã giữ; không rõ kết quả thì giữ nguyên.</li>
+ * </ul>
+ */
+@Service
+public class RefundLedgerService {
+
+    private static final String INSERT_SQL =
+            "INSERT INTO vnpay_refund (idempotency_key, vnp_txn_ref, amount, transaction_type, status, create_by, "
+                    + "created_at, updated_at) VALUES (?, ?, ?, ?, 'PROCESSING', ?, ?, ?)";
+    private static final String RESERVE_SQL =
+            "UPDATE vnpay_order SET refunded_amount = COALESCE(refunded_amount, 0) + ?, version = version + 1 "
+                    + "WHERE vnp_txn_ref = ? AND status = 'PAID' AND COALESCE(refunded_amount, 0) + ? <= amount";
+    private static final String RELEASE_SQL =
+            "UPDATE vnpay_order SET refunded_amount = refunded_amount - ?, version = version + 1 "
+                    + "WHERE vnp_txn_ref = ? AND refunded_amount >= ?";
+    private static final String COMPLETE_SQL =
+            "UPDATE vnpay_refund SET status = ?, vnp_response_code = ?, message = ?, vnp_transaction_no = ?, updated_at = ? "
+                    + "WHERE idempotency_key = ? AND status = 'PROCESSING'";
+    private static final String FIND_SQL =
+            "SELECT vnp_txn_ref, amount, transaction_type, status, vnp_response_code, message "
+                    + "FROM vnpay_refund WHERE idempotency_key = ?";
+
+    /**
+     * Yêu cầu hoàn đã ghi nhận cho một idempotency key.
+     * @param amount VND x 100
+     */
+    public record Entry(String txnRef, long amount, String transactionType, RefundStatus status,
+                        String responseCode, String message) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final VNPayClock clock;
+
+    public RefundLedgerService(JdbcTemplate jdbcTemplate, VNPayClock clock) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.clock = clock;
+    }
+
+    /**
+     * Ghi yêu cầu PROCESSING và giữ số tiền trên đơn.
+     * @param amount VND x 100
+     * @return false nếu đơn không còn PAID hoặc không đủ số tiền còn hoàn được (không ghi gì)
+     * @throws org.springframework.dao.DuplicateKeyException nếu key đã tồn tại
+     */
+    @Transactional
+    public boolean reserve(String idempotencyKey, String txnRef, long amount, String transactionType, String createBy) {
+        Timestamp now = Timestamp.from(clock.now());
+        jdbcTemplate.update(INSERT_SQL, idempotencyKey, txnRef, amount, transactionType, createBy, now, now);
+        if (jdbcTemplate.update(RESERVE_SQL, amount, txnRef, amount) == 1) {
+            return true;
+        }
+        TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+        return false;
+    }
+
+    /**
+     * Chốt kết quả VNPAY cho yêu cầu đang PROCESSING; FAILED thì trả lại số tiền đã giữ.
+     * @param amount VND x 100, đúng số đã giữ khi reserve
+     * @return false nếu yêu cầu không còn PROCESSING
+     */
+    @Transactional
+    public boolean complete(String idempotencyKey, String txnRef, long amount, RefundStatus status,
+                            String responseCode, String message, String transactionNo) {
+        int updated = jdbcTemplate.update(COMPLETE_SQL, status.name(), responseCode, message, transactionNo,
+                Timestamp.from(clock.now()), idempotencyKey);
+        if (updated == 1 && status == RefundStatus.FAILED) {
+            jdbcTemplate.update(RELEASE_SQL, amount, txnRef, amount);
+        }
+        return updated == 1;
+    }
+
+    public Optional<Entry> find(String idempotencyKey) {
+        List<Entry> rows = jdbcTemplate.query(FIND_SQL, (rs, i) -> new Entry(rs.getString("vnp_txn_ref"),
+                rs.getLong("amount"), rs.getString("transaction_type"), RefundStatus.valueOf(rs.getString("status")),
+                rs.getString("vnp_response_code"), rs.getString("message")), idempotencyKey);
+        return rows.isEmpty() ? Optional.empty() : Optional.of(rows.get(0));
+    }
+}
@@ -0,0 +1,147 @@
+package com.vnpay.springboot.Service;
+
+import com.vnpay.springboot.Config.VNPayResilienceProperties;
+import com.vnpay.springboot.Util.Bulkhead;
+import com.vnpay.springboot.Util.CircuitBreaker;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lớp bảo vệ lời gọi API VNPAY: bulkhead + circuit breaker cho mỗi API, retry có jitter cho API idempotent.
+ * Refund không bao giờ được retry tự động (có thể hoàn tiền hai lần).
+ * Số liệu: vnpay.api.circuit.state, vnpay.api.circuit.transitions, vnpay.api.calls.rejected, vnpay.api.retries.
+ */
+@Component
+public class VNPayApiGuard {
+
+    private static final Logger log = LoggerFactory.getLogger(VNPayApiGuard.class);
+
+    private final VNPayResilienceProperties properties;
+    private final MeterRegistry meterRegistry;
+    private final ConcurrentHashMap<String, Guard> guards = new ConcurrentHashMap<>();
+
+    public VNPayApiGuard(VNPayResilienceProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+    }
+
+    private record Guard(CircuitBreaker circuitBreaker, Bulkhead bulkhead) {
+    }
+
+    /**
+     * Bọc một lời gọi API. call phải tạo request mới mỗi lần subscribe (Mono.defer) để retry không gửi lại request cũ.
+     * @param idempotent true thì retry lỗi kết nối/timeout/5xx với backoff lũy thừa có jitter
+     */
+    public <T> Mono<T> execute(String api, Mono<T> call, boolean idempotent) {
+        Guard guard = guards.computeIfAbsent(api, this::createGuard);
+        Mono<T> attempt = Mono.defer(() -> {
+            if (!guard.bulkhead().tryAcquire()) {
+                meterRegistry.counter("vnpay.api.calls.rejected", "api", api, "reason", "bulkhead_full").increment();
+                return Mono.error(new Bulkhead.FullException(api));
+            }
+            long permit = guard.circuitBreaker().tryAcquire();
+            if (permit == CircuitBreaker.REJECTED) {
+                guard.bulkhead().release();
+                meterRegistry.counter("vnpay.api.calls.rejected", "api", api, "reason", "circuit_open").increment();
+                return Mono.error(new CircuitBreaker.OpenException(api));
+            }
+            AtomicBoolean recorded = new AtomicBoolean();
+            return call
+                    .doOnSuccess(value -> {
+                        if (recorded.compareAndSet(false, true)) guard.circuitBreaker().onSuccess(permit);
+                    })
+                    .doOnError(e -> {
+                        if (!recorded.compareAndSet(false, true)) return;
+                        if (isUpstreamFailure(e)) {
+                            guard.circuitBreaker().onFailure(permit);
+                        } else {
+                            guard.circuitBreaker().onSuccess(permit);
+                        }
+                    })
+                    .doOnCancel(() -> {
+                        if (recorded.compareAndSet(false, true)) guard.circuitBreaker().onIgnored(permit);
+                    })
+                    .doFinally(signal -> guard.bulkhead().release());
+        });
+
+        if (!idempotent || properties.getMaxAttempts() <= 1) {
+            return attempt;
+        }
+        return attempt.retryWhen(Retry.backoff(properties.getMaxAttempts() - 1, properties.getInitialBackoff())
+                .maxBackoff(properties.getMaxBackoff())
+                .jitter(properties.getJitter())
+                .filter(VNPayApiGuard::isUpstreamFailure)
+                .doBeforeRetry(signal -> {
+                    meterRegistry.counter("vnpay.api.retries", "api", api).increment();
+                    log.warn("Retrying VNPAY API ({}) after attempt {}: {}", api, signal.totalRetries() + 1,
+                            signal.failure().getMessage());
+                })
+                .onRetryExhaustedThrow((spec, signal) -> signal.failure()));
+    }
+
+    public CircuitBreaker.State getState(String api) {
+        Guard guard = guards.get(api);
+        return guard == null ? CircuitBreaker.State.CLOSED : guard.circuitBreaker().getState();
+    }
+
+    /**
+     * Lỗi do phía VNPAY/mạng: lỗi I/O (kết nối, đứt kết nối), timeout, phản hồi 5xx.
+     * Không tính 4xx, lời gọi bị từ chối tại chỗ và lỗi xử lý phía ứng dụng (giải mã, kiểm tra chữ ký...).
+     */
+    public static boolean isUpstreamFailure(Throwable e) {
+        if (e instanceof WebClientResponseException responseException) {
+            return responseException.getStatusCode().is5xxServerError();
+        }
+        if (e instanceof WebClientRequestException) return true;
+        // Lỗi mạng có thể bị bọc (Reactor, Netty): xét cả chuỗi cause
+        for (Throwable t = e; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof IOException || t instanceof TimeoutException
+                    || t instanceof io.netty.handler.timeout.TimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lời gọi bị từ chối ngay tại chỗ (mạch mở hoặc bulkhead đầy), không tới VNPAY.
+     */
+    public static boolean isRejected(Throwable e) {
+        return e instanceof CircuitBreaker.OpenException || e instanceof Bulkhead.FullException;
+    }
+
+    private Guard createGuard(String api) {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(api,
+                properties.getWindowSize(),
+                properties.getMinimumCalls(),
+                properties.getFailureRateThreshold(),
+                properties.getOpenDuration().toNanos(),
+                properties.getHalfOpenPermits(),
+                (from, to) -> {
+                    log.warn("VNPAY API ({}) circuit breaker: {} -> {}", api, from, to);
+                    meterRegistry.counter("vnpay.api.circuit.transitions", "api", api,
+                            "from", from.name(), "to", to.name()).increment();
+                });
+        Gauge.builder("vnpay.api.circuit.state", circuitBreaker, cb -> cb.getState().ordinal())
+                .description("0 = closed, 1 = open, 2 = half-open")
+                .tag("api", api)
+                .register(meterRegistry);
+        Bulkhead bulkhead = new Bulkhead(api, properties.getMaxConcurrentCalls());
+        Gauge.builder("vnpay.api.bulkhead.in.flight", bulkhead, Bulkhead::getInFlight)
+                .tag("api", api)
+                .register(meterRegistry);
+        return new Guard(circuitBreaker, bulkhead);
+    }
+}
@@ -0,0 +1,73 @@
+package com.vnpay.springboot.Service;
+
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Thời gian cho request VNPAY: giờ Việt Nam (Asia/Ho_Chi_Minh, GMT+7) định dạng yyyyMMddHHmmss
+ * cho vnp_CreateDate / vnp_ExpireDate. Đọc giờ qua Clock inject được (ClockConfig) để thay bằng đồng hồ cố định khi đo.
+ * Chuỗi đã định dạng được cache theo từng giây: nhiều request trong cùng giây dùng lại một String,
+ * không tạo Calendar / SimpleDateFormat cho mỗi request.
+ */
+@Component
+public class VNPayClock {
+
+    public static final ZoneId ZONE = ZoneId.of("Asia/Ho_Chi_Minh");
+    public static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyyMMddHHmmss").withZone(ZONE);
+
+    // Số ô cache (lũy thừa của 2): giây hiện tại và giây hết hạn (now + 9 phút) rơi vào hai ô khác nhau
+    private static final int CACHE_SLOTS = 8;
+
+    // Bất biến (field final): đọc/ghi ô cache không cần khóa, ô bị ghi đè chỉ làm cache trượt
+    private record Formatted(long epochSecond, String text) {
+    }
+
+    private final Clock clock;
+    private final Formatted[] cache = new Formatted[CACHE_SLOTS];
+
+    public VNPayClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    public Instant now() {
+        return clock.instant();
+    }
+
+    public long millis() {
+        return clock.millis();
+    }
+
+    /**
+     * Ngày hiện tại theo giờ Việt Nam.
+     */
+    public LocalDate today() {
+        return LocalDate.ofInstant(clock.instant(), ZONE);
+    }
+
+    /**
+     * Giờ hiện tại dạng yyyyMMddHHmmss (giờ Việt Nam).
+     */
+    public String formatNow() {
+        return format(clock.instant());
+    }
+
+    /**
+     * Định dạng yyyyMMddHHmmss (giờ Việt Nam), bỏ phần lẻ của giây.
+     */
+    public String format(Instant instant) {
+        long second = instant.getEpochSecond();
+        int slot = (int) (second & (CACHE_SLOTS - 1));
+        Formatted cached = cache[slot];
+        if (cached != null && cached.epochSecond() == second) {
+            return cached.text();
+        }
+        String text = FORMATTER.format(Instant.ofEpochSecond(second));
+        cache[slot] = new Formatted(second, text);
+        return text;
+    }
+}
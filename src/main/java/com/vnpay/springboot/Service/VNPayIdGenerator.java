@@ -0,0 +1,93 @@
+package com.vnpay.springboot.Service;
+
+import com.vnpay.springboot.Config.VNPayIdProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sinh mã duy nhất cho vnp_RequestId (QueryDR/Refund) và vnp_TxnRef: 19 chữ số thập phân cố định,
+ * ghép từ một số 63 bit = mili giây từ 2024-01-01 (41 bit) | mã node (10 bit) | số thứ tự trong mili giây (12 bit).
+ * <ul>
+ *   <li>Không trùng trong một node: (mili giây, số thứ tự) tăng đơn điệu qua một AtomicLong, không khóa.
+ *       Quá 4096 mã trong một mili giây thì mượn mili giây kế tiếp; đồng hồ lùi thì tiếp tục từ giá trị cũ.</li>
+ *   <li>Không trùng giữa các node: mỗi node một vnpay.id.node-id. Thiếu node-id thì không khởi động
+ *       (trừ khi vnpay.id.single-node=true): mã node ngẫu nhiên có thể trùng giữa các node và sinh mã trùng.</li>
+ *   <li>Mỗi lần gọi chỉ cấp phát chuỗi kết quả.</li>
+ * </ul>
+ */
+@Component
+public class VNPayIdGenerator {
+
+    private static final Logger log = LoggerFactory.getLogger(VNPayIdGenerator.class);
+
+    public static final int LENGTH = 19;
+    public static final int MAX_NODE_ID = 1023;
+
+    private static final long EPOCH_MILLIS = Instant.parse("2024-01-01T00:00:00Z").toEpochMilli();
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private final VNPayClock clock;
+    private final long nodeBits;
+    // (mili giây << SEQUENCE_BITS) | số thứ tự của mã cấp gần nhất
+    private final AtomicLong last = new AtomicLong();
+
+    public VNPayIdGenerator(VNPayIdProperties properties, VNPayClock clock) {
+        this.clock = clock;
+        Integer nodeId = properties.getNodeId();
+        if (nodeId == null) {
+            if (!properties.isSingleNode()) {
+                throw new IllegalStateException("vnpay.id.node-id is not set: give each node a distinct id (0.."
+                        + MAX_NODE_ID + "), or set vnpay.id.single-node=true when only one instance runs");
+            }
+            nodeId = 0;
+            log.warn("vnpay.id.node-id is not set, using node id 0 (vnpay.id.single-node=true): "
+                    + "ids collide if more than one instance runs, set vnpay.id.single-node=false in a cluster");
+        } else if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("vnpay.id.node-id must be between 0 and " + MAX_NODE_ID + ": " + nodeId);
+        }
+        this.nodeBits = (long) nodeId << SEQUENCE_BITS;
+    }
+
+    /**
+     * Mã mới dạng số 63 bit (dương, tăng dần trong một node).
+     */
+    public long nextId() {
+        long now = (clock.millis() - EPOCH_MILLIS) << SEQUENCE_BITS;
+        long stamp = last.accumulateAndGet(now, (previous, current) -> Math.max(previous + 1, current));
+        long millis = stamp >>> SEQUENCE_BITS;
+        return (millis << (NODE_BITS + SEQUENCE_BITS)) | nodeBits | (stamp & SEQUENCE_MASK);
+    }
+
+    /**
+     * vnp_RequestId cho QueryDR / Refund.
+     */
+    public String nextRequestId() {
+        return format(nextId());
+    }
+
+    /**
+     * vnp_TxnRef cho đơn tạo từ server (chỉ gồm chữ số, không trùng với mã do node khác sinh).
+     */
+    public String nextTxnRef() {
+        return format(nextId());
+    }
+
+    /**
+     * Mã dạng chuỗi 19 chữ số (thêm số 0 ở đầu).
+     */
+    public static String format(long id) {
+        byte[] digits = new byte[LENGTH];
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            digits[i] = (byte) ('0' + id % 10);
+            id /= 10;
+        }
+        return new String(digits, StandardCharsets.ISO_8859_1);
+    }
+}
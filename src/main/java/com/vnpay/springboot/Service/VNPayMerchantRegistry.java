@@ -0,0 +1,191 @@
+package com.vnpay.springboot.Service;
+
+import com.vnpay.springboot.Config.VNPayConfig;
+import com.vnpay.springboot.Config.VNPayMerchantProperties;
+import com.vnpay.springboot.Model.VNPayMerchant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Danh bạ merchant VNPAY: merchant mặc định (vnpay.tmn-code / vnpay.secret-key) và các merchant trong vnpay.merchants.file.
+ * Tra cứu theo vnp_TmnCode trên một snapshot bất biến (copy-on-write), không khóa trên đường nóng.
+ * Nạp lại file thì dựng snapshot mới và thay tham chiếu; merchant không đổi key giữ nguyên instance (signer đã init).
+ * File lỗi thì giữ nguyên snapshot đang dùng.
+ */
+@Component
+public class VNPayMerchantRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(VNPayMerchantRegistry.class);
+
+    private record Snapshot(Map<String, VNPayMerchant> byTmnCode, VNPayMerchant defaultMerchant) {
+    }
+
+    private record FileStamp(long lastModified, long size) {
+    }
+
+    private final VNPayConfig vnPayConfig;
+    private final OrderLedgerService orderLedgerService;
+    private final Path file;
+
+    private volatile Snapshot snapshot;
+    private FileStamp checkedStamp; // file đã nạp (hoặc đã thử nạp và lỗi), khóa bằng this
+
+    public VNPayMerchantRegistry(VNPayConfig vnPayConfig, VNPayMerchantProperties properties,
+                                 OrderLedgerService orderLedgerService) {
+        this.vnPayConfig = vnPayConfig;
+        this.orderLedgerService = orderLedgerService;
+        this.file = properties.getFile() == null || properties.getFile().isBlank()
+                ? null : Paths.get(properties.getFile());
+        this.snapshot = snapshot(new HashMap<>());
+        if (file != null) {
+            try {
+                reload();
+            } catch (IOException | IllegalArgumentException e) {
+                throw new IllegalStateException("Cannot load VNPAY merchants from " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Merchant theo vnp_TmnCode; tmnCode rỗng thì trả merchant mặc định.
+     * @return null nếu không có merchant tương ứng
+     */
+    public VNPayMerchant resolve(String tmnCode) {
+        Snapshot current = snapshot;
+        if (tmnCode == null || tmnCode.isEmpty()) return current.defaultMerchant();
+        return current.byTmnCode().get(tmnCode);
+    }
+
+    /**
+     * Merchant mặc định, null nếu chưa cấu hình vnpay.tmn-code / vnpay.secret-key.
+     */
+    public VNPayMerchant getDefault() {
+        return snapshot.defaultMerchant();
+    }
+
+    /**
+     * Merchant đã tạo đơn (lưu trong sổ cái), đơn không rõ merchant thì dùng merchant mặc định.
+     * Có truy vấn DB: không gọi trên event loop.
+     */
+    public VNPayMerchant forOrder(String txnRef) {
+        return resolve(orderLedgerService.findTmnCode(txnRef).orElse(null));
+    }
+
+    public Set<String> getTmnCodes() {
+        return Collections.unmodifiableSet(new TreeSet<>(snapshot.byTmnCode().keySet()));
+    }
+
+    /**
+     * Đọc lại vnpay.merchants.file và thay snapshot.
+     * @return số merchant sau khi nạp
+     * @throws IOException nếu không đọc được file
+     * @throws IllegalArgumentException nếu file thiếu secret-key của một merchant
+     */
+    public synchronized int reload() throws IOException {
+        if (file == null) return snapshot.byTmnCode().size();
+        FileStamp stamp = stamp();
+        Properties props = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            props.load(reader);
+        }
+
+        Map<String, String> secretKeys = new HashMap<>();
+        Map<String, String> returnUrls = new HashMap<>();
+        for (String key : props.stringPropertyNames()) {
+            int dot = key.indexOf('.');
+            if (dot <= 0) throw new IllegalArgumentException("Invalid merchant key: " + key);
+            String tmnCode = key.substring(0, dot);
+            String value = props.getProperty(key).trim();
+            switch (key.substring(dot + 1)) {
+                case "secret-key" -> secretKeys.put(tmnCode, value);
+                case "return-url" -> returnUrls.put(tmnCode, value);
+                default -> throw new IllegalArgumentException("Unknown merchant property: " + key);
+            }
+        }
+        for (String tmnCode : returnUrls.keySet()) {
+            if (!secretKeys.containsKey(tmnCode)) {
+                throw new IllegalArgumentException("Missing " + tmnCode + ".secret-key");
+            }
+        }
+
+        Map<String, VNPayMerchant> previous = snapshot.byTmnCode();
+        Map<String, VNPayMerchant> merchants = new HashMap<>();
+        for (Map.Entry<String, String> entry : secretKeys.entrySet()) {
+            String tmnCode = entry.getKey();
+            String returnUrl = returnUrls.getOrDefault(tmnCode, vnPayConfig.getReturnUrl());
+            VNPayMerchant existing = previous.get(tmnCode);
+            merchants.put(tmnCode, existing != null && existing.sameSettings(entry.getValue(), returnUrl)
+                    ? existing : new VNPayMerchant(tmnCode, entry.getValue(), returnUrl));
+        }
+
+        Snapshot loaded = snapshot(merchants);
+        snapshot = loaded;
+        checkedStamp = stamp;
+        log.info("Loaded {} VNPAY merchant(s) from {}", loaded.byTmnCode().size(), file);
+        return loaded.byTmnCode().size();
+    }
+
+    /**
+     * Kiểm tra định kỳ file merchant, nạp lại khi thời điểm sửa hoặc kích thước thay đổi.
+     * File lỗi chỉ báo một lần cho mỗi phiên bản file.
+     */
+    @Scheduled(fixedDelayString = "${vnpay.merchants.check-interval:PT10S}")
+    public synchronized void reloadIfChanged() {
+        if (file == null) return;
+        FileStamp stamp = null;
+        try {
+            stamp = stamp();
+            if (stamp.equals(checkedStamp)) return;
+            reload();
+        } catch (NoSuchFileException e) {
+            if (checkedStamp != null) log.warn("VNPAY merchant file {} not found, keeping current merchants", file);
+            checkedStamp = null;
+        } catch (IOException | IllegalArgumentException e) {
+            log.error("Reloading VNPAY merchants from {} failed, keeping current merchants: {}", file, e.getMessage());
+            checkedStamp = stamp;
+        }
+    }
+
+    private FileStamp stamp() throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        return new FileStamp(attributes.lastModifiedTime().toMillis(), attributes.size());
+    }
+
+    private Snapshot snapshot(Map<String, VNPayMerchant> fromFile) {
+        VNPayMerchant defaultMerchant = defaultMerchant(fromFile);
+        if (defaultMerchant != null) fromFile.putIfAbsent(defaultMerchant.getTmnCode(), defaultMerchant);
+        return new Snapshot(Map.copyOf(fromFile), defaultMerchant);
+    }
+
+    // Merchant từ vnpay.tmn-code / vnpay.secret-key; cùng mã trong file thì file được ưu tiên
+    private VNPayMerchant defaultMerchant(Map<String, VNPayMerchant> fromFile) {
+        String tmnCode = vnPayConfig.getTmnCode();
+        String secretKey = vnPayConfig.getSecretKey();
+        if (tmnCode == null || tmnCode.isEmpty() || secretKey == null || secretKey.isEmpty()) return null;
+        VNPayMerchant configured = fromFile.get(tmnCode);
+        if (configured != null) return configured;
+        VNPayMerchant current = snapshot == null ? null : snapshot.defaultMerchant();
+        if (current != null && current.getTmnCode().equals(tmnCode)
+                && current.sameSettings(secretKey, vnPayConfig.getReturnUrl())) {
+            return current;
+        }
+        return new VNPayMerchant(tmnCode, secretKey, vnPayConfig.getReturnUrl());
+    }
+}
@@ -0,0 +1,216 @@
+package com.vnpay.springboot.Service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Số liệu cho các đường nóng thanh toán. Meter được tạo sẵn hoặc cache theo mã phản hồi,
+ * nên mỗi lần ghi chỉ là một lần tra map (không dựng Tags mới mỗi request).
+ * Histogram percentile bật qua management.metrics.distribution.percentiles-histogram.vnpay.
+ * <ul>
+ *     <li>vnpay.payment.url{outcome}: thời gian tạo URL thanh toán</li>
+ *     <li>vnpay.signature.verifications{flow, result}: kết quả kiểm tra chữ ký Return URL / IPN</li>
+ *     <li>vnpay.ipn{rsp_code, source}: thời gian xử lý và phân bố RspCode trả cho VNPAY</li>
+ *     <li>vnpay.api.latency{api, code}: độ trễ QueryDR/Refund theo mã phản hồi</li>
+ *     <li>vnpay.sweeper.orders{outcome}: kết quả quét đơn PENDING quá hạn</li>
+ *     <li>vnpay.refund.batch.items{outcome}: kết quả từng dòng batch hoàn tiền</li>
+ *     <li>vnpay.reconciliation.items{outcome}: giao dịch đã đối soát (đã ghi báo cáo)</li>
+ *     <li>vnpay.reconciliation.running / vnpay.reconciliation.checkpoint: job đối soát đang chạy (0/1)
+ *     và vị trí checkpoint gần nhất của job</li>
+ *     <li>vnpay.callback.dropped{endpoint, reason}: Return URL / IPN bị từ chối trước controller</li>
+ *     <li>vnpay.ipn.async.unmatched: IPN đã xác nhận 00 (chế độ bất đồng bộ) nhưng lúc ghi DB không khớp đơn PENDING</li>
+ * </ul>
+ */
+@Component
+public class VNPayMetrics {
+
+    private final MeterRegistry registry;
+
+    private final Timer paymentUrlSuccess;
+    private final Timer paymentUrlError;
+    private final Counter returnSignatureValid;
+    private final Counter returnSignatureInvalid;
+    private final Counter ipnSignatureValid;
+    private final Counter ipnSignatureInvalid;
+    private final Counter ipnAsyncUnmatched;
+    private final ConcurrentHashMap<String, Timer> ipnTimers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Timer> apiTimers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Counter> sweepCounters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Counter> refundBatchCounters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Counter> reconciliationCounters = new ConcurrentHashMap<>();
+    private final AtomicLong reconciliationRunning = new AtomicLong();
+    private final AtomicLong reconciliationCheckpoint = new AtomicLong(-1);
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Counter>> droppedCallbackCounters =
+            new ConcurrentHashMap<>();
+
+    public VNPayMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.paymentUrlSuccess = paymentUrlTimer("success");
+        this.paymentUrlError = paymentUrlTimer("error");
+        this.returnSignatureValid = signatureCounter("return", "valid");
+        this.returnSignatureInvalid = signatureCounter("return", "invalid");
+        this.ipnSignatureValid = signatureCounter("ipn", "valid");
+        this.ipnSignatureInvalid = signatureCounter("ipn", "invalid");
+        this.ipnAsyncUnmatched = Counter.builder("vnpay.ipn.async.unmatched")
+                .description("Acknowledged async IPN records that matched no PENDING order when written")
+                .register(registry);
+        Gauge.builder("vnpay.reconciliation.running", reconciliationRunning, AtomicLong::get)
+                .description("1 while a reconciliation job is running")
+                .register(registry);
+        Gauge.builder("vnpay.reconciliation.checkpoint", reconciliationCheckpoint, AtomicLong::get)
+                .description("Last checkpointed input position of the current reconciliation job")
+                .register(registry);
+    }
+
+    public void recordPaymentUrl(long nanos, boolean success) {
+        (success ? paymentUrlSuccess : paymentUrlError).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordReturnSignature(boolean valid) {
+        (valid ? returnSignatureValid : returnSignatureInvalid).increment();
+    }
+
+    public void recordIpnSignature(boolean valid) {
+        (valid ? ipnSignatureValid : ipnSignatureInvalid).increment();
+    }
+
+    public void recordIpnAsyncUnmatched() {
+        ipnAsyncUnmatched.increment();
+    }
+
+    /**
+     * @param source "cache" nếu trả lời từ IpnDedupCache, "service" nếu đã qua VNPayService
+     */
+    public void recordIpn(String rspCode, String source, long nanos) {
+        String code = normalizeCode(rspCode);
+        ipnTimers.computeIfAbsent(source + '|' + code, key -> Timer.builder("vnpay.ipn")
+                        .description("IPN handling time by RspCode returned to VNPAY")
+                        .tag("rsp_code", code)
+                        .tag("source", source)
+                        .register(registry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Đo độ trễ lời gọi API VNPAY từ lúc subscribe tới khi có kết quả, gắn tag theo mã phản hồi.
+     */
+    public <T> Mono<T> timeApi(String api, Mono<T> call, Function<T, String> responseCode) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return call.doOnNext(result -> apiTimer(api, responseCode.apply(result))
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+        });
+    }
+
+    /**
+     * @param outcome kết quả quét một đơn (PendingOrderSweeper.Outcome), tập giá trị cố định
+     */
+    public void recordSweep(String outcome) {
+        sweepCounters.computeIfAbsent(outcome, key -> Counter.builder("vnpay.sweeper.orders")
+                        .description("Expired pending orders resolved via QueryDR, by outcome")
+                        .tag("outcome", outcome)
+                        .register(registry))
+                .increment();
+    }
+
+    /**
+     * @param outcome kết quả một dòng batch hoàn tiền (RefundBatchResult.Outcome), tập giá trị cố định
+     */
+    public void recordRefundBatch(String outcome) {
+        refundBatchCounters.computeIfAbsent(outcome, key -> Counter.builder("vnpay.refund.batch.items")
+                        .description("Batch refund items, by outcome")
+                        .tag("outcome", outcome)
+                        .register(registry))
+                .increment();
+    }
+
+    /**
+     * @param resumedAfter checkpoint job tiếp tục từ đó, -1 nếu chạy từ đầu
+     */
+    public void recordReconciliationStarted(long resumedAfter) {
+        reconciliationCheckpoint.set(resumedAfter);
+        reconciliationRunning.set(1);
+    }
+
+    public void recordReconciliationCheckpoint(long checkpoint) {
+        reconciliationCheckpoint.set(checkpoint);
+    }
+
+    public void recordReconciliationFinished() {
+        reconciliationRunning.set(0);
+    }
+
+    /**
+     * @param outcome kết quả đối soát một giao dịch (ReconciliationService.Outcome), tập giá trị cố định
+     */
+    public void recordReconciliation(String outcome) {
+        reconciliationCounters.computeIfAbsent(outcome, key -> Counter.builder("vnpay.reconciliation.items")
+                        .description("Reconciled transactions written to the report, by outcome")
+                        .tag("outcome", outcome)
+                        .register(registry))
+                .increment();
+    }
+
+    /**
+     * @param endpoint "ipn" hoặc "return"
+     * @param reason "rate_limited" (hết token theo IP) hoặc "shed" (node quá tải)
+     */
+    public void recordCallbackDropped(String endpoint, String reason) {
+        // Đường nóng khi bị tấn công: tra get() trước, không nối chuỗi khóa / tạo lambda mỗi lần
+        ConcurrentHashMap<String, Counter> byReason = droppedCallbackCounters.get(endpoint);
+        if (byReason == null) {
+            byReason = droppedCallbackCounters.computeIfAbsent(endpoint, key -> new ConcurrentHashMap<>());
+        }
+        Counter counter = byReason.get(reason);
+        if (counter == null) {
+            counter = byReason.computeIfAbsent(reason, key -> Counter.builder("vnpay.callback.dropped")
+                    .description("Return URL / IPN requests rejected by admission control")
+                    .tag("endpoint", endpoint)
+                    .tag("reason", reason)
+                    .register(registry));
+        }
+        counter.increment();
+    }
+
+    private Timer apiTimer(String api, String responseCode) {
+        String code = normalizeCode(responseCode);
+        return apiTimers.computeIfAbsent(api + '|' + code, key -> Timer.builder("vnpay.api.latency")
+                .description("VNPAY API latency by response code")
+                .tag("api", api)
+                .tag("code", code)
+                .register(registry));
+    }
+
+    private Timer paymentUrlTimer(String outcome) {
+        return Timer.builder("vnpay.payment.url")
+                .description("Payment URL creation time")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    private Counter signatureCounter(String flow, String result) {
+        return Counter.builder("vnpay.signature.verifications")
+                .description("Return URL / IPN signature verification outcomes")
+                .tag("flow", flow)
+                .tag("result", result)
+                .register(registry);
+    }
+
+    // Mã phản hồi đến từ bên ngoài: chỉ nhận 2 chữ số để số chuỗi tag không tăng vô hạn
+    private static String normalizeCode(String code) {
+        if (code != null && code.length() == 2
+                && Character.isDigit(code.charAt(0)) && Character.isDigit(code.charAt(1))) {
+            return code;
+        }
+        return "other";
+    }
+}
@@ -1,25 +1,41 @@
 package com.vnpay.springboot.Service;
 
-import com.vnpay.springboot.Config.VNPayConfig;
+import com.vnpay.springboot.Model.QueryDrResponse;
+import com.vnpay.springboot.Model.VNPayMerchant;
+import com.vnpay.springboot.Util.VNPayResponseReader;
 import com.google.gson.JsonObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
 
-import java.text.SimpleDateFormat;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.*;
 
 @Service
 public class VNPayQuery {
 
     private static final Logger log = LoggerFactory.getLogger(VNPayQuery.class);
-    private final VNPayConfig vnPayConfig;
+    private final VNPayMerchantRegistry merchantRegistry;
     private final WebClient webClient;
-
-    public VNPayQuery(VNPayConfig vnPayConfig, WebClient.Builder webClientBuilder) {
-        this.vnPayConfig = vnPayConfig;
-        this.webClient = webClientBuilder.baseUrl(vnPayConfig.getApiUrl()).build();
+    private final VNPayApiGuard apiGuard;
+    private final VNPayClock clock;
+    private final VNPayIdGenerator idGenerator;
+    private final VNPayMetrics metrics;
+
+    // vnpayWebClient: connection pool dùng chung, cấu hình trong VNPayHttpClientConfig
+    public VNPayQuery(VNPayMerchantRegistry merchantRegistry, WebClient vnpayWebClient, VNPayApiGuard apiGuard,
+                      VNPayClock clock, VNPayIdGenerator idGenerator, VNPayMetrics metrics) {
+        this.merchantRegistry = merchantRegistry;
+        this.webClient = vnpayWebClient;
+        this.apiGuard = apiGuard;
+        this.clock = clock;
+        this.idGenerator = idGenerator;
+        this.metrics = metrics;
     }
 
     /**
@@ -27,20 +43,82 @@ public class VNPayQuery {
      * @param txnRef Mã giao dịch của Merchant (vnp_TxnRef)
      * @param transDate Ngày tạo giao dịch gốc (vnp_TransactionDate)
      * @param clientIp IP của máy chủ gửi yêu cầu
-     * @return Chuỗi JSON phản hồi từ VNPAY
+     * @return Chuỗi JSON phản hồi từ VNPAY (đã kiểm tra chữ ký), gửi bằng merchant đã tạo đơn
      */
     public String processQuery(String txnRef, String transDate, String clientIp, String transactionNo) {
-        String vnp_RequestId = VNPayConfig.getRandomNumber(8);
-        Calendar cld = Calendar.getInstance(TimeZone.getTimeZone("Etc/GMT+7"));
-        SimpleDateFormat formatter = new SimpleDateFormat("yyyyMMddHHmmss");
-        String vnp_CreateDate = formatter.format(cld.getTime());
+        return processQueryAsync(merchantRegistry.forOrder(txnRef), txnRef, transDate, clientIp, transactionNo)
+                .map(QueryDrResponse::toJson)
+                .block();
+    }
+
+    /**
+     * Phiên bản không chặn của processQuery: request (vnp_RequestId, vnp_CreateDate, chữ ký) được tạo khi subscribe.
+     * Body phản hồi được đọc streaming thẳng từ DataBuffer và kiểm tra vnp_SecureHash;
+     * sai chữ ký thì bỏ toàn bộ nội dung và trả mã 97.
+     * @param merchant merchant gửi yêu cầu (vnp_TmnCode và key ký/kiểm tra chữ ký), xem VNPayMerchantRegistry
+     * @return Mono kết quả QueryDR, lỗi kết nối (hoặc không có merchant) được chuyển thành mã 99
+     */
+    public Mono<QueryDrResponse> processQueryAsync(VNPayMerchant merchant, String txnRef, String transDate,
+                                                   String clientIp, String transactionNo) {
+        if (merchant == null) {
+            log.error("No VNPAY merchant configured for QueryDR. TxnRef: {}", txnRef);
+            return Mono.just(QueryDrResponse.connectionError());
+        }
+        // Mono.defer: mỗi lần subscribe (kể cả retry) tạo request mới với vnp_RequestId mới
+        Mono<String[]> call = Mono.defer(() -> send(buildQueryBody(merchant, txnRef, transDate, clientIp, transactionNo)));
+        Mono<QueryDrResponse> response = apiGuard.execute("querydr", call, true)
+                .map(values -> toResponse(merchant, values))
+                .doOnNext(result -> log.debug("VNPAY QueryDR Response: {}", result))
+                .onErrorResume(e -> {
+                    if (VNPayApiGuard.isRejected(e)) {
+                        log.warn("VNPAY API (QueryDR) call rejected: {}", e.getMessage());
+                    } else {
+                        log.error("Error connecting to VNPAY API (QueryDR): {}", e.getMessage(), e);
+                    }
+                    // Mã 99 là lỗi kết nối nội bộ
+                    return Mono.just(QueryDrResponse.connectionError());
+                });
+        return metrics.timeApi("querydr", response, QueryDrResponse::responseCode);
+    }
+
+    private QueryDrResponse toResponse(VNPayMerchant merchant, String[] values) {
+        String secureHash = values[QueryDrResponse.SIGNED_FIELD_COUNT];
+        if (!merchant.verifyApiData(values, QueryDrResponse.SIGNED_FIELD_COUNT, secureHash)) {
+            log.warn("VNPAY QueryDR response rejected: invalid vnp_SecureHash. TxnRef: {}, ResponseId: {}",
+                    values[5], values[0]);
+            return QueryDrResponse.invalidSignature();
+        }
+        return QueryDrResponse.of(values);
+    }
+
+    private Mono<String[]> send(JsonObject jsonBody) {
+        return webClient.post()
+                .header("Content-Type", "application/json")
+                .bodyValue(jsonBody.toString())
+                .retrieve()
+                // DataBufferDecoder gom body trong giới hạn maxInMemorySize của codec, không tạo String trung gian
+                .bodyToMono(DataBuffer.class)
+                .map(VNPayQuery::readFields);
+    }
+
+    private static String[] readFields(DataBuffer buffer) {
+        try (InputStream in = buffer.asInputStream(true)) {
+            return VNPayResponseReader.read(in, QueryDrResponse.FIELDS);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Malformed VNPAY QueryDR response", e);
+        }
+    }
+
+    private JsonObject buildQueryBody(VNPayMerchant merchant, String txnRef, String transDate, String clientIp, String transactionNo) {
+        String vnp_RequestId = idGenerator.nextRequestId();
+        String vnp_CreateDate = clock.formatNow();
 
 
         Map<String, String> vnp_Params = new LinkedHashMap<>();
         vnp_Params.put("vnp_RequestId", vnp_RequestId);
         vnp_Params.put("vnp_Version", "2.1.0");
         vnp_Params.put("vnp_Command", "querydr");
-        vnp_Params.put("vnp_TmnCode", vnPayConfig.getTmnCode());
+        vnp_Params.put("vnp_TmnCode", merchant.getTmnCode());
         vnp_Params.put("vnp_TxnRef", txnRef);
         vnp_Params.put("vnp_OrderInfo", "Kiem tra ket qua GD");
         vnp_Params.put("vnp_TransactionDate", transDate);
@@ -54,7 +132,7 @@ public class VNPayQuery {
 
         // 2. TẠO CHUỖI HASHDATA CHÍNH XÁC (Theo thứ tự cố định, nối bằng '|', KHÔNG URL ENCODE)
         // Thứ tự chuẩn của API QueryDR: vnp_RequestId, vnp_Version, vnp_Command, vnp_TmnCode, vnp_TxnRef, vnp_TransactionDate, vnp_CreateDate, vnp_IpAddr, vnp_OrderInfo
-        String hash_Data = String.join("|",
+        String[] hash_Fields = {
                 vnp_Params.get("vnp_RequestId"),
                 vnp_Params.get("vnp_Version"),
                 vnp_Params.get("vnp_Command"),
@@ -64,12 +142,14 @@ public class VNPayQuery {
                 vnp_Params.get("vnp_CreateDate"),
                 vnp_Params.get("vnp_IpAddr"),
                 vnp_Params.get("vnp_OrderInfo")
-        );
-
+        };
 
-        String vnp_SecureHash = vnPayConfig.hmacSHA512(vnPayConfig.getSecretKey(), hash_Data);
+        // Ký thẳng từng giá trị, chỉ nối chuỗi khi cần log
+        String vnp_SecureHash = merchant.signApiData(hash_Fields, hash_Fields.length);
 
-        log.info("QueryDR Hash Data (Raw, | separated): {}", hash_Data);
+        if (log.isDebugEnabled()) {
+            log.debug("QueryDR Hash Data (Raw, | separated): {}", String.join("|", hash_Fields));
+        }
 
 
         JsonObject jsonBody = new JsonObject();
@@ -77,25 +157,7 @@ public class VNPayQuery {
             jsonBody.addProperty(entry.getKey(), entry.getValue());
         }
         jsonBody.addProperty("vnp_SecureHash", vnp_SecureHash);
-        log.info("Sending QueryDR Request: {}", jsonBody.toString());
-
-
-        try {
-            String responseJson = webClient.post()
-                    .header("Content-Type", "application/json")
-                    .bodyValue(jsonBody.toString())
-                    .retrieve()
-                    .bodyToMono(String.class)
-                    .block(); // Chặn luồng để nhận kết quả (phù hợp với Service đồng bộ)
-
-            log.info("VNPAY QueryDR Response: {}", responseJson);
-
-            return responseJson;
-
-        } catch (Exception e) {
-            log.error("Error connecting to VNPAY API (QueryDR): {}", e.getMessage(), e);
-            // Mã 99 là lỗi kết nối nội bộ
-            return "{\"vnp_ResponseCode\":\"99\",\"vnp_Message\":\"Lỗi kết nối API nội bộ\"}";
-        }
+        log.debug("Sending QueryDR Request: {}", jsonBody);
+        return jsonBody;
     }
 }
\ No newline at end of file
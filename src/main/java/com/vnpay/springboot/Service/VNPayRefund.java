@@ -1,25 +1,41 @@
 package com.vnpay.springboot.Service;
 
-import com.vnpay.springboot.Config.VNPayConfig;
+import com.vnpay.springboot.Model.RefundResponse;
+import com.vnpay.springboot.Model.VNPayMerchant;
+import com.vnpay.springboot.Util.VNPayResponseReader;
 import com.google.gson.JsonObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
 
-import java.text.SimpleDateFormat;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.*;
 
 @Service
 public class VNPayRefund {
 
     private static final Logger log = LoggerFactory.getLogger(VNPayRefund.class);
-    private final VNPayConfig vnPayConfig;
+    private final VNPayMerchantRegistry merchantRegistry;
     private final WebClient webClient;
-
-    public VNPayRefund(VNPayConfig vnPayConfig, WebClient.Builder webClientBuilder) {
-        this.vnPayConfig = vnPayConfig;
-        this.webClient = webClientBuilder.baseUrl(vnPayConfig.getApiUrl()).build();
+    private final VNPayApiGuard apiGuard;
+    private final VNPayClock clock;
+    private final VNPayIdGenerator idGenerator;
+    private final VNPayMetrics metrics;
+
+    // vnpayWebClient: connection pool dùng chung, cấu hình trong VNPayHttpClientConfig
+    public VNPayRefund(VNPayMerchantRegistry merchantRegistry, WebClient vnpayWebClient, VNPayApiGuard apiGuard,
+                       VNPayClock clock, VNPayIdGenerator idGenerator, VNPayMetrics metrics) {
+        this.merchantRegistry = merchantRegistry;
+        this.webClient = vnpayWebClient;
+        this.apiGuard = apiGuard;
+        this.clock = clock;
+        this.idGenerator = idGenerator;
+        this.metrics = metrics;
     }
 
     /**
@@ -31,10 +47,8 @@ public class VNPayRefund {
      * @param createBy Người tạo yêu cầu
      * @param transDate Ngày tạo giao dịch gốc (yyyyMMddHHmmss)
      * @param clientIp IP của máy chủ gửi yêu cầu
-     * @return Chuỗi JSON phản hồi từ VNPAY
+     * @return Chuỗi JSON phản hồi từ VNPAY (đã kiểm tra chữ ký), gửi bằng merchant đã tạo đơn
      */
-
-
     public String sendRefundRequest(
             String txnRef,
             String transactionNo,
@@ -43,12 +57,90 @@ public class VNPayRefund {
             String createBy,
             String transDate,
             String clientIp) {
+        return sendRefundRequestAsync(merchantRegistry.forOrder(txnRef),
+                txnRef, transactionNo, amount, transType, createBy, transDate, clientIp)
+                .map(RefundResponse::toJson)
+                .block();
+    }
+
+    /**
+     * Phiên bản không chặn của sendRefundRequest: request được tạo khi subscribe.
+     * Body phản hồi được đọc streaming thẳng từ DataBuffer và kiểm tra vnp_SecureHash;
+     * sai chữ ký thì bỏ toàn bộ nội dung và trả mã 97.
+     * @param merchant merchant gửi yêu cầu (vnp_TmnCode và key ký/kiểm tra chữ ký), xem VNPayMerchantRegistry
+     * @return Mono kết quả Refund, lỗi kết nối (hoặc không có merchant) được chuyển thành mã 99
+     */
+    public Mono<RefundResponse> sendRefundRequestAsync(
+            VNPayMerchant merchant,
+            String txnRef,
+            String transactionNo,
+            long amount,
+            String transType,
+            String createBy,
+            String transDate,
+            String clientIp) {
+        if (merchant == null) {
+            log.error("No VNPAY merchant configured for Refund. TxnRef: {}", txnRef);
+            return Mono.just(RefundResponse.connectionError());
+        }
+        // Mono.defer: request được tạo khi subscribe; Refund không bao giờ được retry tự động
+        Mono<String[]> call = Mono.defer(() -> send(buildRefundBody(
+                merchant, txnRef, transactionNo, amount, transType, createBy, transDate, clientIp)));
+        Mono<RefundResponse> response = apiGuard.execute("refund", call, false)
+                .map(values -> toResponse(merchant, values))
+                .doOnNext(result -> log.debug("VNPAY Refund Response: {}", result))
+                .onErrorResume(e -> {
+                    if (VNPayApiGuard.isRejected(e)) {
+                        log.warn("VNPAY API (Refund) call rejected: {}", e.getMessage());
+                    } else {
+                        log.error("Error connecting to VNPAY API (Refund): {}", e.getMessage(), e);
+                    }
+                    // Mã 99 là lỗi kết nối nội bộ
+                    return Mono.just(RefundResponse.connectionError());
+                });
+        return metrics.timeApi("refund", response, RefundResponse::responseCode);
+    }
+
+    private RefundResponse toResponse(VNPayMerchant merchant, String[] values) {
+        String secureHash = values[RefundResponse.SIGNED_FIELD_COUNT];
+        if (!merchant.verifyApiData(values, RefundResponse.SIGNED_FIELD_COUNT, secureHash)) {
+            log.warn("VNPAY Refund response rejected: invalid vnp_SecureHash. TxnRef: {}, ResponseId: {}",
+                    values[5], values[0]);
+            return RefundResponse.invalidSignature();
+        }
+        return RefundResponse.of(values);
+    }
+
+    private Mono<String[]> send(JsonObject jsonBody) {
+        return webClient.post()
+                .header("Content-Type", "application/json")
+                .bodyValue(jsonBody.toString())
+                .retrieve()
+                // DataBufferDecoder gom body trong giới hạn maxInMemorySize của codec, không tạo String trung gian
+                .bodyToMono(DataBuffer.class)
+                .map(VNPayRefund::readFields);
+    }
 
+    private static String[] readFields(DataBuffer buffer) {
+        try (InputStream in = buffer.asInputStream(true)) {
+            return VNPayResponseReader.read(in, RefundResponse.FIELDS);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Malformed VNPAY Refund response", e);
+        }
+    }
+
+    private JsonObject buildRefundBody(
+            VNPayMerchant merchant,
+            String txnRef,
+            String transactionNo,
+            long amount,
+            String transType,
+            String createBy,
+            String transDate,
+            String clientIp) {
 
-        String vnp_RequestId = VNPayConfig.getRandomNumber(8);
-        Calendar cld = Calendar.getInstance(TimeZone.getTimeZone("Etc/GMT+7"));
-        SimpleDateFormat formatter = new SimpleDateFormat("yyyyMMddHHmmss");
-        String vnp_CreateDate = formatter.format(cld.getTime());
+        String vnp_RequestId = idGenerator.nextRequestId();
+        String vnp_CreateDate = clock.formatNow();
 
         String vnp_Amount = String.valueOf(amount * 100);
 
@@ -56,7 +148,7 @@ public class VNPayRefund {
         vnp_Params.put("vnp_RequestId", vnp_RequestId);
         vnp_Params.put("vnp_Version", "2.1.0");
         vnp_Params.put("vnp_Command", "refund");
-        vnp_Params.put("vnp_TmnCode", vnPayConfig.getTmnCode());
+        vnp_Params.put("vnp_TmnCode", merchant.getTmnCode());
         vnp_Params.put("vnp_TransactionType", transType);
         vnp_Params.put("vnp_TxnRef", txnRef);
         vnp_Params.put("vnp_Amount", vnp_Amount);
@@ -71,7 +163,7 @@ public class VNPayRefund {
         // 2. TẠO CHUỖI HASHDATA CHÍNH XÁC (Theo thứ tự cố định, nối bằng '|')
         // THỨ TỰ CHUẨN CỦA REFUND API v2.1.0:
         // vnp_RequestId, vnp_Version, vnp_Command, vnp_TmnCode, vnp_TransactionType, vnp_TxnRef, vnp_Amount, vnp_TransactionNo, vnp_TransactionDate, vnp_OrderInfo, vnp_CreateBy, vnp_CreateDate, vnp_IpAddr
-        String hash_Data = String.join("|",
+        String[] hash_Fields = {
                 vnp_Params.get("vnp_RequestId"),
                 vnp_Params.get("vnp_Version"),
                 vnp_Params.get("vnp_Command"),
@@ -85,10 +177,13 @@ public class VNPayRefund {
                 vnp_Params.get("vnp_CreateDate"),
                 vnp_Params.get("vnp_IpAddr"),
                 vnp_Params.get("vnp_OrderInfo")
-        );
+        };
 
-        String vnp_SecureHash = vnPayConfig.hmacSHA512(vnPayConfig.getSecretKey(), hash_Data);
-        log.info("Refund Hash Data (Raw, | separated): {}", hash_Data);
+        // Ký thẳng từng giá trị, chỉ nối chuỗi khi cần log
+        String vnp_SecureHash = merchant.signApiData(hash_Fields, hash_Fields.length);
+        if (log.isDebugEnabled()) {
+            log.debug("Refund Hash Data (Raw, | separated): {}", String.join("|", hash_Fields));
+        }
 
 
 
@@ -98,22 +193,7 @@ public class VNPayRefund {
         }
         jsonBody.addProperty("vnp_SecureHash", vnp_SecureHash);
 
-        log.info("Sending Refund Request: {}", jsonBody.toString());
-        try {
-            String responseJson = webClient.post()
-                    .header("Content-Type", "application/json")
-                    .bodyValue(jsonBody.toString())
-                    .retrieve()
-                    .bodyToMono(String.class)
-                    .block();
-
-            log.info("VNPAY Refund Response: {}", responseJson);
-
-            return responseJson;
-
-        } catch (Exception e) {
-            log.error("Error connecting to VNPAY API (Refund): {}", e.getMessage(), e);
-            return "{\"vnp_ResponseCode\":\"99\",\"vnp_Message\":\"Lỗi kết nối API nội bộ\"}";
-        }
+        log.debug("Sending Refund Request: {}", jsonBody);
+        return jsonBody;
     }
-}
+}
\ No newline at end of file
@@ -1,107 +1,126 @@
 package com.vnpay.springboot.Service;
 
 import com.vnpay.springboot.Config.VNPayConfig;
+import com.vnpay.springboot.Entity.OrderStatus;
+import com.vnpay.springboot.Model.VNPayMerchant;
+import com.vnpay.springboot.Util.CanonicalQueryBuilder;
+import com.vnpay.springboot.Util.VNPayCallbackParams;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
-import java.text.SimpleDateFormat;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.locks.Lock;
 
 @Service
 public class VNPayService {
 
     private static final Logger log = LoggerFactory.getLogger(VNPayService.class);
+    // Thời hạn thanh toán của URL (vnp_ExpireDate = vnp_CreateDate + 9 phút)
+    private static final Duration PAYMENT_TIMEOUT = Duration.ofMinutes(9);
     private final VNPayConfig vnPayConfig;
+    private final VNPayMerchantRegistry merchantRegistry;
+    private final OrderLedgerService orderLedgerService;
+    private final IpnBatchWriter ipnBatchWriter; // null nếu không bật vnpay.ipn-async.enabled
+    private final IpnIdempotencyService ipnIdempotencyService;
+    private final VNPayClock clock;
+    private final VNPayMetrics metrics;
 
     // Constructor Injection
-    public VNPayService(VNPayConfig vnPayConfig) {
+    public VNPayService(VNPayConfig vnPayConfig, VNPayMerchantRegistry merchantRegistry,
+                        OrderLedgerService orderLedgerService, ObjectProvider<IpnBatchWriter> ipnBatchWriter,
+                        IpnIdempotencyService ipnIdempotencyService, VNPayClock clock, VNPayMetrics metrics) {
         this.vnPayConfig = vnPayConfig;
+        this.merchantRegistry = merchantRegistry;
+        this.orderLedgerService = orderLedgerService;
+        this.ipnBatchWriter = ipnBatchWriter.getIfAvailable();
+        this.ipnIdempotencyService = ipnIdempotencyService;
+        this.clock = clock;
+        this.metrics = metrics;
     }
 
     // ------------------- TẠO URL THANH TOÁN -------------------
 
+    /**
+     * @param tmnCode merchant tạo đơn, rỗng = merchant mặc định
+     * @throws IllegalArgumentException nếu không có merchant tương ứng
+     */
     public String createOrder(long total, String orderInfor, String bankcode, String ordertype,
-                              String promocode, String txnRef, String clientIp) throws UnsupportedEncodingException {
-
-        Map<String, String> vnp_Params = new HashMap<>();
-
-        vnp_Params.put("vnp_Version", "2.1.0");
-        vnp_Params.put("vnp_Command", "pay");
-        vnp_Params.put("vnp_CurrCode", "VND");
-        vnp_Params.put("vnp_Locale", "vn");
-        vnp_Params.put("vnp_TmnCode", vnPayConfig.getTmnCode());
-        vnp_Params.put("vnp_ReturnUrl", vnPayConfig.getReturnUrl());
-        vnp_Params.put("vnp_Amount", String.valueOf(total * 100));
-        vnp_Params.put("vnp_TxnRef", txnRef);
-        vnp_Params.put("vnp_OrderInfo", orderInfor);
-        vnp_Params.put("vnp_OrderType", ordertype);
-        vnp_Params.put("vnp_IpAddr", clientIp);
-
-        if (bankcode != null && !bankcode.isEmpty()) {
-            vnp_Params.put("vnp_BankCode", bankcode);
-        }
-
-        Calendar cld = Calendar.getInstance(TimeZone.getTimeZone("Etc/GMT+7"));
-        SimpleDateFormat formatter = new SimpleDateFormat("yyyyMMddHHmmss");
-        String vnp_CreateDate = formatter.format(cld.getTime());
-        vnp_Params.put("vnp_CreateDate", vnp_CreateDate);
-
-        cld.add(Calendar.MINUTE, 9);
-        String vnp_ExpireDate = formatter.format(cld.getTime());
-        vnp_Params.put("vnp_ExpireDate", vnp_ExpireDate);
-
-        // Tạo Query String và Hash Data
-        List<String> fieldNames = new ArrayList<>(vnp_Params.keySet());
-        Collections.sort(fieldNames);
-
-        StringBuilder hashData = new StringBuilder();
-        StringBuilder query = new StringBuilder();
-
-        for (String fieldName : fieldNames) {
-            String fieldValue = vnp_Params.get(fieldName);
-            if (fieldValue != null && !fieldValue.isEmpty()) {
-                String encodedFieldName = URLEncoder.encode(fieldName, StandardCharsets.US_ASCII.toString());
-                String encodedFieldValue = URLEncoder.encode(fieldValue, StandardCharsets.US_ASCII.toString());
-
-                hashData.append(encodedFieldName).append('=').append(encodedFieldValue).append('&');
-                query.append(encodedFieldName).append('=').append(encodedFieldValue).append('&');
+                              String promocode, String txnRef, String clientIp, String tmnCode) {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            VNPayMerchant merchant = merchantRegistry.resolve(tmnCode);
+            if (merchant == null) {
+                throw new IllegalArgumentException("Unknown VNPAY merchant: " + tmnCode);
             }
+            String paymentUrl = buildPaymentUrl(merchant, total, orderInfor, bankcode, ordertype, txnRef, clientIp);
+            success = true;
+            return paymentUrl;
+        } finally {
+            metrics.recordPaymentUrl(System.nanoTime() - start, success);
         }
+    }
 
-        if (hashData.length() > 0) {
-            hashData.setLength(hashData.length() - 1);
-            query.setLength(query.length() - 1);
-        }
-        String vnp_SecureHash = vnPayConfig.hmacSHA512(vnPayConfig.getSecretKey(), hashData.toString());
-        String queryUrl = query.toString() + "&vnp_SecureHash=" + vnp_SecureHash;
-        return vnPayConfig.getPayUrl() + "?" + queryUrl;
+    private String buildPaymentUrl(VNPayMerchant merchant, long total, String orderInfor, String bankcode, String ordertype,
+                                   String txnRef, String clientIp) {
+
+        // Giờ Việt Nam (GMT+7), chuỗi định dạng được cache theo giây
+        Instant now = clock.now();
+        Instant expireAt = now.plus(PAYMENT_TIMEOUT);
+        String vnp_CreateDate = clock.format(now);
+        String vnp_ExpireDate = clock.format(expireAt);
+
+        // Ghi đơn PENDING để IPN/Return có đơn đối chiếu
+        orderLedgerService.createPendingOrder(txnRef, merchant.getTmnCode(), total * 100, orderInfor, vnp_CreateDate,
+                expireAt);
+
+        // Giá trị theo đúng thứ tự PaymentUrlTemplate.SLOTS (trường rỗng sẽ bị bỏ qua);
+        // vnp_Command, vnp_CurrCode, vnp_Locale, vnp_ReturnUrl, vnp_TmnCode, vnp_Version đã encode sẵn trong template
+        String[] vnp_Values = {
+                String.valueOf(total * 100),   // vnp_Amount
+                bankcode,                      // vnp_BankCode
+                vnp_CreateDate,                // vnp_CreateDate
+                vnp_ExpireDate,                // vnp_ExpireDate
+                clientIp,                      // vnp_IpAddr
+                orderInfor,                    // vnp_OrderInfo
+                ordertype,                     // vnp_OrderType
+                txnRef                         // vnp_TxnRef
+        };
+
+        // Query String và Hash Data là cùng một đoạn byte -> dựng một lần, ký trực tiếp trên byte
+        CanonicalQueryBuilder query = merchant.paymentUrlTemplate(vnPayConfig.getPayUrl()).fill(vnp_Values);
+        byte[] vnp_SecureHash = query.sign(merchant.getSigner());
+        return query.appendHexField("vnp_SecureHash", vnp_SecureHash).toString();
     }
 
 
     // ------------------- 2. XỬ LÝ TRANG TRẢ VỀ (RETURN URL - Đã có) -------------------
 
-    public int processVnPayReturn(Map<String, String> vnpParams) {
+    public int processVnPayReturn(VNPayCallbackParams vnpParams) {
 
-        String vnp_SecureHash = vnpParams.get("vnp_SecureHash");
         String vnp_TxnRef = vnpParams.get("vnp_TxnRef");
         String vnp_ResponseCode = vnpParams.get("vnp_ResponseCode");
-        String newSecureHash = createNewSecureHash(vnpParams);
-        if (!newSecureHash.equals(vnp_SecureHash)) {
+        boolean validSignature = verifySecureHash(vnpParams);
+        metrics.recordReturnSignature(validSignature);
+        if (!validSignature) {
             log.warn("Invalid VNPAY Signature! TxnRef: {}", vnp_TxnRef);
             return -1;
         }
 
         // CHỮ KÝ HỢP LỆ -> KIỂM TRA TRẠNG THÁI GIAO DỊCH
         if ("00".equals(vnp_ResponseCode)) {
-            boolean dbUpdateSuccess = updateOrderStatusToSuccess(vnp_TxnRef, vnpParams.get("vnp_Amount"));
+            boolean dbUpdateSuccess = updateOrderStatusToSuccess(vnp_TxnRef, vnpParams.get("vnp_Amount"),
+                    vnpParams.get("vnp_TransactionNo"));
             return dbUpdateSuccess ? 1 : 0;
         } else {
             log.warn("VNPAY Transaction Failed. TxnRef: {}, Code: {}", vnp_TxnRef, vnp_ResponseCode);
-            updateOrderStatusToFailed(vnp_TxnRef, vnp_ResponseCode);
+            updateOrderStatusToFailed(vnp_TxnRef, vnpParams.get("vnp_Amount"),
+                    vnpParams.get("vnp_TransactionNo"), vnp_ResponseCode);
             return 0;
         }
     }
@@ -112,56 +131,72 @@ public class VNPayService {
     /**
      * Xử lý IPN (Instant Payment Notification) từ VNPAY.
      * Đây là phương thức nền, chịu trách nhiệm chính trong việc cập nhật trạng thái giao dịch.
-     * @param vnpParams Tất cả tham số nhận được từ VNPAY.
+     * @param vnpParams Tất cả tham số nhận được từ VNPAY (parse một lần từ query string gốc).
+     * Transaction DB nằm trong OrderLedgerService.completeOrder: kiểm tra chữ ký không giữ kết nối DB,
+     * và ở chế độ bất đồng bộ (vnpay.ipn-async) IPN chỉ được ghi vào WAL rồi phản hồi ngay.
+     * IPN hợp lệ chỉ được xử lý một lần trên toàn cụm (IpnIdempotencyService), node khác trả lại phản hồi đã chốt.
      * @return Map JSON phản hồi theo định dạng VNPAY: RspCode và Message.
      */
-    @Transactional // Rất quan trọng: đảm bảo tính toàn vẹn DB
-    public Map<String, String> processVnPayIpn(Map<String, String> vnpParams) {
+    public Map<String, String> processVnPayIpn(VNPayCallbackParams vnpParams) {
+        return processVnPayIpn(vnpParams, null);
+    }
+
+    /**
+     * @param heldLock khóa theo txnRef caller đang giữ (IpnDedupCache.lockFor), được nhả trong lúc chờ node khác
+     *                 xử lý cùng IPN; null nếu không giữ khóa nào
+     */
+    public Map<String, String> processVnPayIpn(VNPayCallbackParams vnpParams, Lock heldLock) {
 
-        String vnp_SecureHash = vnpParams.get("vnp_SecureHash");
         String vnp_TxnRef = vnpParams.get("vnp_TxnRef");
         String vnp_ResponseCode = vnpParams.get("vnp_ResponseCode");
         long vnp_Amount = Long.parseLong(vnpParams.get("vnp_Amount"));
 
-        // 1. TẠO CHUỖI BĂM MỚI VÀ KIỂM TRA CHECKSUM
-        String newSecureHash = createNewSecureHash(vnpParams); // Tái sử dụng logic hash
+        // 1. KIỂM TRA CHECKSUM (dùng chung với Return URL)
+        boolean validSignature = verifySecureHash(vnpParams);
+        metrics.recordIpnSignature(validSignature);
 
-        if (!newSecureHash.equals(vnp_SecureHash)) {
+        if (!validSignature) {
             log.warn("IPN Failed: Invalid Checksum! TxnRef: {}", vnp_TxnRef);
             return createIpnResponse("97", "Invalid Checksum"); // Sai Checksum -> 97
         }
 
-        // --- CHỮ KÝ HỢP LỆ -> BẮT ĐẦU KIỂM TRA DB VÀ CẬP NHẬT ---
-
-        // TODO: (RẤT QUAN TRỌNG) THAY THẾ LOGIC DB GIẢ ĐỊNH SAU ĐÂY
-////        /*
-//         Optional<Order> orderOpt = orderRepository.findByVnpTxnRef(vnp_TxnRef);
-//         if (orderOpt.isEmpty()) {
-//             return createIpnResponse("01", "Order not Found"); // Mã giao dịch không tồn tại -> 01
-//         }
-//         Order order = orderOpt.get();
-//
-//        // // 1. Kiểm tra số tiền
-//         if (order.getAmountInVnpayFormat() != vnp_Amount) {
-//             return createIpnResponse("04", "Invalid Amount"); // Số tiền không trùng khớp -> 04
-//         }
-//
-//        // // 2. Kiểm tra trạng thái (tránh xử lý trùng lặp)
-//         if (order.getStatus().equals("PAID")) {
-//             return createIpnResponse("02", "Order already confirmed"); // Đã cập nhật trước đó -> 02
-//         }
-//
-//        // --- NẾU QUA TẤT CẢ CÁC KIỂM TRA, TIẾN HÀNH CẬP NHẬT DB ---
-//        */
-
-        // 3. CẬP NHẬT TRẠNG THÁI CUỐI CÙNG (Đã qua kiểm tra bảo mật)
+        // 2. CHỈ MỘT NODE TRONG CỤM XỬ LÝ MỖI (TxnRef, TransactionNo)
+        String transactionNo = vnpParams.get("vnp_TransactionNo");
+        return ipnIdempotencyService.execute(vnp_TxnRef, transactionNo, heldLock,
+                () -> settleIpn(vnp_TxnRef, vnp_Amount, transactionNo, vnp_ResponseCode));
+    }
+
+    private Map<String, String> settleIpn(String vnp_TxnRef, long vnp_Amount, String transactionNo,
+                                          String vnp_ResponseCode) {
+        // --- CHẾ ĐỘ BẤT ĐỒNG BỘ: GHI WAL (FSYNC) RỒI MỚI XÁC NHẬN, LUỒNG NỀN GHI DB THEO LÔ ---
+        // Chỉ xác nhận 00 khi đơn tồn tại, đúng số tiền và còn PENDING (một câu SELECT, việc ghi vẫn để luồng nền)
+        if (ipnBatchWriter != null) {
+            OrderLedgerService.Result check = orderLedgerService.checkCompletable(vnp_TxnRef, vnp_Amount);
+            if (check != OrderLedgerService.Result.CONFIRMED) {
+                log.warn("IPN Rejected: Order {} -> {}", vnp_TxnRef, check);
+                return createIpnResponse(check.getRspCode(), check.getMessage());
+            }
+            try {
+                ipnBatchWriter.submit(vnp_TxnRef, vnp_Amount, transactionNo, vnp_ResponseCode);
+                return createIpnResponse("00", "Confirm Success");
+            } catch (IOException e) {
+                log.error("IPN WAL append failed. TxnRef: {}", vnp_TxnRef, e);
+                return createIpnResponse("99", "Unknown error"); // VNPAY sẽ gửi lại
+            }
+        }
+
+        // --- CHỮ KÝ HỢP LỆ -> KIỂM TRA VÀ CẬP NHẬT DB ---
+        // Một câu UPDATE có điều kiện: tồn tại đơn (01), đúng số tiền (04), còn PENDING (02)
+        OrderLedgerService.Result result = orderLedgerService.completeOrder(
+                vnp_TxnRef, vnp_Amount, transactionNo, vnp_ResponseCode);
+        if (result != OrderLedgerService.Result.CONFIRMED) {
+            log.warn("IPN Rejected: Order {} -> {}", vnp_TxnRef, result);
+            return createIpnResponse(result.getRspCode(), result.getMessage());
+        }
+
         if ("00".equals(vnp_ResponseCode)) {
-            // Cập nhật thành công
-            updateOrderStatusToSuccess(vnp_TxnRef, String.valueOf(vnp_Amount));
-            log.info("IPN Success: Order {} updated to PAID.", vnp_TxnRef);
+            log.debug("IPN Success: Order {} updated to PAID.", vnp_TxnRef);
         } else {
-            // Cập nhật thất bại
-            updateOrderStatusToFailed(vnp_TxnRef, vnp_ResponseCode);
             log.warn("IPN Failed: Order {} updated to FAILED. Code: {}", vnp_TxnRef, vnp_ResponseCode);
         }
 
@@ -173,47 +208,50 @@ public class VNPayService {
 
     // ------------------- 4. CÁC PHƯƠNG THỨC HỖ TRỢ -------------------
 
-    // Phương thức giả định cho Database
-    private boolean updateOrderStatusToSuccess(String txnRef, String amount) {
-        // [Chú ý]: THAY THẾ BẰNG LOGIC CẬP NHẬT DATABASE THỰC TẾ (ví dụ: JPA repository.save)
-        // Trong môi trường thực tế, bạn sẽ kiểm tra Order ID, số tiền, và trạng thái ở đây.
-        return true;
+    // Return URL: coi là thành công nếu đơn vừa được chốt PAID hoặc đã được IPN chốt PAID trước đó
+    private boolean updateOrderStatusToSuccess(String txnRef, String amount, String transactionNo) {
+        OrderLedgerService.Result result = orderLedgerService.completeOrder(
+                txnRef, parseAmount(amount), transactionNo, "00");
+        if (result == OrderLedgerService.Result.CONFIRMED) {
+            return true;
+        }
+        return result == OrderLedgerService.Result.ALREADY_CONFIRMED
+                && orderLedgerService.findOrder(txnRef).map(o -> o.getStatus() == OrderStatus.PAID).orElse(false);
     }
 
-    private void updateOrderStatusToFailed(String txnRef, String responseCode) {
-        // [Chú ý]: THAY THẾ BẰNG LOGIC CẬP NHẬT DATABASE THỰC TẾ
-        // Cập nhật trạng thái đơn hàng thành FAILED/CANCELLED
+    private void updateOrderStatusToFailed(String txnRef, String amount, String transactionNo, String responseCode) {
+        orderLedgerService.completeOrder(txnRef, parseAmount(amount), transactionNo, responseCode);
+    }
+
+    private static long parseAmount(String amount) {
+        try {
+            return amount == null ? -1 : Long.parseLong(amount);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
     }
 
     /**
-     * Hàm tái tạo chuỗi Hash (dùng chung cho Return URL và IPN)
+     * Merchant gọi API VNPAY (QueryDR/Refund) cho đơn: merchant đã tạo đơn, hoặc merchant mặc định.
+     * Có truy vấn DB.
      */
-    private String createNewSecureHash(Map<String, String> vnpParams) {
-        List<String> fieldNames = new ArrayList<>(vnpParams.keySet());
-        Collections.sort(fieldNames);
-
-        StringBuilder hashData = new StringBuilder();
-
-        for (String fieldName : fieldNames) {
-            String fieldValue = vnpParams.get(fieldName);
-            if (fieldValue != null && !fieldValue.isEmpty() &&
-                    !fieldName.equals("vnp_SecureHash") &&
-                    !fieldName.equals("vnp_SecureHashType")) {
-                try {
-                    String encodedValue = URLEncoder.encode(fieldValue, StandardCharsets.US_ASCII.toString());
-                    hashData.append(fieldName).append('=').append(encodedValue).append('&');
-                } catch (UnsupportedEncodingException e) {
-                    log.error("Error during URL encoding for VNPAY params: {}", e.getMessage());
-                    return "";
-                }
-            }
-        }
+    public VNPayMerchant merchantForOrder(String txnRef) {
+        return merchantRegistry.forOrder(txnRef);
+    }
 
-        if (hashData.length() > 0) {
-            hashData.setLength(hashData.length() - 1);
+    /**
+     * Kiểm tra vnp_SecureHash (dùng chung cho Return URL và IPN) bằng key của merchant theo vnp_TmnCode,
+     * so khớp constant-time trên MAC thô. Merchant lạ hoặc chữ ký sai định dạng thì trả về false
+     * (chữ ký sai định dạng bị loại trước khi băm).
+     */
+    private boolean verifySecureHash(VNPayCallbackParams vnpParams) {
+        String tmnCode = vnpParams.get("vnp_TmnCode");
+        VNPayMerchant merchant = merchantRegistry.resolve(tmnCode);
+        if (merchant == null) {
+            log.warn("Unknown VNPAY merchant in callback: vnp_TmnCode={}", tmnCode);
+            return false;
         }
-
-        return vnPayConfig.hmacSHA512(vnPayConfig.getSecretKey(), hashData.toString());
+        return merchant.verifyCallbackFields(vnpParams);
     }
 
     /**
@@ -3,9 +3,11 @@ package com.vnpay.springboot;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @EnableConfigurationProperties // Bật tính năng đọc @ConfigurationProperties
+@EnableScheduling // Job nền: đối soát theo lịch
 public class SpringbootApplication {
 
 	public static void main(String[] args) {
@@ -0,0 +1,46 @@
+package com.vnpay.springboot.Util;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Giới hạn số lời gọi đồng thời; khi đầy thì từ chối ngay (không xếp hàng).
+ */
+public final class Bulkhead {
+
+    /**
+     * Lời gọi bị từ chối vì đã đủ số lời gọi đồng thời.
+     */
+    public static final class FullException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public FullException(String name) {
+            super("Bulkhead '" + name + "' is full");
+        }
+    }
+
+    private final String name;
+    private final int maxConcurrentCalls;
+    private final Semaphore permits;
+
+    public Bulkhead(String name, int maxConcurrentCalls) {
+        this.name = name;
+        this.maxConcurrentCalls = Math.max(1, maxConcurrentCalls);
+        this.permits = new Semaphore(this.maxConcurrentCalls);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean tryAcquire() {
+        return permits.tryAcquire();
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    public int getInFlight() {
+        return maxConcurrentCalls - permits.availablePermits();
+    }
+}
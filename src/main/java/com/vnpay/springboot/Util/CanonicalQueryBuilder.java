@@ -0,0 +1,362 @@
+package com.vnpay.springboot.Util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dựng chuỗi tham số VNPAY dạng chuẩn (sắp xếp theo tên, nối bằng '&') vào một buffer byte duy nhất.
+ * Giá trị được percent-encode giống hệt URLEncoder.encode(value, "US-ASCII"),
+ * nên cùng một đoạn byte vừa là dữ liệu ký (hash data) vừa là query string redirect.
+ *
+ * Mỗi platform thread dùng lại một instance qua {@link #begin()} (virtual thread nhận instance mới);
+ * không giữ tham chiếu sau khi dùng xong.
+ */
+public final class CanonicalQueryBuilder {
+
+    /** Các trường của URL thanh toán, đã sắp xếp theo thứ tự alphabet. */
+    public static final String[] PAY_FIELDS = {
+            "vnp_Amount", "vnp_BankCode", "vnp_Command", "vnp_CreateDate", "vnp_CurrCode",
+            "vnp_ExpireDate", "vnp_IpAddr", "vnp_Locale", "vnp_OrderInfo", "vnp_OrderType",
+            "vnp_ReturnUrl", "vnp_TmnCode", "vnp_TxnRef", "vnp_Version"
+    };
+
+    /** Các trường VNPAY gửi về Return URL / IPN, đã sắp xếp theo thứ tự alphabet. */
+    public static final String[] CALLBACK_FIELDS = {
+            "vnp_Amount", "vnp_BankCode", "vnp_BankTranNo", "vnp_CardType", "vnp_OrderInfo",
+            "vnp_PayDate", "vnp_ResponseCode", "vnp_SecureHash", "vnp_SecureHashType", "vnp_TmnCode",
+            "vnp_TransactionNo", "vnp_TransactionStatus", "vnp_TxnRef"
+    };
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MAX_RETAINED_CAPACITY = 16 * 1024;
+
+    private static final byte[] HEX_UPPER = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX_LOWER = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    // Ký tự URLEncoder giữ nguyên: a-z A-Z 0-9 . - * _
+    private static final boolean[] UNRESERVED = new boolean[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) UNRESERVED[c] = true;
+        for (char c = 'A'; c <= 'Z'; c++) UNRESERVED[c] = true;
+        for (char c = '0'; c <= '9'; c++) UNRESERVED[c] = true;
+        UNRESERVED['.'] = true;
+        UNRESERVED['-'] = true;
+        UNRESERVED['*'] = true;
+        UNRESERVED['_'] = true;
+    }
+
+    private static final PlatformThreadLocal<CanonicalQueryBuilder> LOCAL =
+            new PlatformThreadLocal<>(CanonicalQueryBuilder::new);
+
+    private byte[] buf = new byte[INITIAL_CAPACITY];
+    private int length;
+    private int fieldsStart;
+    private int fieldsEnd;
+    private boolean empty = true;
+
+    private CanonicalQueryBuilder() {
+    }
+
+    /**
+     * Lấy builder của thread hiện tại (instance mới nếu là virtual thread), đã được reset.
+     */
+    public static CanonicalQueryBuilder begin() {
+        CanonicalQueryBuilder builder = LOCAL.get();
+        builder.reset();
+        return builder;
+    }
+
+    public void reset() {
+        if (buf.length > MAX_RETAINED_CAPACITY) buf = new byte[INITIAL_CAPACITY];
+        length = 0;
+        fieldsStart = 0;
+        fieldsEnd = 0;
+        empty = true;
+    }
+
+    /**
+     * Ghi tiền tố không tham gia ký (ví dụ "payUrl?"). Phải gọi trước khi thêm trường.
+     */
+    public CanonicalQueryBuilder prefix(String ascii) {
+        appendAscii(ascii);
+        fieldsStart = length;
+        fieldsEnd = length;
+        return this;
+    }
+
+    /**
+     * Ghi tiền tố đã mã hóa sẵn (ASCII), không tham gia ký. Phải gọi trước khi thêm trường.
+     */
+    public CanonicalQueryBuilder prefix(byte[] ascii) {
+        appendBytes(ascii);
+        fieldsStart = length;
+        fieldsEnd = length;
+        return this;
+    }
+
+    /**
+     * Thêm đoạn "name=value[&name=value...]" đã encode sẵn (tính một lần, xem PaymentUrlTemplate).
+     */
+    public CanonicalQueryBuilder segment(byte[] encoded) {
+        if (encoded.length == 0) return this;
+        if (!empty) put((byte) '&');
+        appendBytes(encoded);
+        empty = false;
+        fieldsEnd = length;
+        return this;
+    }
+
+    /**
+     * Như field(name, value) với "name=" đã mã hóa sẵn (bỏ qua nếu giá trị null/rỗng).
+     */
+    public CanonicalQueryBuilder field(byte[] nameEquals, String value) {
+        if (value == null || value.isEmpty()) return this;
+        if (!empty) put((byte) '&');
+        appendBytes(nameEquals);
+        appendEncoded(value);
+        empty = false;
+        fieldsEnd = length;
+        return this;
+    }
+
+    /**
+     * Thêm các trường theo đúng thứ tự của mảng names (đã sắp xếp), bỏ qua giá trị null/rỗng.
+     */
+    public CanonicalQueryBuilder fields(String[] names, String[] values) {
+        for (int i = 0; i < names.length; i++) {
+            field(names[i], values[i]);
+        }
+        return this;
+    }
+
+    /**
+     * Thêm "name=encodedValue" (bỏ qua nếu giá trị null/rỗng).
+     */
+    public CanonicalQueryBuilder field(String name, String value) {
+        if (value == null || value.isEmpty()) return this;
+        if (!empty) put((byte) '&');
+        appendName(name);
+        put((byte) '=');
+        appendEncoded(value);
+        empty = false;
+        fieldsEnd = length;
+        return this;
+    }
+
+    /**
+     * Dựng dữ liệu ký cho tham số Return URL / IPN: sắp xếp theo tên, bỏ vnp_SecureHash và vnp_SecureHashType.
+     * Nếu chỉ chứa các trường đã biết thì đi theo thứ tự tính sẵn, ngược lại mới sắp xếp.
+     */
+    public CanonicalQueryBuilder callbackFields(Map<String, String> params) {
+        int matched = 0;
+        for (String name : CALLBACK_FIELDS) {
+            if (params.containsKey(name)) matched++;
+        }
+        if (matched == params.size()) {
+            for (String name : CALLBACK_FIELDS) {
+                if (!isSecureHashField(name)) field(name, params.get(name));
+            }
+            return this;
+        }
+
+        List<String> fieldNames = new ArrayList<>(params.keySet());
+        Collections.sort(fieldNames);
+        for (String name : fieldNames) {
+            if (!isSecureHashField(name)) field(name, params.get(name));
+        }
+        return this;
+    }
+
+    /**
+     * Dữ liệu ký cho tham số Return URL / IPN đã parse sẵn. Nếu query string gốc đã encode đúng chuẩn,
+     * chép thẳng các đoạn byte gốc theo thứ tự tính sẵn; ngược lại encode lại từ giá trị đã decode.
+     */
+    public CanonicalQueryBuilder callbackFields(VNPayCallbackParams params) {
+        if (params.hasExtraFields()) {
+            return callbackFields(params.toMap());
+        }
+        boolean raw = params.isRawCanonical();
+        for (int i = 0; i < CALLBACK_FIELDS.length; i++) {
+            String name = CALLBACK_FIELDS[i];
+            if (isSecureHashField(name)) continue;
+            if (raw) {
+                rawField(name, params.rawQuery(), params.rawStart(i), params.rawEnd(i));
+            } else {
+                field(name, params.value(i));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Ký phần trường (không gồm tiền tố) trực tiếp trên buffer byte.
+     */
+    public byte[] sign(HmacSHA512Signer signer) {
+        return signer.signRaw(buf, fieldsStart, fieldsEnd - fieldsStart);
+    }
+
+    /**
+     * Ghi thêm "&name=" + hex chữ thường của digest vào cuối buffer (không tham gia ký).
+     */
+    public CanonicalQueryBuilder appendHexField(String name, byte[] digest) {
+        if (!empty) put((byte) '&');
+        appendName(name);
+        put((byte) '=');
+        ensureCapacity(digest.length * 2);
+        for (byte b : digest) {
+            buf[length++] = HEX_LOWER[(b >> 4) & 0x0f];
+            buf[length++] = HEX_LOWER[b & 0x0f];
+        }
+        empty = false;
+        return this;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Toàn bộ buffer dưới dạng String (mọi byte đều là ASCII).
+     */
+    @Override
+    public String toString() {
+        return new String(buf, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Bản sao phần trường tham gia ký (dùng khi dựng sẵn đoạn hằng).
+     */
+    public byte[] fieldsToBytes() {
+        byte[] out = new byte[fieldsEnd - fieldsStart];
+        System.arraycopy(buf, fieldsStart, out, 0, out.length);
+        return out;
+    }
+
+    /**
+     * Riêng phần trường tham gia ký (dùng để log / debug).
+     */
+    public String fieldsToString() {
+        return new String(buf, fieldsStart, fieldsEnd - fieldsStart, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * true nếu đoạn [start, end) đúng là kết quả của URLEncoder.encode(value, US_ASCII) cho giá trị decode từ nó:
+     * chỉ gồm ký tự không cần encode, '+' và %XX chữ hoa của ký tự ASCII bắt buộc phải encode.
+     */
+    static boolean isCanonicalEncoded(String s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80 && UNRESERVED[c] || c == '+') continue;
+            if (c != '%' || i + 2 >= end) return false;
+            int hi = upperHexValue(s.charAt(i + 1));
+            int lo = upperHexValue(s.charAt(i + 2));
+            if (hi < 0 || lo < 0) return false;
+            int b = (hi << 4) | lo;
+            if (b >= 0x80 || UNRESERVED[b] || b == ' ') return false;
+            i += 2;
+        }
+        return true;
+    }
+
+    private static int upperHexValue(char c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+        return -1;
+    }
+
+    // Thêm "name=" + đoạn đã encode sẵn (bỏ qua nếu không có hoặc rỗng)
+    private void rawField(String name, String encoded, int start, int end) {
+        if (start < 0 || end <= start) return;
+        if (!empty) put((byte) '&');
+        appendName(name);
+        put((byte) '=');
+        ensureCapacity(end - start);
+        for (int i = start; i < end; i++) {
+            buf[length++] = (byte) encoded.charAt(i);
+        }
+        empty = false;
+        fieldsEnd = length;
+    }
+
+    private static boolean isSecureHashField(String name) {
+        return name.equals("vnp_SecureHash") || name.equals("vnp_SecureHashType");
+    }
+
+    private void appendBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buf, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void appendAscii(String s) {
+        int n = s.length();
+        ensureCapacity(n);
+        for (int i = 0; i < n; i++) {
+            buf[length++] = (byte) s.charAt(i);
+        }
+    }
+
+    // Tên trường ghi nguyên văn; tên ngoài ASCII (hiếm) ghi dạng UTF-8 như khi ký String
+    private void appendName(String name) {
+        int n = name.length();
+        ensureCapacity(n);
+        for (int i = 0; i < n; i++) {
+            char c = name.charAt(i);
+            if (c >= 0x80) {
+                byte[] utf8 = name.substring(i).getBytes(StandardCharsets.UTF_8);
+                ensureCapacity(utf8.length);
+                System.arraycopy(utf8, 0, buf, length, utf8.length);
+                length += utf8.length;
+                return;
+            }
+            buf[length++] = (byte) c;
+        }
+    }
+
+    // Tương đương URLEncoder.encode(value, US_ASCII): ký tự ngoài ASCII thành '?' (%3F), cặp surrogate tính là một ký tự
+    private void appendEncoded(String value) {
+        int n = value.length();
+        ensureCapacity(n * 3);
+        for (int i = 0; i < n; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (UNRESERVED[c]) {
+                    buf[length++] = (byte) c;
+                } else if (c == ' ') {
+                    buf[length++] = '+';
+                } else {
+                    putPercent(c);
+                }
+            } else {
+                if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    i++;
+                }
+                putPercent('?');
+            }
+        }
+    }
+
+    private void putPercent(int b) {
+        buf[length++] = '%';
+        buf[length++] = HEX_UPPER[(b >> 4) & 0x0f];
+        buf[length++] = HEX_UPPER[b & 0x0f];
+    }
+
+    private void put(byte b) {
+        ensureCapacity(1);
+        buf[length++] = b;
+    }
+
+    private void ensureCapacity(int extra) {
+        int required = length + extra;
+        if (required > buf.length) {
+            byte[] grown = new byte[Math.max(required, buf.length * 2)];
+            System.arraycopy(buf, 0, grown, 0, length);
+            buf = grown;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.vnpay.springboot.Util;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Circuit breaker theo cửa sổ trượt N lời gọi gần nhất.
+ * CLOSED: cho qua, mở khi tỷ lệ lỗi trong cửa sổ vượt ngưỡng (sau tối thiểu minimumCalls lời gọi).
+ * OPEN: từ chối ngay trong openDuration. HALF_OPEN: cho tối đa halfOpenPermits lời gọi thử;
+ * tất cả thành công thì đóng lại, một lời gọi lỗi thì mở lại.
+ * Mỗi lần chuyển trạng thái tăng generation; permit mang generation lúc được cấp, kết quả của permit cấp ở trạng thái
+ * trước (ví dụ lời gọi CLOSED kết thúc khi mạch đã HALF_OPEN) bị bỏ qua, không đụng vào bộ đếm của trạng thái mới.
+ */
+public final class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    /**
+     * Lời gọi bị từ chối vì mạch đang mở.
+     */
+    public static final class OpenException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public OpenException(String name) {
+            super("Circuit breaker '" + name + "' is open");
+        }
+    }
+
+    /** Giá trị tryAcquire trả về khi lời gọi bị từ chối. */
+    public static final long REJECTED = -1;
+
+    private final String name;
+    private final boolean[] window;
+    private final int minimumCalls;
+    private final int failureRateThreshold;
+    private final long openDurationNanos;
+    private final int halfOpenPermits;
+    private final BiConsumer<State, State> transitionListener;
+
+    private State state = State.CLOSED;
+    private long generation;
+    private int windowIndex;
+    private int windowCount;
+    private int windowFailures;
+    private long openedAt;
+    private int halfOpenInFlight;
+    private int halfOpenSuccesses;
+
+    /**
+     * @param failureRateThreshold ngưỡng tỷ lệ lỗi (%) để mở mạch
+     * @param transitionListener nhận (trạng thái cũ, trạng thái mới), gọi trong khóa nên phải nhanh
+     */
+    public CircuitBreaker(String name, int windowSize, int minimumCalls, int failureRateThreshold,
+                          long openDurationNanos, int halfOpenPermits, BiConsumer<State, State> transitionListener) {
+        this.name = name;
+        this.window = new boolean[Math.max(1, windowSize)];
+        this.minimumCalls = Math.max(1, Math.min(minimumCalls, window.length));
+        this.failureRateThreshold = failureRateThreshold;
+        this.openDurationNanos = openDurationNanos;
+        this.halfOpenPermits = Math.max(1, halfOpenPermits);
+        this.transitionListener = transitionListener;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Xin phép thực hiện một lời gọi.
+     * @return permit (không âm) phải được báo lại đúng một lần bằng onSuccess/onFailure/onIgnored,
+     *         hoặc {@link #REJECTED}
+     */
+    public synchronized long tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openDurationNanos) return REJECTED;
+            transition(State.HALF_OPEN);
+        }
+        if (state == State.HALF_OPEN) {
+            if (halfOpenInFlight >= halfOpenPermits) return REJECTED;
+            halfOpenInFlight++;
+        }
+        return generation;
+    }
+
+    public synchronized void onSuccess(long permit) {
+        if (permit != generation) return;
+        if (state == State.HALF_OPEN) {
+            halfOpenInFlight--;
+            if (++halfOpenSuccesses >= halfOpenPermits) transition(State.CLOSED);
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    public synchronized void onFailure(long permit) {
+        if (permit != generation) return;
+        if (state == State.HALF_OPEN) {
+            halfOpenInFlight--;
+            transition(State.OPEN);
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (windowCount >= minimumCalls && windowFailures * 100 >= failureRateThreshold * windowCount) {
+                transition(State.OPEN);
+            }
+        }
+    }
+
+    /**
+     * Lời gọi bị hủy, không tính thành công hay lỗi.
+     */
+    public synchronized void onIgnored(long permit) {
+        if (permit == generation && state == State.HALF_OPEN) halfOpenInFlight--;
+    }
+
+    private void record(boolean failure) {
+        if (windowCount == window.length) {
+            if (window[windowIndex]) windowFailures--;
+        } else {
+            windowCount++;
+        }
+        window[windowIndex] = failure;
+        if (failure) windowFailures++;
+        windowIndex = (windowIndex + 1) % window.length;
+    }
+
+    private void transition(State next) {
+        State previous = state;
+        state = next;
+        generation++;
+        windowIndex = 0;
+        windowCount = 0;
+        windowFailures = 0;
+        halfOpenInFlight = 0;
+        halfOpenSuccesses = 0;
+        if (next == State.OPEN) openedAt = System.nanoTime();
+        transitionListener.accept(previous, next);
+    }
+}
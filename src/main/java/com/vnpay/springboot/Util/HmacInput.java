@@ -0,0 +1,156 @@
+package com.vnpay.springboot.Util;
+
+import javax.crypto.Mac;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Ký HMAC trực tiếp từ các cặp tên/giá trị, không dựng chuỗi hash data:
+ * ký tự được encode UTF-8 vào buffer byte của thread và đẩy dần vào Mac.update.
+ * <ul>
+ *   <li>{@link #field(String, String)}: "name=value" nối bằng dấu phân cách ('&amp;' như hashAllFields, không URL-encode).</li>
+ *   <li>{@link #value(String)}: giá trị nối bằng dấu phân cách ('|' của QueryDR/Refund), null được coi là chuỗi rỗng.</li>
+ * </ul>
+ * Byte đưa vào Mac giống hệt String.getBytes(UTF_8) của chuỗi nối tương ứng (surrogate lẻ thành '?').
+ * Mỗi platform thread dùng lại một instance qua {@link #begin(HmacSHA512Signer, char)} (virtual thread nhận instance
+ * mới); dùng xong trước khi begin lần nữa. Mac được mượn từ pool của signer lúc begin và trả lại ở doFinal.
+ */
+public final class HmacInput {
+
+    private static final int BUFFER_SIZE = 512;
+
+    private static final PlatformThreadLocal<HmacInput> LOCAL = new PlatformThreadLocal<>(HmacInput::new);
+
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private final ByteBuffer byteBuffer = ByteBuffer.wrap(buf);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private HmacSHA512Signer signer;
+    private Mac mac;
+    private int length;
+    private byte separator;
+    private boolean empty;
+
+    private HmacInput() {
+    }
+
+    /**
+     * Bắt đầu dữ liệu ký mới trên một Mac mượn từ pool của signer.
+     * @param separator ký tự ASCII nối các phần tử
+     */
+    public static HmacInput begin(HmacSHA512Signer signer, char separator) {
+        if (separator > 0x7f) throw new IllegalArgumentException("separator must be ASCII");
+        HmacInput input = LOCAL.get();
+        input.signer = signer;
+        input.mac = signer.acquire();
+        input.length = 0;
+        input.separator = (byte) separator;
+        input.empty = true;
+        return input;
+    }
+
+    /**
+     * Thêm "name=value" (không encode).
+     */
+    public HmacInput field(String name, String value) {
+        separate();
+        append(name);
+        put((byte) '=');
+        append(value);
+        return this;
+    }
+
+    /**
+     * Thêm một giá trị, null được coi là chuỗi rỗng.
+     */
+    public HmacInput value(String value) {
+        separate();
+        if (value != null) append(value);
+        return this;
+    }
+
+    /**
+     * Thêm count giá trị đầu tiên của mảng (giống VNPayResponseReader.hashData).
+     */
+    public HmacInput values(String[] values, int count) {
+        for (int i = 0; i < count; i++) {
+            value(values[i]);
+        }
+        return this;
+    }
+
+    /**
+     * MAC thô (64 byte); Mac được trả về pool của signer, không dùng instance này nữa trước khi begin lại.
+     */
+    public byte[] doFinal() {
+        try {
+            flush();
+            return mac.doFinal();
+        } finally {
+            signer.release(mac);
+            mac = null;
+        }
+    }
+
+    /**
+     * MAC dạng hex chữ thường.
+     */
+    public String hex() {
+        return signer.toHex(doFinal());
+    }
+
+    private void separate() {
+        if (!empty) put(separator);
+        empty = false;
+    }
+
+    private void append(String s) {
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                encode(s, i);
+                return;
+            }
+            if (length == BUFFER_SIZE) flush();
+            buf[length++] = (byte) c;
+        }
+    }
+
+    // Phần còn lại có ký tự ngoài ASCII: qua CharsetEncoder, đẩy buffer vào Mac mỗi khi đầy
+    private void encode(String s, int from) {
+        flush();
+        CharBuffer in = CharBuffer.wrap(s, from, s.length());
+        encoder.reset();
+        byteBuffer.clear();
+        while (true) {
+            CoderResult result = encoder.encode(in, byteBuffer, true);
+            if (result.isUnderflow()) break;
+            drain();
+        }
+        while (encoder.flush(byteBuffer).isOverflow()) {
+            drain();
+        }
+        length = byteBuffer.position();
+    }
+
+    private void drain() {
+        mac.update(buf, 0, byteBuffer.position());
+        byteBuffer.clear();
+    }
+
+    private void put(byte b) {
+        if (length == BUFFER_SIZE) flush();
+        buf[length++] = b;
+    }
+
+    private void flush() {
+        if (length > 0) mac.update(buf, 0, length);
+        length = 0;
+    }
+}
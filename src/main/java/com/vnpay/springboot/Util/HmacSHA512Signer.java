@@ -0,0 +1,107 @@
+package com.vnpay.springboot.Util;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Bộ ký HMAC-SHA512 dùng lại Mac đã init sẵn với secret key.
+ * Mac được mượn từ pool có giới hạn của signer (không gắn với thread: virtual thread mỗi request một thread
+ * sẽ phải init Mac mới mỗi lần nếu dùng ThreadLocal). Pool rỗng thì tạo Mac mới, pool đầy thì Mac trả về bị bỏ,
+ * nên số Mac giữ lại không vượt quá POOL_SIZE dù có bao nhiêu thread.
+ */
+public final class HmacSHA512Signer {
+
+    public static final String ALGORITHM = "HmacSHA512";
+    public static final int MAC_LENGTH = 64;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    // Ký là việc thuần CPU, không chặn khi đang giữ Mac: số Mac dùng đồng thời xấp xỉ số core
+    private static final int POOL_SIZE = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+    private final String secretKey;
+    private final SecretKeySpec keySpec;
+    private final ArrayBlockingQueue<Mac> pool = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    /**
+     * Secret key được mã hóa UTF-8 (cố định, không phụ thuộc file.encoding của JVM).
+     * Bản gốc dùng key.getBytes() theo charset mặc định: với key ASCII (key VNPAY cấp) kết quả như nhau,
+     * key có ký tự ngoài ASCII trên JVM không dùng UTF-8 mặc định sẽ cho chữ ký khác.
+     */
+    public HmacSHA512Signer(String secretKey) {
+        if (secretKey == null) throw new NullPointerException("secretKey");
+        this.secretKey = secretKey;
+        this.keySpec = new SecretKeySpec(secretKey.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+    }
+
+    public String getSecretKey() {
+        return secretKey;
+    }
+
+    /**
+     * Ký chuỗi dữ liệu (UTF-8) và trả về chữ ký dạng hex chữ thường.
+     */
+    public String sign(String data) {
+        if (data == null) throw new NullPointerException("data");
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        return toHex(signRaw(bytes, 0, bytes.length));
+    }
+
+    /**
+     * Ký trực tiếp một đoạn byte, trả về MAC thô (64 byte).
+     */
+    public byte[] signRaw(byte[] data, int offset, int length) {
+        Mac mac = acquire();
+        try {
+            mac.update(data, offset, length);
+            return mac.doFinal();
+        } finally {
+            release(mac);
+        }
+    }
+
+    /**
+     * Mượn một Mac sẵn sàng update; trả lại bằng {@link #release(Mac)} khi ký xong.
+     * Quên trả thì Mac chỉ bị GC, pool tạo Mac mới khi cần.
+     */
+    Mac acquire() {
+        Mac mac = pool.poll();
+        return mac != null ? mac : newMac();
+    }
+
+    void release(Mac mac) {
+        // doFinal đã reset; reset lại phòng trường hợp dừng giữa chừng vì exception
+        mac.reset();
+        pool.offer(mac);
+    }
+
+    /**
+     * Hex-encode MAC qua bảng tra (chỉ cấp phát buffer char và String kết quả).
+     */
+    public String toHex(byte[] digest) {
+        char[] out = new char[digest.length * 2];
+        int n = encodeHex(digest, out);
+        return new String(out, 0, n);
+    }
+
+    public static int encodeHex(byte[] digest, char[] out) {
+        int j = 0;
+        for (byte b : digest) {
+            out[j++] = HEX[(b >> 4) & 0x0f];
+            out[j++] = HEX[b & 0x0f];
+        }
+        return j;
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(keySpec);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot initialize " + ALGORITHM, e);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.vnpay.springboot.Util;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Danh sách dải IP (CIDR "a.b.c.d/n", "x:y::/n" hoặc IP lẻ), bất biến.
+ * IP cần kiểm tra chỉ được parse dạng literal, không bao giờ tra DNS
+ * (giá trị có thể lấy từ X-FORWARDED-FOR do client gửi lên).
+ */
+public final class IpAllowlist {
+
+    private record Range(byte[] network, int prefixLength) {
+
+        boolean contains(byte[] address) {
+            if (address.length != network.length) return false;
+            int fullBytes = prefixLength / 8;
+            for (int i = 0; i < fullBytes; i++) {
+                if (address[i] != network[i]) return false;
+            }
+            int remainingBits = prefixLength % 8;
+            if (remainingBits == 0) return true;
+            int mask = (0xff << (8 - remainingBits)) & 0xff;
+            return (address[fullBytes] & mask) == (network[fullBytes] & mask);
+        }
+    }
+
+    private final Range[] ranges;
+
+    private IpAllowlist(Range[] ranges) {
+        this.ranges = ranges;
+    }
+
+    /**
+     * @throws IllegalArgumentException nếu có dải không hợp lệ
+     */
+    public static IpAllowlist parse(List<String> cidrs) {
+        List<Range> ranges = new ArrayList<>();
+        for (String cidr : cidrs) {
+            if (cidr == null || cidr.isBlank()) continue;
+            String value = cidr.trim();
+            int slash = value.indexOf('/');
+            byte[] network = parseLiteral(slash < 0 ? value : value.substring(0, slash));
+            if (network == null) throw new IllegalArgumentException("Invalid IP range: " + cidr);
+            int prefixLength = network.length * 8;
+            if (slash >= 0) {
+                try {
+                    prefixLength = Integer.parseInt(value.substring(slash + 1));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid IP range: " + cidr);
+                }
+                if (prefixLength < 0 || prefixLength > network.length * 8) {
+                    throw new IllegalArgumentException("Invalid IP range: " + cidr);
+                }
+            }
+            ranges.add(new Range(network, prefixLength));
+        }
+        return new IpAllowlist(ranges.toArray(new Range[0]));
+    }
+
+    public boolean isEmpty() {
+        return ranges.length == 0;
+    }
+
+    /**
+     * @return false nếu ip không phải IP literal hợp lệ
+     */
+    public boolean contains(String ip) {
+        if (ranges.length == 0 || ip == null) return false;
+        byte[] address = parseLiteral(ip);
+        if (address == null) return false;
+        for (Range range : ranges) {
+            if (range.contains(address)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true nếu ip là IPv4 / IPv6 literal hợp lệ
+     */
+    public static boolean isLiteral(String ip) {
+        return ip != null && parseLiteral(ip) != null;
+    }
+
+    // IPv4 tự parse; IPv6 chỉ đưa cho InetAddress khi chuỗi toàn ký tự hex, ':' và '.' (literal, không tra DNS)
+    private static byte[] parseLiteral(String ip) {
+        if (ip.indexOf(':') >= 0) {
+            for (int i = 0; i < ip.length(); i++) {
+                char c = ip.charAt(i);
+                if (!(c == ':' || c == '.' || (c < 128 && Character.digit(c, 16) >= 0))) return null;
+            }
+            try {
+                return InetAddress.getByName(ip).getAddress();
+            } catch (UnknownHostException e) {
+                return null;
+            }
+        }
+        return parseIpv4(ip);
+    }
+
+    private static byte[] parseIpv4(String ip) {
+        byte[] out = new byte[4];
+        int part = 0;
+        int value = -1;
+        for (int i = 0; i <= ip.length(); i++) {
+            char c = i < ip.length() ? ip.charAt(i) : '.';
+            if (c == '.') {
+                if (value < 0 || part == 4) return null;
+                out[part++] = (byte) value;
+                value = -1;
+            } else if (c >= '0' && c <= '9') {
+                value = value < 0 ? c - '0' : value * 10 + (c - '0');
+                if (value > 255) return null;
+            } else {
+                return null;
+            }
+        }
+        return part == 4 ? out : null;
+    }
+}
@@ -0,0 +1,102 @@
+package com.vnpay.springboot.Util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * URL thanh toán dựng sẵn cho một merchant: các trường cố định (vnp_Command, vnp_CurrCode, vnp_Locale,
+ * vnp_ReturnUrl, vnp_TmnCode, vnp_Version) được encode một lần thành đoạn byte theo thứ tự chuẩn,
+ * các trường hằng liền nhau gộp thành một đoạn; tiền tố "payUrl?" cũng được mã hóa sẵn.
+ * Mỗi request chỉ encode các trường thay đổi (SLOTS) và ký trên buffer đã ghép.
+ * Bất biến; đổi payUrl / Return URL / TMN code thì dựng template mới.
+ */
+public final class PaymentUrlTemplate {
+
+    /** Các trường thay đổi theo request, theo đúng thứ tự giá trị truyền vào fill. */
+    public static final String[] SLOTS = {
+            "vnp_Amount", "vnp_BankCode", "vnp_CreateDate", "vnp_ExpireDate", "vnp_IpAddr",
+            "vnp_OrderInfo", "vnp_OrderType", "vnp_TxnRef"
+    };
+
+    private static final String VERSION = "2.1.0";
+
+    private final String payUrl;
+    private final String tmnCode;
+    private final String returnUrl;
+    private final byte[] prefix;
+    // Theo thứ tự PAY_FIELDS: đoạn hằng đã encode ("a=1&b=2") hoặc "name=" của trường thay đổi
+    private final byte[][] segments;
+    // Chỉ số trong SLOTS của từng đoạn, -1 với đoạn hằng
+    private final int[] slots;
+
+    private PaymentUrlTemplate(String payUrl, String tmnCode, String returnUrl, byte[][] segments, int[] slots) {
+        this.payUrl = payUrl;
+        this.tmnCode = tmnCode;
+        this.returnUrl = returnUrl;
+        this.prefix = (payUrl + "?").getBytes(StandardCharsets.US_ASCII);
+        this.segments = segments;
+        this.slots = slots;
+    }
+
+    public static PaymentUrlTemplate compile(String payUrl, String tmnCode, String returnUrl) {
+        Map<String, String> constants = new HashMap<>();
+        constants.put("vnp_Command", "pay");
+        constants.put("vnp_CurrCode", "VND");
+        constants.put("vnp_Locale", "vn");
+        constants.put("vnp_ReturnUrl", returnUrl);
+        constants.put("vnp_TmnCode", tmnCode);
+        constants.put("vnp_Version", VERSION);
+
+        List<byte[]> segments = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        CanonicalQueryBuilder run = null;
+        for (String name : CanonicalQueryBuilder.PAY_FIELDS) {
+            int slot = Arrays.asList(SLOTS).indexOf(name);
+            if (slot < 0) {
+                if (run == null) run = CanonicalQueryBuilder.begin();
+                run.field(name, constants.get(name));
+                continue;
+            }
+            if (run != null) {
+                segments.add(run.fieldsToBytes());
+                slots.add(-1);
+                run = null;
+            }
+            segments.add((name + "=").getBytes(StandardCharsets.US_ASCII));
+            slots.add(slot);
+        }
+        if (run != null) {
+            segments.add(run.fieldsToBytes());
+            slots.add(-1);
+        }
+        return new PaymentUrlTemplate(payUrl, tmnCode, returnUrl, segments.toArray(new byte[0][]),
+                slots.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    /**
+     * Ghép URL cho một request trên builder của thread hiện tại (prefix chưa có vnp_SecureHash).
+     * @param values giá trị theo thứ tự SLOTS, giá trị null/rỗng bị bỏ qua
+     */
+    public CanonicalQueryBuilder fill(String[] values) {
+        CanonicalQueryBuilder query = CanonicalQueryBuilder.begin().prefix(prefix);
+        for (int i = 0; i < segments.length; i++) {
+            int slot = slots[i];
+            if (slot < 0) {
+                query.segment(segments[i]);
+            } else {
+                query.field(segments[i], values[slot]);
+            }
+        }
+        return query;
+    }
+
+    public boolean matches(String payUrl, String tmnCode, String returnUrl) {
+        return Objects.equals(this.payUrl, payUrl) && Objects.equals(this.tmnCode, tmnCode)
+                && Objects.equals(this.returnUrl, returnUrl);
+    }
+}
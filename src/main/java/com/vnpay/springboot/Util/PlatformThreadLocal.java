@@ -0,0 +1,23 @@
+package com.vnpay.springboot.Util;
+
+import java.util.function.Supplier;
+
+/**
+ * Buffer dùng lại theo thread, nhưng chỉ trên platform thread.
+ * Virtual thread thường chỉ sống một request: ThreadLocal trên đó luôn tạo instance mới rồi bỏ đi, kèm một entry
+ * trong ThreadLocalMap, nên lấy thẳng instance mới (cấp phát ngắn hạn, không giữ lại).
+ */
+final class PlatformThreadLocal<T> {
+
+    private final Supplier<T> factory;
+    private final ThreadLocal<T> local;
+
+    PlatformThreadLocal(Supplier<T> factory) {
+        this.factory = factory;
+        this.local = ThreadLocal.withInitial(factory);
+    }
+
+    T get() {
+        return VirtualThreads.isVirtual(Thread.currentThread()) ? factory.get() : local.get();
+    }
+}
@@ -0,0 +1,56 @@
+package com.vnpay.springboot.Util;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * So khớp vnp_SecureHash nhận được với MAC thô tính ra, không hex-encode MAC của mình.
+ * Chữ ký nhận được được giải mã hex (không phân biệt hoa thường) một lần vào buffer byte của platform thread
+ * (virtual thread nhận buffer mới);
+ * sai độ dài hoặc có ký tự ngoài hex thì bị loại ngay, trước khi tốn công băm.
+ * So sánh bằng MessageDigest.isEqual (thời gian không phụ thuộc vị trí byte khác nhau đầu tiên).
+ */
+public final class SignatureVerifier {
+
+    private static final byte[] HEX_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < 10; i++) HEX_VALUES['0' + i] = (byte) i;
+        for (int i = 0; i < 6; i++) {
+            HEX_VALUES['a' + i] = (byte) (10 + i);
+            HEX_VALUES['A' + i] = (byte) (10 + i);
+        }
+    }
+
+    private static final PlatformThreadLocal<byte[]> RECEIVED =
+            new PlatformThreadLocal<>(() -> new byte[HmacSHA512Signer.MAC_LENGTH]);
+
+    private SignatureVerifier() {
+    }
+
+    /**
+     * Giải mã chữ ký hex (128 ký tự) vào buffer của thread hiện tại.
+     * Buffer được dùng lại ở lần gọi sau trên cùng thread: so khớp xong rồi mới decode tiếp.
+     * @return null nếu chữ ký null, sai độ dài hoặc không phải hex
+     */
+    public static byte[] decode(String hex) {
+        if (hex == null || hex.length() != HmacSHA512Signer.MAC_LENGTH * 2) return null;
+        byte[] out = RECEIVED.get();
+        for (int i = 0, j = 0; i < out.length; i++, j += 2) {
+            int hi = value(hex.charAt(j));
+            int lo = value(hex.charAt(j + 1));
+            if ((hi | lo) < 0) return null;
+            out[i] = (byte) ((hi << 4) | lo);
+        }
+        return out;
+    }
+
+    public static boolean matches(byte[] received, byte[] computed) {
+        return received != null && MessageDigest.isEqual(received, computed);
+    }
+
+    private static int value(char c) {
+        return c < 128 ? HEX_VALUES[c] : -1;
+    }
+}
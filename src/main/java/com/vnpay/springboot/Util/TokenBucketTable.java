@@ -0,0 +1,74 @@
+package com.vnpay.springboot.Util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bảng token bucket theo khóa (IP), không khóa: mỗi ô là một long trong AtomicLongArray,
+ * gói thời điểm nạp gần nhất (ms, 40 bit cao) và số token tính bằng phần nghìn (24 bit thấp), cập nhật bằng CAS.
+ * Khóa được băm vào một trong số ô cố định (lũy thừa 2): không cấp phát theo IP, bộ nhớ không tăng khi bị
+ * tấn công bằng nhiều IP; đổi lại các khóa trùng ô dùng chung bucket.
+ */
+public final class TokenBucketTable {
+
+    private static final int TOKEN_BITS = 24;
+    private static final long TOKEN_MASK = (1L << TOKEN_BITS) - 1;
+    private static final long MILLI = 1000;
+
+    private final AtomicLongArray slots;
+    private final int mask;
+    private final long ratePerMilli; // phần nghìn token mỗi ms = token mỗi giây
+    private final long capacity;     // phần nghìn token
+    private final long fillMillis;   // thời gian nạp đầy từ rỗng
+    private final long originNanos;
+
+    /**
+     * @param buckets số ô, làm tròn lên lũy thừa 2
+     * @param ratePerSecond số token nạp mỗi giây
+     * @param burst số token tối đa (tối đa 16777)
+     */
+    public TokenBucketTable(int buckets, int ratePerSecond, int burst) {
+        if (ratePerSecond <= 0) throw new IllegalArgumentException("ratePerSecond must be positive");
+        if (burst <= 0 || burst * MILLI > TOKEN_MASK) {
+            throw new IllegalArgumentException("burst must be in 1.." + TOKEN_MASK / MILLI);
+        }
+        int size = Integer.highestOneBit(Math.max(1, Math.min(buckets, 1 << 30) - 1)) << 1;
+        this.slots = new AtomicLongArray(size);
+        this.mask = size - 1;
+        this.ratePerMilli = ratePerSecond;
+        this.capacity = burst * MILLI;
+        this.fillMillis = (capacity + ratePerMilli - 1) / ratePerMilli;
+        // Lùi gốc thời gian một khoảng nạp đầy: ô chưa dùng (giá trị 0) được coi là bucket đầy
+        this.originNanos = System.nanoTime() - fillMillis * 1_000_000L;
+    }
+
+    /**
+     * Lấy một token từ bucket của khóa.
+     * @return false nếu bucket đã hết token
+     */
+    public boolean tryAcquire(String key) {
+        int i = index(key);
+        long now = (System.nanoTime() - originNanos) / 1_000_000L;
+        while (true) {
+            long state = slots.get(i);
+            long refilledAt = state >>> TOKEN_BITS;
+            long tokens = state & TOKEN_MASK;
+            long elapsed = now - refilledAt;
+            if (elapsed > 0) {
+                tokens = Math.min(capacity, tokens + Math.min(elapsed, fillMillis) * ratePerMilli);
+            }
+            // Hết token: không ghi lại, lần sau vẫn tính nạp từ refilledAt
+            if (tokens < MILLI) return false;
+            long next = (Math.max(now, refilledAt) << TOKEN_BITS) | (tokens - MILLI);
+            if (slots.compareAndSet(i, state, next)) return true;
+        }
+    }
+
+    public int size() {
+        return mask + 1;
+    }
+
+    private int index(String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
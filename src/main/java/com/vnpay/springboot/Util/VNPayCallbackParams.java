@@ -0,0 +1,196 @@
+package com.vnpay.springboot.Util;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tham số Return URL / IPN của VNPAY, parse một lần từ query string gốc vào các ô cố định theo
+ * {@link CanonicalQueryBuilder#CALLBACK_FIELDS}. Mỗi ô chỉ giữ vị trí giá trị đã percent-encode trong query string;
+ * giá trị chỉ được decode khi có người đọc.
+ *
+ * Nếu mọi giá trị đã được encode đúng như URLEncoder (dạng VNPAY dùng khi ký) và không có trường lạ,
+ * dữ liệu ký được dựng thẳng từ các đoạn byte gốc, không decode rồi encode lại.
+ * Không thread-safe: mỗi request một instance.
+ */
+public final class VNPayCallbackParams {
+
+    private static final String[] FIELDS = CanonicalQueryBuilder.CALLBACK_FIELDS;
+
+    private final String raw;
+    private final int[] starts = new int[FIELDS.length];
+    private final int[] ends = new int[FIELDS.length];
+    private final String[] values = new String[FIELDS.length];
+    private Map<String, String> extra; // trường ngoài CALLBACK_FIELDS (hiếm), đã decode
+    private boolean canonical = true;
+
+    private VNPayCallbackParams(String raw) {
+        this.raw = raw;
+        for (int i = 0; i < FIELDS.length; i++) {
+            starts[i] = -1;
+        }
+    }
+
+    /**
+     * Parse query string chưa decode (HttpServletRequest.getQueryString(), URI.getRawQuery()).
+     * Tên trường lặp lại thì giữ giá trị đầu tiên, giống getParameter.
+     */
+    public static VNPayCallbackParams parse(String rawQuery) {
+        VNPayCallbackParams params = new VNPayCallbackParams(rawQuery);
+        if (rawQuery == null) return params;
+        int n = rawQuery.length();
+        int pos = 0;
+        while (pos < n) {
+            int end = rawQuery.indexOf('&', pos);
+            if (end < 0) end = n;
+            if (end > pos) params.addPair(pos, end);
+            pos = end + 1;
+        }
+        return params;
+    }
+
+    /**
+     * Dựng từ tham số đã decode sẵn (ví dụ form POST). Chữ ký sẽ được tính qua đường encode lại.
+     */
+    public static VNPayCallbackParams of(Map<String, String> decoded) {
+        VNPayCallbackParams params = new VNPayCallbackParams(null);
+        params.canonical = false;
+        for (Map.Entry<String, String> entry : decoded.entrySet()) {
+            params.putDecoded(entry.getKey(), entry.getValue());
+        }
+        return params;
+    }
+
+    /**
+     * Giá trị đã decode, null nếu không có.
+     */
+    public String get(String name) {
+        int slot = slotOf(name);
+        if (slot >= 0) return value(slot);
+        return extra == null ? null : extra.get(name);
+    }
+
+    /**
+     * true nếu dữ liệu ký có thể lấy nguyên văn từ query string gốc.
+     */
+    public boolean isRawCanonical() {
+        return canonical && extra == null;
+    }
+
+    boolean hasExtraFields() {
+        return extra != null;
+    }
+
+    String rawQuery() {
+        return raw;
+    }
+
+    int rawStart(int slot) {
+        return starts[slot];
+    }
+
+    int rawEnd(int slot) {
+        return ends[slot];
+    }
+
+    String value(int slot) {
+        String value = values[slot];
+        if (value == null && starts[slot] >= 0) {
+            value = decode(raw, starts[slot], ends[slot]);
+            if (value == null) {
+                starts[slot] = -1; // encode hỏng: coi như không có, giống servlet container bỏ qua tham số lỗi
+            } else {
+                values[slot] = value;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Toàn bộ tham số đã decode (dùng cho log và đường dự phòng).
+     */
+    public Map<String, String> toMap() {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (int i = 0; i < FIELDS.length; i++) {
+            String value = value(i);
+            if (value != null) map.put(FIELDS[i], value);
+        }
+        if (extra != null) map.putAll(extra);
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+
+    private void addPair(int start, int end) {
+        int eq = raw.indexOf('=', start);
+        if (eq < 0 || eq > end) eq = end;
+        int valueStart = Math.min(eq + 1, end);
+
+        int slot = slotOf(raw, start, eq);
+        if (slot >= 0) {
+            if (starts[slot] >= 0 || values[slot] != null) return;
+            starts[slot] = valueStart;
+            ends[slot] = end;
+            if (canonical && !CanonicalQueryBuilder.isCanonicalEncoded(raw, valueStart, end)) canonical = false;
+            return;
+        }
+
+        // Tên lạ hoặc tên bị percent-encode: decode cả cặp
+        String name = decode(raw, start, eq);
+        String value = decode(raw, valueStart, end);
+        if (name != null && value != null) {
+            if (slotOf(name) >= 0) canonical = false;
+            putDecoded(name, value);
+        }
+    }
+
+    private void putDecoded(String name, String value) {
+        if (value == null) return;
+        int slot = slotOf(name);
+        if (slot >= 0) {
+            if (values[slot] == null && starts[slot] < 0) values[slot] = value;
+            return;
+        }
+        if (extra == null) extra = new LinkedHashMap<>();
+        extra.putIfAbsent(name, value);
+    }
+
+    private static int slotOf(String name) {
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (FIELDS[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    // So khớp tên ngay trên query string, không cắt chuỗi con
+    private static int slotOf(String raw, int start, int end) {
+        int length = end - start;
+        for (int i = 0; i < FIELDS.length; i++) {
+            String field = FIELDS[i];
+            if (field.length() == length && raw.regionMatches(start, field, 0, length)) return i;
+        }
+        return -1;
+    }
+
+    // Giống cách servlet container decode query string (UTF-8, '+' là dấu cách); null nếu encode hỏng
+    private static String decode(String raw, int start, int end) {
+        boolean plain = true;
+        for (int i = start; i < end; i++) {
+            char c = raw.charAt(i);
+            if (c == '%' || c == '+') {
+                plain = false;
+                break;
+            }
+        }
+        if (plain) return raw.substring(start, end);
+        try {
+            return URLDecoder.decode(raw.substring(start, end), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
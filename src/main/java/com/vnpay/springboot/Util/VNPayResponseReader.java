@@ -0,0 +1,69 @@
+package com.vnpay.springboot.Util;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Đọc phản hồi JSON của API VNPAY (QueryDR/Refund) theo kiểu streaming vào các ô cố định.
+ * Chỉ giữ các trường được yêu cầu, trường khác bị bỏ qua; không dựng cây JSON và không tạo chuỗi body trung gian.
+ */
+public final class VNPayResponseReader {
+
+    private VNPayResponseReader() {
+    }
+
+    /**
+     * @param fields tên các trường cần lấy
+     * @return mảng cùng độ dài với fields, ô không có trong phản hồi (hoặc null) là null
+     * @throws IOException nếu body không phải JSON object hợp lệ
+     */
+    public static String[] read(InputStream in, String[] fields) throws IOException {
+        String[] values = new String[fields.length];
+        JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        reader.beginObject();
+        while (reader.hasNext()) {
+            int slot = indexOf(fields, reader.nextName());
+            JsonToken token = reader.peek();
+            if (slot < 0 || (token != JsonToken.STRING && token != JsonToken.NUMBER)) {
+                reader.skipValue();
+            } else {
+                values[slot] = reader.nextString();
+            }
+        }
+        reader.endObject();
+        return values;
+    }
+
+    /**
+     * Chuỗi dữ liệu ký của phản hồi: count ô đầu tiên nối bằng '|', ô null được coi là chuỗi rỗng.
+     */
+    public static String hashData(String[] values, int count) {
+        StringBuilder sb = new StringBuilder(256);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) sb.append('|');
+            if (values[i] != null) sb.append(values[i]);
+        }
+        return sb.toString();
+    }
+
+    public static Long parseLong(String value) {
+        if (value == null || value.isEmpty()) return null;
+        try {
+            return Long.valueOf(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static int indexOf(String[] fields, String name) {
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].equals(name)) return i;
+        }
+        return -1;
+    }
+}
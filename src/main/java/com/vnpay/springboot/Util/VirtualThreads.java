@@ -0,0 +1,69 @@
+package com.vnpay.springboot.Util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Truy cập virtual thread qua reflection: project vẫn biên dịch với Java 17,
+ * chỉ khi chạy trên Java 21+ mới tạo được executor virtual thread.
+ */
+public final class VirtualThreads {
+
+    private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = findFactory();
+    private static final MethodHandle IS_VIRTUAL = findIsVirtual();
+
+    private VirtualThreads() {
+    }
+
+    public static boolean isSupported() {
+        return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null && Runtime.version().feature() >= 21;
+    }
+
+    /**
+     * Thread.isVirtual(); luôn false trên JVM chưa có virtual thread.
+     */
+    public static boolean isVirtual(Thread thread) {
+        if (IS_VIRTUAL == null) return false;
+        try {
+            return (boolean) IS_VIRTUAL.invokeExact(thread);
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    /**
+     * Executor tạo một virtual thread mới cho mỗi task (Executors.newVirtualThreadPerTaskExecutor).
+     * @throws IllegalStateException nếu JVM hiện tại không hỗ trợ virtual thread
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        if (!isSupported()) {
+            throw new IllegalStateException("Virtual threads require Java 21+, running on Java " + Runtime.version());
+        }
+        try {
+            return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Cannot create virtual thread executor", e);
+        }
+    }
+
+    private static MethodHandle findIsVirtual() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private static Method findFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.vnpay.springboot.Service;
+
+import com.vnpay.springboot.Config.CallbackAdmissionProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * IP client của lớp chặn callback: X-Forwarded-For do client tự gửi không giả được IP VNPAY hay né bucket.
+ */
+class CallbackAdmissionControlTest {
+
+    private static final String VNPAY_IP = "203.0.113.10";
+    private static final String PROXY_IP = "10.0.0.5";
+    private static final String ATTACKER_IP = "198.51.100.7";
+
+    private CallbackAdmissionProperties properties;
+
+    @BeforeEach
+    void setUp() {
+        properties = new CallbackAdmissionProperties();
+        properties.setIpnAllowlist(List.of("203.0.113.0/24"));
+        properties.setIpnRatePerSecond(1);
+        properties.setIpnBurst(1);
+    }
+
+    @Test
+    void forwardedForFromUntrustedClientIsIgnored() {
+        CallbackAdmissionControl control = control();
+
+        assertThat(control.clientAddress(ATTACKER_IP, List.of(VNPAY_IP))).isEqualTo(ATTACKER_IP);
+    }
+
+    @Test
+    void spoofedVnpayIpIsNotAllowlisted() {
+        CallbackAdmissionControl control = control();
+        String clientIp = control.clientAddress(ATTACKER_IP, List.of(VNPAY_IP));
+
+        assertThat(control.tryAdmit(CallbackAdmissionControl.Endpoint.IPN, clientIp))
+                .isEqualTo(CallbackAdmissionControl.Decision.ADMIT);
+        assertThat(control.tryAdmit(CallbackAdmissionControl.Endpoint.IPN, clientIp))
+                .isEqualTo(CallbackAdmissionControl.Decision.RATE_LIMITED);
+    }
+
+    @Test
+    void rotatingForwardedForSharesOneBucket() {
+        CallbackAdmissionControl control = control();
+
+        assertThat(control.tryAdmit(CallbackAdmissionControl.Endpoint.IPN,
+                control.clientAddress(ATTACKER_IP, List.of("192.0.2.1"))))
+                .isEqualTo(CallbackAdmissionControl.Decision.ADMIT);
+        assertThat(control.tryAdmit(CallbackAdmissionControl.Endpoint.IPN,
+                control.clientAddress(ATTACKER_IP, List.of("192.0.2.2"))))
+                .isEqualTo(CallbackAdmissionControl.Decision.RATE_LIMITED);
+    }
+
+    @Test
+    void trustedProxyUsesRightmostUntrustedHop() {
+        properties.setTrustedProxies(List.of("10.0.0.0/8"));
+        CallbackAdmissionControl control = control();
+
+        // Client tự chèn IP VNPAY vào đầu header, proxy nối IP thật của nó vào cuối
+        assertThat(control.clientAddress(PROXY_IP, List.of(VNPAY_IP + ", " + ATTACKER_IP))).isEqualTo(ATTACKER_IP);
+        assertThat(control.clientAddress(PROXY_IP, List.of(VNPAY_IP + ", 10.0.0.9"))).isEqualTo(VNPAY_IP);
+        assertThat(control.clientAddress(PROXY_IP, List.of(ATTACKER_IP, "10.0.0.9"))).isEqualTo(ATTACKER_IP);
+        assertThat(control.clientAddress(PROXY_IP, List.of())).isEqualTo(PROXY_IP);
+    }
+
+    @Test
+    void malformedHopStopsAtNearestTrustedProxy() {
+        properties.setTrustedProxies(List.of("10.0.0.0/8"));
+        CallbackAdmissionControl control = control();
+
+        assertThat(control.clientAddress(PROXY_IP, List.of("unknown"))).isEqualTo(PROXY_IP);
+        assertThat(control.clientAddress(PROXY_IP, List.of("garbage, 10.0.0.9"))).isEqualTo("10.0.0.9");
+    }
+
+    private CallbackAdmissionControl control() {
+        return new CallbackAdmissionControl(properties, new VNPayMetrics(new SimpleMeterRegistry()));
+    }
+}
@@ -0,0 +1,121 @@
+package com.vnpay.springboot.Service;
+
+import com.vnpay.springboot.Config.IpnAsyncProperties;
+import com.vnpay.springboot.Entity.OrderStatus;
+import com.vnpay.springboot.Entity.PaymentOrder;
+import com.vnpay.springboot.Repository.PaymentOrderRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.sql.DataSource;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Luồng ghi IPN bất đồng bộ trên H2: ghi lô xuống sổ cái, đếm bản ghi không khớp đơn PENDING, dừng sạch WAL.
+ */
+@DataJpaTest(properties = {
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.show-sql=false"
+})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class IpnBatchWriterTest {
+
+    private static final long AMOUNT = 10_000_000L;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private PaymentOrderRepository orderRepository;
+
+    @TempDir
+    Path walDir;
+
+    private SimpleMeterRegistry registry;
+    private IpnBatchWriter writer;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        orderRepository.deleteAll();
+        registry = new SimpleMeterRegistry();
+        writer = newWriter();
+        writer.start();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (writer != null) writer.stop();
+        orderRepository.deleteAll();
+    }
+
+    @Test
+    void flushesAcknowledgedIpnsAndCountsUnmatchedRecords() throws Exception {
+        orderRepository.save(new PaymentOrder("A1", "DEMOTMN1", AMOUNT, "Thanh toan don hang A1",
+                "20240101120000", Instant.now().plusSeconds(900), Instant.now()));
+
+        writer.submit("A1", AMOUNT, "14226120", "00");
+        writer.submit("MISSING", AMOUNT, "14226121", "00");
+
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (registry.counter("vnpay.ipn.async.unmatched").count() < 1 && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertThat(orderRepository.findByTxnRef("A1").orElseThrow().getStatus()).isEqualTo(OrderStatus.PAID);
+        assertThat(registry.counter("vnpay.ipn.async.unmatched").count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void stopDrainsQueueAndEmptiesWal() throws Exception {
+        orderRepository.save(new PaymentOrder("A2", "DEMOTMN1", AMOUNT, "Thanh toan don hang A2",
+                "20240101120000", Instant.now().plusSeconds(900), Instant.now()));
+        writer.submit("A2", AMOUNT, "14226122", "24");
+
+        writer.stop();
+        writer = null;
+
+        assertThat(orderRepository.findByTxnRef("A2").orElseThrow().getStatus()).isEqualTo(OrderStatus.FAILED);
+        assertThat(Files.size(walDir.resolve("ipn.wal"))).isZero();
+    }
+
+    @Test
+    void startReplaysAcknowledgedIpnsLeftInWal() throws Exception {
+        writer.stop();
+        writer = null;
+        orderRepository.save(new PaymentOrder("A3", "DEMOTMN1", AMOUNT, "Thanh toan don hang A3",
+                "20240101120000", Instant.now().plusSeconds(900), Instant.now()));
+        // IPN đã trả 00 cho VNPAY rồi node chết trước khi ghi xuống DB
+        try (IpnWriteAheadLog wal = new IpnWriteAheadLog(walDir)) {
+            wal.append("A3", AMOUNT, "14226123", "00", record -> { });
+        }
+
+        writer = newWriter();
+        writer.start();
+        writer.stop();
+        writer = null;
+
+        assertThat(orderRepository.findByTxnRef("A3").orElseThrow().getStatus()).isEqualTo(OrderStatus.PAID);
+        assertThat(Files.size(walDir.resolve("ipn.wal"))).isZero();
+    }
+
+    private IpnBatchWriter newWriter() {
+        IpnAsyncProperties properties = new IpnAsyncProperties();
+        properties.setWalDir(walDir.toString());
+        properties.setLinger(Duration.ofMillis(10));
+        return new IpnBatchWriter(new JdbcTemplate(dataSource), properties,
+                new VNPayClock(Clock.systemUTC()), new VNPayMetrics(registry));
+    }
+}
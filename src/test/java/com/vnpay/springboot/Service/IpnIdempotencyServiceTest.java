@@ -0,0 +1,163 @@
+package com.vnpay.springboot.Service;
+
+import com.vnpay.springboot.Config.IpnIdempotencyProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import reactor.core.publisher.Mono;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Bảng biên nhận IPN trên H2: claim / chốt / nhả, chờ node khác (servlet và WebFlux).
+ * JdbcTemplate autocommit như khi chạy thật, nên test không chạy trong transaction.
+ */
+@DataJpaTest(properties = {
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.show-sql=false"
+})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class IpnIdempotencyServiceTest {
+
+    private static final Map<String, String> CONFIRMED = Map.of("RspCode", "00", "Message", "Confirm Success");
+    private static final Map<String, String> UNKNOWN_ERROR = Map.of("RspCode", "99", "Message", "Unknown error");
+
+    @Autowired
+    private DataSource dataSource;
+
+    private JdbcTemplate jdbcTemplate;
+    private IpnIdempotencyService service;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.update("DELETE FROM vnpay_ipn_receipt");
+        IpnIdempotencyProperties properties = new IpnIdempotencyProperties();
+        properties.setInProgressWait(Duration.ofMillis(600));
+        properties.setPollInterval(Duration.ofMillis(20));
+        service = new IpnIdempotencyService(jdbcTemplate, properties, new VNPayClock(Clock.systemUTC()));
+    }
+
+    @Test
+    void finalResponseIsStoredAndReplayed() {
+        AtomicInteger runs = new AtomicInteger();
+
+        Map<String, String> first = service.execute("T1", "100", () -> {
+            runs.incrementAndGet();
+            return CONFIRMED;
+        });
+        Map<String, String> second = service.execute("T1", "100", () -> {
+            runs.incrementAndGet();
+            return UNKNOWN_ERROR;
+        });
+
+        assertThat(first).isEqualTo(CONFIRMED);
+        assertThat(second).isEqualTo(CONFIRMED);
+        assertThat(runs).hasValue(1);
+    }
+
+    @Test
+    void nonFinalResponseReleasesTheClaim() {
+        AtomicInteger runs = new AtomicInteger();
+
+        service.execute("T2", "100", () -> {
+            runs.incrementAndGet();
+            return UNKNOWN_ERROR;
+        });
+        Map<String, String> retried = service.execute("T2", "100", () -> {
+            runs.incrementAndGet();
+            return CONFIRMED;
+        });
+
+        assertThat(retried).isEqualTo(CONFIRMED);
+        assertThat(runs).hasValue(2);
+    }
+
+    @Test
+    void waitingForAnotherNodeReleasesTheStripeLock() throws Exception {
+        claimOnOtherNode("T3", "100");
+        ReentrantLock stripe = new ReentrantLock();
+        CompletableFuture<Map<String, String>> waiting = CompletableFuture.supplyAsync(() -> {
+            stripe.lock();
+            try {
+                return service.execute("T3", "100", stripe, () -> CONFIRMED);
+            } finally {
+                stripe.unlock();
+            }
+        });
+
+        // IPN khác cùng stripe vẫn lấy được khóa trong lúc node này chờ biên nhận
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertThat(stripe.tryLock(200, TimeUnit.MILLISECONDS)).isTrue();
+        stripe.unlock();
+
+        assertThat(waiting.get(5, TimeUnit.SECONDS)).isEqualTo(UNKNOWN_ERROR);
+        assertThat(stripe.isLocked()).isFalse();
+    }
+
+    @Test
+    void asyncRunsHandlerOnceAndReplaysStoredResponse() {
+        AtomicInteger runs = new AtomicInteger();
+
+        Map<String, String> first = service.executeAsync("T4", "100",
+                () -> Mono.fromSupplier(() -> {
+                    runs.incrementAndGet();
+                    return CONFIRMED;
+                })).block(Duration.ofSeconds(5));
+        Map<String, String> second = service.executeAsync("T4", "100",
+                () -> Mono.fromSupplier(() -> {
+                    runs.incrementAndGet();
+                    return UNKNOWN_ERROR;
+                })).block(Duration.ofSeconds(5));
+
+        assertThat(first).isEqualTo(CONFIRMED);
+        assertThat(second).isEqualTo(CONFIRMED);
+        assertThat(runs).hasValue(1);
+    }
+
+    @Test
+    void asyncWaitsForAnotherNodeToFinish() {
+        claimOnOtherNode("T5", "100");
+        CompletableFuture.runAsync(() -> jdbcTemplate.update(
+                "UPDATE vnpay_ipn_receipt SET status = 'DONE', rsp_code = '00', message = 'Confirm Success' "
+                        + "WHERE vnp_txn_ref = 'T5'"),
+                CompletableFuture.delayedExecutor(150, TimeUnit.MILLISECONDS));
+
+        Map<String, String> response = service.executeAsync("T5", "100",
+                () -> Mono.just(UNKNOWN_ERROR)).block(Duration.ofSeconds(5));
+
+        assertThat(response).isEqualTo(CONFIRMED);
+    }
+
+    @Test
+    void asyncHandlerErrorReleasesTheClaim() {
+        Mono<Map<String, String>> failing = service.executeAsync("T6", "100",
+                () -> Mono.error(new IllegalStateException("ledger down")));
+
+        assertThat(failing.onErrorReturn(UNKNOWN_ERROR).block(Duration.ofSeconds(5))).isEqualTo(UNKNOWN_ERROR);
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM vnpay_ipn_receipt WHERE vnp_txn_ref = 'T6'", Integer.class)).isZero();
+    }
+
+    private void claimOnOtherNode(String txnRef, String txnNo) {
+        Timestamp now = Timestamp.from(Instant.now());
+        jdbcTemplate.update("INSERT INTO vnpay_ipn_receipt "
+                        + "(vnp_txn_ref, vnp_transaction_no, status, owner_node, claimed_at, updated_at) "
+                        + "VALUES (?, ?, 'PROCESSING', 'other-node', ?, ?)", txnRef, txnNo, now, now);
+    }
+}
@@ -0,0 +1,126 @@
+package com.vnpay.springboot.Service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * WAL của IPN bất đồng bộ: phát lại sau crash, cắt đuôi hỏng, checkpoint không bao giờ nuốt bản ghi mới.
+ * "Crash" = đóng WAL mà không commit rồi mở lại trên cùng thư mục.
+ */
+class IpnWriteAheadLogTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void uncommittedRecordsAreReplayedAfterRestart() throws IOException {
+        try (IpnWriteAheadLog wal = open()) {
+            IpnWriteAheadLog.IpnRecord first = append(wal, "A1");
+            append(wal, "A2");
+            append(wal, "A3");
+            wal.commit(first.endOffset());
+        }
+
+        assertThat(replay()).containsExactly("A2", "A3");
+    }
+
+    @Test
+    void fullyCommittedLogIsEmptiedAndReplaysNothing() throws IOException {
+        try (IpnWriteAheadLog wal = open()) {
+            append(wal, "A1");
+            wal.commit(append(wal, "A2").endOffset());
+        }
+
+        assertThat(Files.size(dir.resolve("ipn.wal"))).isZero();
+        assertThat(replay()).isEmpty();
+    }
+
+    @Test
+    void staleCheckpointAfterTruncateDoesNotSkipNewRecords() throws IOException {
+        // Crash sau khi WAL bị cắt về 0 nhưng checkpoint vẫn giữ offset cũ N
+        try (IpnWriteAheadLog wal = open()) {
+            append(wal, "OLD1");
+            append(wal, "OLD2");
+            append(wal, "OLD3");
+        }
+        long staleOffset = Files.size(dir.resolve("ipn.wal"));
+        writeCheckpoint(staleOffset);
+        try (FileChannel channel = FileChannel.open(dir.resolve("ipn.wal"), StandardOpenOption.WRITE)) {
+            channel.truncate(0);
+        }
+
+        // Khởi động lại lần 1: không còn gì để phát lại, IPN mới được xác nhận 00 rồi lại crash trước commit
+        try (IpnWriteAheadLog wal = open()) {
+            assertThat(wal.replay(record -> { })).isZero();
+            append(wal, "NEW1");
+            append(wal, "NEW2");
+        }
+        assertThat(Files.size(dir.resolve("ipn.wal"))).isLessThan(staleOffset);
+
+        // Khởi động lại lần 2: bản ghi mới phải được phát lại
+        assertThat(replay()).containsExactly("NEW1", "NEW2");
+    }
+
+    @Test
+    void crashBetweenCheckpointResetAndTruncateReplaysCommittedRecords() throws IOException {
+        // commit hết: checkpoint 0 được ghi trước, crash trước khi cắt file -> phát lại (ghi lại vô hại), không mất gì
+        try (IpnWriteAheadLog wal = open()) {
+            append(wal, "A1");
+            append(wal, "A2");
+        }
+        writeCheckpoint(0);
+
+        assertThat(replay()).containsExactly("A1", "A2");
+    }
+
+    @Test
+    void corruptTailIsTruncated() throws IOException {
+        long validSize;
+        try (IpnWriteAheadLog wal = open()) {
+            append(wal, "A1");
+            validSize = append(wal, "A2").endOffset();
+        }
+        // Bản ghi ghi dở lúc crash: header hứa 100 byte nhưng chỉ có 3
+        try (FileChannel channel = FileChannel.open(dir.resolve("ipn.wal"), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(7).putInt(100).put((byte) 1).put((byte) 2).put((byte) 3).flip(),
+                    validSize);
+        }
+
+        assertThat(replay()).containsExactly("A1", "A2");
+        assertThat(Files.size(dir.resolve("ipn.wal"))).isEqualTo(validSize);
+    }
+
+    private IpnWriteAheadLog open() throws IOException {
+        return new IpnWriteAheadLog(dir);
+    }
+
+    private List<String> replay() throws IOException {
+        List<String> txnRefs = new ArrayList<>();
+        try (IpnWriteAheadLog wal = open()) {
+            wal.replay(record -> txnRefs.add(record.txnRef()));
+        }
+        return txnRefs;
+    }
+
+    private static IpnWriteAheadLog.IpnRecord append(IpnWriteAheadLog wal, String txnRef) throws IOException {
+        return wal.append(txnRef, 10_000_000L, "1422" + txnRef, "00", record -> { });
+    }
+
+    private void writeCheckpoint(long offset) throws IOException {
+        try (FileChannel channel = FileChannel.open(dir.resolve("ipn.wal.checkpoint"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Long.BYTES).putLong(offset).flip(), 0);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.vnpay.springboot.Service;
+
+import com.vnpay.springboot.Entity.OrderStatus;
+import com.vnpay.springboot.Entity.PaymentOrder;
+import com.vnpay.springboot.Repository.PaymentOrderRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Sổ cái đơn hàng trên H2 in-process: UPDATE có điều kiện PENDING -> PAID, IPN trùng và sai số tiền.
+ */
+@DataJpaTest(properties = {
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.show-sql=false"
+})
+@Import({OrderLedgerService.class, VNPayClock.class, OrderLedgerServiceTest.FixedClockConfig.class})
+class OrderLedgerServiceTest {
+
+    private static final long AMOUNT = 10_000_000L;
+    private static final Instant NOW = Instant.parse("2024-01-01T05:00:00Z");
+
+    @TestConfiguration
+    static class FixedClockConfig {
+        @Bean
+        Clock clock() {
+            return Clock.fixed(NOW, VNPayClock.ZONE);
+        }
+    }
+
+    @Autowired
+    private OrderLedgerService ledger;
+
+    @Autowired
+    private PaymentOrderRepository orderRepository;
+
+    @Test
+    void completeOrderMovesPendingToPaidInOneUpdate() {
+        createPending("T1");
+
+        assertThat(ledger.completeOrder("T1", AMOUNT, "14226112", "00")).isEqualTo(OrderLedgerService.Result.CONFIRMED);
+
+        PaymentOrder order = ledger.findOrder("T1").orElseThrow();
+        assertThat(order.getStatus()).isEqualTo(OrderStatus.PAID);
+        assertThat(order.getTransactionNo()).isEqualTo("14226112");
+        assertThat(order.getVersion()).isEqualTo(1L);
+        assertThat(order.getCreatedAt()).isEqualTo(NOW);
+        assertThat(order.getUpdatedAt()).isEqualTo(NOW);
+    }
+
+    @Test
+    void failedResponseCodeMarksOrderFailed() {
+        createPending("T2");
+
+        assertThat(ledger.completeOrder("T2", AMOUNT, "14226113", "24")).isEqualTo(OrderLedgerService.Result.CONFIRMED);
+
+        assertThat(ledger.findOrder("T2").orElseThrow().getStatus()).isEqualTo(OrderStatus.FAILED);
+    }
+
+    @Test
+    void duplicateIpnIsRejectedWithoutChangingTheOrder() {
+        createPending("T3");
+        ledger.completeOrder("T3", AMOUNT, "14226114", "00");
+
+        OrderLedgerService.Result duplicate = ledger.completeOrder("T3", AMOUNT, "14226114", "24");
+
+        assertThat(duplicate).isEqualTo(OrderLedgerService.Result.ALREADY_CONFIRMED);
+        assertThat(duplicate.getRspCode()).isEqualTo("02");
+        PaymentOrder order = ledger.findOrder("T3").orElseThrow();
+        assertThat(order.getStatus()).isEqualTo(OrderStatus.PAID);
+        assertThat(order.getResponseCode()).isEqualTo("00");
+        assertThat(order.getVersion()).isEqualTo(1L);
+    }
+
+    @Test
+    void amountMismatchLeavesOrderPending() {
+        createPending("T4");
+
+        OrderLedgerService.Result result = ledger.completeOrder("T4", AMOUNT + 100, "14226115", "00");
+
+        assertThat(result).isEqualTo(OrderLedgerService.Result.INVALID_AMOUNT);
+        assertThat(result.getRspCode()).isEqualTo("04");
+        PaymentOrder order = ledger.findOrder("T4").orElseThrow();
+        assertThat(order.getStatus()).isEqualTo(OrderStatus.PENDING);
+        assertThat(order.getVersion()).isEqualTo(0L);
+    }
+
+    @Test
+    void checkCompletableClassifiesWithoutWriting() {
+        createPending("T7");
+
+        assertThat(ledger.checkCompletable("T7", AMOUNT)).isEqualTo(OrderLedgerService.Result.CONFIRMED);
+        assertThat(ledger.checkCompletable("T7", AMOUNT + 1)).isEqualTo(OrderLedgerService.Result.INVALID_AMOUNT);
+        assertThat(ledger.checkCompletable("NOPE", AMOUNT)).isEqualTo(OrderLedgerService.Result.ORDER_NOT_FOUND);
+        assertThat(ledger.findOrder("T7").orElseThrow().getVersion()).isEqualTo(0L);
+
+        ledger.completeOrder("T7", AMOUNT, "14226117", "00");
+        assertThat(ledger.checkCompletable("T7", AMOUNT)).isEqualTo(OrderLedgerService.Result.ALREADY_CONFIRMED);
+    }
+
+    @Test
+    void regeneratedPaymentUrlStoresNewCreateDate() {
+        createPending("T6");
+
+        ledger.createPendingOrder("T6", "DEMOTMN1", AMOUNT, "Thanh toan don hang T6", "20240101121500",
+                NOW.plusSeconds(1800));
+
+        PaymentOrder order = ledger.findOrder("T6").orElseThrow();
+        assertThat(order.getVnpCreateDate()).isEqualTo("20240101121500");
+        assertThat(order.getExpireAt()).isEqualTo(NOW.plusSeconds(1800));
+        assertThat(order.getStatus()).isEqualTo(OrderStatus.PENDING);
+    }
+
+    @Test
+    void unknownOrderIsNotFound() {
+        assertThat(ledger.completeOrder("NOPE", AMOUNT, "1", "00")).isEqualTo(OrderLedgerService.Result.ORDER_NOT_FOUND);
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void concurrentDuplicateIpnsConfirmExactlyOnce() throws Exception {
+        createPending("T5");
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<OrderLedgerService.Result>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                Callable<OrderLedgerService.Result> ipn = () -> {
+                    start.await();
+                    return ledger.completeOrder("T5", AMOUNT, "14226116", "00");
+                };
+                results.add(executor.submit(ipn));
+            }
+            start.countDown();
+            int confirmed = 0;
+            for (Future<OrderLedgerService.Result> result : results) {
+                OrderLedgerService.Result r = result.get();
+                if (r == OrderLedgerService.Result.CONFIRMED) confirmed++;
+                else assertThat(r).isEqualTo(OrderLedgerService.Result.ALREADY_CONFIRMED);
+            }
+            assertThat(confirmed).isEqualTo(1);
+            assertThat(ledger.findOrder("T5").orElseThrow().getVersion()).isEqualTo(1L);
+        } finally {
+            executor.shutdownNow();
+            orderRepository.deleteAll();
+        }
+    }
+
+    private void createPending(String txnRef) {
+        ledger.createPendingOrder(txnRef, "DEMOTMN1", AMOUNT, "Thanh toan don hang " + txnRef, "20240101120000",
+                NOW.plusSeconds(900));
+    }
+}
@@ -0,0 +1,181 @@
+package com.vnpay.springboot.Service;
+
+import com.vnpay.springboot.Config.PendingOrderSweeperProperties;
+import com.vnpay.springboot.Entity.OrderStatus;
+import com.vnpay.springboot.Entity.PaymentOrder;
+import com.vnpay.springboot.Model.QueryDrResponse;
+import com.vnpay.springboot.Repository.PaymentOrderRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import reactor.core.publisher.Mono;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Sweeper trên H2 với đồng hồ chỉnh tay: QueryDR 00 / 01 / 91 và chốt FAILED khi 91 kéo dài quá not-found-timeout.
+ * Sweeper chạy trên luồng khác nên test không chạy trong transaction.
+ */
+@DataJpaTest(properties = {
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.show-sql=false"
+})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@Import({OrderLedgerService.class, VNPayClock.class, PendingOrderSweeperTest.ManualClockConfig.class})
+class PendingOrderSweeperTest {
+
+    private static final long AMOUNT = 10_000_000L;
+    private static final Instant EXPIRE_AT = Instant.parse("2024-01-01T05:15:00Z");
+
+    static final class ManualClock extends Clock {
+        private volatile Instant now = EXPIRE_AT;
+
+        @Override
+        public ZoneId getZone() {
+            return VNPayClock.ZONE;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+
+    @TestConfiguration
+    static class ManualClockConfig {
+        @Bean
+        ManualClock clock() {
+            return new ManualClock();
+        }
+    }
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private PaymentOrderRepository orderRepository;
+
+    @Autowired
+    private OrderLedgerService ledger;
+
+    @Autowired
+    private VNPayClock vnPayClock;
+
+    @Autowired
+    private ManualClock clock;
+
+    private final VNPayQuery query = mock(VNPayQuery.class);
+    private PendingOrderSweeperProperties properties;
+    private PendingOrderSweeper sweeper;
+
+    @BeforeEach
+    void setUp() {
+        orderRepository.deleteAll();
+        properties = new PendingOrderSweeperProperties();
+        properties.setRatePerSecond(1000);
+        sweeper = new PendingOrderSweeper(new JdbcTemplate(dataSource), orderRepository, ledger,
+                mock(VNPayMerchantRegistry.class), query, vnPayClock, new VNPayMetrics(new SimpleMeterRegistry()),
+                properties);
+        clock.now = EXPIRE_AT.plus(Duration.ofMinutes(10));
+    }
+
+    @Test
+    void successfulTransactionMarksOrderPaid() {
+        createPending("S1");
+        answer("S1", response("00", "00"));
+
+        assertThat(sweep()).containsEntry(PendingOrderSweeper.Outcome.PAID, 1L);
+        assertThat(status("S1")).isEqualTo(OrderStatus.PAID);
+    }
+
+    @Test
+    void unfinishedTransactionStaysPending() {
+        createPending("S2");
+        answer("S2", response("00", "01"));
+
+        assertThat(sweep()).containsEntry(PendingOrderSweeper.Outcome.STILL_PENDING, 1L);
+        assertThat(status("S2")).isEqualTo(OrderStatus.PENDING);
+    }
+
+    @Test
+    void notFoundBacksOffThenFailsAfterTimeout() {
+        createPending("S3");
+        answer("S3", response("91", null));
+
+        // Quá hạn 10 phút: giữ PENDING, hỏi lại sau tối thiểu một lease
+        assertThat(sweep()).containsEntry(PendingOrderSweeper.Outcome.NOT_FOUND, 1L);
+        assertThat(status("S3")).isEqualTo(OrderStatus.PENDING);
+        assertThat(leaseUntil("S3")).isEqualTo(clock.now.plus(properties.getLease()));
+
+        // Quá hạn 40 phút: khoảng chờ là nửa thời gian đã quá hạn
+        clock.now = EXPIRE_AT.plus(Duration.ofMinutes(40));
+        assertThat(sweep()).containsEntry(PendingOrderSweeper.Outcome.NOT_FOUND, 1L);
+        assertThat(leaseUntil("S3")).isEqualTo(clock.now.plus(Duration.ofMinutes(20)));
+
+        // Chưa hết khoảng chờ: không gọi QueryDR
+        clock.now = EXPIRE_AT.plus(Duration.ofMinutes(50));
+        assertThat(sweep()).isEmpty();
+        verify(query, times(2)).processQueryAsync(any(), eq("S3"), any(), any(), any());
+
+        // Quá expire_at + not-found-timeout mà vẫn 91: chốt FAILED
+        clock.now = EXPIRE_AT.plus(properties.getNotFoundTimeout()).plus(Duration.ofMinutes(1));
+        assertThat(sweep()).containsEntry(PendingOrderSweeper.Outcome.EXPIRED, 1L);
+        PaymentOrder order = orderRepository.findByTxnRef("S3").orElseThrow();
+        assertThat(order.getStatus()).isEqualTo(OrderStatus.FAILED);
+        assertThat(order.getResponseCode()).isEqualTo("91");
+    }
+
+    private Map<PendingOrderSweeper.Outcome, Long> sweep() {
+        return sweeper.sweepOnce().block(Duration.ofSeconds(10));
+    }
+
+    private void createPending(String txnRef) {
+        orderRepository.save(new PaymentOrder(txnRef, "DEMOTMN1", AMOUNT, "Thanh toan don hang " + txnRef,
+                "20240101120000", EXPIRE_AT, EXPIRE_AT.minus(Duration.ofMinutes(15))));
+    }
+
+    private void answer(String txnRef, QueryDrResponse response) {
+        when(query.processQueryAsync(any(), eq(txnRef), any(), any(), any())).thenReturn(Mono.just(response));
+    }
+
+    private OrderStatus status(String txnRef) {
+        return orderRepository.findByTxnRef(txnRef).orElseThrow().getStatus();
+    }
+
+    private Instant leaseUntil(String txnRef) {
+        return new JdbcTemplate(dataSource).queryForObject(
+                "SELECT sweep_lease_until FROM vnpay_order WHERE vnp_txn_ref = ?", Timestamp.class, txnRef).toInstant();
+    }
+
+    private static QueryDrResponse response(String responseCode, String transactionStatus) {
+        return new QueryDrResponse("1", "querydr", responseCode, "", "DEMOTMN1", null, AMOUNT, "NCB",
+                "20240101121000", "14226120", "01", transactionStatus, null, null, null);
+    }
+}
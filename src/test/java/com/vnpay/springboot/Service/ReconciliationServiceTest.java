@@ -0,0 +1,138 @@
+package com.vnpay.springboot.Service;
+
+import com.vnpay.springboot.Config.ReconciliationProperties;
+import com.vnpay.springboot.Model.QueryDrResponse;
+import com.vnpay.springboot.Repository.PaymentOrderRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Đối soát theo file với QueryDR giả trả kết quả lệch thứ tự: báo cáo ghi theo thứ tự đầu vào,
+ * chạy lại sau lỗi tiếp tục từ checkpoint mà không ghi trùng hay bỏ sót dòng nào.
+ */
+class ReconciliationServiceTest {
+
+    private static final int ITEMS = 40;
+    private static final String HEADER =
+            "txnRef,transDate,outcome,ledgerStatus,ledgerAmount,vnpResponseCode,vnpTransactionStatus,vnpAmount";
+
+    @TempDir
+    Path dir;
+
+    private final Random random = new Random(42);
+    private final VNPayQuery query = mock(VNPayQuery.class);
+    private final OrderLedgerService ledger = mock(OrderLedgerService.class);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private ReconciliationService service;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        ReconciliationProperties properties = new ReconciliationProperties();
+        properties.setReportDir(dir.toString());
+        properties.setInputDir(dir.resolve("input").toString());
+        properties.setConcurrency(8);
+        properties.setRatePerSecond(1000);
+        properties.setCheckpointInterval(3);
+        Files.createDirectories(dir.resolve("input"));
+        service = new ReconciliationService(query, mock(VNPayMerchantRegistry.class), ledger,
+                mock(PaymentOrderRepository.class), properties, new VNPayClock(Clock.systemUTC()),
+                new VNPayMetrics(registry));
+
+        // QueryDR trả về sau 0-20 ms: kết quả về lệch thứ tự đầu vào
+        when(query.processQueryAsync(any(), anyString(), any(), any(), any())).thenAnswer(invocation ->
+                Mono.just(response()).delayElement(Duration.ofMillis(random.nextInt(20))));
+        when(ledger.findOrder(anyString())).thenReturn(Optional.empty());
+    }
+
+    @Test
+    void failedRunResumesWithoutDuplicateRows() throws Exception {
+        List<String> input = new ArrayList<>();
+        for (int i = 0; i < ITEMS; i++) {
+            // T25 thiếu transDate: đọc sổ cái trực tiếp, lần chạy đầu sổ cái lỗi và job dừng giữa chừng
+            input.add(i == 25 ? "T25" : "T" + i + ",20240101120000");
+        }
+        Files.write(dir.resolve("input").resolve("day.csv"), input);
+        when(ledger.findOrder("T25")).thenThrow(new IllegalStateException("database unavailable"))
+                .thenReturn(Optional.empty());
+
+        ReconciliationService.Job failed = await(service.reconcileFile("day.csv"));
+        assertThat(failed.getState()).isEqualTo(ReconciliationService.State.FAILED);
+        assertThat(failed.getCheckpoint()).isLessThan(25);
+
+        ReconciliationService.Job resumed = await(service.reconcileFile("day.csv"));
+
+        assertThat(resumed.getState()).isEqualTo(ReconciliationService.State.COMPLETED);
+        assertThat(resumed.getResumedFrom()).isEqualTo(failed.getCheckpoint() + 1);
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < ITEMS; i++) expected.add("T" + i);
+        assertThat(reportTxnRefs("file-day.csv.csv")).containsExactlyElementsOf(expected);
+        assertThat(Files.exists(dir.resolve("file-day.csv.checkpoint"))).isFalse();
+        // Mỗi giao dịch được đếm đúng một lần qua hai lần chạy
+        assertThat(registry.find("vnpay.reconciliation.items").counters().stream().mapToDouble(Counter::count).sum())
+                .isEqualTo(ITEMS);
+        assertThat(registry.get("vnpay.reconciliation.running").gauge().value()).isZero();
+    }
+
+    @Test
+    void reportTailWrittenAfterCheckpointIsDiscardedOnResume() throws Exception {
+        Files.write(dir.resolve("input").resolve("tail.csv"),
+                List.of("T0,20240101120000", "T1,20240101120000", "T2,20240101120000", "T3,20240101120000"));
+        // Crash sau khi dòng T1 đã xuống đĩa nhưng checkpoint vẫn ở T0
+        String committed = HEADER + System.lineSeparator() + "T0,20240101120000,MISSING,,,00,00,"
+                + System.lineSeparator();
+        Files.writeString(dir.resolve("file-tail.csv.csv"),
+                committed + "T1,20240101120000,MISSING,,,00,00," + System.lineSeparator(), StandardCharsets.UTF_8);
+        Files.writeString(dir.resolve("file-tail.csv.checkpoint"),
+                "0," + committed.getBytes(StandardCharsets.UTF_8).length, StandardCharsets.US_ASCII);
+
+        ReconciliationService.Job job = await(service.reconcileFile("tail.csv"));
+
+        assertThat(job.getState()).isEqualTo(ReconciliationService.State.COMPLETED);
+        assertThat(job.getResumedFrom()).isEqualTo(1);
+        assertThat(reportTxnRefs("file-tail.csv.csv")).containsExactly("T0", "T1", "T2", "T3");
+    }
+
+    private List<String> reportTxnRefs(String reportName) throws IOException {
+        List<String> lines = Files.readAllLines(dir.resolve(reportName), StandardCharsets.UTF_8);
+        assertThat(lines.get(0)).isEqualTo(HEADER);
+        return lines.subList(1, lines.size()).stream().map(line -> line.substring(0, line.indexOf(','))).toList();
+    }
+
+    private static ReconciliationService.Job await(ReconciliationService.Job job) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (job.getState() == ReconciliationService.State.RUNNING && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        // finishedAt được gán sau state: chờ cho job kết thúc hẳn trước khi chạy lại
+        while (job.getFinishedAt() == null && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        return job;
+    }
+
+    private static QueryDrResponse response() {
+        return new QueryDrResponse("1", "querydr", "00", "", "DEMOTMN1", null, 10_000_000L, "NCB",
+                "20240101121000", "14226120", "01", "00", null, null, null);
+    }
+}
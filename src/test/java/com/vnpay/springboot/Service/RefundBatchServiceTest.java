@@ -0,0 +1,185 @@
+package com.vnpay.springboot.Service;
+
+import com.vnpay.springboot.Config.ClockConfig;
+import com.vnpay.springboot.Config.RefundBatchProperties;
+import com.vnpay.springboot.Entity.PaymentOrder;
+import com.vnpay.springboot.Model.RefundBatchResult;
+import com.vnpay.springboot.Model.RefundBatchResult.Outcome;
+import com.vnpay.springboot.Model.RefundInstruction;
+import com.vnpay.springboot.Model.RefundResponse;
+import com.vnpay.springboot.Model.VNPayMerchant;
+import com.vnpay.springboot.Repository.PaymentOrderRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.JdbcTemplateAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Batch hoàn tiền trên H2 với VNPAY giả: gửi lại batch chỉ đọc lại kết quả, kiểm tra 02 / 03 và số tiền còn hoàn được.
+ */
+@DataJpaTest(properties = {
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.show-sql=false"
+})
+@ImportAutoConfiguration(JdbcTemplateAutoConfiguration.class)
+@Import({RefundLedgerService.class, OrderLedgerService.class, VNPayClock.class, ClockConfig.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class RefundBatchServiceTest {
+
+    // VND; trên sổ cái là VND x 100
+    private static final long ORDER_VND = 100_000L;
+
+    @Autowired
+    private RefundLedgerService refundLedger;
+
+    @Autowired
+    private OrderLedgerService orderLedger;
+
+    @Autowired
+    private PaymentOrderRepository orderRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final VNPayRefund vnPayRefund = mock(VNPayRefund.class);
+    private RefundBatchService service;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("DELETE FROM vnpay_refund");
+        orderRepository.deleteAll();
+        VNPayMerchantRegistry merchantRegistry = mock(VNPayMerchantRegistry.class);
+        when(merchantRegistry.resolve(any())).thenReturn(new VNPayMerchant("DEMOTMN1", "SECRET", ""));
+        RefundBatchProperties properties = new RefundBatchProperties();
+        properties.setRatePerSecond(1000);
+        // Xử lý lần lượt: kết quả dòng sau phụ thuộc số tiền dòng trước đã giữ
+        properties.setConcurrency(1);
+        service = new RefundBatchService(orderLedger, refundLedger, merchantRegistry, vnPayRefund,
+                new VNPayMetrics(new SimpleMeterRegistry()), properties);
+        vnPayAnswers("00");
+    }
+
+    @Test
+    void resubmittedBatchReplaysWithoutSendingAgain() {
+        createPaid("B1");
+        String csv = "K1,B1,40000";
+
+        RefundBatchResult first = submit(csv).get(0);
+        RefundBatchResult second = submit(csv).get(0);
+
+        assertThat(first.outcome()).isEqualTo(Outcome.REFUNDED);
+        assertThat(first.transactionType()).isEqualTo("03");
+        assertThat(first.replayed()).isFalse();
+        assertThat(second.outcome()).isEqualTo(Outcome.REFUNDED);
+        assertThat(second.replayed()).isTrue();
+        verify(vnPayRefund, times(1)).sendRefundRequestAsync(any(), eq("B1"), any(), anyLong(), any(), any(), any(), any());
+        assertThat(refundedVnd("B1")).isEqualTo(40_000L);
+    }
+
+    @Test
+    void reusedKeyWithDifferentAmountIsRejected() {
+        createPaid("B2");
+        submit("K1,B2,40000");
+
+        RefundBatchResult reused = submit("K1,B2,50000").get(0);
+
+        assertThat(reused.outcome()).isEqualTo(Outcome.REJECTED);
+        assertThat(reused.message()).contains("different refund");
+        assertThat(refundedVnd("B2")).isEqualTo(40_000L);
+    }
+
+    @Test
+    void fullAndPartialRefundTypesAreValidated() {
+        createPaid("B3");
+
+        // 02 phải bằng số tiền đơn; 03 phải nhỏ hơn số tiền đơn; không ghi loại thì suy ra 03;
+        // toàn phần (suy ra 02) sau khi đã hoàn một phần
+        List<RefundBatchResult> results = submit(
+                "K1,B3,40000,02",
+                "K2,B3," + ORDER_VND + ",03",
+                "K3,B3,30000",
+                "K4,B3," + ORDER_VND);
+
+        assertThat(results).extracting(RefundBatchResult::outcome)
+                .containsExactly(Outcome.REJECTED, Outcome.REJECTED, Outcome.REFUNDED, Outcome.REJECTED);
+        assertThat(results.get(2).transactionType()).isEqualTo("03");
+        assertThat(refundedVnd("B3")).isEqualTo(30_000L);
+        verify(vnPayRefund, times(1)).sendRefundRequestAsync(any(), eq("B3"), any(), anyLong(), any(), any(), any(), any());
+    }
+
+    @Test
+    void refundBeyondRemainingAmountIsNotSent() {
+        createPaid("B4");
+        submit("K1,B4,60000");
+
+        RefundBatchResult over = submit("K2,B4,50000").get(0);
+
+        assertThat(over.outcome()).isEqualTo(Outcome.REJECTED);
+        verify(vnPayRefund, never()).sendRefundRequestAsync(any(), eq("B4"), any(), eq(50_000L), any(), any(), any(), any());
+        assertThat(refundedVnd("B4")).isEqualTo(60_000L);
+    }
+
+    @Test
+    void rejectedRefundReleasesAmountAndUnknownKeepsIt() {
+        createPaid("B5");
+        vnPayAnswers("94");
+        assertThat(submit("K1,B5,40000").get(0).outcome()).isEqualTo(Outcome.FAILED);
+        assertThat(refundedVnd("B5")).isZero();
+
+        vnPayAnswers("99");
+        assertThat(submit("K2,B5,40000").get(0).outcome()).isEqualTo(Outcome.UNKNOWN);
+        assertThat(refundedVnd("B5")).isEqualTo(40_000L);
+
+        // Gửi lại key không rõ kết quả: không gửi VNPAY lần nữa
+        RefundBatchResult replayed = submit("K2,B5,40000").get(0);
+        assertThat(replayed.outcome()).isEqualTo(Outcome.UNKNOWN);
+        assertThat(replayed.replayed()).isTrue();
+        verify(vnPayRefund, times(2)).sendRefundRequestAsync(any(), eq("B5"), any(), anyLong(), any(), any(), any(), any());
+    }
+
+    private List<RefundBatchResult> submit(String... lines) {
+        return service.submit(Flux.just(lines), RefundInstruction.Format.CSV, "admin", "127.0.0.1")
+                .collectSortedList(Comparator.comparingLong(RefundBatchResult::line))
+                .block(Duration.ofSeconds(10));
+    }
+
+    private void vnPayAnswers(String responseCode) {
+        when(vnPayRefund.sendRefundRequestAsync(any(), any(), any(), anyLong(), any(), any(), any(), any()))
+                .thenReturn(Mono.just(new RefundResponse("1", "refund", responseCode, "", "DEMOTMN1", null, null,
+                        "NCB", "20240101130000", "00".equals(responseCode) ? "14226140" : null, null, null, null)));
+    }
+
+    private void createPaid(String txnRef) {
+        orderRepository.save(new PaymentOrder(txnRef, "DEMOTMN1", ORDER_VND * 100, "Thanh toan don hang " + txnRef,
+                "20240101120000", Instant.now().plusSeconds(900), Instant.now()));
+        orderLedger.completeOrder(txnRef, ORDER_VND * 100, "14226112", "00");
+    }
+
+    private long refundedVnd(String txnRef) {
+        return orderRepository.findByTxnRef(txnRef).orElseThrow().getRefundedAmount() / 100;
+    }
+}
@@ -0,0 +1,157 @@
+package com.vnpay.springboot.Service;
+
+import com.vnpay.springboot.Config.ClockConfig;
+import com.vnpay.springboot.Entity.PaymentOrder;
+import com.vnpay.springboot.Entity.RefundStatus;
+import com.vnpay.springboot.Repository.PaymentOrderRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.JdbcTemplateAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Sổ hoàn tiền trên H2: giữ tiền có điều kiện, rollback khi bị từ chối, trả lại tiền khi FAILED.
+ * Mỗi lời gọi là một transaction riêng như khi chạy thật, nên test không chạy trong transaction.
+ */
+@DataJpaTest(properties = {
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.show-sql=false"
+})
+@ImportAutoConfiguration(JdbcTemplateAutoConfiguration.class)
+@Import({RefundLedgerService.class, OrderLedgerService.class, VNPayClock.class, ClockConfig.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class RefundLedgerServiceTest {
+
+    private static final long AMOUNT = 10_000_000L;
+
+    @Autowired
+    private RefundLedgerService refundLedger;
+
+    @Autowired
+    private OrderLedgerService orderLedger;
+
+    @Autowired
+    private PaymentOrderRepository orderRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("DELETE FROM vnpay_refund");
+        orderRepository.deleteAll();
+    }
+
+    @Test
+    void concurrentReservesNeverExceedOrderAmount() throws Exception {
+        createPaid("R1");
+        int threads = 20;
+        long part = AMOUNT / 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < threads; i++) {
+                String key = "K" + i;
+                Callable<Boolean> reserve = () -> {
+                    start.await();
+                    return refundLedger.reserve(key, "R1", part, "03", "admin");
+                };
+                results.add(pool.submit(reserve));
+            }
+            start.countDown();
+            int reserved = 0;
+            for (Future<Boolean> result : results) {
+                if (result.get()) reserved++;
+            }
+
+            assertThat(reserved).isEqualTo(8);
+        } finally {
+            pool.shutdownNow();
+        }
+        assertThat(refundedAmount("R1")).isEqualTo(AMOUNT);
+        // Yêu cầu bị từ chối không để lại dòng vnpay_refund
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM vnpay_refund", Integer.class)).isEqualTo(8);
+    }
+
+    @Test
+    void rejectedReserveRollsBackTheRefundRow() {
+        orderRepository.save(pending("R2"));
+
+        assertThat(refundLedger.reserve("K1", "R2", AMOUNT, "02", "admin")).isFalse();
+
+        assertThat(refundLedger.find("K1")).isEmpty();
+        assertThat(refundedAmount("R2")).isZero();
+    }
+
+    @Test
+    void reusedKeyDoesNotReserveTwice() {
+        createPaid("R3");
+        refundLedger.reserve("K1", "R3", AMOUNT / 2, "03", "admin");
+
+        assertThatThrownBy(() -> refundLedger.reserve("K1", "R3", AMOUNT / 2, "03", "admin"))
+                .isInstanceOf(DuplicateKeyException.class);
+        assertThat(refundedAmount("R3")).isEqualTo(AMOUNT / 2);
+    }
+
+    @Test
+    void failedRefundReleasesTheReservedAmount() {
+        createPaid("R4");
+        refundLedger.reserve("K1", "R4", AMOUNT / 2, "03", "admin");
+
+        assertThat(refundLedger.complete("K1", "R4", AMOUNT / 2, RefundStatus.FAILED, "94", "Duplicate", null)).isTrue();
+
+        assertThat(refundedAmount("R4")).isZero();
+        assertThat(refundLedger.find("K1").orElseThrow().status()).isEqualTo(RefundStatus.FAILED);
+        // Đã chốt: không trả lại tiền lần hai
+        assertThat(refundLedger.complete("K1", "R4", AMOUNT / 2, RefundStatus.FAILED, "94", "Duplicate", null)).isFalse();
+        assertThat(refundedAmount("R4")).isZero();
+    }
+
+    @Test
+    void unknownAndSucceededRefundsKeepTheAmount() {
+        createPaid("R5");
+        refundLedger.reserve("K1", "R5", AMOUNT / 4, "03", "admin");
+        refundLedger.reserve("K2", "R5", AMOUNT / 4, "03", "admin");
+
+        refundLedger.complete("K1", "R5", AMOUNT / 4, RefundStatus.UNKNOWN, "99", "Connection error", null);
+        refundLedger.complete("K2", "R5", AMOUNT / 4, RefundStatus.SUCCEEDED, "00", "Success", "14226130");
+
+        assertThat(refundedAmount("R5")).isEqualTo(AMOUNT / 2);
+        assertThat(refundLedger.find("K1").orElseThrow().status()).isEqualTo(RefundStatus.UNKNOWN);
+        assertThat(refundLedger.find("K2").orElseThrow().status()).isEqualTo(RefundStatus.SUCCEEDED);
+    }
+
+    private void createPaid(String txnRef) {
+        orderRepository.save(pending(txnRef));
+        orderLedger.completeOrder(txnRef, AMOUNT, "14226112", "00");
+    }
+
+    private static PaymentOrder pending(String txnRef) {
+        return new PaymentOrder(txnRef, "DEMOTMN1", AMOUNT, "Thanh toan don hang " + txnRef,
+                "20240101120000", Instant.now().plusSeconds(900), Instant.now());
+    }
+
+    private long refundedAmount(String txnRef) {
+        return orderRepository.findByTxnRef(txnRef).orElseThrow().getRefundedAmount();
+    }
+}
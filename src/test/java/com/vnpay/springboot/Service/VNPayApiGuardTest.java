@@ -0,0 +1,161 @@
+package com.vnpay.springboot.Service;
+
+import com.vnpay.springboot.Config.VNPayResilienceProperties;
+import com.vnpay.springboot.Util.CircuitBreaker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * VNPayApiGuard gọi một HTTP server giả (MockWebServer): timeout, retry, circuit breaker.
+ */
+class VNPayApiGuardTest {
+
+    private static final Duration RESPONSE_TIMEOUT = Duration.ofMillis(300);
+
+    private MockWebServer server;
+    private WebClient webClient;
+    private VNPayResilienceProperties properties;
+    private SimpleMeterRegistry registry;
+    private VNPayApiGuard guard;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        webClient = WebClient.builder()
+                .baseUrl(server.url("/").toString())
+                .clientConnector(new ReactorClientHttpConnector(HttpClient.create().responseTimeout(RESPONSE_TIMEOUT)))
+                .build();
+        properties = new VNPayResilienceProperties();
+        properties.setWindowSize(4);
+        properties.setMinimumCalls(4);
+        properties.setFailureRateThreshold(50);
+        properties.setOpenDuration(Duration.ofMillis(300));
+        properties.setHalfOpenPermits(1);
+        properties.setMaxAttempts(3);
+        properties.setInitialBackoff(Duration.ofMillis(10));
+        properties.setMaxBackoff(Duration.ofMillis(20));
+        registry = new SimpleMeterRegistry();
+        guard = new VNPayApiGuard(properties, registry);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    void idempotentCallRetries5xxUntilSuccess() {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setResponseCode(502));
+        server.enqueue(new MockResponse().setBody("ok"));
+
+        String body = guard.execute("querydr", call(), true).block(Duration.ofSeconds(5));
+
+        assertThat(body).isEqualTo("ok");
+        assertThat(server.getRequestCount()).isEqualTo(3);
+        assertThat(registry.counter("vnpay.api.retries", "api", "querydr").count()).isEqualTo(2.0);
+        assertThat(guard.getState("querydr")).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void responseTimeoutIsRetriedThenSurfaced() {
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(new MockResponse().setBody("late").setHeadersDelay(2, TimeUnit.SECONDS));
+        }
+
+        assertThatThrownBy(() -> guard.execute("querydr", call(), true).block(Duration.ofSeconds(10)))
+                .satisfies(e -> assertThat(VNPayApiGuard.isUpstreamFailure(e)).isTrue());
+        assertThat(server.getRequestCount()).isEqualTo(3);
+    }
+
+    @Test
+    void refundIsNeverRetried() {
+        server.enqueue(new MockResponse().setResponseCode(503));
+
+        assertThatThrownBy(() -> guard.execute("refund", call(), false).block(Duration.ofSeconds(5)))
+                .isInstanceOf(WebClientResponseException.ServiceUnavailable.class);
+        assertThat(server.getRequestCount()).isEqualTo(1);
+    }
+
+    @Test
+    void clientErrorsAreNotRetriedAndDoNotOpenTheCircuit() {
+        for (int i = 0; i < 4; i++) {
+            server.enqueue(new MockResponse().setResponseCode(400));
+            assertThatThrownBy(() -> guard.execute("querydr", call(), true).block(Duration.ofSeconds(5)))
+                    .isInstanceOf(WebClientResponseException.BadRequest.class);
+        }
+
+        assertThat(server.getRequestCount()).isEqualTo(4);
+        assertThat(guard.getState("querydr")).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void applicationErrorsDoNotOpenTheCircuit() {
+        properties.setMaxAttempts(1);
+        for (int i = 0; i < 4; i++) {
+            server.enqueue(new MockResponse().setBody("ok"));
+            Mono<String> failsAfterResponse = call().map(body -> {
+                throw new IllegalStateException("Invalid response signature");
+            });
+            assertThatThrownBy(() -> guard.execute("querydr", failsAfterResponse, true).block(Duration.ofSeconds(5)))
+                    .isInstanceOf(IllegalStateException.class);
+        }
+
+        assertThat(guard.getState("querydr")).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void circuitOpensOnUpstreamFailuresThenRecoversThroughHalfOpen() throws InterruptedException {
+        properties.setMaxAttempts(1);
+        for (int i = 0; i < 4; i++) {
+            server.enqueue(new MockResponse().setResponseCode(500));
+            assertThatThrownBy(() -> guard.execute("querydr", call(), true).block(Duration.ofSeconds(5)))
+                    .isInstanceOf(WebClientResponseException.InternalServerError.class);
+        }
+        assertThat(guard.getState("querydr")).isEqualTo(CircuitBreaker.State.OPEN);
+
+        // Mạch mở: từ chối tại chỗ, không gửi request
+        assertThatThrownBy(() -> guard.execute("querydr", call(), true).block(Duration.ofSeconds(5)))
+                .isInstanceOf(CircuitBreaker.OpenException.class);
+        assertThat(server.getRequestCount()).isEqualTo(4);
+        assertThat(registry.counter("vnpay.api.calls.rejected", "api", "querydr", "reason", "circuit_open").count())
+                .isEqualTo(1.0);
+
+        Thread.sleep(properties.getOpenDuration().toMillis() + 50);
+        server.enqueue(new MockResponse().setBody("ok"));
+        assertThat(guard.execute("querydr", call(), true).block(Duration.ofSeconds(5))).isEqualTo("ok");
+        assertThat(guard.getState("querydr")).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void connectionFailureCountsAsUpstreamFailure() throws IOException {
+        properties.setMaxAttempts(1);
+        server.shutdown();
+
+        assertThatThrownBy(() -> guard.execute("querydr", call(), true).block(Duration.ofSeconds(5)))
+                .satisfies(e -> assertThat(VNPayApiGuard.isUpstreamFailure(e)).isTrue());
+    }
+
+    private Mono<String> call() {
+        return Mono.defer(() -> webClient.post().uri("/merchant_webapi/api/transaction")
+                .retrieve()
+                .bodyToMono(String.class));
+    }
+}
@@ -0,0 +1,165 @@
+package com.vnpay.springboot.Service;
+
+import com.vnpay.springboot.Config.VNPayIdProperties;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.bind.PropertySourcesPlaceholdersResolver;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
+import org.springframework.boot.env.PropertiesPropertySourceLoader;
+import org.springframework.core.env.MutablePropertySources;
+import org.springframework.core.io.ClassPathResource;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class VNPayIdGeneratorTest {
+
+    // Đồng hồ chỉnh tay được: thử đồng hồ lùi và nhiều mã trong cùng một mili giây
+    private static final class ManualClock extends Clock {
+        private volatile long millis;
+
+        ManualClock(long millis) {
+            this.millis = millis;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return VNPayClock.ZONE;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+    }
+
+    @Test
+    void concurrentNodesNeverCollide() throws Exception {
+        int nodes = 4;
+        int threadsPerNode = 4;
+        int idsPerThread = 50_000;
+        int threads = nodes * threadsPerNode;
+        long[][] ids = new long[threads][idsPerThread];
+        Thread[] workers = new Thread[threads];
+        CountDownLatch start = new CountDownLatch(1);
+        for (int n = 0; n < nodes; n++) {
+            VNPayIdGenerator generator = generator(n, new VNPayClock(Clock.systemUTC()));
+            for (int t = 0; t < threadsPerNode; t++) {
+                long[] out = ids[n * threadsPerNode + t];
+                workers[n * threadsPerNode + t] = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    for (int i = 0; i < out.length; i++) {
+                        out[i] = generator.nextId();
+                    }
+                });
+            }
+        }
+        for (Thread worker : workers) worker.start();
+        start.countDown();
+        for (Thread worker : workers) worker.join(TimeUnit.SECONDS.toMillis(60));
+
+        long[] all = new long[threads * idsPerThread];
+        for (int t = 0; t < threads; t++) {
+            System.arraycopy(ids[t], 0, all, t * idsPerThread, idsPerThread);
+        }
+        Arrays.sort(all);
+        assertThat(all[0]).isPositive();
+        for (int i = 1; i < all.length; i++) {
+            assertThat(all[i]).as("duplicate id").isNotEqualTo(all[i - 1]);
+        }
+        assertThat(VNPayIdGenerator.format(all[all.length - 1])).hasSize(VNPayIdGenerator.LENGTH).containsOnlyDigits();
+    }
+
+    @Test
+    void sequenceOverflowBorrowsNextMillisecond() {
+        VNPayIdGenerator generator = generator(7, new VNPayClock(new ManualClock(Instant.parse("2025-06-01T00:00:00Z")
+                .toEpochMilli())));
+
+        long previous = generator.nextId();
+        for (int i = 0; i < 10_000; i++) {
+            long next = generator.nextId();
+            assertThat(next).isGreaterThan(previous);
+            previous = next;
+        }
+    }
+
+    @Test
+    void clockGoingBackwardsKeepsIdsIncreasing() {
+        ManualClock clock = new ManualClock(Instant.parse("2025-06-01T00:00:00Z").toEpochMilli());
+        VNPayIdGenerator generator = generator(3, new VNPayClock(clock));
+
+        long before = generator.nextId();
+        clock.millis -= 5_000;
+        long after = generator.nextId();
+
+        assertThat(after).isGreaterThan(before);
+    }
+
+    @Test
+    void missingNodeIdFailsStartup() {
+        assertThatThrownBy(() -> new VNPayIdGenerator(new VNPayIdProperties(), new VNPayClock(Clock.systemUTC())))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("vnpay.id.node-id");
+    }
+
+    @Test
+    void singleNodeAllowsMissingNodeId() {
+        VNPayIdProperties properties = new VNPayIdProperties();
+        properties.setSingleNode(true);
+
+        VNPayIdGenerator generator = new VNPayIdGenerator(properties, new VNPayClock(Clock.systemUTC()));
+
+        assertThat(generator.nextRequestId()).hasSize(VNPayIdGenerator.LENGTH);
+    }
+
+    @Test
+    void shippedPropertiesStartWithoutNodeId() throws Exception {
+        // Chỉ application.properties, không biến môi trường: placeholder lấy giá trị mặc định
+        MutablePropertySources sources = new MutablePropertySources();
+        sources.addLast(new PropertiesPropertySourceLoader()
+                .load("application", new ClassPathResource("application.properties")).get(0));
+        VNPayIdProperties properties = new Binder(ConfigurationPropertySources.from(sources),
+                new PropertySourcesPlaceholdersResolver(sources)).bindOrCreate("vnpay.id", VNPayIdProperties.class);
+
+        assertThat(properties.getNodeId()).isNull();
+        assertThat(properties.isSingleNode()).isTrue();
+        assertThat(new VNPayIdGenerator(properties, new VNPayClock(Clock.systemUTC())).nextId()).isPositive();
+    }
+
+    @Test
+    void nodeIdOutOfRangeIsRejected() {
+        VNPayIdProperties properties = new VNPayIdProperties();
+        properties.setNodeId(VNPayIdGenerator.MAX_NODE_ID + 1);
+
+        assertThatThrownBy(() -> new VNPayIdGenerator(properties, new VNPayClock(Clock.systemUTC())))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static VNPayIdGenerator generator(int nodeId, VNPayClock clock) {
+        VNPayIdProperties properties = new VNPayIdProperties();
+        properties.setNodeId(nodeId);
+        return new VNPayIdGenerator(properties, clock);
+    }
+}
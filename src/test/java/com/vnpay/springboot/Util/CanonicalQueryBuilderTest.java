@@ -0,0 +1,201 @@
+package com.vnpay.springboot.Util;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * CanonicalQueryBuilder / PaymentUrlTemplate phải ra đúng từng byte như cách cũ: URLEncoder.encode(value, US_ASCII),
+ * sắp xếp theo tên, nối bằng StringBuilder rồi ký. Dữ liệu ngẫu nhiên (seed cố định) gồm tiếng Việt, dấu cách,
+ * *~'()!, +, %, emoji và surrogate lẻ.
+ */
+class CanonicalQueryBuilderTest {
+
+    private static final String SECRET_KEY = "SECRETKEY0123456789ABCDEFGHIJKLM";
+    private static final int ROUNDS = 2_000;
+    private static final String SPECIAL = " *~'()!+%&=?#/\\\"<>.-_|:;,@$^`{}[]\t\n";
+    private static final String VIETNAMESE = "ăâđêôơưĂÂĐÊÔƠƯàảãáạằẳẵắặầẩẫấậèẻẽéẹềểễếệìỉĩíịòỏõóọồổỗốộờởỡớợùủũúụừửữứựỳỷỹýỵ€";
+    private static final String HEX = "0123456789ABCDEFabcdef";
+
+    private final Random random = new Random(42);
+    private final HmacSHA512Signer signer = new HmacSHA512Signer(SECRET_KEY);
+
+    @Test
+    void payFieldsMatchUrlEncoderConcatenation() {
+        for (int round = 0; round < ROUNDS; round++) {
+            Map<String, String> params = new HashMap<>();
+            String[] values = new String[CanonicalQueryBuilder.PAY_FIELDS.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = randomValue();
+                params.put(CanonicalQueryBuilder.PAY_FIELDS[i], values[i]);
+            }
+            String legacy = legacyQuery(params);
+
+            CanonicalQueryBuilder builder = CanonicalQueryBuilder.begin().fields(CanonicalQueryBuilder.PAY_FIELDS, values);
+
+            assertThat(builder.fieldsToString()).as("round %d", round).isEqualTo(legacy);
+            assertThat(HexFormat.of().formatHex(builder.sign(signer))).isEqualTo(reference(legacy));
+        }
+    }
+
+    @Test
+    void paymentUrlTemplateMatchesLegacyRedirectUrl() {
+        for (int round = 0; round < ROUNDS; round++) {
+            String payUrl = "https://sandbox.vnpayment.vn/paymentv2/vpcpay.html";
+            String tmnCode = "TMN" + random.nextInt(1000);
+            String returnUrl = "https://shop.example/vnpay-return?from=" + randomString();
+            PaymentUrlTemplate template = PaymentUrlTemplate.compile(payUrl, tmnCode, returnUrl);
+
+            Map<String, String> params = new HashMap<>();
+            params.put("vnp_Command", "pay");
+            params.put("vnp_CurrCode", "VND");
+            params.put("vnp_Locale", "vn");
+            params.put("vnp_ReturnUrl", returnUrl);
+            params.put("vnp_TmnCode", tmnCode);
+            params.put("vnp_Version", "2.1.0");
+            String[] values = new String[PaymentUrlTemplate.SLOTS.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = randomValue();
+                params.put(PaymentUrlTemplate.SLOTS[i], values[i]);
+            }
+            String legacy = legacyQuery(params);
+
+            CanonicalQueryBuilder query = template.fill(values);
+            String expectedHash = reference(legacy);
+            query.appendHexField("vnp_SecureHash", query.sign(signer));
+
+            assertThat(query.toString()).as("round %d", round)
+                    .isEqualTo(payUrl + "?" + legacy + "&vnp_SecureHash=" + expectedHash);
+        }
+    }
+
+    @Test
+    void callbackFieldsMatchLegacyCallbackHash() {
+        for (int round = 0; round < ROUNDS; round++) {
+            Map<String, String> params = new HashMap<>();
+            for (String name : CanonicalQueryBuilder.CALLBACK_FIELDS) {
+                if (random.nextInt(4) != 0) params.put(name, randomValue());
+            }
+            // Đôi khi có trường lạ: đi đường sắp xếp lại
+            if (random.nextInt(4) == 0) params.put("vnp_" + randomString(), randomValue());
+
+            String legacy = legacyCallbackHashData(params);
+            byte[] digest = CanonicalQueryBuilder.begin().callbackFields(params).sign(signer);
+
+            assertThat(HexFormat.of().formatHex(digest)).as("round %d: %s", round, legacy).isEqualTo(reference(legacy));
+        }
+    }
+
+    @Test
+    void canonicalEncodingIsExactlyWhatUrlEncoderProduces() {
+        for (int round = 0; round < ROUNDS * 5; round++) {
+            String value = randomString();
+            String encoded = URLEncoder.encode(value, StandardCharsets.US_ASCII);
+            assertThat(CanonicalQueryBuilder.isCanonicalEncoded(encoded, 0, encoded.length())).as(encoded).isTrue();
+
+            // Query string tùy ý: chỉ được coi là chuẩn khi decode rồi encode lại ra đúng nó
+            String raw = randomRawEncoded();
+            if (CanonicalQueryBuilder.isCanonicalEncoded(raw, 0, raw.length())) {
+                assertThat(URLEncoder.encode(URLDecoder.decode(raw, StandardCharsets.UTF_8), StandardCharsets.US_ASCII))
+                        .as(raw).isEqualTo(raw);
+            }
+        }
+        assertThat(CanonicalQueryBuilder.isCanonicalEncoded("a%20b", 0, 5)).isFalse();
+        assertThat(CanonicalQueryBuilder.isCanonicalEncoded("a%2fb", 0, 5)).isFalse();
+        assertThat(CanonicalQueryBuilder.isCanonicalEncoded("%41", 0, 3)).isFalse();
+        assertThat(CanonicalQueryBuilder.isCanonicalEncoded("%C3%A1", 0, 6)).isFalse();
+        assertThat(CanonicalQueryBuilder.isCanonicalEncoded("a%2", 0, 3)).isFalse();
+        assertThat(CanonicalQueryBuilder.isCanonicalEncoded("a+b%2F%3F", 0, 9)).isTrue();
+    }
+
+    // Cách dựng URL thanh toán trước khi có CanonicalQueryBuilder (tên và giá trị đều qua URLEncoder)
+    private static String legacyQuery(Map<String, String> params) {
+        List<String> names = new ArrayList<>(params.keySet());
+        Collections.sort(names);
+        StringBuilder sb = new StringBuilder();
+        for (String name : names) {
+            String value = params.get(name);
+            if (value == null || value.isEmpty()) continue;
+            sb.append(URLEncoder.encode(name, StandardCharsets.US_ASCII)).append('=')
+                    .append(URLEncoder.encode(value, StandardCharsets.US_ASCII)).append('&');
+        }
+        if (sb.length() > 0) sb.setLength(sb.length() - 1);
+        return sb.toString();
+    }
+
+    // Cách tính lại chữ ký Return URL / IPN trước đây (tên nguyên văn, giá trị qua URLEncoder)
+    private static String legacyCallbackHashData(Map<String, String> params) {
+        List<String> names = new ArrayList<>(params.keySet());
+        Collections.sort(names);
+        StringBuilder sb = new StringBuilder();
+        for (String name : names) {
+            String value = params.get(name);
+            if (value == null || value.isEmpty()) continue;
+            if (name.equals("vnp_SecureHash") || name.equals("vnp_SecureHashType")) continue;
+            sb.append(name).append('=').append(URLEncoder.encode(value, StandardCharsets.US_ASCII)).append('&');
+        }
+        if (sb.length() > 0) sb.setLength(sb.length() - 1);
+        return sb.toString();
+    }
+
+    private static String reference(String data) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA512");
+            mac.init(new SecretKeySpec(SECRET_KEY.getBytes(StandardCharsets.UTF_8), "HmacSHA512"));
+            return HexFormat.of().formatHex(mac.doFinal(data.getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String randomValue() {
+        int pick = random.nextInt(12);
+        return pick == 0 ? null : pick == 1 ? "" : randomString();
+    }
+
+    private String randomString() {
+        int length = random.nextInt(20) == 0 ? 400 + random.nextInt(1500) : random.nextInt(40);
+        StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length) {
+            switch (random.nextInt(7)) {
+                case 0, 1 -> sb.append(SPECIAL.charAt(random.nextInt(SPECIAL.length())));
+                case 2 -> sb.append(VIETNAMESE.charAt(random.nextInt(VIETNAMESE.length())));
+                case 3 -> sb.appendCodePoint(0x1F300 + random.nextInt(0x300));
+                case 4 -> sb.append((char) (0xD800 + random.nextInt(0x800)));
+                default -> sb.append((char) (0x20 + random.nextInt(0x5F)));
+            }
+        }
+        return sb.toString();
+    }
+
+    // Chuỗi trông như đã percent-encode: %XX hoa / thường, '+', '%' lẻ, ký tự thường và ký tự đặc biệt
+    private String randomRawEncoded() {
+        int length = random.nextInt(30);
+        StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length) {
+            switch (random.nextInt(5)) {
+                case 0 -> sb.append('%').append(HEX.charAt(random.nextInt(HEX.length())))
+                        .append(HEX.charAt(random.nextInt(HEX.length())));
+                case 1 -> sb.append('%').append("0123456789ABCDEF".charAt(random.nextInt(8)))
+                        .append("0123456789ABCDEF".charAt(random.nextInt(16)));
+                case 2 -> sb.append(random.nextBoolean() ? '+' : '%');
+                case 3 -> sb.append(SPECIAL.charAt(random.nextInt(SPECIAL.length())));
+                default -> sb.append((char) ('a' + random.nextInt(26)));
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,66 @@
+package com.vnpay.springboot.Util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CircuitBreakerTest {
+
+    private final List<String> transitions = new ArrayList<>();
+
+    // Cửa sổ 2 lời gọi, lỗi 50% thì mở, mở 0ns (lần xin phép sau chuyển ngay HALF_OPEN), 1 lời gọi thử
+    private final CircuitBreaker breaker = new CircuitBreaker("test", 2, 2, 50, 0, 1,
+            (from, to) -> transitions.add(from + "->" + to));
+
+    @Test
+    void opensOnFailureRateAndClosesAfterHalfOpenSuccess() {
+        breaker.onFailure(breaker.tryAcquire());
+        breaker.onFailure(breaker.tryAcquire());
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+
+        long probe = breaker.tryAcquire();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(breaker.tryAcquire()).isEqualTo(CircuitBreaker.REJECTED);
+
+        breaker.onSuccess(probe);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(transitions).containsExactly("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->CLOSED");
+    }
+
+    @Test
+    void closedPermitFinishingInHalfOpenDoesNotTouchHalfOpenCounters() {
+        long slowClosedCall = breaker.tryAcquire();
+        breaker.onFailure(breaker.tryAcquire());
+        breaker.onFailure(breaker.tryAcquire());
+        long probe = breaker.tryAcquire();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+
+        // Lời gọi cấp lúc CLOSED kết thúc: không nhả slot thử, không được tính là lời gọi thử thành công
+        breaker.onSuccess(slowClosedCall);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(breaker.tryAcquire()).isEqualTo(CircuitBreaker.REJECTED);
+
+        breaker.onIgnored(slowClosedCall);
+        breaker.onFailure(slowClosedCall);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(breaker.tryAcquire()).isEqualTo(CircuitBreaker.REJECTED);
+
+        breaker.onSuccess(probe);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void ignoredHalfOpenProbeFreesItsSlot() {
+        breaker.onFailure(breaker.tryAcquire());
+        breaker.onFailure(breaker.tryAcquire());
+        long probe = breaker.tryAcquire();
+
+        breaker.onIgnored(probe);
+
+        assertThat(breaker.tryAcquire()).isNotEqualTo(CircuitBreaker.REJECTED);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+    }
+}
@@ -0,0 +1,178 @@
+package com.vnpay.springboot.Util;
+
+import com.vnpay.springboot.Config.VNPayConfig;
+import com.vnpay.springboot.Model.VNPayMerchant;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * HmacInput / signApiData / hashAllFields phải ra đúng chữ ký của cách cũ: nối chuỗi rồi ký
+ * String.getBytes(UTF_8). Dữ liệu ngẫu nhiên (seed cố định) gồm tiếng Việt, emoji, surrogate lẻ,
+ * ký tự đặc biệt (&amp;, =, |, %, +, khoảng trắng) và giá trị dài hơn buffer 512 byte.
+ */
+class HmacInputTest {
+
+    private static final String SECRET_KEY = "SECRETKEY0123456789ABCDEFGHIJKLM";
+    private static final int ROUNDS = 2_000;
+    private static final String SPECIAL = "&=|%+ ?#/\\\"'<>\t\n";
+    private static final String VIETNAMESE = "ăâđêôơưĂÂĐÊÔƠƯàảãáạằẳẵắặầẩẫấậèẻẽéẹềểễếệìỉĩíịòỏõóọồổỗốộờởỡớợùủũúụừửữứựỳỷỹýỵ€";
+
+    private final Random random = new Random(42);
+    private final HmacSHA512Signer signer = new HmacSHA512Signer(SECRET_KEY);
+
+    @Test
+    void fieldsMatchLegacyConcatenation() {
+        for (int round = 0; round < ROUNDS; round++) {
+            int count = random.nextInt(12);
+            StringBuilder legacy = new StringBuilder();
+            HmacInput input = HmacInput.begin(signer, '&');
+            for (int i = 0; i < count; i++) {
+                String name = randomString();
+                String value = randomString();
+                if (i > 0) legacy.append('&');
+                legacy.append(name).append('=').append(value);
+                input.field(name, value);
+            }
+
+            assertThat(input.hex()).as("round %d: %s", round, legacy).isEqualTo(reference(legacy.toString()));
+        }
+    }
+
+    @Test
+    void signApiDataMatchesLegacyPipeJoin() {
+        VNPayConfig config = new VNPayConfig();
+        config.setSecretKey(SECRET_KEY);
+        VNPayMerchant merchant = new VNPayMerchant("DEMOTMN1", SECRET_KEY, "");
+
+        for (int round = 0; round < ROUNDS; round++) {
+            String[] values = new String[1 + random.nextInt(14)];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = random.nextInt(10) == 0 ? null : randomString();
+            }
+            int count = random.nextInt(values.length + 1);
+            String legacy = VNPayResponseReader.hashData(values, count);
+
+            String expected = reference(legacy);
+            assertThat(config.sign(legacy)).isEqualTo(expected);
+            assertThat(merchant.signApiData(values, count)).as("round %d: %s", round, legacy).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void hashAllFieldsMatchesLegacySortedConcatenation() {
+        VNPayConfig config = new VNPayConfig();
+        config.setSecretKey(SECRET_KEY);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            Map<String, String> fields = new HashMap<>();
+            int count = random.nextInt(16);
+            for (int i = 0; i < count; i++) {
+                int pick = random.nextInt(10);
+                String value = pick == 0 ? null : pick == 1 ? "" : randomString();
+                fields.put("vnp_" + randomString(), value);
+            }
+            fields.put("vnp_SecureHash", randomString());
+            if (random.nextBoolean()) fields.put("vnp_SecureHashType", "HmacSHA512");
+
+            String legacy = legacyHashData(fields);
+            assertThat(config.hashAllFields(fields)).as("round %d: %s", round, legacy).isEqualTo(reference(legacy));
+        }
+    }
+
+    @Test
+    void emptyInputSignsEmptyString() {
+        assertThat(HmacInput.begin(signer, '|').hex()).isEqualTo(reference(""));
+        assertThat(HmacInput.begin(signer, '|').values(new String[]{null}, 1).hex()).isEqualTo(reference(""));
+    }
+
+    @Test
+    void concurrentSignersShareTheMacPool() throws Exception {
+        String[] data = new String[200];
+        String[] expected = new String[data.length];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = randomString();
+            expected[i] = reference(data[i]);
+        }
+        List<ExecutorService> executors = new ArrayList<>();
+        executors.add(Executors.newFixedThreadPool(32));
+        // Trên Java 21+ chạy thêm một lượt trên virtual thread (mỗi task một thread mới)
+        if (VirtualThreads.isSupported()) executors.add(VirtualThreads.newVirtualThreadPerTaskExecutor());
+
+        for (ExecutorService executor : executors) {
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int task = 0; task < 64; task++) {
+                    int offset = task;
+                    futures.add(executor.submit(() -> {
+                        for (int n = 0; n < data.length; n++) {
+                            int i = (n + offset) % data.length;
+                            String actual = (n & 1) == 0 ? signer.sign(data[i])
+                                    : HmacInput.begin(signer, '|').value(data[i]).hex();
+                            assertThat(actual).isEqualTo(expected[i]);
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) future.get();
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    // Cách dựng hash data trước khi có HmacInput
+    private static String legacyHashData(Map<String, String> fields) {
+        List<String> names = new ArrayList<>(fields.keySet());
+        Collections.sort(names);
+        StringBuilder sb = new StringBuilder();
+        for (String name : names) {
+            String value = fields.get(name);
+            if (value == null || value.isEmpty()) continue;
+            if ("vnp_SecureHash".equals(name) || "vnp_SecureHashType".equals(name)) continue;
+            if (sb.length() > 0) sb.append('&');
+            sb.append(name).append('=').append(value);
+        }
+        return sb.toString();
+    }
+
+    private static String reference(String data) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA512");
+            mac.init(new SecretKeySpec(SECRET_KEY.getBytes(StandardCharsets.UTF_8), "HmacSHA512"));
+            return HexFormat.of().formatHex(mac.doFinal(data.getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String randomString() {
+        int length = random.nextInt(20) == 0 ? 400 + random.nextInt(1500) : random.nextInt(40);
+        StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length) {
+            switch (random.nextInt(7)) {
+                case 0 -> sb.append(SPECIAL.charAt(random.nextInt(SPECIAL.length())));
+                case 1 -> sb.append(VIETNAMESE.charAt(random.nextInt(VIETNAMESE.length())));
+                case 2 -> sb.appendCodePoint(0x1F300 + random.nextInt(0x300));
+                case 3 -> sb.append((char) (0xD800 + random.nextInt(0x800)));
+                case 4 -> sb.append((char) (0x80 + random.nextInt(0x780)));
+                default -> sb.append((char) (0x20 + random.nextInt(0x5F)));
+            }
+        }
+        return sb.toString();
+    }
+}
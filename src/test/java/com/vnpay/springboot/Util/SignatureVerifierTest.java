@@ -0,0 +1,92 @@
+package com.vnpay.springboot.Util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Locale;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Giải mã và so khớp vnp_SecureHash: chữ ký sai định dạng bị loại trước khi băm, hex hoa / thường như nhau.
+ */
+class SignatureVerifierTest {
+
+    private final HmacSHA512Signer signer = new HmacSHA512Signer("SECRETKEY0123456789ABCDEFGHIJKLM");
+    private final byte[] mac = sign("vnp_Amount=1000000&vnp_TxnRef=1234");
+    private final String hex = HexFormat.of().formatHex(mac);
+
+    @Test
+    void validSignatureMatches() {
+        assertThat(SignatureVerifier.matches(SignatureVerifier.decode(hex), mac)).isTrue();
+    }
+
+    @Test
+    void uppercaseHexMatches() {
+        String upper = hex.toUpperCase(Locale.ROOT);
+        String mixed = upper.substring(0, 64) + hex.substring(64);
+
+        assertThat(SignatureVerifier.matches(SignatureVerifier.decode(upper), mac)).isTrue();
+        assertThat(SignatureVerifier.matches(SignatureVerifier.decode(mixed), mac)).isTrue();
+    }
+
+    @Test
+    void differentSignatureDoesNotMatch() {
+        byte[] other = sign("vnp_Amount=100000000&vnp_TxnRef=1234");
+
+        assertThat(SignatureVerifier.matches(SignatureVerifier.decode(HexFormat.of().formatHex(other)), mac)).isFalse();
+        // Chỉ khác ký tự cuối
+        char last = hex.charAt(hex.length() - 1);
+        String flipped = hex.substring(0, hex.length() - 1) + (last == '0' ? '1' : '0');
+        assertThat(SignatureVerifier.matches(SignatureVerifier.decode(flipped), mac)).isFalse();
+    }
+
+    @Test
+    void wrongLengthIsRejected() {
+        assertThat(SignatureVerifier.decode(hex.substring(0, 126))).isNull();
+        assertThat(SignatureVerifier.decode(hex + "00")).isNull();
+        // SHA256 (64 ký tự hex) của phiên bản API cũ
+        assertThat(SignatureVerifier.decode(hex.substring(0, 64))).isNull();
+    }
+
+    @Test
+    void oddLengthIsRejected() {
+        assertThat(SignatureVerifier.decode(hex.substring(0, 127))).isNull();
+        assertThat(SignatureVerifier.decode(hex + "a")).isNull();
+    }
+
+    @Test
+    void emptyOrMissingIsRejected() {
+        assertThat(SignatureVerifier.decode(null)).isNull();
+        assertThat(SignatureVerifier.decode("")).isNull();
+        assertThat(SignatureVerifier.matches(null, mac)).isFalse();
+    }
+
+    @Test
+    void nonHexIsRejected() {
+        assertThat(SignatureVerifier.decode("g" + hex.substring(1))).isNull();
+        assertThat(SignatureVerifier.decode(hex.substring(0, 127) + "G")).isNull();
+        assertThat(SignatureVerifier.decode(hex.substring(0, 64) + " " + hex.substring(65))).isNull();
+        assertThat(SignatureVerifier.decode(hex.substring(0, 10) + "-" + hex.substring(11))).isNull();
+        // Ký tự ngoài ASCII, kể cả chữ số full-width mà Character.digit chấp nhận
+        assertThat(SignatureVerifier.decode(hex.substring(0, 127) + "é")).isNull();
+        assertThat(SignatureVerifier.decode(hex.substring(0, 127) + "１")).isNull();
+    }
+
+    @Test
+    void rejectedDecodeDoesNotLeaveAMatchingBuffer() {
+        byte[] decoded = SignatureVerifier.decode(hex);
+        assertThat(decoded).isEqualTo(mac);
+
+        // Chuỗi sai ở nửa sau: trả về null, không trả buffer ghi dở cho người gọi
+        assertThat(SignatureVerifier.decode(hex.substring(0, 100) + "zz" + hex.substring(102))).isNull();
+        assertThat(SignatureVerifier.matches(SignatureVerifier.decode(hex), Arrays.copyOf(mac, mac.length))).isTrue();
+    }
+
+    private byte[] sign(String data) {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        return signer.signRaw(bytes, 0, bytes.length);
+    }
+}
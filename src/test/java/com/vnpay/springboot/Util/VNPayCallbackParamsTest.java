@@ -0,0 +1,220 @@
+package com.vnpay.springboot.Util;
+
+import com.vnpay.springboot.Model.VNPayMerchant;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Kiểm tra chữ ký trên query string gốc phải cho cùng kết quả với đường đã decode (getParameter rồi encode lại):
+ * %20 thay cho +, hex thường, trường lặp lại (giữ giá trị đầu), trường vnp_* lạ. Sửa một giá trị thì bị từ chối.
+ */
+class VNPayCallbackParamsTest {
+
+    private static final String SECRET_KEY = "SECRETKEY0123456789ABCDEFGHIJKLM";
+    private static final int ROUNDS = 2_000;
+    private static final String SPECIAL = " *~'()!+%&=?#/\\\"<>.-_|:;,@$^`{}[]";
+    private static final String VIETNAMESE = "ăâđêôơưĂÂĐÊÔƠƯàảãáạằẳẵắặầẩẫấậèẻẽéẹềểễếệìỉĩíịòỏõóọồổỗốộờởỡớợùủũúụừửữứựỳỷỹýỵ€";
+
+    private final Random random = new Random(42);
+    private final VNPayMerchant merchant = new VNPayMerchant("DEMOTMN1", SECRET_KEY, "");
+
+    @Test
+    void canonicalQueryIsVerifiedFromRawBytes() {
+        Map<String, String> decoded = callback("Thanh toan don hang 1234 (test)*~!");
+        String raw = encodeCanonical(decoded) + "&vnp_SecureHash=" + legacyHash(decoded);
+
+        VNPayCallbackParams params = VNPayCallbackParams.parse(raw);
+
+        assertThat(params.isRawCanonical()).isTrue();
+        assertThat(merchant.verifyCallbackFields(params)).isTrue();
+    }
+
+    @Test
+    void percentTwentyAndLowercaseHexVerifyLikeDecodedParameters() {
+        Map<String, String> decoded = callback("Thanh toán đơn hàng: 1234/5");
+        String raw = "vnp_Amount=1000000&vnp_BankCode=NCB&vnp_OrderInfo="
+                + "Thanh%20to%c3%a1n%20%C4%91%c6%A1n%20h%C3%a0ng%3a+1234%2f5"
+                + "&vnp_ResponseCode=00&vnp_TmnCode=DEMOTMN1&vnp_TransactionNo=14226112"
+                + "&vnp_TransactionStatus=00&vnp_TxnRef=1234&vnp_SecureHash=" + legacyHash(decoded);
+
+        VNPayCallbackParams params = VNPayCallbackParams.parse(raw);
+
+        assertThat(params.isRawCanonical()).isFalse();
+        assertThat(params.get("vnp_OrderInfo")).isEqualTo("Thanh toán đơn hàng: 1234/5");
+        assertThat(merchant.verifyCallbackFields(params)).isTrue();
+    }
+
+    @Test
+    void duplicateKeyKeepsFirstValue() {
+        Map<String, String> decoded = callback("Thanh toan don hang 1234");
+        String raw = encodeCanonical(decoded) + "&vnp_Amount=99900000&vnp_TxnRef=9999&vnp_SecureHash="
+                + legacyHash(decoded) + "&vnp_SecureHash=" + "0".repeat(128);
+
+        VNPayCallbackParams params = VNPayCallbackParams.parse(raw);
+
+        assertThat(params.get("vnp_Amount")).isEqualTo("1000000");
+        assertThat(params.get("vnp_TxnRef")).isEqualTo("1234");
+        assertThat(merchant.verifyCallbackFields(params)).isTrue();
+    }
+
+    @Test
+    void unknownVnpFieldIsPartOfSignedData() {
+        Map<String, String> decoded = callback("Thanh toan don hang 1234");
+        decoded.put("vnp_CardType", "ATM");
+        decoded.put("vnp_PromotionCode", "KM 10%");
+        String raw = encodeCanonical(decoded) + "&vnp_SecureHash=" + legacyHash(decoded);
+
+        VNPayCallbackParams params = VNPayCallbackParams.parse(raw);
+
+        assertThat(params.isRawCanonical()).isFalse();
+        assertThat(params.get("vnp_PromotionCode")).isEqualTo("KM 10%");
+        assertThat(merchant.verifyCallbackFields(params)).isTrue();
+
+        // Bỏ trường lạ: dữ liệu ký khác, chữ ký không còn khớp
+        String stripped = raw.replace("&vnp_PromotionCode=KM+10%25", "");
+        assertThat(merchant.verifyCallbackFields(VNPayCallbackParams.parse(stripped))).isFalse();
+    }
+
+    @Test
+    void tamperedValueIsRejected() {
+        Map<String, String> decoded = callback("Thanh toan don hang 1234");
+        String hash = legacyHash(decoded);
+        String raw = encodeCanonical(decoded) + "&vnp_SecureHash=" + hash;
+
+        assertThat(merchant.verifyCallbackFields(VNPayCallbackParams.parse(raw.replace("1000000", "100000000"))))
+                .isFalse();
+        assertThat(merchant.verifyCallbackFields(VNPayCallbackParams.parse(raw.replace("don+hang", "don%20hang"))))
+                .isTrue();
+        assertThat(merchant.verifyCallbackFields(VNPayCallbackParams.parse(raw.replace("don+hang", "don+hang+"))))
+                .isFalse();
+        assertThat(merchant.verifyCallbackFields(VNPayCallbackParams.parse(raw.replace(hash, hash.toUpperCase(Locale.ROOT)))))
+                .isTrue();
+    }
+
+    @Test
+    void randomEncodingsVerifyExactlyLikeDecodedMap() {
+        for (int round = 0; round < ROUNDS; round++) {
+            Map<String, String> decoded = new LinkedHashMap<>();
+            for (String name : CanonicalQueryBuilder.CALLBACK_FIELDS) {
+                if (random.nextInt(5) != 0) decoded.put(name, random.nextInt(10) == 0 ? "" : randomString());
+            }
+            if (random.nextInt(4) == 0) decoded.put("vnp_Extra" + random.nextInt(100), randomString());
+            decoded.put("vnp_SecureHash", legacyHash(decoded));
+
+            List<String> pairs = new ArrayList<>();
+            for (Map.Entry<String, String> entry : decoded.entrySet()) {
+                pairs.add(entry.getKey() + '=' + encodeRandomly(entry.getValue()));
+            }
+            Collections.shuffle(pairs, random);
+            // Trường lặp lại nằm sau lần xuất hiện đầu: getParameter bỏ qua
+            if (!decoded.isEmpty() && random.nextInt(3) == 0) {
+                List<String> names = new ArrayList<>(decoded.keySet());
+                pairs.add(names.get(random.nextInt(names.size())) + '=' + encodeRandomly(randomString()));
+            }
+            String raw = String.join("&", pairs);
+
+            VNPayCallbackParams params = VNPayCallbackParams.parse(raw);
+
+            assertThat(params.toMap()).as("round %d: %s", round, raw).isEqualTo(decoded);
+            assertThat(merchant.verifyCallbackFields(params)).as("round %d: %s", round, raw).isTrue();
+            assertThat(merchant.verifyCallbackFields(VNPayCallbackParams.of(decoded))).isTrue();
+
+            // Sửa một giá trị đã ký: bị từ chối
+            String tampered = raw.replaceFirst("vnp_TxnRef=", "vnp_TxnRef=X");
+            if (!tampered.equals(raw)) {
+                assertThat(merchant.verifyCallbackFields(VNPayCallbackParams.parse(tampered))).as(tampered).isFalse();
+            }
+        }
+    }
+
+    private static Map<String, String> callback(String orderInfo) {
+        Map<String, String> decoded = new LinkedHashMap<>();
+        decoded.put("vnp_Amount", "1000000");
+        decoded.put("vnp_BankCode", "NCB");
+        decoded.put("vnp_OrderInfo", orderInfo);
+        decoded.put("vnp_ResponseCode", "00");
+        decoded.put("vnp_TmnCode", "DEMOTMN1");
+        decoded.put("vnp_TransactionNo", "14226112");
+        decoded.put("vnp_TransactionStatus", "00");
+        decoded.put("vnp_TxnRef", "1234");
+        return decoded;
+    }
+
+    private static String encodeCanonical(Map<String, String> decoded) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> entry : decoded.entrySet()) {
+            if (sb.length() > 0) sb.append('&');
+            sb.append(entry.getKey()).append('=').append(URLEncoder.encode(entry.getValue(), StandardCharsets.US_ASCII));
+        }
+        return sb.toString();
+    }
+
+    // Chữ ký VNPAY tính trên tham số đã decode: sắp xếp tên, giá trị qua URLEncoder US_ASCII
+    private static String legacyHash(Map<String, String> decoded) {
+        List<String> names = new ArrayList<>(decoded.keySet());
+        Collections.sort(names);
+        StringBuilder sb = new StringBuilder();
+        for (String name : names) {
+            String value = decoded.get(name);
+            if (value == null || value.isEmpty()) continue;
+            if (name.equals("vnp_SecureHash") || name.equals("vnp_SecureHashType")) continue;
+            if (sb.length() > 0) sb.append('&');
+            sb.append(name).append('=').append(URLEncoder.encode(value, StandardCharsets.US_ASCII));
+        }
+        try {
+            Mac mac = Mac.getInstance("HmacSHA512");
+            mac.init(new SecretKeySpec(SECRET_KEY.getBytes(StandardCharsets.UTF_8), "HmacSHA512"));
+            return HexFormat.of().formatHex(mac.doFinal(sb.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Mỗi ký tự một kiểu encode hợp lệ bất kỳ: '+' hoặc %20, hex hoa hoặc thường, UTF-8 cho ký tự ngoài ASCII,
+    // đôi khi encode cả ký tự không cần encode
+    private String encodeRandomly(String value) {
+        StringBuilder sb = new StringBuilder();
+        value.codePoints().forEach(cp -> {
+            boolean unreserved = cp < 128 && (Character.isLetterOrDigit(cp) || ".-*_".indexOf(cp) >= 0);
+            if (unreserved && random.nextInt(10) != 0) {
+                sb.appendCodePoint(cp);
+            } else if (cp == ' ' && random.nextBoolean()) {
+                sb.append('+');
+            } else {
+                for (byte b : new String(Character.toChars(cp)).getBytes(StandardCharsets.UTF_8)) {
+                    String hex = String.format("%%%02X", b & 0xFF);
+                    sb.append(random.nextBoolean() ? hex : hex.toLowerCase(Locale.ROOT));
+                }
+            }
+        });
+        return sb.toString();
+    }
+
+    private String randomString() {
+        int length = random.nextInt(30);
+        StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length) {
+            switch (random.nextInt(6)) {
+                case 0, 1 -> sb.append(SPECIAL.charAt(random.nextInt(SPECIAL.length())));
+                case 2 -> sb.append(VIETNAMESE.charAt(random.nextInt(VIETNAMESE.length())));
+                case 3 -> sb.appendCodePoint(0x1F300 + random.nextInt(0x300));
+                default -> sb.append((char) (0x20 + random.nextInt(0x5F)));
+            }
+        }
+        return sb.toString();
+    }
+}